@@ -0,0 +1,462 @@
+package com.felipegiotto.misc;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.felipegiotto.utils.FGDatabaseUtils;
+import com.felipegiotto.utils.ffmpeg.FFmpegCommand;
+import com.felipegiotto.utils.ffmpeg.FFmpegFileInfo;
+
+/**
+ * Cria um catálogo de todos os vídeos de uma pasta (e subpastas), com duração, resolução, FPS e
+ * data de criação, gravando-o em um banco de dados (ex: SQLite configurado com
+ * {@link com.felipegiotto.utils.datasources.FGConnectionFactory#addManualDataSource(String, String, String)}).
+ *
+ * As pastas são percorridas em paralelo e os vídeos são analisados pelo ffmpeg em um número
+ * limitado de processos simultâneos. Os resultados são gravados à medida que ficam prontos,
+ * então uma execução interrompida não perde o que já foi analisado.
+ *
+ * Em novas execuções, somente os arquivos novos ou alterados (tamanho ou data de modificação
+ * diferentes) são analisados novamente.
+ *
+ * Links simbólicos para pastas são seguidos, mas cada pasta é percorrida somente uma vez (um link
+ * para uma pasta acima dele não causa uma busca infinita).
+ *
+ * Ex:
+ <code>
+ 	FGConnectionFactory.addManualDataSource("jdbc/videos", "org.sqlite.JDBC", "jdbc:sqlite:tmp/videos.sqlite3");
+ 	FGIndexadorVideos indexador = new FGIndexadorVideos(FGConnectionFactory.getDefaultDataSource());
+ 	indexador.indexar(Paths.get("/media/videos"));
+ </code>
+ *
+ * @author felipegiotto@gmail.com
+ */
+public class FGIndexadorVideos {
+
+	private static final Logger LOGGER = LogManager.getLogger(FGIndexadorVideos.class);
+
+	private final DataSource dataSource;
+	private String tabela = "videos_indexados";
+	private int quantidadeProcessosFFmpeg = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	private int paralelismoBuscaPastas = Math.max(2, Runtime.getRuntime().availableProcessors());
+	private int tamanhoLoteGravacao = 50;
+	private boolean excluirRegistrosDeArquivosInexistentes = true;
+	private DirectoryStream.Filter<Path> customFileFilter;
+	private volatile boolean buscaIncompleta;
+
+	/**
+	 * Dados de um arquivo de vídeo, já analisado pelo ffmpeg
+	 */
+	private static class Registro {
+		private String caminho;
+		private long tamanho;
+		private long dataModificacao;
+		private Float duracaoSegundos;
+		private Integer largura;
+		private Integer altura;
+		private Float fps;
+		private LocalDateTime dataCriacao;
+		private String erro;
+	}
+
+	/**
+	 * Totais da última indexação
+	 */
+	public static class Resultado {
+		private final AtomicInteger qtdArquivosEncontrados = new AtomicInteger();
+		private final AtomicInteger qtdArquivosSemAlteracao = new AtomicInteger();
+		private int qtdArquivosIndexados;
+		private int qtdArquivosComErro;
+		private int qtdRegistrosExcluidos;
+
+		public int getQtdArquivosEncontrados() {
+			return qtdArquivosEncontrados.get();
+		}
+
+		public int getQtdArquivosSemAlteracao() {
+			return qtdArquivosSemAlteracao.get();
+		}
+
+		public int getQtdArquivosIndexados() {
+			return qtdArquivosIndexados;
+		}
+
+		public int getQtdArquivosComErro() {
+			return qtdArquivosComErro;
+		}
+
+		public int getQtdRegistrosExcluidos() {
+			return qtdRegistrosExcluidos;
+		}
+
+		@Override
+		public String toString() {
+			return "encontrados=" + getQtdArquivosEncontrados() + ", sem alteração=" + getQtdArquivosSemAlteracao() + ", indexados=" + qtdArquivosIndexados + ", com erro=" + qtdArquivosComErro + ", excluídos=" + qtdRegistrosExcluidos;
+		}
+	}
+
+	public FGIndexadorVideos(DataSource dataSource) {
+		this.dataSource = dataSource;
+	}
+
+	/**
+	 * Percorre a pasta informada (e subpastas), analisando os vídeos novos ou alterados e gravando
+	 * os resultados no banco de dados. A tabela é criada, se ainda não existir.
+	 *
+	 * @param pastaRaiz
+	 * @return totais da indexação
+	 */
+	public Resultado indexar(Path pastaRaiz) throws IOException, SQLException, InterruptedException {
+		criarTabelaSeNaoExistir();
+
+		Path raiz = pastaRaiz.toAbsolutePath().normalize();
+		Map<String, long[]> jaIndexados = carregarArquivosIndexados(raiz);
+		Set<String> encontrados = ConcurrentHashMap.newKeySet();
+		Resultado resultado = new Resultado();
+		buscaIncompleta = false;
+		Set<Object> pastasVisitadas = ConcurrentHashMap.newKeySet();
+		pastasVisitadas.add(getIdentificacaoPasta(raiz, Files.readAttributes(raiz, BasicFileAttributes.class)));
+		LOGGER.info("Indexando vídeos em " + raiz + " (" + jaIndexados.size() + " já indexados)...");
+
+		BlockingQueue<Registro> fila = new LinkedBlockingQueue<>();
+		AtomicInteger pendentes = new AtomicInteger();
+		AtomicInteger contadorThreads = new AtomicInteger();
+		ExecutorService processosFFmpeg = Executors.newFixedThreadPool(quantidadeProcessosFFmpeg, (runnable) -> {
+			Thread thread = new Thread(runnable, "FGIndexadorVideos-ffmpeg-" + contadorThreads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		ForkJoinPool buscaPastas = new ForkJoinPool(paralelismoBuscaPastas);
+		try {
+
+			// Percorre as pastas em paralelo, enviando os vídeos novos ou alterados para análise
+			ForkJoinTask<Void> busca = buscaPastas.submit(new BuscaPasta(raiz, pastasVisitadas, (arquivo, atributos) -> {
+				String caminho = arquivo.toString();
+				encontrados.add(caminho);
+				resultado.qtdArquivosEncontrados.incrementAndGet();
+
+				long[] anterior = jaIndexados.get(caminho);
+				long dataModificacao = atributos.lastModifiedTime().toMillis();
+				if (anterior != null && anterior[0] == atributos.size() && anterior[1] == dataModificacao) {
+					resultado.qtdArquivosSemAlteracao.incrementAndGet();
+					return;
+				}
+
+				pendentes.incrementAndGet();
+				processosFFmpeg.submit(() -> {
+					try {
+						fila.put(analisar(arquivo, atributos.size(), dataModificacao));
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+					} finally {
+						pendentes.decrementAndGet();
+					}
+				});
+			}));
+
+			// Grava os resultados à medida que ficam prontos
+			List<Registro> lote = new ArrayList<>();
+			while (true) {
+				Registro registro = fila.poll(500, TimeUnit.MILLISECONDS);
+				if (registro != null) {
+					lote.add(registro);
+				}
+				if (lote.size() >= tamanhoLoteGravacao || (registro == null && !lote.isEmpty())) {
+					gravar(lote, resultado);
+					lote.clear();
+				}
+				if (registro == null && busca.isDone() && pendentes.get() == 0 && fila.isEmpty()) {
+					break;
+				}
+			}
+			try {
+				busca.get();
+			} catch (ExecutionException ex) {
+				throw new IOException("Erro ao percorrer pasta " + raiz + ": " + ex.getCause().getLocalizedMessage(), ex.getCause());
+			}
+
+		} finally {
+			buscaPastas.shutdownNow();
+			processosFFmpeg.shutdownNow();
+		}
+
+		// Arquivos que foram excluídos (ou renomeados) desde a última indexação
+		// OBS: se alguma pasta não pôde ser listada, não exclui nada, pois os arquivos dela não foram encontrados
+		if (excluirRegistrosDeArquivosInexistentes && !buscaIncompleta) {
+			jaIndexados.keySet().removeAll(encontrados);
+			resultado.qtdRegistrosExcluidos = excluir(jaIndexados.keySet());
+		}
+
+		LOGGER.info("Indexação de " + raiz + " concluída: " + resultado);
+		return resultado;
+	}
+
+	private interface ArquivoEncontrado {
+		public void processar(Path arquivo, BasicFileAttributes atributos);
+	}
+
+	/**
+	 * Lista uma pasta e dispara, em paralelo, a listagem de cada subpasta
+	 */
+	private class BuscaPasta extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		private final Path pasta;
+		private final Set<Object> pastasVisitadas;
+		private final ArquivoEncontrado callback;
+
+		private BuscaPasta(Path pasta, Set<Object> pastasVisitadas, ArquivoEncontrado callback) {
+			this.pasta = pasta;
+			this.pastasVisitadas = pastasVisitadas;
+			this.callback = callback;
+		}
+
+		@Override
+		protected void compute() {
+			List<BuscaPasta> subpastas = new ArrayList<>();
+			try (DirectoryStream<Path> filhos = Files.newDirectoryStream(pasta)) {
+				for (Path filho : filhos) {
+
+					// Um arquivo que não pode ser lido (ex: link simbólico quebrado) não interrompe a listagem da pasta
+					try {
+						processarFilho(filho, subpastas);
+					} catch (IOException ex) {
+						LOGGER.warn("Ignorando " + filho + ": " + ex.getLocalizedMessage());
+					}
+				}
+			} catch (IOException | DirectoryIteratorException ex) {
+				LOGGER.warn("Não foi possível listar a pasta " + pasta + ": " + ex.getLocalizedMessage());
+				buscaIncompleta = true;
+			}
+			invokeAll(subpastas);
+		}
+
+		private void processarFilho(Path filho, List<BuscaPasta> subpastas) throws IOException {
+			if (customFileFilter != null && !customFileFilter.accept(filho)) {
+				return;
+			}
+			BasicFileAttributes atributos = Files.readAttributes(filho, BasicFileAttributes.class);
+			if (atributos.isDirectory()) {
+
+				// Links simbólicos podem apontar para uma pasta que já foi (ou está sendo) percorrida
+				if (pastasVisitadas.add(getIdentificacaoPasta(filho, atributos))) {
+					subpastas.add(new BuscaPasta(filho, pastasVisitadas, callback));
+				} else {
+					LOGGER.debug("Ignorando pasta já percorrida: " + filho);
+				}
+			} else if (atributos.isRegularFile() && FFmpegCommand.isArquivoVideo(filho.getFileName().toString())) {
+				callback.processar(filho, atributos);
+			}
+		}
+	}
+
+	/**
+	 * Identifica a pasta de destino, mesmo que seja acessada por um link simbólico: o "fileKey"
+	 * (dispositivo e inode), quando o sistema de arquivos o fornece, ou o caminho real.
+	 */
+	private static Object getIdentificacaoPasta(Path pasta, BasicFileAttributes atributos) throws IOException {
+		Object fileKey = atributos.fileKey();
+		return fileKey != null ? fileKey : pasta.toRealPath();
+	}
+
+	private Registro analisar(Path arquivo, long tamanho, long dataModificacao) {
+		Registro registro = new Registro();
+		registro.caminho = arquivo.toString();
+		registro.tamanho = tamanho;
+		registro.dataModificacao = dataModificacao;
+
+		// Todos os dados são extraídos da mesma execução do ffmpeg, que fica em cache no FFmpegFileInfo
+		FFmpegFileInfo fileInfo = criarFileInfo(arquivo);
+		try {
+			registro.duracaoSegundos = fileInfo.getVideoDurationSeconds();
+			Dimension resolucao = fileInfo.getVideoResolution();
+			registro.largura = resolucao.width;
+			registro.altura = resolucao.height;
+			registro.fps = fileInfo.getVideoFPS();
+			registro.dataCriacao = fileInfo.getCreationDateTime(false);
+		} catch (Exception ex) {
+			LOGGER.warn("Não foi possível analisar o vídeo " + arquivo + ": " + ex.getLocalizedMessage());
+			registro.erro = ex.getLocalizedMessage();
+		}
+		return registro;
+	}
+
+	/**
+	 * Permite que os testes utilizem metadados gravados, sem executar o ffmpeg
+	 */
+	FFmpegFileInfo criarFileInfo(Path arquivo) {
+		return new FFmpegFileInfo(arquivo.toFile());
+	}
+
+	private void criarTabelaSeNaoExistir() throws SQLException {
+		try (Connection conn = dataSource.getConnection(); Statement st = conn.createStatement()) {
+			st.executeUpdate("CREATE TABLE IF NOT EXISTS " + tabela + " ("
+					+ "caminho VARCHAR(4000) NOT NULL PRIMARY KEY, "
+					+ "tamanho BIGINT NOT NULL, "
+					+ "data_modificacao BIGINT NOT NULL, "
+					+ "duracao_segundos FLOAT, "
+					+ "largura INTEGER, "
+					+ "altura INTEGER, "
+					+ "fps FLOAT, "
+					+ "data_criacao VARCHAR(30), "
+					+ "erro VARCHAR(4000))");
+		}
+	}
+
+	/**
+	 * Carrega tamanho e data de modificação dos arquivos já indexados dentro da pasta raiz
+	 */
+	private Map<String, long[]> carregarArquivosIndexados(Path raiz) throws SQLException {
+		Map<String, long[]> indexados = new ConcurrentHashMap<>();
+		String prefixo = raiz.toString();
+		try (Connection conn = dataSource.getConnection();
+				PreparedStatement ps = conn.prepareStatement("SELECT caminho, tamanho, data_modificacao FROM " + tabela + " WHERE caminho LIKE ?")) {
+			ps.setString(1, prefixo + "%");
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					String caminho = rs.getString(1);
+
+					// Confirma o prefixo, pois "_" e "%" no caminho são curingas do LIKE
+					if (raiz.getFileSystem().getPath(caminho).startsWith(raiz)) {
+						indexados.put(caminho, new long[] { rs.getLong(2), rs.getLong(3) });
+					}
+				}
+			}
+		}
+		return indexados;
+	}
+
+	private void gravar(List<Registro> lote, Resultado resultado) throws SQLException {
+		try (Connection conn = dataSource.getConnection()) {
+			conn.setAutoCommit(false);
+			try (PreparedStatement psExcluir = conn.prepareStatement("DELETE FROM " + tabela + " WHERE caminho = ?");
+					PreparedStatement psIncluir = conn.prepareStatement("INSERT INTO " + tabela + " (caminho, tamanho, data_modificacao, duracao_segundos, largura, altura, fps, data_criacao, erro) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+				for (Registro registro : lote) {
+					psExcluir.setString(1, registro.caminho);
+					psExcluir.addBatch();
+
+					psIncluir.setString(1, registro.caminho);
+					psIncluir.setLong(2, registro.tamanho);
+					psIncluir.setLong(3, registro.dataModificacao);
+					FGDatabaseUtils.setFloatOrNull(psIncluir, 4, registro.duracaoSegundos);
+					FGDatabaseUtils.setIntOrNull(psIncluir, 5, registro.largura);
+					FGDatabaseUtils.setIntOrNull(psIncluir, 6, registro.altura);
+					FGDatabaseUtils.setFloatOrNull(psIncluir, 7, registro.fps);
+					psIncluir.setString(8, registro.dataCriacao != null ? registro.dataCriacao.toString() : null);
+					psIncluir.setString(9, registro.erro);
+					psIncluir.addBatch();
+
+					if (registro.erro == null) {
+						resultado.qtdArquivosIndexados++;
+					} else {
+						resultado.qtdArquivosComErro++;
+					}
+				}
+				psExcluir.executeBatch();
+				psIncluir.executeBatch();
+				conn.commit();
+			} catch (SQLException ex) {
+				conn.rollback();
+				throw ex;
+			}
+		}
+		LOGGER.debug(lote.size() + " vídeos gravados no índice");
+	}
+
+	private int excluir(Set<String> caminhos) throws SQLException {
+		if (caminhos.isEmpty()) {
+			return 0;
+		}
+		try (Connection conn = dataSource.getConnection()) {
+			conn.setAutoCommit(false);
+			try (PreparedStatement ps = conn.prepareStatement("DELETE FROM " + tabela + " WHERE caminho = ?")) {
+				for (String caminho : caminhos) {
+					ps.setString(1, caminho);
+					ps.addBatch();
+				}
+				ps.executeBatch();
+				conn.commit();
+			} catch (SQLException ex) {
+				conn.rollback();
+				throw ex;
+			}
+		}
+		return caminhos.size();
+	}
+
+	/**
+	 * Nome da tabela onde o índice será gravado (padrão: "videos_indexados")
+	 */
+	public void setTabela(String tabela) {
+		this.tabela = tabela;
+	}
+
+	/**
+	 * Quantidade máxima de processos ffmpeg analisando vídeos ao mesmo tempo
+	 * (padrão: metade dos processadores)
+	 */
+	public void setQuantidadeProcessosFFmpeg(int quantidadeProcessosFFmpeg) {
+		this.quantidadeProcessosFFmpeg = quantidadeProcessosFFmpeg;
+	}
+
+	/**
+	 * Quantidade de pastas listadas ao mesmo tempo (padrão: quantidade de processadores).
+	 * Em discos rígidos mecânicos, pode ser melhor utilizar valores menores.
+	 */
+	public void setParalelismoBuscaPastas(int paralelismoBuscaPastas) {
+		this.paralelismoBuscaPastas = paralelismoBuscaPastas;
+	}
+
+	/**
+	 * Quantidade de vídeos gravados em cada transação (padrão: 50)
+	 */
+	public void setTamanhoLoteGravacao(int tamanhoLoteGravacao) {
+		this.tamanhoLoteGravacao = tamanhoLoteGravacao;
+	}
+
+	/**
+	 * Indica se os registros de arquivos que não existem mais na pasta devem ser excluídos do índice
+	 * (padrão: true)
+	 */
+	public void setExcluirRegistrosDeArquivosInexistentes(boolean excluirRegistrosDeArquivosInexistentes) {
+		this.excluirRegistrosDeArquivosInexistentes = excluirRegistrosDeArquivosInexistentes;
+	}
+
+	/**
+	 * Filtro para ignorar arquivos ou pastas (ex: pastas ocultas ou de backup)
+	 */
+	public void setCustomFileFilter(DirectoryStream.Filter<Path> customFileFilter) {
+		this.customFileFilter = customFileFilter;
+	}
+}
@@ -0,0 +1,327 @@
+package com.felipegiotto.misc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Executa o mesmo SQL para muitas linhas de parâmetros (ex: importação de dados), enviando-as
+ * ao banco em lotes, ao invés de uma ida ao banco para cada linha.
+ *
+ * Por padrão utiliza "addBatch/executeBatch" do JDBC. Opcionalmente, um INSERT pode ser reescrito
+ * com várias linhas no mesmo VALUES (ver {@link #setReescreverValues(boolean)}), o que é mais
+ * rápido em bancos cujos drivers enviam cada item do "batch" separadamente.
+ *
+ * O controle de transação é responsabilidade de quem chama: se a conexão estiver em "autoCommit",
+ * cada lote é gravado separadamente.
+ *
+ * Ex:
+ <code>
+ 	FGPreparedStatementBatch batch = new FGPreparedStatementBatch("INSERT INTO pessoas (nome, idade) VALUES (?, ?)");
+ 	for (Pessoa pessoa: pessoas) {
+ 		batch.addLinha(pessoa.getNome(), pessoa.getIdade());
+ 	}
+ 	FGPreparedStatementBatch.Resultado resultado = batch.executar(connection);
+ 	LOGGER.info("Linhas gravadas: " + resultado.getLinhasAfetadas());
+ </code>
+ *
+ * @author felipegiotto@gmail.com
+ */
+public class FGPreparedStatementBatch {
+	
+	private static final Logger LOGGER = LogManager.getLogger(FGPreparedStatementBatch.class);
+	
+	/**
+	 * Quantidade máxima de parâmetros em um único SQL reescrito. Vários bancos limitam essa
+	 * quantidade (ex: PostgreSQL aceita até 32767 no protocolo antigo, SQL Server até 2100).
+	 */
+	private static final int MAXIMO_PARAMETROS_SQL_REESCRITO = 2000;
+	
+	// Ex: "INSERT INTO tabela (a, b) VALUES (?, ?)"
+	private static final Pattern PATTERN_VALUES = Pattern.compile("^(.*\\bVALUES\\s*)(\\([^()]*\\))\\s*;?\\s*$", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	
+	/**
+	 * Execução de um lote
+	 */
+	public static class Lote {
+		private final int linhas;
+		private final int linhasAfetadas;
+		private final long duracaoMillis;
+		
+		Lote(int linhas, int linhasAfetadas, long duracaoMillis) {
+			this.linhas = linhas;
+			this.linhasAfetadas = linhasAfetadas;
+			this.duracaoMillis = duracaoMillis;
+		}
+		
+		/**
+		 * Quantidade de linhas de parâmetros enviadas no lote
+		 */
+		public int getLinhas() {
+			return linhas;
+		}
+		
+		/**
+		 * Quantidade de registros afetados, ou {@link Statement#SUCCESS_NO_INFO} se o driver não informar
+		 */
+		public int getLinhasAfetadas() {
+			return linhasAfetadas;
+		}
+		
+		public long getDuracaoMillis() {
+			return duracaoMillis;
+		}
+		
+		@Override
+		public String toString() {
+			return "linhas=" + linhas + ", afetadas=" + (linhasAfetadas != Statement.SUCCESS_NO_INFO ? linhasAfetadas : "?") + ", " + duracaoMillis + "ms";
+		}
+	}
+	
+	/**
+	 * Resultado da execução de todos os lotes
+	 */
+	public static class Resultado {
+		private final List<Lote> lotes;
+		
+		Resultado(List<Lote> lotes) {
+			this.lotes = Collections.unmodifiableList(lotes);
+		}
+		
+		public List<Lote> getLotes() {
+			return lotes;
+		}
+		
+		public int getLinhas() {
+			int total = 0;
+			for (Lote lote: lotes) {
+				total += lote.getLinhas();
+			}
+			return total;
+		}
+		
+		/**
+		 * Total de registros afetados, desconsiderando os lotes em que o driver não informou a quantidade
+		 */
+		public long getLinhasAfetadas() {
+			long total = 0;
+			for (Lote lote: lotes) {
+				if (lote.getLinhasAfetadas() > 0) {
+					total += lote.getLinhasAfetadas();
+				}
+			}
+			return total;
+		}
+		
+		public long getDuracaoMillis() {
+			long total = 0;
+			for (Lote lote: lotes) {
+				total += lote.getDuracaoMillis();
+			}
+			return total;
+		}
+		
+		@Override
+		public String toString() {
+			return "lotes=" + lotes.size() + ", linhas=" + getLinhas() + ", afetadas=" + getLinhasAfetadas() + ", " + getDuracaoMillis() + "ms";
+		}
+	}
+	
+	private final String sql;
+	private final List<Object[]> linhas = new ArrayList<>();
+	private int tamanhoLote = 1000;
+	private boolean reescreverValues = false;
+	
+	/**
+	 * @param sql : SQL com os parâmetros ("?") de uma linha
+	 */
+	public FGPreparedStatementBatch(String sql) {
+		this.sql = sql;
+	}
+	
+	/**
+	 * Adiciona uma linha de parâmetros, na mesma ordem dos "?" do SQL
+	 */
+	public void addLinha(Object... params) {
+		if (!linhas.isEmpty() && linhas.get(0).length != params.length) {
+			throw new IllegalArgumentException("Todas as linhas devem ter a mesma quantidade de parâmetros. Esperado: " + linhas.get(0).length + ", recebido: " + params.length);
+		}
+		linhas.add(params);
+	}
+	
+	public int getQuantidadeLinhas() {
+		return linhas.size();
+	}
+	
+	/**
+	 * Remove as linhas adicionadas, para reaproveitar o objeto
+	 */
+	public void limparLinhas() {
+		linhas.clear();
+	}
+	
+	public int getTamanhoLote() {
+		return tamanhoLote;
+	}
+	
+	/**
+	 * Quantidade de linhas enviadas ao banco de cada vez (padrão: 1000)
+	 */
+	public void setTamanhoLote(int tamanhoLote) {
+		if (tamanhoLote < 1) {
+			throw new IllegalArgumentException("Tamanho do lote deve ser positivo: " + tamanhoLote);
+		}
+		this.tamanhoLote = tamanhoLote;
+	}
+	
+	public boolean isReescreverValues() {
+		return reescreverValues;
+	}
+	
+	/**
+	 * Se "true", o SQL (que deve terminar com "VALUES (...)") é reescrito com várias linhas, ex:
+	 * "INSERT INTO tabela (a, b) VALUES (?, ?), (?, ?), (?, ?)", e cada lote é enviado em um único comando.
+	 *
+	 * O tamanho do lote é reduzido, se necessário, para que o SQL não tenha mais do que
+	 * {@value #MAXIMO_PARAMETROS_SQL_REESCRITO} parâmetros.
+	 */
+	public void setReescreverValues(boolean reescreverValues) {
+		this.reescreverValues = reescreverValues;
+	}
+	
+	public String getSQL() {
+		return sql;
+	}
+	
+	/**
+	 * Envia todas as linhas ao banco, em lotes.
+	 *
+	 * @param connection
+	 * @return quantidade de linhas, registros afetados e tempo de cada lote
+	 * @throws SQLException se algum lote falhar. Os lotes anteriores não são desfeitos (exceto se houver rollback da transação).
+	 */
+	public Resultado executar(Connection connection) throws SQLException {
+		List<Lote> lotes = new ArrayList<>();
+		if (linhas.isEmpty()) {
+			return new Resultado(lotes);
+		}
+		if (reescreverValues) {
+			executarReescrito(connection, lotes);
+		} else {
+			executarBatch(connection, lotes);
+		}
+		Resultado resultado = new Resultado(lotes);
+		LOGGER.debug("Batch executado (" + resultado + "): " + sql);
+		return resultado;
+	}
+	
+	private void executarBatch(Connection connection, List<Lote> lotes) throws SQLException {
+		try (PreparedStatement ps = connection.prepareStatement(sql)) {
+			for (int inicio = 0; inicio < linhas.size(); inicio += tamanhoLote) {
+				int fim = Math.min(inicio + tamanhoLote, linhas.size());
+				long antes = System.currentTimeMillis();
+				for (Object[] linha: linhas.subList(inicio, fim)) {
+					bindLinha(ps, sql, 1, linha);
+					ps.addBatch();
+				}
+				int[] contagens = ps.executeBatch();
+				lotes.add(new Lote(fim - inicio, somarContagens(contagens), System.currentTimeMillis() - antes));
+			}
+		}
+	}
+	
+	private void executarReescrito(Connection connection, List<Lote> lotes) throws SQLException {
+		Matcher m = PATTERN_VALUES.matcher(sql);
+		if (!m.matches()) {
+			throw new SQLException("SQL não pode ser reescrito com várias linhas, pois não termina com 'VALUES (...)': " + sql);
+		}
+		int parametrosPorLinha = linhas.get(0).length;
+		int linhasPorComando = Math.min(tamanhoLote, Math.max(1, MAXIMO_PARAMETROS_SQL_REESCRITO / Math.max(1, parametrosPorLinha)));
+		
+		// O mesmo PreparedStatement é reaproveitado em todos os lotes completos. Somente o último,
+		// se estiver incompleto, precisa de outro SQL.
+		String sqlCompleto = null;
+		PreparedStatement psCompleto = null;
+		try {
+			for (int inicio = 0; inicio < linhas.size(); inicio += linhasPorComando) {
+				int fim = Math.min(inicio + linhasPorComando, linhas.size());
+				long antes = System.currentTimeMillis();
+				int afetadas;
+				if (fim - inicio == linhasPorComando) {
+					if (psCompleto == null) {
+						sqlCompleto = montarSQLReescrito(m, linhasPorComando);
+						psCompleto = connection.prepareStatement(sqlCompleto);
+					}
+					afetadas = executarReescrito(psCompleto, sqlCompleto, inicio, fim, parametrosPorLinha);
+				} else {
+					String sqlIncompleto = montarSQLReescrito(m, fim - inicio);
+					try (PreparedStatement ps = connection.prepareStatement(sqlIncompleto)) {
+						afetadas = executarReescrito(ps, sqlIncompleto, inicio, fim, parametrosPorLinha);
+					}
+				}
+				lotes.add(new Lote(fim - inicio, afetadas, System.currentTimeMillis() - antes));
+			}
+		} finally {
+			if (psCompleto != null) {
+				psCompleto.close();
+			}
+		}
+	}
+	
+	private int executarReescrito(PreparedStatement ps, String sqlReescrito, int inicio, int fim, int parametrosPorLinha) throws SQLException {
+		int index = 1;
+		for (Object[] linha: linhas.subList(inicio, fim)) {
+			bindLinha(ps, sqlReescrito, index, linha);
+			index += parametrosPorLinha;
+		}
+		return ps.executeUpdate();
+	}
+	
+	/**
+	 * Repete o trecho "(?, ?, ...)" do VALUES
+	 */
+	static String montarSQLReescrito(Matcher m, int quantidadeLinhas) {
+		String valores = m.group(2);
+		StringBuilder sb = new StringBuilder(m.group(1).length() + quantidadeLinhas * (valores.length() + 2));
+		sb.append(m.group(1));
+		for (int i = 0; i < quantidadeLinhas; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(valores);
+		}
+		return sb.toString();
+	}
+	
+	private void bindLinha(PreparedStatement ps, String sqlPreparado, int indexInicial, Object[] linha) throws SQLException {
+		for (int i = 0; i < linha.length; i++) {
+			FGSQLBinders.bind(ps, sqlPreparado, indexInicial + i, linha[i]);
+		}
+	}
+	
+	private static int somarContagens(int[] contagens) {
+		int total = 0;
+		for (int contagem: contagens) {
+			if (contagem == Statement.SUCCESS_NO_INFO) {
+				return Statement.SUCCESS_NO_INFO;
+			}
+			total += contagem;
+		}
+		return total;
+	}
+	
+	@Override
+	public String toString() {
+		return "sql=" + sql + "; linhas=" + linhas.size() + (linhas.isEmpty() ? "" : "; primeira=" + Arrays.toString(linhas.get(0)));
+	}
+}
@@ -1,11 +1,9 @@
 package com.felipegiotto.misc;
 
-import java.sql.Array;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.time.LocalDate;
-import java.time.LocalDateTime;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -30,52 +28,85 @@ import java.util.List;
  */
 public class FGPreparedStatementBuilder {
 
+	/**
+	 * Informa o valor de um parâmetro de um tipo de dado específico
+	 * (ver {@link #registrarBinder(Class, Binder)})
+	 */
+	public interface Binder {
+		public void bind(PreparedStatement ps, int index, Object valor) throws SQLException;
+	}
+	
 	private StringBuilder sql = new StringBuilder();
+	private String sqlMontado;
 	private List<Object> params = new ArrayList<>();
 	
 	public void append(String sql, Object... params) {
 		this.sql.append(sql);
+		this.sqlMontado = null;
+		
+		// "append(sql, null)": o Java entrega um array nulo, ao invés de um array com um parâmetro nulo
+		if (params == null) {
+			this.params.add(null);
+			return;
+		}
 		for (Object param: params) {
 			this.params.add(param);
 		}
 	}
 	
+	/**
+	 * Valor "null" com tipo SQL definido (constante de {@link Types}), para os bancos que não aceitam
+	 * "setNull" sem tipo. Ex:
+	 * 
+	 * <pre>builder.append("UPDATE pessoas SET idade = ? ", FGPreparedStatementBuilder.nulo(Types.INTEGER));</pre>
+	 * 
+	 * Um "null" simples utiliza o tipo informado pelo driver para o parâmetro ("ParameterMetaData"),
+	 * o que pode exigir uma consulta adicional ao banco em alguns drivers (somente no primeiro "null"
+	 * de cada SQL, pois os tipos ficam em cache).
+	 */
+	public static Object nulo(int tipoSql) {
+		return new FGSQLBinders.NuloTipado(tipoSql);
+	}
+	
+	/**
+	 * Permite utilizar outros tipos de dados como parâmetros (também vale para subclasses, 
+	 * ou classes que implementam a interface informada).
+	 * 
+	 * @param classe
+	 * @param binder
+	 */
+	public static void registrarBinder(Class<?> classe, Binder binder) {
+		FGSQLBinders.registrar(classe, binder);
+	}
+	
+	/**
+	 * Cria o PreparedStatement e informa os parâmetros.
+	 * 
+	 * O reaproveitamento do PreparedStatement é feito pelo pool de conexões, se estiver configurado (ver 
+	 * {@link com.felipegiotto.utils.datasources.FGPoolConfig#setTamanhoCacheStatements(int)}).
+	 */
 	public PreparedStatement build(Connection connection) throws SQLException {
-		PreparedStatement ps = connection.prepareStatement(sql.toString());
+		return bind(connection.prepareStatement(getSQL()));
+	}
+	
+	/**
+	 * Cria o PreparedStatement com tipo de cursor definido e informa os parâmetros.
+	 * 
+	 * @param connection
+	 * @param resultSetType : ex: {@link java.sql.ResultSet#TYPE_FORWARD_ONLY}
+	 * @param resultSetConcurrency : ex: {@link java.sql.ResultSet#CONCUR_READ_ONLY}
+	 */
+	public PreparedStatement build(Connection connection, int resultSetType, int resultSetConcurrency) throws SQLException {
+		return bind(connection.prepareStatement(getSQL(), resultSetType, resultSetConcurrency));
+	}
+	
+	private PreparedStatement bind(PreparedStatement ps) throws SQLException {
 		try {
 			
+			String sql = getSQL();
 			int index = 1;
 			for (Object param : params) {
-				if (param instanceof String) {
-					ps.setString(index++, (String) param);
-					
-				} else if (param instanceof Boolean) {
-					ps.setBoolean(index++, (Boolean) param);
-					
-				} else if (param instanceof Float) {
-					ps.setFloat(index++, (Float) param);
-					
-				} else if (param instanceof Double) {
-					ps.setDouble(index++, (Double) param);
-					
-				} else if (param instanceof Integer) {
-					ps.setInt(index++, (Integer) param);
-					
-				} else if (param instanceof LocalDateTime) {
-					ps.setObject(index++, param);
-					
-				} else if (param instanceof LocalDate) {
-					ps.setObject(index++, param);
-					
-				} else if (param instanceof Long) {
-					ps.setLong(index++, (Long) param);
-					
-				} else if (param instanceof Array) {
-					ps.setArray(index++, (Array) param);
-					
-				} else {
-					throw new SQLException("Tipo de dado ainda não implementado em FGPreparedStatementBuilder: " + (param != null ? param.getClass() : "null"));
-				}
+				FGSQLBinders.bind(ps, sql, index++, param);
 			}
 			return ps;
 			
@@ -86,7 +117,10 @@ public class FGPreparedStatementBuilder {
 	}
 	
 	public String getSQL() {
-		return sql.toString();
+		if (sqlMontado == null) {
+			sqlMontado = sql.toString();
+		}
+		return sqlMontado;
 	}
 	
 	public List<Object> getParams() {
@@ -99,6 +133,6 @@ public class FGPreparedStatementBuilder {
 	
 	@Override
 	public String toString() {
-		return "sql=" + sql.toString() + "; params=" + params.toString();
+		return "sql=" + getSQL() + "; params=" + params.toString();
 	}
 }
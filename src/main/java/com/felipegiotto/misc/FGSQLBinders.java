@@ -0,0 +1,212 @@
+package com.felipegiotto.misc;
+
+import java.math.BigDecimal;
+import java.sql.Array;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Binders (código que informa o valor de um parâmetro em um PreparedStatement) de cada tipo de dado,
+ * utilizados por {@link FGPreparedStatementBuilder} e {@link FGPreparedStatementBatch}.
+ *
+ * O binder de cada classe é resolvido uma única vez e fica em cache.
+ *
+ * Um parâmetro "null" utiliza o tipo informado pelo driver para a posição ("ParameterMetaData")
+ * ou, se o driver não informar, "setObject(index, null)". Os tipos são consultados somente no
+ * primeiro "null" de cada SQL e ficam em cache, pois em alguns drivers (ex: PostgreSQL) a consulta
+ * exige uma ida ao banco. Para definir o tipo explicitamente, utilizar {@link FGPreparedStatementBuilder#nulo(int)}.
+ *
+ * @author felipegiotto@gmail.com
+ */
+class FGSQLBinders {
+	
+	/**
+	 * Quantidade máxima de SQLs diferentes com os tipos dos parâmetros em cache. Acima disso, os tipos
+	 * continuam sendo consultados no driver, somente sem guardar.
+	 */
+	private static final int TAMANHO_MAXIMO_CACHE_TIPOS = 1024;
+	
+	/**
+	 * Posição cujo tipo não foi informado pelo driver
+	 */
+	private static final int TIPO_DESCONHECIDO = Integer.MIN_VALUE;
+	
+	/**
+	 * Informa um parâmetro em um PreparedStatement
+	 */
+	static final class BinderResolvido {
+		private final Class<?> classe;
+		private final FGPreparedStatementBuilder.Binder binder;
+		
+		BinderResolvido(Class<?> classe, FGPreparedStatementBuilder.Binder binder) {
+			this.classe = classe;
+			this.binder = binder;
+		}
+	}
+	
+	/**
+	 * Valor "null" com o tipo SQL definido (ver {@link FGPreparedStatementBuilder#nulo(int)})
+	 */
+	static final class NuloTipado {
+		private final int tipoSql;
+		
+		NuloTipado(int tipoSql) {
+			this.tipoSql = tipoSql;
+		}
+		
+		@Override
+		public String toString() {
+			return "null";
+		}
+	}
+	
+	private static final Map<Class<?>, BinderResolvido> BINDERS_REGISTRADOS = new ConcurrentHashMap<>();
+	private static final Map<Class<?>, BinderResolvido> BINDERS_RESOLVIDOS = new ConcurrentHashMap<>();
+	private static final Map<String, int[]> TIPOS_PARAMETROS = new ConcurrentHashMap<>();
+	
+	static {
+		registrar(String.class, (ps, index, valor) -> ps.setString(index, (String) valor));
+		registrar(Boolean.class, (ps, index, valor) -> ps.setBoolean(index, (Boolean) valor));
+		registrar(Float.class, (ps, index, valor) -> ps.setFloat(index, (Float) valor));
+		registrar(Double.class, (ps, index, valor) -> ps.setDouble(index, (Double) valor));
+		registrar(Short.class, (ps, index, valor) -> ps.setShort(index, (Short) valor));
+		registrar(Integer.class, (ps, index, valor) -> ps.setInt(index, (Integer) valor));
+		registrar(Long.class, (ps, index, valor) -> ps.setLong(index, (Long) valor));
+		registrar(BigDecimal.class, (ps, index, valor) -> ps.setBigDecimal(index, (BigDecimal) valor));
+		registrar(LocalDateTime.class, (ps, index, valor) -> ps.setObject(index, valor));
+		registrar(LocalDate.class, (ps, index, valor) -> ps.setObject(index, valor));
+		registrar(Timestamp.class, (ps, index, valor) -> ps.setTimestamp(index, (Timestamp) valor));
+		registrar(byte[].class, (ps, index, valor) -> ps.setBytes(index, (byte[]) valor));
+		registrar(Array.class, (ps, index, valor) -> ps.setArray(index, (Array) valor));
+	}
+	
+	/**
+	 * Não instanciar - utilizar somente métodos estáticos
+	 */
+	private FGSQLBinders() { }
+	
+	static void registrar(Class<?> classe, FGPreparedStatementBuilder.Binder binder) {
+		BINDERS_REGISTRADOS.put(classe, new BinderResolvido(classe, binder));
+		
+		// Subclasses resolvidas anteriormente podem passar a utilizar o novo binder
+		BINDERS_RESOLVIDOS.clear();
+	}
+	
+	/**
+	 * Binder de uma classe: o registrado para ela ou, se não houver, o da superclasse mais próxima
+	 * ou, por último, o de alguma interface (ex: implementações de "java.sql.Array" de cada driver)
+	 */
+	static BinderResolvido getBinder(Class<?> classe) throws SQLException {
+		BinderResolvido binder = BINDERS_RESOLVIDOS.get(classe);
+		if (binder != null) {
+			return binder;
+		}
+		binder = procurarBinderRegistrado(classe);
+		if (binder == null) {
+			throw new SQLException("Tipo de dado ainda não implementado em FGPreparedStatementBuilder: " + classe);
+		}
+		
+		BINDERS_RESOLVIDOS.put(classe, binder);
+		return binder;
+	}
+	
+	/**
+	 * Procura o binder registrado para a classe ou para a superclasse mais próxima e, somente
+	 * se não houver, para as interfaces (das implementadas diretamente para as herdadas), para que
+	 * a escolha não dependa da ordem de registro.
+	 */
+	private static BinderResolvido procurarBinderRegistrado(Class<?> classe) {
+		for (Class<?> superclasse = classe; superclasse != null; superclasse = superclasse.getSuperclass()) {
+			BinderResolvido binder = BINDERS_REGISTRADOS.get(superclasse);
+			if (binder != null) {
+				return binder;
+			}
+		}
+		
+		Deque<Class<?>> pendentes = new ArrayDeque<>();
+		for (Class<?> superclasse = classe; superclasse != null; superclasse = superclasse.getSuperclass()) {
+			pendentes.addAll(Arrays.asList(superclasse.getInterfaces()));
+		}
+		Set<Class<?>> visitadas = new HashSet<>();
+		while (!pendentes.isEmpty()) {
+			Class<?> interfaceAtual = pendentes.poll();
+			if (!visitadas.add(interfaceAtual)) {
+				continue;
+			}
+			BinderResolvido binder = BINDERS_REGISTRADOS.get(interfaceAtual);
+			if (binder != null) {
+				return binder;
+			}
+			pendentes.addAll(Arrays.asList(interfaceAtual.getInterfaces()));
+		}
+		return null;
+	}
+	
+	/**
+	 * Informa um parâmetro em um PreparedStatement, conforme o tipo do valor
+	 * 
+	 * @param sql : SQL do PreparedStatement, utilizado no cache dos tipos dos parâmetros nulos
+	 */
+	static void bind(PreparedStatement ps, String sql, int index, Object valor) throws SQLException {
+		if (valor == null) {
+			bindNulo(ps, sql, index);
+		} else if (valor instanceof NuloTipado) {
+			ps.setNull(index, ((NuloTipado) valor).tipoSql);
+		} else {
+			getBinder(valor.getClass()).binder.bind(ps, index, valor);
+		}
+	}
+	
+	private static void bindNulo(PreparedStatement ps, String sql, int index) throws SQLException {
+		int[] tipos = TIPOS_PARAMETROS.get(sql);
+		if (tipos == null) {
+			tipos = consultarTiposParametros(ps);
+			if (TIPOS_PARAMETROS.size() < TAMANHO_MAXIMO_CACHE_TIPOS) {
+				TIPOS_PARAMETROS.putIfAbsent(sql, tipos);
+			}
+		}
+		int tipoSql = index <= tipos.length ? tipos[index - 1] : TIPO_DESCONHECIDO;
+		if (tipoSql == TIPO_DESCONHECIDO) {
+			ps.setObject(index, null);
+		} else {
+			ps.setNull(index, tipoSql);
+		}
+	}
+	
+	/**
+	 * Tipos SQL de todos os parâmetros, conforme informado pelo driver, ou {@link #TIPO_DESCONHECIDO}
+	 * nas posições que o driver não souber informar
+	 */
+	private static int[] consultarTiposParametros(PreparedStatement ps) {
+		ParameterMetaData metaData;
+		int quantidade;
+		try {
+			metaData = ps.getParameterMetaData();
+			quantidade = metaData.getParameterCount();
+		} catch (SQLException ex) {
+			
+			// Driver não informa os tipos dos parâmetros
+			return new int[0];
+		}
+		int[] tipos = new int[quantidade];
+		for (int i = 0; i < quantidade; i++) {
+			try {
+				tipos[i] = metaData.getParameterType(i + 1);
+			} catch (SQLException ex) {
+				tipos[i] = TIPO_DESCONHECIDO;
+			}
+		}
+		return tipos;
+	}
+}
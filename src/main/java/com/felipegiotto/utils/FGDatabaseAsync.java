@@ -0,0 +1,355 @@
+package com.felipegiotto.utils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.felipegiotto.misc.FGPreparedStatementBuilder;
+import com.felipegiotto.utils.FGDatabaseUtils.RowCallback;
+import com.felipegiotto.utils.FGDatabaseUtils.RowMapper;
+import com.felipegiotto.utils.datasources.FGConnectionFactory;
+import com.felipegiotto.utils.datasources.FGPoolMetricas;
+
+/**
+ * Executa operações no banco de dados em threads próprias, retornando CompletableFutures, para
+ * que as threads que atendem requisições (ex: Spark, servlets) não fiquem bloqueadas no JDBC.
+ *
+ * - As operações são executadas por um pool de threads do mesmo tamanho do pool de conexões,
+ *   então nunca há mais threads aguardando conexão do que o pool pode atender.
+ * - A fila de operações é limitada: se estiver cheia, a operação é rejeitada imediatamente
+ *   (SQLTransientConnectionException), ao invés de acumular requisições enquanto o banco estiver lento.
+ * - Se a operação passar do tempo máximo ou o Future for cancelado, os comandos em execução são
+ *   cancelados no banco com "Statement.cancel()".
+ *
+ * Ex:
+ <code>
+ 	private static final FGDatabaseAsync ASYNC = new FGDatabaseAsync("jdbc/banco", 100);
+ 	...
+ 	ASYNC.executeQueryInt("SELECT COUNT(*) FROM pessoas", 5000)
+ 		.thenAccept((total) -> ...);
+ 	ASYNC.executar((conn) -> FGDatabaseUtils.queryList(conn, builder, mapper), 5000)
+ 		.thenAccept((pessoas) -> ...);
+ </code>
+ *
+ * @author felipegiotto@gmail.com
+ */
+public class FGDatabaseAsync implements AutoCloseable {
+	
+	private static final Logger LOGGER = LogManager.getLogger(FGDatabaseAsync.class);
+	
+	/**
+	 * Quantidade de threads, se não for possível identificar o tamanho do pool de conexões
+	 */
+	private static final int QUANTIDADE_THREADS_PADRAO = 10;
+	
+	/**
+	 * Intervalo entre as tentativas de cancelar os comandos de uma operação, até que ela termine
+	 */
+	private static final long INTERVALO_CANCELAMENTO_MILLIS = 100;
+	
+	private static final AtomicInteger CONTADOR_THREADS = new AtomicInteger();
+	
+	private static final ScheduledExecutorService TIMEOUTS = Executors.newSingleThreadScheduledExecutor((tarefa) -> {
+		Thread thread = new Thread(tarefa, "FGDatabaseAsync-timeout");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	/**
+	 * Operação executada com uma conexão do pool, que é fechada ao final
+	 */
+	public interface Operacao<T> {
+		public T executar(Connection conn) throws SQLException;
+	}
+	
+	/**
+	 * Operação em execução: statements criados, para cancelamento
+	 */
+	private static class Execucao {
+		private final List<Statement> statements = new CopyOnWriteArrayList<>();
+		private volatile boolean emExecucao;
+		private volatile boolean cancelada;
+		
+		void cancelar() {
+			cancelada = true;
+			for (Statement statement: statements) {
+				try {
+					if (!statement.isClosed()) {
+						statement.cancel();
+					}
+				} catch (SQLException ex) {
+					LOGGER.debug("Erro ao cancelar comando: " + ex.getLocalizedMessage(), ex);
+				}
+			}
+			
+			// O comando pode ter sido criado mas ainda não enviado ao banco, quando o "cancel()" não tem efeito
+			if (emExecucao) {
+				TIMEOUTS.schedule(this::cancelar, INTERVALO_CANCELAMENTO_MILLIS, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+	
+	private final String jdbcName;
+	private final DataSource dataSource;
+	private final ThreadPoolExecutor executor;
+	private final AtomicLong rejeitadas = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	
+	/**
+	 * Operações em um DataSource do {@link FGConnectionFactory}, com uma thread para cada conexão do pool
+	 *
+	 * @param jdbcName
+	 * @param tamanhoFila : quantidade máxima de operações aguardando uma thread livre
+	 * @throws SQLException se o DataSource não existir
+	 */
+	public FGDatabaseAsync(String jdbcName, int tamanhoFila) throws SQLException {
+		this(jdbcName, null, getTamanhoPool(jdbcName), tamanhoFila);
+	}
+	
+	/**
+	 * Operações em um DataSource qualquer
+	 *
+	 * @param dataSource
+	 * @param quantidadeThreads : deve ser, no máximo, o tamanho do pool de conexões
+	 * @param tamanhoFila : quantidade máxima de operações aguardando uma thread livre
+	 */
+	public FGDatabaseAsync(DataSource dataSource, int quantidadeThreads, int tamanhoFila) {
+		this(null, dataSource, quantidadeThreads, tamanhoFila);
+	}
+	
+	private FGDatabaseAsync(String jdbcName, DataSource dataSource, int quantidadeThreads, int tamanhoFila) {
+		this.jdbcName = jdbcName;
+		this.dataSource = dataSource;
+		this.executor = new ThreadPoolExecutor(quantidadeThreads, quantidadeThreads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(tamanhoFila),
+				(tarefa) -> {
+					Thread thread = new Thread(tarefa, "FGDatabaseAsync-" + CONTADOR_THREADS.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+	
+	private static int getTamanhoPool(String jdbcName) throws SQLException {
+		FGPoolMetricas metricas = FGConnectionFactory.getMetricasPool(jdbcName);
+		return metricas != null && metricas.getTamanhoMaximo() > 0 ? metricas.getTamanhoMaximo() : QUANTIDADE_THREADS_PADRAO;
+	}
+	
+	private DataSource getDataSource() throws SQLException {
+		return dataSource != null ? dataSource : FGConnectionFactory.getDataSourceByJndiName(jdbcName);
+	}
+	
+	/**
+	 * Executa uma operação sem tempo máximo (pode ser cancelada com "cancel()" no Future)
+	 */
+	public <T> CompletableFuture<T> executar(Operacao<T> operacao) {
+		return executar(operacao, 0);
+	}
+	
+	/**
+	 * Executa uma operação com uma conexão do pool, que é fechada ao final.
+	 *
+	 * Se o tempo máximo for atingido, o Future termina com SQLTimeoutException e os comandos
+	 * criados pela operação são cancelados no banco. O mesmo acontece se o Future for cancelado.
+	 *
+	 * @param operacao
+	 * @param tempoMaximoMillis : tempo máximo, incluindo a espera na fila (zero = sem limite)
+	 * @return Future com o resultado. Se a fila estiver cheia, já termina com SQLTransientConnectionException
+	 * (ou SQLNonTransientConnectionException, se este objeto já tiver sido fechado).
+	 */
+	public <T> CompletableFuture<T> executar(Operacao<T> operacao, long tempoMaximoMillis) {
+		CompletableFuture<T> futuro = new CompletableFuture<>();
+		Execucao execucao = new Execucao();
+		try {
+			executor.execute(() -> executar(operacao, futuro, execucao));
+		} catch (RejectedExecutionException ex) {
+			if (executor.isShutdown()) {
+				futuro.completeExceptionally(new SQLNonTransientConnectionException("Operações no banco de dados encerradas: " + this + " já foi fechado", ex));
+			} else {
+				rejeitadas.incrementAndGet();
+				futuro.completeExceptionally(new SQLTransientConnectionException("Fila de operações no banco de dados cheia (" + executor.getQueue().size() + " aguardando)", ex));
+			}
+			return futuro;
+		}
+		
+		// Se o tempo máximo for atingido antes do fim da operação, cancela os comandos no banco
+		// OBS: o contador é incrementado antes, para já estar atualizado quando o Future terminar
+		if (tempoMaximoMillis > 0) {
+			TIMEOUTS.schedule(() -> {
+				if (futuro.isDone()) {
+					return;
+				}
+				timeouts.incrementAndGet();
+				if (futuro.completeExceptionally(new SQLTimeoutException("Operação no banco de dados excedeu o tempo máximo de " + tempoMaximoMillis + "ms"))) {
+					execucao.cancelar();
+				} else {
+					timeouts.decrementAndGet();
+				}
+			}, tempoMaximoMillis, TimeUnit.MILLISECONDS);
+		}
+		
+		// O mesmo acontece se o Future for cancelado. Se a própria operação falhar, não há o que cancelar.
+		futuro.whenComplete((resultado, ex) -> {
+			if (futuro.isCancelled()) {
+				execucao.cancelar();
+			}
+		});
+		return futuro;
+	}
+	
+	private <T> void executar(Operacao<T> operacao, CompletableFuture<T> futuro, Execucao execucao) {
+		if (futuro.isDone()) {
+			
+			// Cancelada ou expirada enquanto aguardava na fila
+			return;
+		}
+		execucao.emExecucao = true;
+		try (Connection conn = getDataSource().getConnection()) {
+			T resultado = operacao.executar(registrarStatements(conn, execucao));
+			futuro.complete(resultado);
+		} catch (Throwable ex) {
+			futuro.completeExceptionally(ex);
+		} finally {
+			execucao.emExecucao = false;
+		}
+	}
+	
+	/**
+	 * Conexão que guarda os statements criados, para que possam ser cancelados.
+	 * Após o cancelamento, não é possível criar nem executar outros comandos.
+	 */
+	private static Connection registrarStatements(Connection conn, Execucao execucao) {
+		return (Connection) Proxy.newProxyInstance(FGDatabaseAsync.class.getClassLoader(), new Class<?>[] { Connection.class }, (proxy, metodo, args) -> {
+			verificarCancelamento(execucao);
+			Object retorno = invocar(conn, metodo, args);
+			if (retorno instanceof Statement) {
+				Statement statement = (Statement) retorno;
+				execucao.statements.add(statement);
+				return Proxy.newProxyInstance(FGDatabaseAsync.class.getClassLoader(), new Class<?>[] { metodo.getReturnType() }, (p, metodoStatement, argsStatement) -> {
+					if (metodoStatement.getName().startsWith("execute")) {
+						verificarCancelamento(execucao);
+					}
+					return invocar(statement, metodoStatement, argsStatement);
+				});
+			}
+			return retorno;
+		});
+	}
+	
+	private static void verificarCancelamento(Execucao execucao) throws SQLException {
+		if (execucao.cancelada) {
+			throw new SQLException("Operação cancelada");
+		}
+	}
+	
+	private static Object invocar(Object alvo, Method metodo, Object[] args) throws Throwable {
+		try {
+			return metodo.invoke(alvo, args);
+		} catch (InvocationTargetException ex) {
+			throw ex.getTargetException();
+		}
+	}
+	
+	/**
+	 * Ver {@link FGDatabaseUtils#executeQueryInt(Connection, String)}
+	 */
+	public CompletableFuture<Integer> executeQueryInt(String sql, long tempoMaximoMillis) {
+		return executar((conn) -> FGDatabaseUtils.executeQueryInt(conn, sql), tempoMaximoMillis);
+	}
+	
+	/**
+	 * Ver {@link FGDatabaseUtils#executeQueryLong(Connection, String)}
+	 */
+	public CompletableFuture<Long> executeQueryLong(String sql, long tempoMaximoMillis) {
+		return executar((conn) -> FGDatabaseUtils.executeQueryLong(conn, sql), tempoMaximoMillis);
+	}
+	
+	/**
+	 * Ver {@link FGDatabaseUtils#executeUpdate(Connection, String)}
+	 */
+	public CompletableFuture<Integer> executeUpdate(String sql, long tempoMaximoMillis) {
+		return executar((conn) -> FGDatabaseUtils.executeUpdate(conn, sql), tempoMaximoMillis);
+	}
+	
+	/**
+	 * Ver {@link FGDatabaseUtils#queryList(Connection, FGPreparedStatementBuilder, RowMapper)}
+	 */
+	public <T> CompletableFuture<List<T>> queryList(FGPreparedStatementBuilder builder, RowMapper<T> mapper, long tempoMaximoMillis) {
+		return executar((conn) -> FGDatabaseUtils.queryList(conn, builder, mapper), tempoMaximoMillis);
+	}
+	
+	/**
+	 * Ver {@link FGDatabaseUtils#forEachRow(Connection, FGPreparedStatementBuilder, RowCallback)}.
+	 * O callback é chamado na thread do banco de dados.
+	 */
+	public CompletableFuture<Long> forEachRow(FGPreparedStatementBuilder builder, RowCallback callback, long tempoMaximoMillis) {
+		return executar((conn) -> FGDatabaseUtils.forEachRow(conn, builder, callback), tempoMaximoMillis);
+	}
+	
+	/**
+	 * Quantidade de operações sendo executadas neste momento
+	 */
+	public int getQuantidadeEmExecucao() {
+		return executor.getActiveCount();
+	}
+	
+	/**
+	 * Quantidade de operações aguardando uma thread livre
+	 */
+	public int getQuantidadeNaFila() {
+		return executor.getQueue().size();
+	}
+	
+	/**
+	 * Quantidade de operações rejeitadas porque a fila estava cheia
+	 */
+	public long getQuantidadeRejeitadas() {
+		return rejeitadas.get();
+	}
+	
+	/**
+	 * Quantidade de operações que excederam o tempo máximo
+	 */
+	public long getQuantidadeTimeouts() {
+		return timeouts.get();
+	}
+	
+	public int getQuantidadeThreads() {
+		return executor.getMaximumPoolSize();
+	}
+	
+	/**
+	 * Não aceita novas operações. As que já estão na fila ou em execução são concluídas.
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+	}
+	
+	@Override
+	public String toString() {
+		return (jdbcName != null ? jdbcName : String.valueOf(dataSource)) + ": threads=" + getQuantidadeThreads() + ", emExecucao=" + getQuantidadeEmExecucao()
+				+ ", fila=" + getQuantidadeNaFila() + ", rejeitadas=" + rejeitadas + ", timeouts=" + timeouts;
+	}
+}
@@ -1,20 +1,36 @@
 package com.felipegiotto.utils;
 
 import java.lang.reflect.InvocationTargetException;
-
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.flywaydb.core.Flyway;
 
+import com.felipegiotto.misc.FGPreparedStatementBuilder;
 import com.felipegiotto.utils.datasources.FGConnectionFactory;
 import com.felipegiotto.utils.exception.NotFoundException;
+import com.felipegiotto.utils.exception.UncheckedSQLException;
 /**
  * Métodos auxiliares referentes a bancos de dados
  * 
@@ -40,17 +56,141 @@ public class FGDatabaseUtils {
 	 */
 	public static void closeAllSilently(Object... objects) {
 		for (Object object: objects) {
-			if (object != null) {
-				try {
-					Method closeMethod = object.getClass().getMethod("close");
-					closeMethod.invoke(object);
-				} catch (InvocationTargetException ex) {
-					LOGGER.warn("Error invoking 'close' on " + object + ": " + ex.getTargetException().getLocalizedMessage(), ex);
-				} catch (Exception ex) {
-					LOGGER.error("Error trying to invoke 'close' on " + object + ": " + ex.getLocalizedMessage(),  ex);
+			closeSilently(object);
+		}
+	}
+	
+	/**
+	 * Fecha todos os objetos recebidos por parametro, sem reflexão (ex: "Connection", "ResultSet",
+	 * "Statement"). Qualquer exceção será logada e suprimida.
+	 * 
+	 * @param closeables
+	 */
+	public static void closeAllSilently(AutoCloseable... closeables) {
+		if (closeables == null) {
+			return;
+		}
+		for (AutoCloseable closeable: closeables) {
+			closeSilently(closeable);
+		}
+	}
+	
+	/**
+	 * Fecha o objeto, logando e suprimindo qualquer exceção.
+	 * 
+	 * @param closeable
+	 */
+	public static void closeSilently(AutoCloseable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (Exception ex) {
+				LOGGER.warn("Error invoking 'close' on " + closeable + ": " + ex.getLocalizedMessage(), ex);
+			}
+		}
+	}
+	
+	/**
+	 * Fecha o contexto JNDI, logando e suprimindo qualquer exceção.
+	 * 
+	 * @param context
+	 */
+	public static void closeSilently(Context context) {
+		if (context != null) {
+			try {
+				context.close();
+			} catch (NamingException ex) {
+				LOGGER.warn("Error invoking 'close' on " + context + ": " + ex.getLocalizedMessage(), ex);
+			}
+		}
+	}
+	
+	/**
+	 * Fecha um objeto qualquer: utiliza as interfaces conhecidas ("AutoCloseable", "Context") e, 
+	 * somente se o objeto não implementar nenhuma delas, busca o método "close()" por reflexão 
+	 * (mantido em cache por classe).
+	 * 
+	 * @param object
+	 */
+	public static void closeSilently(Object object) {
+		if (object == null) {
+			return;
+		}
+		if (object instanceof AutoCloseable) {
+			closeSilently((AutoCloseable) object);
+		} else if (object instanceof Context) {
+			closeSilently((Context) object);
+		} else {
+			closeSilentlyReflection(object);
+		}
+	}
+	
+	private static final Map<Class<?>, Optional<Method>> CACHE_METODOS_CLOSE = new ConcurrentHashMap<>();
+	
+	private static void closeSilentlyReflection(Object object) {
+		Optional<Method> closeMethod = CACHE_METODOS_CLOSE.computeIfAbsent(object.getClass(), FGDatabaseUtils::buscarMetodoClose);
+		if (!closeMethod.isPresent()) {
+			LOGGER.error("Error trying to invoke 'close' on " + object + ": method not found");
+			return;
+		}
+		try {
+			closeMethod.get().invoke(object);
+		} catch (InvocationTargetException ex) {
+			LOGGER.warn("Error invoking 'close' on " + object + ": " + ex.getTargetException().getLocalizedMessage(), ex);
+		} catch (Exception ex) {
+			LOGGER.error("Error trying to invoke 'close' on " + object + ": " + ex.getLocalizedMessage(),  ex);
+		}
+	}
+	
+	private static Optional<Method> buscarMetodoClose(Class<?> classe) {
+		Method closeMethod;
+		try {
+			closeMethod = classe.getMethod("close");
+		} catch (NoSuchMethodException | SecurityException ex) {
+			return Optional.empty();
+		}
+		if (Modifier.isPublic(closeMethod.getDeclaringClass().getModifiers())) {
+			return Optional.of(closeMethod);
+		}
+		
+		// Classes de implementação não públicas (ex: classes internas de drivers): utiliza o método 
+		// declarado em uma interface ou superclasse pública, se houver, que não precisa de "setAccessible"
+		Method metodoPublico = buscarMetodoCloseEmTipoPublico(classe);
+		if (metodoPublico != null) {
+			return Optional.of(metodoPublico);
+		}
+		try {
+			closeMethod.setAccessible(true);
+			return Optional.of(closeMethod);
+		} catch (RuntimeException ex) {
+			
+			// No Java 9+, classes de módulos que não liberam acesso lançam InaccessibleObjectException
+			LOGGER.debug("Método 'close' de " + classe.getName() + " não pode ser acessado: " + ex.getLocalizedMessage());
+			return Optional.empty();
+		}
+	}
+	
+	private static Method buscarMetodoCloseEmTipoPublico(Class<?> tipo) {
+		if (tipo == null) {
+			return null;
+		}
+		if (Modifier.isPublic(tipo.getModifiers())) {
+			try {
+				Method closeMethod = tipo.getMethod("close");
+				if (Modifier.isPublic(closeMethod.getDeclaringClass().getModifiers())) {
+					return closeMethod;
 				}
+			} catch (NoSuchMethodException | SecurityException ex) {
+				// Busca nos demais tipos
+			}
+		}
+		for (Class<?> interfaceImplementada: tipo.getInterfaces()) {
+			Method closeMethod = buscarMetodoCloseEmTipoPublico(interfaceImplementada);
+			if (closeMethod != null) {
+				return closeMethod;
 			}
 		}
+		return buscarMetodoCloseEmTipoPublico(tipo.getSuperclass());
 	}
 
 	/**
@@ -220,7 +360,7 @@ public class FGDatabaseUtils {
 	 * @throws SQLException
 	 */
 	public static Integer executeQueryInt(Connection conn, String sql) throws NotFoundException, SQLException {
-		try (ResultSet rs = conn.createStatement().executeQuery(sql)) {
+		try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery(sql)) {
 			if (rs.next()) {
 				int value = rs.getInt(1);
 				if (rs.wasNull()) {
@@ -270,7 +410,7 @@ public class FGDatabaseUtils {
 	 * @throws SQLException
 	 */
 	public static Long executeQueryLong(Connection conn, String sql) throws NotFoundException, SQLException {
-		try (ResultSet rs = conn.createStatement().executeQuery(sql)) {
+		try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery(sql)) {
 			if (rs.next()) {
 				long value = rs.getLong(1);
 				if (rs.wasNull()) {
@@ -313,7 +453,8 @@ public class FGDatabaseUtils {
 	 * Executa uma consulta SQL e retorna o primeiro campo do 
 	 * primeiro registro do ResultSet, no formato Integer.
 	 * 
-	 * Pega uma conexão do "default data source" e fecha depois
+	 * Pega uma conexão do "default data source" (ou de uma réplica, ver 
+	 * {@link FGConnectionFactory#getDefaultDataSourceLeitura()}) e fecha depois
 	 * da consulta.
 	 * 
 	 * @param sql
@@ -322,7 +463,7 @@ public class FGDatabaseUtils {
 	 * @throws SQLException
 	 */
 	public static Integer executeQueryInt(String sql) throws NotFoundException, SQLException {
-		try (Connection conn = FGConnectionFactory.getDefaultDataSource().getConnection()) {
+		try (Connection conn = FGConnectionFactory.getDefaultDataSourceLeitura().getConnection()) {
 			return executeQueryInt(conn, sql);
 		}
 	}
@@ -331,7 +472,8 @@ public class FGDatabaseUtils {
 	 * Executa uma consulta SQL e retorna o primeiro campo do 
 	 * primeiro registro do ResultSet, no formato Long.
 	 * 
-	 * Pega uma conexão do "default data source" e fecha depois
+	 * Pega uma conexão do "default data source" (ou de uma réplica, ver 
+	 * {@link FGConnectionFactory#getDefaultDataSourceLeitura()}) e fecha depois
 	 * da consulta.
 	 * 
 	 * @param sql
@@ -340,7 +482,7 @@ public class FGDatabaseUtils {
 	 * @throws SQLException
 	 */
 	public static Long executeQueryLong(String sql) throws NotFoundException, SQLException {
-		try (Connection conn = FGConnectionFactory.getDefaultDataSource().getConnection()) {
+		try (Connection conn = FGConnectionFactory.getDefaultDataSourceLeitura().getConnection()) {
 			return executeQueryLong(conn, sql);
 		}
 	}
@@ -356,12 +498,146 @@ public class FGDatabaseUtils {
 	 */
 	public static Integer executeUpdate(String sql) throws SQLException {
 		try (Connection conn = FGConnectionFactory.getDefaultDataSource().getConnection()) {
-			return conn.createStatement().executeUpdate(sql);
+			return executeUpdate(conn, sql);
 		}
 	}
 	
 	public static Integer executeUpdate(Connection conn, String sql) throws SQLException {
-		return conn.createStatement().executeUpdate(sql);
+		try (Statement st = conn.createStatement()) {
+			return st.executeUpdate(sql);
+		}
+	}
+	
+	/**
+	 * Quantidade de registros que o driver traz do banco a cada ida, nas consultas de
+	 * {@link #forEachRow} e {@link #queryStream}
+	 */
+	public static final int FETCH_SIZE_PADRAO = 1000;
+	
+	/**
+	 * Converte o registro atual de um ResultSet em um objeto
+	 */
+	public interface RowMapper<T> {
+		public T map(ResultSet rs) throws SQLException;
+	}
+	
+	/**
+	 * Processa o registro atual de um ResultSet
+	 */
+	public interface RowCallback {
+		public void process(ResultSet rs) throws SQLException;
+	}
+	
+	/**
+	 * Executa uma consulta chamando o callback para cada registro, sem carregar todo o resultado
+	 * em memória. O PreparedStatement e o ResultSet são fechados ao final (a conexão não).
+	 * 
+	 * Utiliza cursor "forward-only" e "read-only" e busca {@link #FETCH_SIZE_PADRAO} registros 
+	 * de cada vez. Observação: no PostgreSQL o "fetchSize" só é respeitado se a conexão não estiver 
+	 * em "autoCommit", e no MySQL é preciso utilizar fetchSize = Integer.MIN_VALUE.
+	 * 
+	 * @param conn
+	 * @param builder : SQL e parâmetros da consulta
+	 * @param callback
+	 * @return quantidade de registros processados
+	 * @throws SQLException
+	 */
+	public static long forEachRow(Connection conn, FGPreparedStatementBuilder builder, RowCallback callback) throws SQLException {
+		return forEachRow(conn, builder, FETCH_SIZE_PADRAO, callback);
+	}
+	
+	/**
+	 * Ver {@link #forEachRow(Connection, FGPreparedStatementBuilder, RowCallback)}
+	 * 
+	 * @param fetchSize : quantidade de registros que o driver traz do banco a cada ida
+	 */
+	public static long forEachRow(Connection conn, FGPreparedStatementBuilder builder, int fetchSize, RowCallback callback) throws SQLException {
+		try (PreparedStatement ps = prepareStatementConsulta(conn, builder, fetchSize); ResultSet rs = ps.executeQuery()) {
+			rs.setFetchSize(fetchSize);
+			long registros = 0;
+			while (rs.next()) {
+				callback.process(rs);
+				registros++;
+			}
+			return registros;
+		}
+	}
+	
+	/**
+	 * Executa uma consulta e converte todos os registros em uma lista (somente para resultados 
+	 * pequenos: para muitos registros, utilizar {@link #forEachRow} ou {@link #queryStream}).
+	 * 
+	 * @param conn
+	 * @param builder : SQL e parâmetros da consulta
+	 * @param mapper
+	 * @return
+	 * @throws SQLException
+	 */
+	public static <T> List<T> queryList(Connection conn, FGPreparedStatementBuilder builder, RowMapper<T> mapper) throws SQLException {
+		List<T> lista = new ArrayList<>();
+		forEachRow(conn, builder, (rs) -> lista.add(mapper.map(rs)));
+		return lista;
+	}
+	
+	/**
+	 * Executa uma consulta e retorna um Stream que lê os registros do banco conforme é percorrido,
+	 * sem carregar todo o resultado em memória.
+	 * 
+	 * O Stream PRECISA ser fechado, para fechar o PreparedStatement e o ResultSet (a conexão não 
+	 * é fechada). Erros de SQL durante a leitura são lançados como {@link UncheckedSQLException}. Ex:
+	 * 
+	 * <pre>
+	 * try (Stream&lt;Pessoa&gt; pessoas = FGDatabaseUtils.queryStream(conn, builder, 1000, (rs) -> new Pessoa(rs))) {
+	 *     pessoas.forEach(...);
+	 * }
+	 * </pre>
+	 * 
+	 * Ver observações sobre "fetchSize" em {@link #forEachRow(Connection, FGPreparedStatementBuilder, RowCallback)}.
+	 * 
+	 * @param conn
+	 * @param builder : SQL e parâmetros da consulta
+	 * @param fetchSize : quantidade de registros que o driver traz do banco a cada ida
+	 * @param mapper
+	 * @return
+	 * @throws SQLException se houver erro ao executar a consulta
+	 */
+	public static <T> Stream<T> queryStream(Connection conn, FGPreparedStatementBuilder builder, int fetchSize, RowMapper<T> mapper) throws SQLException {
+		PreparedStatement ps = prepareStatementConsulta(conn, builder, fetchSize);
+		ResultSet rs;
+		try {
+			rs = ps.executeQuery();
+			rs.setFetchSize(fetchSize);
+		} catch (SQLException ex) {
+			closeSilently(ps);
+			throw ex;
+		}
+		
+		Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+			@Override
+			public boolean tryAdvance(Consumer<? super T> action) {
+				try {
+					if (!rs.next()) {
+						return false;
+					}
+					action.accept(mapper.map(rs));
+					return true;
+				} catch (SQLException ex) {
+					throw new UncheckedSQLException(ex);
+				}
+			}
+		};
+		return StreamSupport.stream(spliterator, false).onClose(() -> closeAllSilently(rs, ps));
+	}
+	
+	private static PreparedStatement prepareStatementConsulta(Connection conn, FGPreparedStatementBuilder builder, int fetchSize) throws SQLException {
+		PreparedStatement ps = builder.build(conn, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		try {
+			ps.setFetchSize(fetchSize);
+			return ps;
+		} catch (SQLException ex) {
+			closeSilently(ps);
+			throw ex;
+		}
 	}
 	
 	/**
@@ -1,7 +1,15 @@
 package com.felipegiotto.utils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
@@ -90,4 +98,246 @@ public class FGProcessUtils {
 		}
 		return p;
 	}
+	
+	/**
+	 * Resultado de um processo executado com {@link FGProcessUtils#executarComandoAsync(List, long, int)}
+	 */
+	public static class ResultadoProcesso {
+		
+		private final int codigoRetorno;
+		private final byte[] saida;
+		private final boolean saidaTruncada;
+		private final byte[] erro;
+		private final boolean erroTruncado;
+		private final long duracaoMillis;
+		
+		private ResultadoProcesso(int codigoRetorno, SaidaCapturada saida, SaidaCapturada erro, long duracaoMillis) {
+			this.codigoRetorno = codigoRetorno;
+			this.saida = saida.bytes;
+			this.saidaTruncada = saida.truncada;
+			this.erro = erro.bytes;
+			this.erroTruncado = erro.truncada;
+			this.duracaoMillis = duracaoMillis;
+		}
+		
+		public int getCodigoRetorno() {
+			return codigoRetorno;
+		}
+		
+		/**
+		 * Saída padrão (STDOUT) do processo, limitada ao tamanho máximo informado na execução
+		 */
+		public byte[] getSaidaBytes() {
+			return saida;
+		}
+		
+		public String getSaida() {
+			return new String(saida, Charset.defaultCharset());
+		}
+		
+		/**
+		 * Indica se a saída ultrapassou o tamanho máximo e foi descartada a partir deste ponto
+		 */
+		public boolean isSaidaTruncada() {
+			return saidaTruncada;
+		}
+		
+		/**
+		 * Saída de erro (STDERR) do processo, limitada ao tamanho máximo informado na execução
+		 */
+		public byte[] getErroBytes() {
+			return erro;
+		}
+		
+		public String getErro() {
+			return new String(erro, Charset.defaultCharset());
+		}
+		
+		public boolean isErroTruncado() {
+			return erroTruncado;
+		}
+		
+		public long getDuracaoMillis() {
+			return duracaoMillis;
+		}
+		
+		/**
+		 * Confere se o processo retornou o valor esperado. Se não, lança uma RuntimeException.
+		 */
+		public void conferirRetorno(int valorEsperado) {
+			if (codigoRetorno != valorEsperado) {
+				throw new RuntimeException("ERRO! Processo deveria retornar " + valorEsperado + ", mas retornou " + codigoRetorno + "!");
+			}
+		}
+	}
+	
+	private static class SaidaCapturada {
+		private final byte[] bytes;
+		private final boolean truncada;
+		
+		private SaidaCapturada(byte[] bytes, boolean truncada) {
+			this.bytes = bytes;
+			this.truncada = truncada;
+		}
+	}
+	
+	/**
+	 * Tamanho máximo padrão de cada saída (STDOUT/STDERR) capturada em {@link #executarComandoAsync(List)}
+	 */
+	public static final int TAMANHO_MAXIMO_SAIDA_PADRAO = 1024 * 1024;
+	
+	/**
+	 * Executa um comando sem bloquear a thread atual, capturando as saídas (STDOUT e STDERR).
+	 * 
+	 * Ver {@link #executarComandoAsync(List, long, int)}.
+	 */
+	public static CompletableFuture<ResultadoProcesso> executarComandoAsync(List<String> parametros) throws IOException {
+		return executarComandoAsync(parametros, 0, TAMANHO_MAXIMO_SAIDA_PADRAO);
+	}
+	
+	/**
+	 * Executa um comando sem bloquear a thread atual, capturando as saídas (STDOUT e STDERR).
+	 * 
+	 * As saídas são lidas em um pool compartilhado (ver {@link FGStreamUtils}) e o término de todos
+	 * os processos é verificado por uma única thread de monitoramento, então muitos processos
+	 * simultâneos não exigem threads bloqueadas em "waitFor()". A entrada (STDIN) do processo é fechada.
+	 * 
+	 * Ex:
+	 * <pre>executarComandoAsync(Arrays.asList("ls", "-l"), 10_000, 64 * 1024).thenAccept((r) -> System.out.println(r.getSaida()));</pre>
+	 * 
+	 * @param parametros
+	 * @param tempoMaximoMillis : se maior que zero, o processo é finalizado ("destroyForcibly") ao 
+	 * ultrapassar este tempo e o Future termina com {@link TimeoutException}
+	 * @param tamanhoMaximoSaida : quantidade máxima de bytes capturados de cada saída. O restante é lido e 
+	 * descartado, para que o processo não fique bloqueado (ver {@link ResultadoProcesso#isSaidaTruncada()})
+	 * @return Future com o resultado. Se for cancelado ("cancel"), o processo é finalizado.
+	 * @throws IOException se o processo não puder ser iniciado
+	 */
+	public static CompletableFuture<ResultadoProcesso> executarComandoAsync(List<String> parametros, long tempoMaximoMillis, int tamanhoMaximoSaida) throws IOException {
+		long inicio = System.nanoTime();
+		Process p = executarComando(parametros);
+		p.getOutputStream().close();
+		
+		CompletableFuture<SaidaCapturada> saida = FGStreamUtils.iniciarBomba(() -> capturarSaida(p.getInputStream(), tamanhoMaximoSaida));
+		CompletableFuture<SaidaCapturada> erro = FGStreamUtils.iniciarBomba(() -> capturarSaida(p.getErrorStream(), tamanhoMaximoSaida));
+		
+		ProcessoMonitorado monitorado = new ProcessoMonitorado(p, tempoMaximoMillis > 0 ? inicio + TimeUnit.MILLISECONDS.toNanos(tempoMaximoMillis) : null, parametros);
+		monitorar(monitorado);
+		
+		CompletableFuture<ResultadoProcesso> resultado = new CompletableFuture<>();
+		CompletableFuture.allOf(monitorado.termino, saida, erro).whenComplete((v, ex) -> {
+			if (ex != null) {
+				resultado.completeExceptionally(ex instanceof CompletionException ? ex.getCause() : ex);
+			} else {
+				long duracaoMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio);
+				resultado.complete(new ResultadoProcesso(monitorado.termino.join(), saida.join(), erro.join(), duracaoMillis));
+			}
+		});
+		
+		// Cancelamento pelo chamador finaliza o processo
+		resultado.whenComplete((r, ex) -> {
+			if (resultado.isCancelled()) {
+				LOGGER.debug("Execução cancelada. Finalizando processo " + StringUtils.join(parametros, " "));
+				p.destroyForcibly();
+			}
+		});
+		return resultado;
+	}
+	
+	private static SaidaCapturada capturarSaida(InputStream inputStream, int tamanhoMaximo) {
+		ByteArrayOutputStream capturado = new ByteArrayOutputStream();
+		boolean truncada = false;
+		byte[] buffer = new byte[FGStreamUtils.TAMANHO_BUFFER_COPIA];
+		try (InputStream is = inputStream) {
+			int lidos;
+			while ((lidos = is.read(buffer)) != -1) {
+				int restante = tamanhoMaximo - capturado.size();
+				if (lidos > restante) {
+					truncada = true;
+				}
+				if (restante > 0) {
+					capturado.write(buffer, 0, Math.min(lidos, restante));
+				}
+			}
+		} catch (IOException ex) {
+			
+			// Stream é fechado quando o processo é finalizado por timeout ou cancelamento
+			LOGGER.debug("Erro ignorado ao ler Stream: " + ex.getLocalizedMessage(), ex);
+		}
+		return new SaidaCapturada(capturado.toByteArray(), truncada);
+	}
+	
+	/**
+	 * Intervalo entre as verificações dos processos em execução
+	 */
+	private static final long INTERVALO_MONITORAMENTO_MILLIS = 10;
+	
+	private static class ProcessoMonitorado {
+		private final Process processo;
+		private final Long prazoNanos;
+		private final List<String> parametros;
+		private final CompletableFuture<Integer> termino = new CompletableFuture<>();
+		
+		private ProcessoMonitorado(Process processo, Long prazoNanos, List<String> parametros) {
+			this.processo = processo;
+			this.prazoNanos = prazoNanos;
+			this.parametros = parametros;
+		}
+	}
+	
+	private static final List<ProcessoMonitorado> PROCESSOS_MONITORADOS = new ArrayList<>();
+	private static Thread threadMonitoramento;
+	
+	private static void monitorar(ProcessoMonitorado monitorado) {
+		synchronized (PROCESSOS_MONITORADOS) {
+			PROCESSOS_MONITORADOS.add(monitorado);
+			if (threadMonitoramento == null) {
+				threadMonitoramento = new Thread(FGProcessUtils::monitorarProcessos, "FGProcessUtils-monitor");
+				threadMonitoramento.setDaemon(true);
+				threadMonitoramento.start();
+			}
+			PROCESSOS_MONITORADOS.notifyAll();
+		}
+	}
+	
+	/**
+	 * Thread única que identifica o término (ou o tempo esgotado) de todos os processos assíncronos
+	 */
+	private static void monitorarProcessos() {
+		try {
+			while (true) {
+				List<ProcessoMonitorado> processos;
+				synchronized (PROCESSOS_MONITORADOS) {
+					while (PROCESSOS_MONITORADOS.isEmpty()) {
+						PROCESSOS_MONITORADOS.wait();
+					}
+					processos = new ArrayList<>(PROCESSOS_MONITORADOS);
+				}
+				
+				List<ProcessoMonitorado> finalizados = new ArrayList<>();
+				long agora = System.nanoTime();
+				for (ProcessoMonitorado monitorado: processos) {
+					if (!monitorado.processo.isAlive()) {
+						monitorado.termino.complete(monitorado.processo.exitValue());
+						finalizados.add(monitorado);
+					} else if (monitorado.prazoNanos != null && agora - monitorado.prazoNanos > 0) {
+						monitorado.processo.destroyForcibly();
+						monitorado.termino.completeExceptionally(new TimeoutException("Tempo esgotado ao executar comando " + StringUtils.join(monitorado.parametros, " ")));
+						finalizados.add(monitorado);
+					}
+				}
+				if (!finalizados.isEmpty()) {
+					synchronized (PROCESSOS_MONITORADOS) {
+						PROCESSOS_MONITORADOS.removeAll(finalizados);
+					}
+				}
+				Thread.sleep(INTERVALO_MONITORAMENTO_MILLIS);
+			}
+		} catch (InterruptedException ex) {
+			LOGGER.warn("Monitoramento de processos interrompido", ex);
+			synchronized (PROCESSOS_MONITORADOS) {
+				threadMonitoramento = null;
+			}
+		}
+	}
 }
@@ -0,0 +1,379 @@
+package com.felipegiotto.utils;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.felipegiotto.misc.FGPreparedStatementBuilder;
+import com.felipegiotto.utils.FGDatabaseUtils.RowMapper;
+import com.felipegiotto.utils.datasources.FGConnectionFactory;
+
+/**
+ * Cache de resultados de consultas ao "default data source", para consultas repetidas com
+ * frequência (ex: totais exibidos em painéis).
+ *
+ * O uso é opcional: somente as consultas feitas através de um objeto desta classe utilizam o cache.
+ *
+ * - Os resultados são identificados pelo SQL e pelos parâmetros.
+ * - Cada resultado expira após o tempo informado, e os menos utilizados são descartados quando o
+ *   cache atinge o tamanho máximo.
+ * - Se várias threads fizerem a mesma consulta ao mesmo tempo, somente uma vai ao banco, e as
+ *   outras aguardam o seu resultado.
+ * - Cada consulta informa as tabelas de que depende. As alterações feitas com
+ *   {@link #executeUpdate(String, String...)} (ou informadas com {@link #invalidarTabelas(String...)})
+ *   descartam os resultados dessas tabelas.
+ * - As consultas são sempre feitas no banco primário, mesmo que haja um router com réplicas
+ *   (ver {@link FGConnectionFactory#setDefaultRouter}): uma réplica atrasada devolveria, logo após
+ *   a invalidação, os dados anteriores à alteração, que ficariam no cache até expirar.
+ *
+ * Ex:
+ <code>
+ 	private static final FGQueryCache CACHE = new FGQueryCache(1000, 60_000);
+ 	...
+ 	Integer total = CACHE.executeQueryInt("SELECT COUNT(*) FROM pessoas", "pessoas");
+ 	...
+ 	CACHE.executeUpdate("DELETE FROM pessoas WHERE id = 1", "pessoas");
+ </code>
+ *
+ * @author felipegiotto@gmail.com
+ */
+public class FGQueryCache {
+	
+	private static final Logger LOGGER = LogManager.getLogger(FGQueryCache.class);
+	
+	/**
+	 * Consulta executada quando o resultado não está no cache
+	 */
+	public interface Carregador<T> {
+		public T carregar() throws SQLException;
+	}
+	
+	private static final class Chave {
+		private final String sql;
+		private final List<Object> params;
+		private final int hash;
+		
+		Chave(String sql, List<Object> params) {
+			this.sql = sql;
+			this.params = params;
+			this.hash = 31 * sql.hashCode() + params.hashCode();
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Chave)) {
+				return false;
+			}
+			Chave outra = (Chave) obj;
+			return hash == outra.hash && sql.equals(outra.sql) && params.equals(outra.params);
+		}
+	}
+	
+	private static final class Resultado {
+		private final Object valor;
+		private final long expiracao;
+		private final Set<String> tabelas;
+		
+		Resultado(Object valor, long expiracao, Set<String> tabelas) {
+			this.valor = valor;
+			this.expiracao = expiracao;
+			this.tabelas = tabelas;
+		}
+	}
+	
+	private static final class ConsultaEmAndamento {
+		private final CompletableFuture<Object> futuro = new CompletableFuture<>();
+		private final Set<String> tabelas;
+		
+		ConsultaEmAndamento(Set<String> tabelas) {
+			this.tabelas = tabelas;
+		}
+	}
+	
+	private final int tamanhoMaximo;
+	private final long ttlMillis;
+	private final Map<Chave, Resultado> resultados;
+	private final Map<Chave, ConsultaEmAndamento> consultasEmAndamento = new ConcurrentHashMap<>();
+	
+	// Incrementado a cada invalidação. Cada tabela guarda a geração da sua última invalidação, para que
+	// consultas iniciadas antes dela não gravem resultados antigos (protegidos por "resultados")
+	private long geracao = 0;
+	private long geracaoInvalidacaoTotal = 0;
+	private final Map<String, Long> geracaoInvalidacaoTabelas = new HashMap<>();
+	
+	private final AtomicLong acertos = new AtomicLong();
+	private final AtomicLong consultasBanco = new AtomicLong();
+	private final AtomicLong consultasAgrupadas = new AtomicLong();
+	
+	/**
+	 * @param tamanhoMaximo : quantidade máxima de resultados mantidos em cache
+	 * @param ttlMillis : tempo após o qual cada resultado é descartado
+	 */
+	public FGQueryCache(int tamanhoMaximo, long ttlMillis) {
+		this.tamanhoMaximo = tamanhoMaximo;
+		this.ttlMillis = ttlMillis;
+		this.resultados = new LinkedHashMap<Chave, Resultado>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Chave, Resultado> eldest) {
+				return size() > FGQueryCache.this.tamanhoMaximo;
+			}
+		};
+	}
+	
+	/**
+	 * Ver {@link FGDatabaseUtils#executeQueryInt(String)}
+	 *
+	 * @param sql
+	 * @param tabelas : tabelas consultadas, para invalidação do resultado
+	 */
+	public Integer executeQueryInt(String sql, String... tabelas) throws SQLException {
+		return consultar(sql, Collections.emptyList(), () -> {
+			try (Connection conn = FGConnectionFactory.getDefaultDataSource().getConnection()) {
+				return FGDatabaseUtils.executeQueryInt(conn, sql);
+			}
+		}, tabelas);
+	}
+	
+	/**
+	 * Ver {@link FGDatabaseUtils#executeQueryLong(String)}
+	 *
+	 * @param sql
+	 * @param tabelas : tabelas consultadas, para invalidação do resultado
+	 */
+	public Long executeQueryLong(String sql, String... tabelas) throws SQLException {
+		return consultar(sql, Collections.emptyList(), () -> {
+			try (Connection conn = FGConnectionFactory.getDefaultDataSource().getConnection()) {
+				return FGDatabaseUtils.executeQueryLong(conn, sql);
+			}
+		}, tabelas);
+	}
+	
+	/**
+	 * Ver {@link FGDatabaseUtils#queryList(Connection, FGPreparedStatementBuilder, RowMapper)}.
+	 * A lista retornada não pode ser alterada, pois é compartilhada entre as chamadas.
+	 *
+	 * @param builder : SQL e parâmetros da consulta
+	 * @param mapper
+	 * @param tabelas : tabelas consultadas, para invalidação do resultado
+	 */
+	public <T> List<T> queryList(FGPreparedStatementBuilder builder, RowMapper<T> mapper, String... tabelas) throws SQLException {
+		return consultar(builder.getSQL(), builder.getParams(), () -> {
+			try (Connection conn = FGConnectionFactory.getDefaultDataSource().getConnection()) {
+				return Collections.unmodifiableList(FGDatabaseUtils.queryList(conn, builder, mapper));
+			}
+		}, tabelas);
+	}
+	
+	/**
+	 * Retorna o resultado do cache ou, se não houver, executa a consulta e grava o resultado.
+	 *
+	 * Se a mesma consulta já estiver sendo executada por outra thread, aguarda o seu resultado.
+	 * Exceções não são gravadas no cache.
+	 *
+	 * @param sql : SQL da consulta (identificação do resultado)
+	 * @param params : parâmetros da consulta (identificação do resultado)
+	 * @param carregador : executa a consulta no banco
+	 * @param tabelas : tabelas consultadas, para invalidação do resultado
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T consultar(String sql, List<Object> params, Carregador<T> carregador, String... tabelas) throws SQLException {
+		Chave chave = new Chave(sql, new ArrayList<>(params));
+		long agora = System.currentTimeMillis();
+		synchronized (resultados) {
+			Resultado resultado = resultados.get(chave);
+			if (resultado != null) {
+				if (resultado.expiracao > agora) {
+					acertos.incrementAndGet();
+					return (T) resultado.valor;
+				}
+				resultados.remove(chave);
+			}
+		}
+		
+		Set<String> tabelasConsulta = normalizarTabelas(tabelas);
+		ConsultaEmAndamento consulta = new ConsultaEmAndamento(tabelasConsulta);
+		ConsultaEmAndamento emAndamento = consultasEmAndamento.putIfAbsent(chave, consulta);
+		if (emAndamento != null) {
+			consultasAgrupadas.incrementAndGet();
+			return (T) aguardar(emAndamento.futuro);
+		}
+		
+		try {
+			long geracaoInicial;
+			synchronized (resultados) {
+				geracaoInicial = geracao;
+			}
+			consultasBanco.incrementAndGet();
+			T valor = carregador.carregar();
+			synchronized (resultados) {
+				if (!isInvalidadaApos(tabelasConsulta, geracaoInicial)) {
+					resultados.put(chave, new Resultado(valor, System.currentTimeMillis() + ttlMillis, tabelasConsulta));
+				}
+			}
+			consulta.futuro.complete(valor);
+			return valor;
+		
+		} catch (SQLException | RuntimeException ex) {
+			consulta.futuro.completeExceptionally(ex);
+			throw ex;
+		} finally {
+			consultasEmAndamento.remove(chave, consulta);
+		}
+	}
+	
+	/**
+	 * Indica se alguma das tabelas foi invalidada depois da geração informada (deve ser chamado
+	 * com o lock de "resultados")
+	 */
+	private boolean isInvalidadaApos(Set<String> tabelas, long geracaoInicial) {
+		if (geracaoInvalidacaoTotal > geracaoInicial) {
+			return true;
+		}
+		for (String tabela: tabelas) {
+			Long geracaoTabela = geracaoInvalidacaoTabelas.get(tabela);
+			if (geracaoTabela != null && geracaoTabela > geracaoInicial) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static Object aguardar(CompletableFuture<Object> consulta) throws SQLException {
+		try {
+			return consulta.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrompido aguardando consulta em andamento", ex);
+		} catch (ExecutionException ex) {
+			Throwable causa = ex.getCause();
+			if (causa instanceof SQLException) {
+				throw (SQLException) causa;
+			}
+			if (causa instanceof RuntimeException) {
+				throw (RuntimeException) causa;
+			}
+			throw new SQLException(causa);
+		}
+	}
+	
+	/**
+	 * Executa uma operação DML (ver {@link FGDatabaseUtils#executeUpdate(String)}) e descarta
+	 * os resultados das tabelas informadas.
+	 *
+	 * @param sql
+	 * @param tabelas : tabelas alteradas
+	 */
+	public Integer executeUpdate(String sql, String... tabelas) throws SQLException {
+		try {
+			return FGDatabaseUtils.executeUpdate(sql);
+		} finally {
+			invalidarTabelas(tabelas);
+		}
+	}
+	
+	/**
+	 * Descarta os resultados das consultas que dependem das tabelas informadas
+	 * (ex: após alterações feitas fora deste cache).
+	 *
+	 * @param tabelas
+	 */
+	public void invalidarTabelas(String... tabelas) {
+		Set<String> invalidas = normalizarTabelas(tabelas);
+		int removidos = 0;
+		synchronized (resultados) {
+			geracao++;
+			for (String tabela: invalidas) {
+				geracaoInvalidacaoTabelas.put(tabela, geracao);
+			}
+			for (Iterator<Resultado> it = resultados.values().iterator(); it.hasNext(); ) {
+				if (!Collections.disjoint(it.next().tabelas, invalidas)) {
+					it.remove();
+					removidos++;
+				}
+			}
+		}
+		
+		// Quem chegar depois da invalidação não pode aguardar uma consulta das mesmas tabelas iniciada antes dela
+		consultasEmAndamento.values().removeIf(consulta -> !Collections.disjoint(consulta.tabelas, invalidas));
+		LOGGER.trace("Cache invalidado para as tabelas " + invalidas + ": " + removidos + " resultado(s) descartado(s)");
+	}
+	
+	/**
+	 * Descarta todos os resultados
+	 */
+	public void invalidarTudo() {
+		synchronized (resultados) {
+			geracao++;
+			geracaoInvalidacaoTotal = geracao;
+			geracaoInvalidacaoTabelas.clear();
+			resultados.clear();
+		}
+		consultasEmAndamento.clear();
+	}
+	
+	private static Set<String> normalizarTabelas(String... tabelas) {
+		Set<String> normalizadas = new HashSet<>();
+		for (String tabela: tabelas) {
+			normalizadas.add(tabela.toLowerCase(Locale.ROOT));
+		}
+		return normalizadas;
+	}
+	
+	/**
+	 * Quantidade de resultados mantidos em cache
+	 */
+	public int getQuantidadeResultados() {
+		synchronized (resultados) {
+			return resultados.size();
+		}
+	}
+	
+	/**
+	 * Quantidade de consultas respondidas pelo cache
+	 */
+	public long getQuantidadeAcertos() {
+		return acertos.get();
+	}
+	
+	/**
+	 * Quantidade de consultas que foram ao banco
+	 */
+	public long getQuantidadeConsultasBanco() {
+		return consultasBanco.get();
+	}
+	
+	/**
+	 * Quantidade de consultas que aguardaram a mesma consulta, já em andamento em outra thread
+	 */
+	public long getQuantidadeConsultasAgrupadas() {
+		return consultasAgrupadas.get();
+	}
+	
+	@Override
+	public String toString() {
+		return "resultados=" + getQuantidadeResultados() + ", acertos=" + acertos + ", consultasBanco=" + consultasBanco + ", agrupadas=" + consultasAgrupadas;
+	}
+}
@@ -5,6 +5,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -14,6 +15,10 @@ import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.felipegiotto.utils.ffmpeg.FFmpegHlsCache;
+import com.felipegiotto.utils.ffmpeg.util.FFmpegDiskCache;
+import com.felipegiotto.utils.ffmpeg.util.FFmpegException;
+
 /**
  * Fonte: 
  * * https://gist.github.com/harshadura/6420565
@@ -35,11 +40,57 @@ public class FGServletUtils {
 	
 	
 	public static void doHeadServeFileWithRange(File file, HttpServletRequest request, HttpServletResponse response) throws IOException {
-		processRequestServeFileWithRange(file, request, response, false);
+		processRequestServeFileWithRange(file, request, response, false, null);
 	}
 
 	public static void doGetServeFileWithRange(File file, HttpServletRequest request, HttpServletResponse response) throws IOException {
-		processRequestServeFileWithRange(file, request, response, true);
+		processRequestServeFileWithRange(file, request, response, true, null);
+	}
+	
+	/**
+	 * Serve um vídeo no formato HLS, gerando a playlist e os segmentos sob demanda (ver {@link FFmpegHlsCache}).
+	 * 
+	 * O cliente deve solicitar primeiro a playlist ("index.m3u8") e, depois, os segmentos listados
+	 * nela (ex: "seg00000.ts"), que devem ser mapeados para o mesmo vídeo. Ex: 
+	 * "/videos/hls/123/index.m3u8" e "/videos/hls/123/seg00000.ts".
+	 * 
+	 * @param video : vídeo original
+	 * @param recurso : nome do arquivo solicitado (playlist ou segmento)
+	 * @param cache : cache onde os segmentos serão gerados
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	public static void doGetServeHls(File video, String recurso, FFmpegHlsCache cache, HttpServletRequest request, HttpServletResponse response) throws IOException {
+		if (!video.isFile()) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		
+		try {
+			if (FFmpegHlsCache.NOME_PLAYLIST.equals(recurso)) {
+				byte[] playlist = cache.getPlaylist(video).getBytes(StandardCharsets.UTF_8);
+				response.setContentType("application/vnd.apple.mpegurl");
+				response.setContentLength(playlist.length);
+				response.getOutputStream().write(playlist);
+				return;
+			}
+			
+			Integer indice = FFmpegHlsCache.getIndiceSegmento(recurso);
+			if (indice == null) {
+				response.sendError(HttpServletResponse.SC_NOT_FOUND);
+				return;
+			}
+			try (FFmpegDiskCache.Reserva segmento = cache.getSegmento(video, indice)) {
+				processRequestServeFileWithRange(segmento.getArquivo(), request, response, true, "video/mp2t");
+			}
+			
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException(ex);
+		} catch (FFmpegException ex) {
+			throw new IOException("Erro ao gerar HLS do vídeo " + video + ": " + ex.getLocalizedMessage(), ex);
+		}
 	}
 	
 	// Constants ----------------------------------------------------------------------------------
@@ -48,7 +99,7 @@ public class FGServletUtils {
 	private static final String MULTIPART_BOUNDARY = "MULTIPART_BYTERANGES";
 
 	private static void processRequestServeFileWithRange(File file, HttpServletRequest request,
-			HttpServletResponse response, boolean content) throws IOException {
+			HttpServletResponse response, boolean content, String contentTypeFixo) throws IOException {
 		
 		// Check if file actually exists in filesystem.
 				if (!file.isFile()) {
@@ -148,7 +199,7 @@ public class FGServletUtils {
 				}
 				// Prepare and initialize response --------------------------------------------------------
 				// Get content type by file name and set default GZIP support and content disposition.
-				String contentType = request.getServletContext().getMimeType(fileName);
+				String contentType = contentTypeFixo != null ? contentTypeFixo : request.getServletContext().getMimeType(fileName);
 				boolean acceptsGzip = false;
 				String disposition = "inline";
 				// If content type is unknown, then set the default value.
@@ -4,22 +4,47 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.commons.io.input.CountingInputStream;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
  * Métodos auxiliares referentes a streams
- * 
+ *
+ * A leitura assíncrona de streams (ex: saídas de processos) é feita por um serviço compartilhado
+ * de "bombas": threads "daemon" nomeadas, reaproveitadas de um pool limitado (ou "virtual threads",
+ * quando disponíveis no Java em execução). Ver {@link #getQuantidadeBombasAtivas()}.
+ *
  * @author felipegiotto@gmail.com
  */
 public class FGStreamUtils {
-
+	
 	public interface LineFound {
 		public void process(String line);
 	}
 	
+	/**
+	 * Callback chamado a cada bloco de bytes lido de um stream. O buffer é reaproveitado entre
+	 * as chamadas, então os dados devem ser copiados se forem utilizados depois.
+	 */
+	public interface BytesFound {
+		public void process(byte[] buffer, int tamanho) throws IOException;
+	}
+	
 	private static final Logger LOGGER = LogManager.getLogger(FGStreamUtils.class);
 	
 	/**
@@ -27,6 +52,114 @@ public class FGStreamUtils {
 	 */
 	private FGStreamUtils() { }
 	
+	/**
+	 * Tamanho do buffer utilizado para copiar dados entre streams (ex: de/para processos)
+	 */
+	public static final int TAMANHO_BUFFER_COPIA = 64 * 1024;
+	
+	/**
+	 * Quantidade máxima de threads mantidas no pool de leitura de streams
+	 */
+	private static final int MAXIMO_THREADS_POOL = Math.max(32, Runtime.getRuntime().availableProcessors() * 8);
+	
+	private static final AtomicInteger CONTADOR_THREADS = new AtomicInteger();
+	private static final AtomicInteger BOMBAS_ATIVAS = new AtomicInteger();
+	private static final AtomicLong BOMBAS_INICIADAS = new AtomicLong();
+	private static final AtomicLong BOMBAS_COM_ERRO = new AtomicLong();
+	private static final AtomicLong BYTES_LIDOS = new AtomicLong();
+	
+	private static final Executor EXECUTOR_STREAMS = criarExecutorStreams();
+	
+	/**
+	 * Cria o executor das bombas: "virtual threads" se o Java em execução suportar (21+),
+	 * senão um pool compartilhado de threads "daemon".
+	 * 
+	 * Como cada leitura fica bloqueada até o final do stream, as tarefas não podem aguardar em fila
+	 * (um processo poderia travar com a saída cheia): se o pool estiver esgotado, a tarefa é executada
+	 * em uma thread dedicada.
+	 */
+	private static Executor criarExecutorStreams() {
+		try {
+			Method metodo = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			Executor executor = (Executor) metodo.invoke(null);
+			LOGGER.debug("Utilizando virtual threads para leitura de streams");
+			return executor;
+		} catch (NoSuchMethodException ex) {
+			// Java anterior ao 21
+		} catch (ReflectiveOperationException | RuntimeException ex) {
+			LOGGER.warn("Não foi possível utilizar virtual threads para leitura de streams: " + ex.getLocalizedMessage(), ex);
+		}
+		
+		return new ThreadPoolExecutor(0, MAXIMO_THREADS_POOL, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+				(tarefa) -> {
+					Thread thread = new Thread(tarefa, "FGStreamUtils-" + CONTADOR_THREADS.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				},
+				(tarefa, executor) -> {
+					Thread thread = new Thread(tarefa, "FGStreamUtils-extra-" + CONTADOR_THREADS.incrementAndGet());
+					thread.setDaemon(true);
+					thread.start();
+				});
+	}
+	
+	/**
+	 * Executa uma tarefa que lê ou escreve streams até o final (uma "bomba"), contabilizando-a nas métricas
+	 */
+	static <T> CompletableFuture<T> iniciarBomba(Callable<T> tarefa) {
+		CompletableFuture<T> futuro = new CompletableFuture<>();
+		BOMBAS_INICIADAS.incrementAndGet();
+		BOMBAS_ATIVAS.incrementAndGet();
+		EXECUTOR_STREAMS.execute(() -> {
+			try {
+				futuro.complete(tarefa.call());
+			} catch (Throwable ex) {
+				BOMBAS_COM_ERRO.incrementAndGet();
+				futuro.completeExceptionally(ex);
+			} finally {
+				BOMBAS_ATIVAS.decrementAndGet();
+			}
+		});
+		return futuro;
+	}
+	
+	/**
+	 * Quantidade de streams sendo lidos neste momento
+	 */
+	public static int getQuantidadeBombasAtivas() {
+		return BOMBAS_ATIVAS.get();
+	}
+	
+	/**
+	 * Quantidade de leituras de streams iniciadas desde o início da aplicação
+	 */
+	public static long getQuantidadeBombasIniciadas() {
+		return BOMBAS_INICIADAS.get();
+	}
+	
+	/**
+	 * Quantidade de leituras de streams que terminaram com erro
+	 */
+	public static long getQuantidadeBombasComErro() {
+		return BOMBAS_COM_ERRO.get();
+	}
+	
+	/**
+	 * Total de bytes lidos pelas bombas desde o início da aplicação
+	 */
+	public static long getQuantidadeBytesLidos() {
+		return BYTES_LIDOS.get();
+	}
+	
+	/**
+	 * Quantidade de threads existentes no pool (ou zero, se forem utilizadas "virtual threads")
+	 */
+	public static int getQuantidadeThreadsPool() {
+		if (EXECUTOR_STREAMS instanceof ThreadPoolExecutor) {
+			return ((ThreadPoolExecutor) EXECUTOR_STREAMS).getPoolSize();
+		}
+		return 0;
+	}
 	
 	/**
 	 * Consome um stream de forma assíncrona, chamando um callback para cada linha encontrada.
@@ -37,60 +170,129 @@ public class FGStreamUtils {
 	 * 
 	 * @param inputStream que será lido
 	 * @param lineFound callback chamado para cada linha encontrada
+	 * @return Future com a quantidade de linhas lidas
 	 */
-	public static void consomeStream(final InputStream inputStream, LineFound lineFound) {
-		new Thread(new Runnable() {
-
-			@Override
-			public void run() {
-				
-				try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-				    String line;
-				    while ((line = reader.readLine()) != null) {
-				    	if (lineFound != null) {
-				    		lineFound.process(line);
-				    	}
-				    }
-				} catch (IOException ex) {
-					LOGGER.debug("Erro ignorado ao ler Stream: " + ex.getLocalizedMessage(), ex);
-				}
+	public static Future<Long> consomeStream(final InputStream inputStream, LineFound lineFound) {
+		return iniciarBomba(() -> {
+			CountingInputStream contador = new CountingInputStream(inputStream);
+			long linhas = 0;
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(contador), TAMANHO_BUFFER_COPIA)) {
+			    String line;
+			    while ((line = reader.readLine()) != null) {
+			    	linhas++;
+			    	if (lineFound != null) {
+			    		lineFound.process(line);
+			    	}
+			    }
+			} catch (IOException ex) {
+				LOGGER.debug("Erro ignorado ao ler Stream: " + ex.getLocalizedMessage(), ex);
+			} finally {
+				BYTES_LIDOS.addAndGet(contador.getByteCount());
 			}
-		}).start();
+			return linhas;
+		});
 	}
 	
 	
 	/**
 	 * Consome um stream de forma assíncrona, logando (ou não) cada linha que é lida
-	 *
+	 * 
 	 * Se prefixo == null || level == null, não escreve nada no log
 	 * 
 	 * @param inputStream
 	 * @param prefixo : prefixo que será gravado no log antes de cada linha lida do Stream.
 	 * @param level : nível de log utilizado para escrever no log
+	 * @return Future que termina ao final da leitura
 	 */
-	public static void consomeStream(final InputStream inputStream, final String prefixo, final Level level) {
-		new Thread(new Runnable() {
-
-			@Override
-			public void run() {
-				
-				try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-				    String line;
-				    while ((line = reader.readLine()) != null) {
-				    	if (prefixo != null && level != null) {
-				    		LOGGER.log(level, prefixo + " " + line);
-				    	}
-				    }
-				} catch (IOException ex) {
-					if (level != null) {
-						LOGGER.log(level, "Erro ignorado ao ler Stream: " + ex.getLocalizedMessage(), ex);
-					}
+	public static Future<?> consomeStream(final InputStream inputStream, final String prefixo, final Level level) {
+		if (prefixo == null || level == null) {
+			
+			// Somente descarta o conteúdo, sem separar em linhas
+			return consomeStreamBytes(inputStream, null).exceptionally((ex) -> {
+				if (level != null) {
+					LOGGER.log(level, "Erro ignorado ao ler Stream: " + ex.getLocalizedMessage(), ex);
 				}
+				return 0L;
+			});
+		}
+		return consomeStream(inputStream, (line) -> LOGGER.log(level, prefixo + " " + line));
+	}
+	
+	public static Future<?> consomeStream(final InputStream inputStream, final String prefixo) {
+		return consomeStream(inputStream, prefixo, Level.DEBUG);
+	}
+	
+	/**
+	 * Consome um stream de forma assíncrona, chamando um callback para cada bloco de bytes lido
+	 * (em blocos de até {@link #TAMANHO_BUFFER_COPIA} bytes). O stream é fechado ao final.
+	 * 
+	 * @param inputStream
+	 * @param bytesFound : callback chamado para cada bloco, ou "null" para somente descartar o conteúdo
+	 * @return Future com a quantidade de bytes lidos. Se houver erro na leitura ou no callback, "get()" lançará ExecutionException.
+	 */
+	public static CompletableFuture<Long> consomeStreamBytes(final InputStream inputStream, final BytesFound bytesFound) {
+		return iniciarBomba(() -> {
+			try (InputStream is = inputStream) {
+				return lerBytes(is, bytesFound);
 			}
-		}).start();
+		});
 	}
 	
-	public static void consomeStream(final InputStream inputStream, final String prefixo) {
-		consomeStream(inputStream, prefixo, Level.DEBUG);
+	private static long lerBytes(InputStream inputStream, BytesFound bytesFound) throws IOException {
+		byte[] buffer = new byte[TAMANHO_BUFFER_COPIA];
+		long total = 0;
+		int lidos;
+		while ((lidos = inputStream.read(buffer)) != -1) {
+			BYTES_LIDOS.addAndGet(lidos);
+			total += lidos;
+			if (bytesFound != null) {
+				bytesFound.process(buffer, lidos);
+			}
+		}
+		return total;
+	}
+	
+	/**
+	 * Copia todo o conteúdo de um stream para outro, até o final da entrada.
+	 * 
+	 * @param inputStream
+	 * @param outputStream
+	 * @return quantidade de bytes copiados
+	 * @throws IOException
+	 */
+	public static long copiaStream(InputStream inputStream, OutputStream outputStream) throws IOException {
+		byte[] buffer = new byte[TAMANHO_BUFFER_COPIA];
+		long total = 0;
+		int lidos;
+		while ((lidos = inputStream.read(buffer)) != -1) {
+			outputStream.write(buffer, 0, lidos);
+			total += lidos;
+		}
+		outputStream.flush();
+		return total;
+	}
+	
+	/**
+	 * Copia todo o conteúdo de um stream para outro, de forma assíncrona, no pool de bombas.
+	 * 
+	 * Útil para alimentar a entrada (STDIN) ou consumir a saída (STDOUT) de um processo.
+	 * 
+	 * @param inputStream
+	 * @param outputStream
+	 * @param fecharSaida : se "true", fecha o outputStream ao final da cópia (ex: para sinalizar o fim do STDIN de um processo)
+	 * @return Future com a quantidade de bytes copiados. Se houver erro na cópia, "get()" lançará ExecutionException.
+	 */
+	public static Future<Long> copiaStreamAssincrono(final InputStream inputStream, final OutputStream outputStream, final boolean fecharSaida) {
+		return iniciarBomba(() -> {
+			try {
+				long total = lerBytes(inputStream, (buffer, tamanho) -> outputStream.write(buffer, 0, tamanho));
+				outputStream.flush();
+				return total;
+			} finally {
+				if (fecharSaida) {
+					outputStream.close();
+				}
+			}
+		});
 	}
 }
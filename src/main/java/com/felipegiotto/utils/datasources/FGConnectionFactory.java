@@ -1,9 +1,19 @@
 package com.felipegiotto.utils.datasources;
 
+import java.lang.management.ManagementFactory;
 import java.sql.SQLException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
@@ -28,9 +38,25 @@ public class FGConnectionFactory {
 
 	private static final Logger LOGGER = LogManager.getLogger(FGConnectionFactory.class);
 	
-	private static Context ctx;
-	private static Map<String, DataSource> dsMap = new HashMap<>();
-	private static String defaultJdbcName;
+	private static volatile Context ctx;
+	private static final Map<String, DataSource> dsMap = new ConcurrentHashMap<>();
+	private static final AtomicReference<String> defaultJdbcName = new AtomicReference<>();
+	private static final Set<DataSource> poolsCriados = Collections.newSetFromMap(new ConcurrentHashMap<DataSource, Boolean>());
+	private static final Map<String, FGDataSourceRouter> routers = new ConcurrentHashMap<>();
+	private static final AtomicReference<FGDataSourceRouter> defaultRouter = new AtomicReference<>();
+	private static final Map<String, FGMetricasSQL> metricasSQL = new ConcurrentHashMap<>();
+	
+	/**
+	 * Intervalo entre as verificações de conexões em uso, ao drenar um pool substituído
+	 */
+	private static final long INTERVALO_DRENAGEM_MILLIS = 100;
+	
+	/**
+	 * Tempo máximo aguardando a devolução das conexões de um pool que foi substituído por outro
+	 * registrado com o mesmo nome (ex: {@link #addManualDataSource(String, FGPoolConfig)} chamado
+	 * novamente). Ver {@link #substituirDataSource(String, FGPoolConfig, long)}.
+	 */
+	private static final long TEMPO_MAXIMO_DRENAGEM_REGISTRO_MILLIS = 30_000;
 	
 	public static void loadFromWebContext(String... jdbcNames) throws NamingException {
 		
@@ -61,41 +87,301 @@ public class FGConnectionFactory {
 		ds.setDriverClassName(driverClassName);
 		ds.setUrl(url);
 		
+		poolsCriados.add(ds);
 		gravarDataSourceNoCache(jdbcName, ds);
 	}
 	
+	/**
+	 * Cria um pool de conexões com tamanho, tempos, cache de statements e detecção de vazamento
+	 * de conexões configurados (ver {@link FGPoolConfig}).
+	 * 
+	 * @param jdbcName
+	 * @param config
+	 */
+	public static void addManualDataSource(String jdbcName, FGPoolConfig config) {
+		DataSource ds = config.criarDataSource(jdbcName);
+		poolsCriados.add(ds);
+		gravarDataSourceNoCache(jdbcName, instrumentarSeConfigurado(jdbcName, ds, config));
+	}
+	
+	/**
+	 * Substitui um DataSource sem interromper a aplicação: as novas requisições passam a utilizar
+	 * o novo pool imediatamente, e o antigo (se tiver sido criado pela aplicação) é fechado em 
+	 * segundo plano, depois que todas as suas conexões forem devolvidas.
+	 * 
+	 * @param jdbcName
+	 * @param config : configuração do novo pool
+	 * @param tempoMaximoDrenagemMillis : tempo máximo aguardando a devolução das conexões do pool 
+	 * antigo. Após esse tempo, ele é fechado mesmo com conexões em uso.
+	 * @return Future que termina quando o pool antigo for fechado
+	 */
+	public static CompletableFuture<Void> substituirDataSource(String jdbcName, FGPoolConfig config, long tempoMaximoDrenagemMillis) {
+		DataSource ds = config.criarDataSource(jdbcName);
+		poolsCriados.add(ds);
+		DataSource antigo = dsMap.put(jdbcName, instrumentarSeConfigurado(jdbcName, ds, config));
+		defaultJdbcName.compareAndSet(null, jdbcName);
+		LOGGER.info("DataSource '" + jdbcName + "' substituído");
+		return drenarEFechar(jdbcName, antigo, tempoMaximoDrenagemMillis);
+	}
+	
+	/**
+	 * Remove um DataSource, fechando-o (se tiver sido criado pela aplicação) depois que todas as 
+	 * suas conexões forem devolvidas. Se for o DataSource padrão, o padrão passa a ser outro 
+	 * DataSource qualquer (ou nenhum).
+	 * 
+	 * @param jdbcName
+	 * @param tempoMaximoDrenagemMillis : ver {@link #substituirDataSource(String, FGPoolConfig, long)}
+	 * @return Future que termina quando o pool for fechado
+	 */
+	public static CompletableFuture<Void> removerDataSource(String jdbcName, long tempoMaximoDrenagemMillis) {
+		DataSource antigo = dsMap.remove(jdbcName);
+		removerMetricasSQL(jdbcName);
+		if (defaultJdbcName.compareAndSet(jdbcName, null)) {
+			for (String outro: dsMap.keySet()) {
+				if (defaultJdbcName.compareAndSet(null, outro)) {
+					break;
+				}
+			}
+		}
+		return drenarEFechar(jdbcName, antigo, tempoMaximoDrenagemMillis);
+	}
+	
+	/**
+	 * Aguarda, em uma thread separada, até que o pool não tenha conexões em uso, e o fecha.
+	 */
+	private static CompletableFuture<Void> drenarEFechar(String jdbcName, DataSource dataSource, long tempoMaximoDrenagemMillis) {
+		DataSource ds = FGDataSourceInstrumentado.getOriginal(dataSource);
+		if (ds == null || !poolsCriados.remove(ds)) {
+			
+			// Pools do container (JNDI) são gerenciados por ele
+			return CompletableFuture.completedFuture(null);
+		}
+		CompletableFuture<Void> fechamento = new CompletableFuture<>();
+		Thread thread = new Thread(() -> {
+			try {
+				long limite = System.currentTimeMillis() + tempoMaximoDrenagemMillis;
+				FGPoolMetricas metricas;
+				while ((metricas = FGPoolMetricas.obter(ds)) != null && metricas.getConexoesAtivas() > 0 && System.currentTimeMillis() < limite) {
+					Thread.sleep(INTERVALO_DRENAGEM_MILLIS);
+				}
+				if (metricas != null && metricas.getConexoesAtivas() > 0) {
+					LOGGER.warn("Fechando pool antigo do DataSource '" + jdbcName + "' com " + metricas.getConexoesAtivas() + " conexão(ões) em uso");
+				}
+			} catch (InterruptedException ex) {
+				LOGGER.warn("Drenagem do pool antigo do DataSource '" + jdbcName + "' interrompida", ex);
+			} finally {
+				FGDatabaseUtils.closeSilently(ds);
+				fechamento.complete(null);
+			}
+		}, "FGConnectionFactory-drenagem");
+		thread.setDaemon(true);
+		thread.start();
+		return fechamento;
+	}
+	
+	/**
+	 * Instrumenta um DataSource: as conexões passam a registrar métricas (tempo para obter 
+	 * conexões, tempo e registros de cada formato de SQL), que podem ser consultadas em 
+	 * {@link #getMetricasSQL(String)} ou por JMX. Os comandos lentos são gravados no log, com
+	 * os parâmetros.
+	 * 
+	 * As métricas são mantidas se o DataSource for substituído 
+	 * (ver {@link #substituirDataSource(String, FGPoolConfig, long)}), mas o novo pool só é 
+	 * instrumentado se for informado {@link FGPoolConfig#setLimiteConsultaLentaMillis(Long)}.
+	 * 
+	 * @param jdbcName
+	 * @param limiteConsultaLentaMillis : comandos que demorarem este tempo ou mais são gravados no log (zero = não grava)
+	 * @return métricas do DataSource
+	 * @throws SQLException se o DataSource não existir
+	 */
+	public static FGMetricasSQL instrumentar(String jdbcName, long limiteConsultaLentaMillis) throws SQLException {
+		FGMetricasSQL metricas = getOuCriarMetricasSQL(jdbcName, limiteConsultaLentaMillis);
+		while (true) {
+			DataSource ds = getDataSourceByJndiName(jdbcName);
+			if (ds instanceof FGDataSourceInstrumentado || dsMap.replace(jdbcName, ds, new FGDataSourceInstrumentado(ds, metricas))) {
+				return metricas;
+			}
+		}
+	}
+	
+	/**
+	 * Métricas de SQL de um DataSource instrumentado
+	 * 
+	 * @param jdbcName
+	 * @return métricas ou "null" se o DataSource não estiver instrumentado
+	 */
+	public static FGMetricasSQL getMetricasSQL(String jdbcName) {
+		return metricasSQL.get(jdbcName);
+	}
+	
+	private static DataSource instrumentarSeConfigurado(String jdbcName, DataSource ds, FGPoolConfig config) {
+		if (config.getLimiteConsultaLentaMillis() == null) {
+			return ds;
+		}
+		return new FGDataSourceInstrumentado(ds, getOuCriarMetricasSQL(jdbcName, config.getLimiteConsultaLentaMillis()));
+	}
+	
+	private static FGMetricasSQL getOuCriarMetricasSQL(String jdbcName, long limiteConsultaLentaMillis) {
+		FGMetricasSQL metricas = metricasSQL.computeIfAbsent(jdbcName, (nome) -> {
+			FGMetricasSQL novas = new FGMetricasSQL(nome, limiteConsultaLentaMillis);
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(novas, getNomeMBean(nome));
+			} catch (JMException ex) {
+				LOGGER.warn("Não foi possível registrar as métricas de SQL de '" + nome + "' no JMX: " + ex.getLocalizedMessage(), ex);
+			}
+			return novas;
+		});
+		metricas.setLimiteConsultaLentaMillis(limiteConsultaLentaMillis);
+		return metricas;
+	}
+	
+	private static void removerMetricasSQL(String jdbcName) {
+		if (metricasSQL.remove(jdbcName) != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(getNomeMBean(jdbcName));
+			} catch (JMException ex) {
+				LOGGER.debug("Erro ao remover métricas de SQL de '" + jdbcName + "' do JMX: " + ex.getLocalizedMessage(), ex);
+			}
+		}
+	}
+	
+	private static ObjectName getNomeMBean(String jdbcName) throws MalformedObjectNameException {
+		return new ObjectName("com.felipegiotto.utils:type=FGMetricasSQL,name=" + ObjectName.quote(jdbcName));
+	}
+	
+	/**
+	 * Situação atual do pool de conexões (conexões ativas, ociosas, threads aguardando)
+	 * 
+	 * @param jdbcName
+	 * @return métricas ou "null" se o DataSource não for de um tipo conhecido (ex: pool do container, via JNDI)
+	 * @throws SQLException se o DataSource não existir
+	 */
+	public static FGPoolMetricas getMetricasPool(String jdbcName) throws SQLException {
+		return FGPoolMetricas.obter(getDataSourceByJndiName(jdbcName));
+	}
+	
 	private static void gravarDataSourceNoCache(String name, DataSource ds) {
-		dsMap.put(name, ds);
-
-		if (defaultJdbcName == null) {
-			defaultJdbcName = name;
+		DataSource antigo = dsMap.put(name, ds);
+		defaultJdbcName.compareAndSet(null, name);
+		
+		// Um pool criado anteriormente com o mesmo nome não pode ficar aberto, mas as conexões
+		// que ainda estão em uso precisam terminar seus comandos
+		if (antigo != null && antigo != ds) {
+			drenarEFechar(name, antigo, TEMPO_MAXIMO_DRENAGEM_REGISTRO_MILLIS);
 		}
 	}
 	
 	public static DataSource getDataSourceByJndiName(String jdbcName) throws SQLException {
-		if (!dsMap.containsKey(jdbcName)) {
+		DataSource ds = dsMap.get(jdbcName);
+		if (ds == null) {
 			throw new SQLException("Não foi configurado DataSource com nome " + jdbcName);
 		}
-		return dsMap.get(jdbcName);
+		return ds;
+	}
+	
+	/**
+	 * Define qual DataSource será retornado por {@link #getDefaultDataSource()}. 
+	 * Por padrão, é o primeiro DataSource configurado.
+	 * 
+	 * @param jdbcName
+	 * @throws SQLException se o DataSource não existir
+	 */
+	public static void setDefaultDataSource(String jdbcName) throws SQLException {
+		getDataSourceByJndiName(jdbcName);
+		defaultJdbcName.set(jdbcName);
+	}
+	
+	/**
+	 * Registra um roteamento entre primário e réplicas, para ser utilizado com {@link #getRouter(String)}
+	 * 
+	 * @param nome
+	 * @param router
+	 */
+	public static void addRouter(String nome, FGDataSourceRouter router) {
+		FGDataSourceRouter antigo = routers.put(nome, router);
+		if (antigo != null && antigo != router) {
+			antigo.close();
+		}
+	}
+	
+	public static FGDataSourceRouter getRouter(String nome) throws SQLException {
+		FGDataSourceRouter router = routers.get(nome);
+		if (router == null) {
+			throw new SQLException("Não foi configurado roteamento com nome " + nome);
+		}
+		return router;
 	}
 	
+	/**
+	 * Define um roteamento padrão: {@link #getDefaultDataSource()} passa a retornar o primário, e
+	 * {@link #getDefaultDataSourceLeitura()} passa a distribuir as conexões entre as réplicas.
+	 * Assim, os métodos de {@link FGDatabaseUtils} que utilizam o DataSource padrão passam a 
+	 * fazer as consultas nas réplicas.
+	 * 
+	 * @param router : roteamento, ou "null" para voltar a utilizar somente o DataSource padrão
+	 */
+	public static void setDefaultRouter(FGDataSourceRouter router) {
+		defaultRouter.set(router);
+	}
+	
+	/**
+	 * DataSource para escritas: o primário do roteamento padrão, se houver, ou o DataSource padrão
+	 */
 	public static DataSource getDefaultDataSource() throws SQLException {
 		
-		if (defaultJdbcName == null) {
+		FGDataSourceRouter router = defaultRouter.get();
+		if (router != null) {
+			return router.getDataSourceEscrita();
+		}
+		
+		String jdbcName = defaultJdbcName.get();
+		if (jdbcName == null) {
 			throw new SQLException("Nenhum DataSource foi configurado. Informe algum DataSource com os métodos 'FGConnectionFactory.addManualDataSource' ou 'FGConnectionFactory.loadFromWebContext'");
 		}
-		return getDataSourceByJndiName(defaultJdbcName);
+		return getDataSourceByJndiName(jdbcName);
+	}
+	
+	/**
+	 * DataSource para consultas: as réplicas do roteamento padrão, se houver, ou o DataSource padrão
+	 * (ver {@link #setDefaultRouter(FGDataSourceRouter)})
+	 */
+	public static DataSource getDefaultDataSourceLeitura() throws SQLException {
+		FGDataSourceRouter router = defaultRouter.get();
+		if (router != null) {
+			return router.getDataSourceLeitura();
+		}
+		return getDefaultDataSource();
 	}
 	
 	public static void close() {
 		
 		LOGGER.debug("Finalizando Datasources...");
+		
+		// Primeiro impede que novas conexões sejam obtidas. Depois, fecha os pools criados pela 
+		// aplicação (os do container são gerenciados por ele). 
+		// Após o fechamento, os DataSources podem ser configurados novamente.
+		defaultRouter.set(null);
+		for (FGDataSourceRouter router: routers.values()) {
+			router.close();
+		}
+		routers.clear();
+		defaultJdbcName.set(null);
+		List<DataSource> removidos = new ArrayList<>(dsMap.values());
 		dsMap.clear();
-		dsMap = null;
+		for (String jdbcName: new ArrayList<>(metricasSQL.keySet())) {
+			removerMetricasSQL(jdbcName);
+		}
+		for (DataSource dataSource: removidos) {
+			DataSource ds = FGDataSourceInstrumentado.getOriginal(dataSource);
+			if (poolsCriados.remove(ds)) {
+				FGDatabaseUtils.closeSilently(ds);
+			}
+		}
 		
-		if (ctx != null) {
-			FGDatabaseUtils.closeAllSilently(ctx);
-			ctx = null;
+		Context contexto = ctx;
+		ctx = null;
+		if (contexto != null) {
+			FGDatabaseUtils.closeSilently(contexto);
 		}
 	}
 }
@@ -0,0 +1,321 @@
+package com.felipegiotto.utils.datasources;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+/**
+ * DataSource que registra em {@link FGMetricasSQL} o tempo para obter cada conexão e o tempo,
+ * os registros e os parâmetros de cada comando executado.
+ *
+ * As conexões, statements e resultsets retornados são "proxies" dos objetos do pool, que
+ * repassam todas as chamadas a eles.
+ *
+ * @author felipegiotto@gmail.com
+ */
+class FGDataSourceInstrumentado implements DataSource {
+	
+	private static final ClassLoader CLASS_LOADER = FGDataSourceInstrumentado.class.getClassLoader();
+	
+	private final DataSource original;
+	private final FGMetricasSQL metricas;
+	
+	FGDataSourceInstrumentado(DataSource original, FGMetricasSQL metricas) {
+		this.original = original;
+		this.metricas = metricas;
+	}
+	
+	DataSource getOriginal() {
+		return original;
+	}
+	
+	/**
+	 * DataSource do pool, se o DataSource informado estiver instrumentado
+	 */
+	static DataSource getOriginal(DataSource ds) {
+		return ds instanceof FGDataSourceInstrumentado ? ((FGDataSourceInstrumentado) ds).original : ds;
+	}
+	
+	FGMetricasSQL getMetricas() {
+		return metricas;
+	}
+	
+	@Override
+	public Connection getConnection() throws SQLException {
+		long inicio = System.nanoTime();
+		Connection conn = original.getConnection();
+		metricas.registrarObterConexao(System.nanoTime() - inicio);
+		return instrumentarConexao(conn);
+	}
+	
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		long inicio = System.nanoTime();
+		Connection conn = original.getConnection(username, password);
+		metricas.registrarObterConexao(System.nanoTime() - inicio);
+		return instrumentarConexao(conn);
+	}
+	
+	private Connection instrumentarConexao(Connection conn) {
+		Connection[] proxy = new Connection[1];
+		proxy[0] = (Connection) Proxy.newProxyInstance(CLASS_LOADER, new Class<?>[] { Connection.class }, (p, metodo, args) -> {
+			switch (metodo.getName()) {
+			case "prepareStatement":
+				return instrumentarStatement(PreparedStatement.class, (Statement) invocar(conn, metodo, args), (String) args[0], proxy[0]);
+			case "prepareCall":
+				return instrumentarStatement(CallableStatement.class, (Statement) invocar(conn, metodo, args), (String) args[0], proxy[0]);
+			case "createStatement":
+				return instrumentarStatement(Statement.class, (Statement) invocar(conn, metodo, args), null, proxy[0]);
+			case "equals":
+				return p == args[0];
+			case "hashCode":
+				return System.identityHashCode(p);
+			default:
+				return invocar(conn, metodo, args);
+			}
+		});
+		return proxy[0];
+	}
+	
+	private Statement instrumentarStatement(Class<? extends Statement> interfaceStatement, Statement statement, String sql, Connection conexao) {
+		return (Statement) Proxy.newProxyInstance(CLASS_LOADER, new Class<?>[] { interfaceStatement }, new InstrumentacaoStatement(statement, sql, conexao));
+	}
+	
+	private static Object invocar(Object alvo, Method metodo, Object[] args) throws Throwable {
+		try {
+			return metodo.invoke(alvo, args);
+		} catch (InvocationTargetException ex) {
+			throw ex.getTargetException();
+		}
+	}
+	
+	/**
+	 * Registra os parâmetros e o tempo de execução dos comandos de um Statement
+	 */
+	private class InstrumentacaoStatement implements InvocationHandler {
+		
+		private final Statement statement;
+		private final String sqlPreparado;
+		private final Connection conexao;
+		private final List<Object> params = new ArrayList<>();
+		private FGMetricasSQL.Acumulador ultimoAcumulador;
+		private InstrumentacaoResultSet ultimoResultSet;
+		
+		InstrumentacaoStatement(Statement statement, String sqlPreparado, Connection conexao) {
+			this.statement = statement;
+			this.sqlPreparado = sqlPreparado;
+			this.conexao = conexao;
+		}
+		
+		@Override
+		public Object invoke(Object proxy, Method metodo, Object[] args) throws Throwable {
+			String nome = metodo.getName();
+			switch (nome) {
+			case "executeQuery":
+			case "executeUpdate":
+			case "executeLargeUpdate":
+			case "execute":
+			case "executeBatch":
+			case "executeLargeBatch":
+				return executar(proxy, metodo, args);
+			case "getResultSet":
+				return instrumentarResultSet(proxy, (ResultSet) invocar(statement, metodo, args), ultimoAcumulador);
+			case "clearParameters":
+				params.clear();
+				return invocar(statement, metodo, args);
+			case "close":
+				encerrarResultSet();
+				return invocar(statement, metodo, args);
+			case "getConnection":
+				return conexao;
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			default:
+				
+				// Parâmetros do PreparedStatement, ex: "setString(int, String)", "setNull(int, int)"
+				if (nome.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer && sqlPreparado != null) {
+					int index = (Integer) args[0];
+					while (params.size() < index) {
+						params.add(null);
+					}
+					params.set(index - 1, nome.equals("setNull") ? null : args[1]);
+				}
+				return invocar(statement, metodo, args);
+			}
+		}
+		
+		private Object executar(Object proxy, Method metodo, Object[] args) throws Throwable {
+			String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : sqlPreparado;
+			if (sql == null) {
+				sql = "(batch)";
+			}
+			encerrarResultSet();
+			FGMetricasSQL.Acumulador acumulador = metricas.getAcumulador(sql);
+			ultimoAcumulador = acumulador;
+			
+			Object retorno;
+			long inicio = System.nanoTime();
+			try {
+				retorno = invocar(statement, metodo, args);
+			} catch (Throwable ex) {
+				metricas.registrarExecucao(acumulador, System.nanoTime() - inicio, true, getDescricao(sql));
+				throw ex;
+			}
+			metricas.registrarExecucao(acumulador, System.nanoTime() - inicio, false, getDescricao(sql));
+			
+			if (retorno instanceof ResultSet) {
+				return instrumentarResultSet(proxy, (ResultSet) retorno, acumulador);
+			}
+			if (retorno instanceof Number) {
+				acumulador.registrarLinhas(Math.max(0, ((Number) retorno).longValue()));
+			} else if (retorno instanceof int[]) {
+				for (int linhas: (int[]) retorno) {
+					acumulador.registrarLinhas(Math.max(0, linhas));
+				}
+			} else if (retorno instanceof long[]) {
+				for (long linhas: (long[]) retorno) {
+					acumulador.registrarLinhas(Math.max(0, linhas));
+				}
+			}
+			return retorno;
+		}
+		
+		/**
+		 * Descrição do comando para o log de comandos lentos, no mesmo formato de
+		 * {@link com.felipegiotto.misc.FGPreparedStatementBuilder#toString()}
+		 */
+		private Object getDescricao(String sql) {
+			return new Object() {
+				@Override
+				public String toString() {
+					return "sql=" + sql + (sqlPreparado != null ? "; params=" + params : "");
+				}
+			};
+		}
+		
+		private ResultSet instrumentarResultSet(Object statementProxy, ResultSet rs, FGMetricasSQL.Acumulador acumulador) {
+			if (rs == null || acumulador == null) {
+				return rs;
+			}
+			encerrarResultSet();
+			ultimoResultSet = new InstrumentacaoResultSet(rs, acumulador, statementProxy);
+			return (ResultSet) Proxy.newProxyInstance(CLASS_LOADER, new Class<?>[] { ResultSet.class }, ultimoResultSet);
+		}
+		
+		/**
+		 * O ResultSet anterior é fechado pelo driver ao executar outro comando ou fechar o Statement
+		 */
+		private void encerrarResultSet() {
+			if (ultimoResultSet != null) {
+				ultimoResultSet.registrarLinhas();
+				ultimoResultSet = null;
+			}
+		}
+	}
+	
+	/**
+	 * Conta os registros lidos de um ResultSet
+	 */
+	private static class InstrumentacaoResultSet implements InvocationHandler {
+		
+		private final ResultSet rs;
+		private final FGMetricasSQL.Acumulador acumulador;
+		private final Object statement;
+		private long linhas;
+		private boolean registrado;
+		
+		InstrumentacaoResultSet(ResultSet rs, FGMetricasSQL.Acumulador acumulador, Object statement) {
+			this.rs = rs;
+			this.acumulador = acumulador;
+			this.statement = statement;
+		}
+		
+		@Override
+		public Object invoke(Object proxy, Method metodo, Object[] args) throws Throwable {
+			switch (metodo.getName()) {
+			case "next":
+				Object retorno = invocar(rs, metodo, args);
+				if (Boolean.TRUE.equals(retorno)) {
+					linhas++;
+				}
+				return retorno;
+			case "close":
+				registrarLinhas();
+				return invocar(rs, metodo, args);
+			case "getStatement":
+				return statement;
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			default:
+				return invocar(rs, metodo, args);
+			}
+		}
+		
+		void registrarLinhas() {
+			if (!registrado) {
+				registrado = true;
+				acumulador.registrarLinhas(linhas);
+			}
+		}
+	}
+	
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return original.getLogWriter();
+	}
+	
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException {
+		original.setLogWriter(out);
+	}
+	
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+		original.setLoginTimeout(seconds);
+	}
+	
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return original.getLoginTimeout();
+	}
+	
+	@Override
+	public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		return original.getParentLogger();
+	}
+	
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+		return original.unwrap(iface);
+	}
+	
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this) || original.isWrapperFor(iface);
+	}
+	
+	@Override
+	public String toString() {
+		return "Instrumentado: " + original;
+	}
+}
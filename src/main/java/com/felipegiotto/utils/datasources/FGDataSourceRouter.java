@@ -0,0 +1,339 @@
+package com.felipegiotto.utils.datasources;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Distribui as conexões entre um banco primário (escrita) e suas réplicas (somente leitura).
+ *
+ * Os DataSources são identificados pelos nomes registrados no {@link FGConnectionFactory}, e
+ * consultados a cada conexão (então continuam válidos após {@link FGConnectionFactory#substituirDataSource}).
+ *
+ * As leituras são distribuídas entre as réplicas conforme a {@link Politica}. Uma réplica que
+ * falhar ao fornecer uma conexão (ou na verificação periódica, ver {@link #iniciarVerificacaoSaude(long)})
+ * fica fora da distribuição por {@link #setTempoQuarentenaMillis(long)}, e a leitura é feita em
+ * outra réplica ou, se nenhuma estiver disponível, no primário.
+ *
+ * Observação: as réplicas podem estar atrasadas em relação ao primário. Leituras que precisam
+ * enxergar uma gravação recém-feita devem utilizar {@link #getDataSourceEscrita()}.
+ *
+ * Ex:
+ <code>
+ 	FGDataSourceRouter router = new FGDataSourceRouter("jdbc/primario", "jdbc/replica1", "jdbc/replica2");
+ 	router.setPolitica(FGDataSourceRouter.Politica.MENOR_CARGA);
+ 	router.iniciarVerificacaoSaude(10_000);
+ 	FGConnectionFactory.setDefaultRouter(router);
+ </code>
+ *
+ * @author felipegiotto@gmail.com
+ */
+public class FGDataSourceRouter implements AutoCloseable {
+	
+	private static final Logger LOGGER = LogManager.getLogger(FGDataSourceRouter.class);
+	
+	/**
+	 * Tempo máximo, em segundos, da validação de uma conexão na verificação de saúde
+	 */
+	private static final int TIMEOUT_VALIDACAO_SEGUNDOS = 5;
+	
+	/**
+	 * Forma de escolher a réplica de cada leitura
+	 */
+	public enum Politica {
+		
+		/**
+		 * Cada leitura em uma réplica, em sequência
+		 */
+		ROUND_ROBIN,
+		
+		/**
+		 * Réplica com menor ocupação do pool de conexões (ver {@link FGPoolMetricas#getOcupacao()}).
+		 * Réplicas sem métricas (ex: pools do container, via JNDI) são consideradas desocupadas.
+		 */
+		MENOR_CARGA
+	}
+	
+	private static class Replica {
+		private final String jdbcName;
+		private volatile long instanteFalha;
+		
+		Replica(String jdbcName) {
+			this.jdbcName = jdbcName;
+		}
+	}
+	
+	private final String jdbcPrimario;
+	private final List<Replica> replicas;
+	private final AtomicInteger proximaReplica = new AtomicInteger();
+	private final DataSource dataSourceLeitura = new DataSourceLeitura();
+	private volatile Politica politica = Politica.ROUND_ROBIN;
+	private volatile long tempoQuarentenaMillis = 30 * 1000;
+	private ScheduledExecutorService verificacaoSaude;
+	
+	/**
+	 * @param jdbcPrimario : nome do DataSource primário (escritas)
+	 * @param jdbcReplicas : nomes dos DataSources das réplicas (leituras)
+	 */
+	public FGDataSourceRouter(String jdbcPrimario, String... jdbcReplicas) {
+		this.jdbcPrimario = jdbcPrimario;
+		List<Replica> replicas = new ArrayList<>();
+		for (String jdbcReplica: jdbcReplicas) {
+			replicas.add(new Replica(jdbcReplica));
+		}
+		this.replicas = Collections.unmodifiableList(replicas);
+	}
+	
+	public Politica getPolitica() {
+		return politica;
+	}
+	
+	public void setPolitica(Politica politica) {
+		this.politica = politica;
+	}
+	
+	public long getTempoQuarentenaMillis() {
+		return tempoQuarentenaMillis;
+	}
+	
+	/**
+	 * Tempo que uma réplica com falha fica fora da distribuição das leituras (padrão: 30s).
+	 * Se a verificação de saúde estiver ativa, a réplica volta assim que for validada.
+	 */
+	public void setTempoQuarentenaMillis(long tempoQuarentenaMillis) {
+		this.tempoQuarentenaMillis = tempoQuarentenaMillis;
+	}
+	
+	public String getJdbcPrimario() {
+		return jdbcPrimario;
+	}
+	
+	/**
+	 * DataSource para escritas (e leituras que precisam enxergar gravações recentes)
+	 */
+	public DataSource getDataSourceEscrita() throws SQLException {
+		return FGConnectionFactory.getDataSourceByJndiName(jdbcPrimario);
+	}
+	
+	/**
+	 * DataSource para leituras: cada "getConnection()" escolhe uma réplica disponível, ou o primário
+	 * se nenhuma estiver.
+	 */
+	public DataSource getDataSourceLeitura() {
+		return dataSourceLeitura;
+	}
+	
+	/**
+	 * Nomes das réplicas que estão na distribuição das leituras neste momento
+	 */
+	public List<String> getReplicasDisponiveis() {
+		List<String> disponiveis = new ArrayList<>();
+		long agora = System.currentTimeMillis();
+		for (Replica replica: replicas) {
+			if (isDisponivel(replica, agora)) {
+				disponiveis.add(replica.jdbcName);
+			}
+		}
+		return disponiveis;
+	}
+	
+	private boolean isDisponivel(Replica replica, long agora) {
+		long instanteFalha = replica.instanteFalha;
+		return instanteFalha == 0 || agora - instanteFalha >= tempoQuarentenaMillis;
+	}
+	
+	Connection getConnectionLeitura() throws SQLException {
+		for (Replica replica: ordenarReplicas()) {
+			try {
+				Connection conn = FGConnectionFactory.getDataSourceByJndiName(replica.jdbcName).getConnection();
+				replica.instanteFalha = 0;
+				return conn;
+			} catch (SQLException ex) {
+				marcarFalha(replica, ex);
+			}
+		}
+		
+		// Nenhuma réplica disponível: leitura no primário
+		return getDataSourceEscrita().getConnection();
+	}
+	
+	/**
+	 * Réplicas disponíveis, na ordem em que devem ser tentadas conforme a política
+	 */
+	private List<Replica> ordenarReplicas() {
+		long agora = System.currentTimeMillis();
+		List<Replica> disponiveis = new ArrayList<>(replicas.size());
+		for (Replica replica: replicas) {
+			if (isDisponivel(replica, agora)) {
+				disponiveis.add(replica);
+			}
+		}
+		if (disponiveis.size() <= 1) {
+			return disponiveis;
+		}
+		
+		// Round-robin: começa por uma réplica diferente a cada chamada
+		Collections.rotate(disponiveis, -Math.floorMod(proximaReplica.getAndIncrement(), disponiveis.size()));
+		if (politica == Politica.MENOR_CARGA) {
+			
+			// A ocupação é lida uma única vez (pode mudar durante a ordenação).
+			// Ordenação estável: empates mantêm a ordem do round-robin
+			Map<Replica, Double> ocupacoes = new HashMap<>();
+			for (Replica replica: disponiveis) {
+				ocupacoes.put(replica, getOcupacao(replica));
+			}
+			disponiveis.sort((r1, r2) -> Double.compare(ocupacoes.get(r1), ocupacoes.get(r2)));
+		}
+		return disponiveis;
+	}
+	
+	private static double getOcupacao(Replica replica) {
+		try {
+			FGPoolMetricas metricas = FGConnectionFactory.getMetricasPool(replica.jdbcName);
+			return metricas != null ? metricas.getOcupacao() : 0;
+		} catch (SQLException ex) {
+			return Double.MAX_VALUE;
+		}
+	}
+	
+	private void marcarFalha(Replica replica, Exception ex) {
+		if (replica.instanteFalha == 0) {
+			LOGGER.warn("Réplica '" + replica.jdbcName + "' indisponível, será ignorada por " + tempoQuarentenaMillis + "ms: " + ex.getLocalizedMessage(), ex);
+		}
+		replica.instanteFalha = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Valida todas as réplicas, atualizando quais estão disponíveis
+	 */
+	public void verificarSaude() {
+		for (Replica replica: replicas) {
+			try (Connection conn = FGConnectionFactory.getDataSourceByJndiName(replica.jdbcName).getConnection()) {
+				if (!conn.isValid(TIMEOUT_VALIDACAO_SEGUNDOS)) {
+					throw new SQLException("Conexão inválida");
+				}
+				if (replica.instanteFalha != 0) {
+					LOGGER.info("Réplica '" + replica.jdbcName + "' disponível novamente");
+					replica.instanteFalha = 0;
+				}
+			} catch (SQLException ex) {
+				marcarFalha(replica, ex);
+			}
+		}
+	}
+	
+	/**
+	 * Inicia a verificação periódica das réplicas, em uma thread "daemon".
+	 * Para encerrar, utilizar {@link #close()}.
+	 *
+	 * @param intervaloMillis
+	 */
+	public synchronized void iniciarVerificacaoSaude(long intervaloMillis) {
+		if (verificacaoSaude != null) {
+			verificacaoSaude.shutdownNow();
+		}
+		verificacaoSaude = Executors.newSingleThreadScheduledExecutor((tarefa) -> {
+			Thread thread = new Thread(tarefa, "FGDataSourceRouter-" + jdbcPrimario);
+			thread.setDaemon(true);
+			return thread;
+		});
+		verificacaoSaude.scheduleWithFixedDelay(() -> {
+			try {
+				verificarSaude();
+			} catch (RuntimeException ex) {
+				LOGGER.error("Erro ao verificar réplicas de '" + jdbcPrimario + "': " + ex.getLocalizedMessage(), ex);
+			}
+		}, intervaloMillis, intervaloMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Encerra a verificação periódica das réplicas. Os DataSources continuam sendo gerenciados
+	 * pelo {@link FGConnectionFactory}.
+	 */
+	@Override
+	public synchronized void close() {
+		if (verificacaoSaude != null) {
+			verificacaoSaude.shutdownNow();
+			verificacaoSaude = null;
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return "primario=" + jdbcPrimario + ", replicasDisponiveis=" + getReplicasDisponiveis() + ", politica=" + politica;
+	}
+	
+	/**
+	 * DataSource retornado por {@link FGDataSourceRouter#getDataSourceLeitura()}
+	 */
+	private class DataSourceLeitura implements DataSource {
+		
+		@Override
+		public Connection getConnection() throws SQLException {
+			return getConnectionLeitura();
+		}
+		
+		@Override
+		public Connection getConnection(String username, String password) throws SQLException {
+			throw new SQLFeatureNotSupportedException("Usuário e senha são definidos nos DataSources das réplicas");
+		}
+		
+		@Override
+		public PrintWriter getLogWriter() throws SQLException {
+			return null;
+		}
+		
+		@Override
+		public void setLogWriter(PrintWriter out) throws SQLException {
+			throw new SQLFeatureNotSupportedException();
+		}
+		
+		@Override
+		public void setLoginTimeout(int seconds) throws SQLException {
+			throw new SQLFeatureNotSupportedException();
+		}
+		
+		@Override
+		public int getLoginTimeout() throws SQLException {
+			return 0;
+		}
+		
+		@Override
+		public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+			throw new SQLFeatureNotSupportedException();
+		}
+		
+		@Override
+		public <T> T unwrap(Class<T> iface) throws SQLException {
+			if (iface.isInstance(this)) {
+				return iface.cast(this);
+			}
+			throw new SQLException("Não é possível converter para " + iface);
+		}
+		
+		@Override
+		public boolean isWrapperFor(Class<?> iface) throws SQLException {
+			return iface.isInstance(this);
+		}
+		
+		@Override
+		public String toString() {
+			return "Leitura de " + FGDataSourceRouter.this;
+		}
+	}
+}
@@ -0,0 +1,362 @@
+package com.felipegiotto.utils.datasources;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Métricas dos comandos SQL executados em um DataSource instrumentado
+ * (ver {@link FGConnectionFactory#instrumentar(String, long)}).
+ *
+ * Os comandos são agrupados pelo "formato" do SQL (sem os valores literais), e para cada formato
+ * são contabilizados execuções, erros, registros e um histograma dos tempos de execução,
+ * de onde são estimados os percentis. Também são contabilizados os tempos para obter conexões
+ * do pool, e os comandos mais lentos do que um limite são registrados no log, com os parâmetros.
+ *
+ * As métricas podem ser consultadas por {@link #getEstatisticas()} ou por JMX
+ * ("com.felipegiotto.utils:type=FGMetricasSQL,name=[jdbcName]").
+ *
+ * @author felipegiotto@gmail.com
+ */
+public class FGMetricasSQL implements FGMetricasSQLMXBean {
+	
+	private static final Logger LOGGER = LogManager.getLogger(FGMetricasSQL.class);
+	
+	/**
+	 * Limites superiores (em milissegundos) de cada faixa do histograma de tempos
+	 */
+	private static final long[] FAIXAS_HISTOGRAMA_MILLIS = { 1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000, Long.MAX_VALUE };
+	
+	/**
+	 * Quantidade máxima de formatos de SQL diferentes. Acima disso, são somados em {@link #SQL_OUTROS}.
+	 */
+	private static final int QUANTIDADE_MAXIMA_FORMATOS = 1000;
+	private static final String SQL_OUTROS = "(outros)";
+	
+	private static final Pattern PATTERN_LITERAL_TEXTO = Pattern.compile("'(?:[^']|'')*'");
+	private static final Pattern PATTERN_LITERAL_NUMERO = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+	private static final Pattern PATTERN_ESPACOS = Pattern.compile("\\s+");
+	
+	/**
+	 * Tempos de execução agrupados em faixas
+	 */
+	static class Histograma {
+		private final AtomicLongArray faixas = new AtomicLongArray(FAIXAS_HISTOGRAMA_MILLIS.length);
+		private final AtomicLong quantidade = new AtomicLong();
+		private final AtomicLong totalNanos = new AtomicLong();
+		private final AtomicLong maximoNanos = new AtomicLong();
+		
+		void registrar(long nanos) {
+			long millis = nanos / 1_000_000;
+			int faixa = 0;
+			while (millis >= FAIXAS_HISTOGRAMA_MILLIS[faixa]) {
+				faixa++;
+			}
+			faixas.incrementAndGet(faixa);
+			quantidade.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+			long maximo;
+			while (nanos > (maximo = maximoNanos.get()) && !maximoNanos.compareAndSet(maximo, nanos)) {
+				// Outra thread alterou o máximo: tenta novamente
+			}
+		}
+		
+		double getMedioMillis() {
+			long quantidade = this.quantidade.get();
+			return quantidade > 0 ? totalNanos.get() / 1_000_000.0 / quantidade : 0;
+		}
+		
+		double getMaximoMillis() {
+			return maximoNanos.get() / 1_000_000.0;
+		}
+		
+		/**
+		 * Estimativa de um percentil: limite superior da faixa em que ele se encontra
+		 * (ou o máximo registrado, se for menor)
+		 */
+		double getPercentilMillis(double percentil) {
+			long quantidade = this.quantidade.get();
+			if (quantidade == 0) {
+				return 0;
+			}
+			long posicao = (long) Math.ceil(quantidade * percentil);
+			long acumulado = 0;
+			for (int faixa = 0; faixa < FAIXAS_HISTOGRAMA_MILLIS.length; faixa++) {
+				acumulado += faixas.get(faixa);
+				if (acumulado >= posicao) {
+					return Math.min(FAIXAS_HISTOGRAMA_MILLIS[faixa], getMaximoMillis());
+				}
+			}
+			return getMaximoMillis();
+		}
+	}
+	
+	/**
+	 * Valores acumulados de um formato de SQL
+	 */
+	static class Acumulador {
+		private final String sql;
+		private final Histograma tempos = new Histograma();
+		private final AtomicLong erros = new AtomicLong();
+		private final AtomicLong linhas = new AtomicLong();
+		
+		Acumulador(String sql) {
+			this.sql = sql;
+		}
+		
+		void registrarExecucao(long nanos, boolean erro) {
+			tempos.registrar(nanos);
+			if (erro) {
+				erros.incrementAndGet();
+			}
+		}
+		
+		void registrarLinhas(long quantidade) {
+			linhas.addAndGet(quantidade);
+		}
+	}
+	
+	/**
+	 * Métricas de um formato de SQL em um determinado momento
+	 */
+	public static class Estatistica {
+		private final String sql;
+		private final long execucoes;
+		private final long erros;
+		private final long linhas;
+		private final double tempoMedioMillis;
+		private final double tempoMaximoMillis;
+		private final double percentil50Millis;
+		private final double percentil95Millis;
+		private final double percentil99Millis;
+		
+		Estatistica(Acumulador acumulador) {
+			this.sql = acumulador.sql;
+			this.execucoes = acumulador.tempos.quantidade.get();
+			this.erros = acumulador.erros.get();
+			this.linhas = acumulador.linhas.get();
+			this.tempoMedioMillis = acumulador.tempos.getMedioMillis();
+			this.tempoMaximoMillis = acumulador.tempos.getMaximoMillis();
+			this.percentil50Millis = acumulador.tempos.getPercentilMillis(0.50);
+			this.percentil95Millis = acumulador.tempos.getPercentilMillis(0.95);
+			this.percentil99Millis = acumulador.tempos.getPercentilMillis(0.99);
+		}
+		
+		public String getSql() {
+			return sql;
+		}
+		
+		public long getExecucoes() {
+			return execucoes;
+		}
+		
+		public long getErros() {
+			return erros;
+		}
+		
+		/**
+		 * Registros lidos (consultas) ou afetados (DML)
+		 */
+		public long getLinhas() {
+			return linhas;
+		}
+		
+		public double getTempoMedioMillis() {
+			return tempoMedioMillis;
+		}
+		
+		public double getTempoTotalMillis() {
+			return tempoMedioMillis * execucoes;
+		}
+		
+		public double getTempoMaximoMillis() {
+			return tempoMaximoMillis;
+		}
+		
+		public double getPercentil50Millis() {
+			return percentil50Millis;
+		}
+		
+		public double getPercentil95Millis() {
+			return percentil95Millis;
+		}
+		
+		public double getPercentil99Millis() {
+			return percentil99Millis;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("%dx, médio=%.1fms, p95<=%.0fms, p99<=%.0fms, máximo=%.1fms, linhas=%d, erros=%d: %s",
+					execucoes, tempoMedioMillis, percentil95Millis, percentil99Millis, tempoMaximoMillis, linhas, erros, sql);
+		}
+	}
+	
+	private final String jdbcName;
+	private final Map<String, Acumulador> acumuladores = new ConcurrentHashMap<>();
+	private final Map<String, Acumulador> acumuladoresPorSQL = new ConcurrentHashMap<>();
+	private volatile Histograma temposObterConexao = new Histograma();
+	private final AtomicLong consultasLentas = new AtomicLong();
+	private volatile long limiteConsultaLentaMillis;
+	
+	FGMetricasSQL(String jdbcName, long limiteConsultaLentaMillis) {
+		this.jdbcName = jdbcName;
+		this.limiteConsultaLentaMillis = limiteConsultaLentaMillis;
+	}
+	
+	/**
+	 * Formato de um SQL: sem valores literais (textos e números) e espaços repetidos
+	 */
+	static String getFormato(String sql) {
+		String formato = PATTERN_LITERAL_TEXTO.matcher(sql).replaceAll("?");
+		formato = PATTERN_LITERAL_NUMERO.matcher(formato).replaceAll("?");
+		return PATTERN_ESPACOS.matcher(formato).replaceAll(" ").trim();
+	}
+	
+	/**
+	 * Acumulador do formato de um SQL. A conversão de cada SQL em formato fica em cache.
+	 */
+	Acumulador getAcumulador(String sql) {
+		Acumulador acumulador = acumuladoresPorSQL.get(sql);
+		if (acumulador != null) {
+			return acumulador;
+		}
+		String formato = getFormato(sql);
+		acumulador = acumuladores.get(formato);
+		if (acumulador == null) {
+			if (acumuladores.size() >= QUANTIDADE_MAXIMA_FORMATOS) {
+				formato = SQL_OUTROS;
+			}
+			acumulador = acumuladores.computeIfAbsent(formato, Acumulador::new);
+		}
+		if (acumuladoresPorSQL.size() < QUANTIDADE_MAXIMA_FORMATOS * 4) {
+			acumuladoresPorSQL.put(sql, acumulador);
+		}
+		return acumulador;
+	}
+	
+	void registrarObterConexao(long nanos) {
+		temposObterConexao.registrar(nanos);
+	}
+	
+	/**
+	 * Registra a execução de um comando, gravando no log se for lento
+	 *
+	 * @param descricao : SQL e parâmetros, para o log
+	 */
+	void registrarExecucao(Acumulador acumulador, long nanos, boolean erro, Object descricao) {
+		acumulador.registrarExecucao(nanos, erro);
+		long millis = nanos / 1_000_000;
+		if (limiteConsultaLentaMillis > 0 && millis >= limiteConsultaLentaMillis) {
+			consultasLentas.incrementAndGet();
+			LOGGER.warn("Comando SQL lento em '" + jdbcName + "' (" + millis + "ms" + (erro ? ", com erro" : "") + "): " + descricao);
+		}
+	}
+	
+	public String getJdbcName() {
+		return jdbcName;
+	}
+	
+	/**
+	 * Métricas de cada formato de SQL, do maior para o menor tempo total
+	 */
+	@Override
+	public List<Estatistica> getEstatisticas() {
+		List<Estatistica> estatisticas = new ArrayList<>();
+		for (Acumulador acumulador: acumuladores.values()) {
+			estatisticas.add(new Estatistica(acumulador));
+		}
+		estatisticas.sort((e1, e2) -> Double.compare(e2.getTempoTotalMillis(), e1.getTempoTotalMillis()));
+		return estatisticas;
+	}
+	
+	@Override
+	public long getQuantidadeConexoesObtidas() {
+		return temposObterConexao.quantidade.get();
+	}
+	
+	@Override
+	public double getTempoMedioObterConexaoMillis() {
+		return temposObterConexao.getMedioMillis();
+	}
+	
+	@Override
+	public double getTempoMaximoObterConexaoMillis() {
+		return temposObterConexao.getMaximoMillis();
+	}
+	
+	public double getPercentil99ObterConexaoMillis() {
+		return temposObterConexao.getPercentilMillis(0.99);
+	}
+	
+	@Override
+	public long getQuantidadeConsultasLentas() {
+		return consultasLentas.get();
+	}
+	
+	@Override
+	public long getLimiteConsultaLentaMillis() {
+		return limiteConsultaLentaMillis;
+	}
+	
+	/**
+	 * Comandos que demorarem este tempo ou mais são gravados no log (zero = não grava)
+	 */
+	@Override
+	public void setLimiteConsultaLentaMillis(long limiteConsultaLentaMillis) {
+		this.limiteConsultaLentaMillis = limiteConsultaLentaMillis;
+	}
+	
+	/**
+	 * Situação atual do pool de conexões, ou "null" se não for de um tipo conhecido
+	 */
+	public FGPoolMetricas getMetricasPool() {
+		try {
+			return FGConnectionFactory.getMetricasPool(jdbcName);
+		} catch (SQLException ex) {
+			return null;
+		}
+	}
+	
+	@Override
+	public int getConexoesAtivas() {
+		FGPoolMetricas pool = getMetricasPool();
+		return pool != null ? pool.getConexoesAtivas() : -1;
+	}
+	
+	@Override
+	public double getOcupacaoPool() {
+		FGPoolMetricas pool = getMetricasPool();
+		return pool != null ? pool.getOcupacao() : -1;
+	}
+	
+	@Override
+	public int getThreadsAguardando() {
+		FGPoolMetricas pool = getMetricasPool();
+		return pool != null && pool.getThreadsAguardando() != null ? pool.getThreadsAguardando() : -1;
+	}
+	
+	/**
+	 * Descarta todas as métricas acumuladas
+	 */
+	@Override
+	public void zerar() {
+		acumuladores.clear();
+		acumuladoresPorSQL.clear();
+		consultasLentas.set(0);
+		temposObterConexao = new Histograma();
+	}
+	
+	@Override
+	public String toString() {
+		return jdbcName + ": " + acumuladores.size() + " formato(s) de SQL, " + getQuantidadeConexoesObtidas() + " conexão(ões) obtida(s), " + consultasLentas + " comando(s) lento(s)";
+	}
+}
@@ -0,0 +1,33 @@
+package com.felipegiotto.utils.datasources;
+
+import java.util.List;
+
+/**
+ * Interface JMX das métricas de SQL de um DataSource (ver {@link FGMetricasSQL}).
+ *
+ * @author felipegiotto@gmail.com
+ */
+public interface FGMetricasSQLMXBean {
+	
+	public List<FGMetricasSQL.Estatistica> getEstatisticas();
+	
+	public long getQuantidadeConexoesObtidas();
+	
+	public double getTempoMedioObterConexaoMillis();
+	
+	public double getTempoMaximoObterConexaoMillis();
+	
+	public long getQuantidadeConsultasLentas();
+	
+	public long getLimiteConsultaLentaMillis();
+	
+	public void setLimiteConsultaLentaMillis(long limiteConsultaLentaMillis);
+	
+	public int getConexoesAtivas();
+	
+	public double getOcupacaoPool();
+	
+	public int getThreadsAguardando();
+	
+	public void zerar();
+}
@@ -0,0 +1,268 @@
+package com.felipegiotto.utils.datasources;
+
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbcp.BasicDataSource;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Configuração de um pool de conexões criado pela aplicação
+ * (ver {@link FGConnectionFactory#addManualDataSource(String, FGPoolConfig)}).
+ *
+ * Por padrão utiliza o HikariCP, que não utiliza locks globais ao emprestar conexões e se comporta
+ * melhor com muitas threads simultâneas. O commons-dbcp continua disponível
+ * ({@link Implementacao#DBCP}), com as mesmas configurações.
+ *
+ * Ex:
+ <code>
+ 	FGPoolConfig config = new FGPoolConfig("org.postgresql.Driver", "jdbc:postgresql://localhost/banco");
+ 	config.setUsuario("usuario");
+ 	config.setSenha("senha");
+ 	config.setTamanhoMaximo(20);
+ 	config.setTempoDeteccaoVazamentoMillis(60_000L);
+ 	FGConnectionFactory.addManualDataSource("jdbc/banco", config);
+ </code>
+ *
+ * @author felipegiotto@gmail.com
+ */
+public class FGPoolConfig {
+
+	public enum Implementacao {
+		HIKARI,
+		DBCP
+	}
+
+	private final String driverClassName;
+	private final String url;
+	private String usuario;
+	private String senha;
+	private Implementacao implementacao = Implementacao.HIKARI;
+	private int tamanhoMinimo = 2;
+	private int tamanhoMaximo = 10;
+	private long tempoMaximoOciosoMillis = 10 * 60 * 1000;
+	private long tempoMaximoVidaMillis = 30 * 60 * 1000;
+	private long tempoMaximoEsperaConexaoMillis = 30 * 1000;
+	private Long tempoDeteccaoVazamentoMillis;
+	private int tamanhoCacheStatements = 0;
+	private Long limiteConsultaLentaMillis;
+	private final Properties propriedadesDriver = new Properties();
+
+	public FGPoolConfig(String driverClassName, String url) {
+		this.driverClassName = driverClassName;
+		this.url = url;
+	}
+
+	public String getDriverClassName() {
+		return driverClassName;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public String getUsuario() {
+		return usuario;
+	}
+
+	public void setUsuario(String usuario) {
+		this.usuario = usuario;
+	}
+
+	public String getSenha() {
+		return senha;
+	}
+
+	public void setSenha(String senha) {
+		this.senha = senha;
+	}
+
+	public Implementacao getImplementacao() {
+		return implementacao;
+	}
+
+	public void setImplementacao(Implementacao implementacao) {
+		this.implementacao = implementacao;
+	}
+
+	public int getTamanhoMinimo() {
+		return tamanhoMinimo;
+	}
+
+	/**
+	 * Quantidade mínima de conexões ociosas mantidas abertas
+	 */
+	public void setTamanhoMinimo(int tamanhoMinimo) {
+		this.tamanhoMinimo = tamanhoMinimo;
+	}
+
+	public int getTamanhoMaximo() {
+		return tamanhoMaximo;
+	}
+
+	/**
+	 * Quantidade máxima de conexões abertas (em uso + ociosas)
+	 */
+	public void setTamanhoMaximo(int tamanhoMaximo) {
+		this.tamanhoMaximo = tamanhoMaximo;
+	}
+
+	public long getTempoMaximoOciosoMillis() {
+		return tempoMaximoOciosoMillis;
+	}
+
+	/**
+	 * Tempo após o qual uma conexão ociosa (acima do tamanho mínimo) é fechada
+	 */
+	public void setTempoMaximoOciosoMillis(long tempoMaximoOciosoMillis) {
+		this.tempoMaximoOciosoMillis = tempoMaximoOciosoMillis;
+	}
+
+	public long getTempoMaximoVidaMillis() {
+		return tempoMaximoVidaMillis;
+	}
+
+	/**
+	 * Tempo máximo de vida de uma conexão. Deve ser menor do que o timeout do banco de dados
+	 * ou de firewalls. No DBCP, é aplicado somente às conexões ociosas.
+	 */
+	public void setTempoMaximoVidaMillis(long tempoMaximoVidaMillis) {
+		this.tempoMaximoVidaMillis = tempoMaximoVidaMillis;
+	}
+
+	public long getTempoMaximoEsperaConexaoMillis() {
+		return tempoMaximoEsperaConexaoMillis;
+	}
+
+	/**
+	 * Tempo máximo aguardando uma conexão livre quando o pool está esgotado. Após isso, "getConnection()" lança SQLException.
+	 */
+	public void setTempoMaximoEsperaConexaoMillis(long tempoMaximoEsperaConexaoMillis) {
+		this.tempoMaximoEsperaConexaoMillis = tempoMaximoEsperaConexaoMillis;
+	}
+
+	public Long getTempoDeteccaoVazamentoMillis() {
+		return tempoDeteccaoVazamentoMillis;
+	}
+
+	/**
+	 * Se informado, registra no log (com o stack trace de quem pegou a conexão) as conexões que
+	 * ficarem emprestadas por mais tempo do que este, o que normalmente indica que não foram fechadas.
+	 * No DBCP, as conexões abandonadas também são recuperadas pelo pool.
+	 * 
+	 * O HikariCP grava o alerta via SLF4J (logger "com.zaxxer.hikari.pool.ProxyLeakTask", nível WARN),
+	 * que é encaminhado ao log4j pela dependência "log4j-slf4j-impl". Sem essa dependência, o SLF4J
+	 * descarta o alerta.
+	 */
+	public void setTempoDeteccaoVazamentoMillis(Long tempoDeteccaoVazamentoMillis) {
+		this.tempoDeteccaoVazamentoMillis = tempoDeteccaoVazamentoMillis;
+	}
+
+	public int getTamanhoCacheStatements() {
+		return tamanhoCacheStatements;
+	}
+
+	/**
+	 * Quantidade de PreparedStatements mantidos em cache em cada conexão (zero = sem cache).
+	 *
+	 * No DBCP o cache é feito pelo próprio pool. O HikariCP delega o cache ao driver JDBC, então
+	 * são informadas as propriedades dos drivers que o suportam (MySQL/MariaDB e PostgreSQL).
+	 * Para outros drivers, utilizar {@link #addPropriedadeDriver(String, String)}.
+	 */
+	public void setTamanhoCacheStatements(int tamanhoCacheStatements) {
+		this.tamanhoCacheStatements = tamanhoCacheStatements;
+	}
+
+	public Long getLimiteConsultaLentaMillis() {
+		return limiteConsultaLentaMillis;
+	}
+
+	/**
+	 * Se informado, o pool é instrumentado (ver {@link FGConnectionFactory#instrumentar(String, long)}):
+	 * são coletadas métricas de cada SQL, e os comandos que demorarem este tempo ou mais são
+	 * gravados no log (zero = coleta as métricas, sem gravar no log).
+	 */
+	public void setLimiteConsultaLentaMillis(Long limiteConsultaLentaMillis) {
+		this.limiteConsultaLentaMillis = limiteConsultaLentaMillis;
+	}
+
+	/**
+	 * Propriedade repassada ao driver JDBC na abertura de cada conexão
+	 */
+	public void addPropriedadeDriver(String nome, String valor) {
+		propriedadesDriver.setProperty(nome, valor);
+	}
+
+	/**
+	 * Cria o pool de conexões conforme a configuração
+	 */
+	DataSource criarDataSource(String nomePool) {
+		switch (implementacao) {
+		case DBCP:
+			return criarDataSourceDbcp();
+		case HIKARI:
+		default:
+			return criarDataSourceHikari(nomePool);
+		}
+	}
+
+	private DataSource criarDataSourceHikari(String nomePool) {
+		HikariConfig hikari = new HikariConfig();
+		hikari.setPoolName(nomePool);
+		hikari.setDriverClassName(driverClassName);
+		hikari.setJdbcUrl(url);
+		hikari.setUsername(usuario);
+		hikari.setPassword(senha);
+		hikari.setMinimumIdle(tamanhoMinimo);
+		hikari.setMaximumPoolSize(tamanhoMaximo);
+		hikari.setIdleTimeout(tempoMaximoOciosoMillis);
+		hikari.setMaxLifetime(tempoMaximoVidaMillis);
+		hikari.setConnectionTimeout(tempoMaximoEsperaConexaoMillis);
+		if (tempoDeteccaoVazamentoMillis != null) {
+			hikari.setLeakDetectionThreshold(tempoDeteccaoVazamentoMillis);
+		}
+		if (tamanhoCacheStatements > 0) {
+			if (url.startsWith("jdbc:mysql:") || url.startsWith("jdbc:mariadb:")) {
+				hikari.addDataSourceProperty("cachePrepStmts", "true");
+				hikari.addDataSourceProperty("prepStmtCacheSize", Integer.toString(tamanhoCacheStatements));
+				hikari.addDataSourceProperty("useServerPrepStmts", "true");
+			} else if (url.startsWith("jdbc:postgresql:")) {
+				hikari.addDataSourceProperty("preparedStatementCacheQueries", Integer.toString(tamanhoCacheStatements));
+			}
+		}
+		for (String nome : propriedadesDriver.stringPropertyNames()) {
+			hikari.addDataSourceProperty(nome, propriedadesDriver.getProperty(nome));
+		}
+		return new HikariDataSource(hikari);
+	}
+
+	private DataSource criarDataSourceDbcp() {
+		BasicDataSource ds = new BasicDataSource();
+		ds.setDriverClassName(driverClassName);
+		ds.setUrl(url);
+		ds.setUsername(usuario);
+		ds.setPassword(senha);
+		ds.setMinIdle(tamanhoMinimo);
+		ds.setMaxIdle(tamanhoMaximo);
+		ds.setMaxActive(tamanhoMaximo);
+		ds.setMaxWait(tempoMaximoEsperaConexaoMillis);
+		ds.setTimeBetweenEvictionRunsMillis(Math.min(tempoMaximoOciosoMillis, 60 * 1000));
+		ds.setMinEvictableIdleTimeMillis(Math.min(tempoMaximoOciosoMillis, tempoMaximoVidaMillis));
+		if (tempoDeteccaoVazamentoMillis != null) {
+			ds.setRemoveAbandoned(true);
+			ds.setRemoveAbandonedTimeout((int) Math.max(1, tempoDeteccaoVazamentoMillis / 1000));
+			ds.setLogAbandoned(true);
+		}
+		if (tamanhoCacheStatements > 0) {
+			ds.setPoolPreparedStatements(true);
+			ds.setMaxOpenPreparedStatements(tamanhoCacheStatements);
+		}
+		for (String nome : propriedadesDriver.stringPropertyNames()) {
+			ds.addConnectionProperty(nome, propriedadesDriver.getProperty(nome));
+		}
+		return ds;
+	}
+}
@@ -0,0 +1,95 @@
+package com.felipegiotto.utils.datasources;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbcp.BasicDataSource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+/**
+ * Situação de um pool de conexões em um determinado momento
+ * (ver {@link FGConnectionFactory#getMetricasPool(String)}).
+ *
+ * @author felipegiotto@gmail.com
+ */
+public class FGPoolMetricas {
+
+	private final int conexoesAtivas;
+	private final int conexoesOciosas;
+	private final int tamanhoMaximo;
+	private final Integer threadsAguardando;
+
+	FGPoolMetricas(int conexoesAtivas, int conexoesOciosas, int tamanhoMaximo, Integer threadsAguardando) {
+		this.conexoesAtivas = conexoesAtivas;
+		this.conexoesOciosas = conexoesOciosas;
+		this.tamanhoMaximo = tamanhoMaximo;
+		this.threadsAguardando = threadsAguardando;
+	}
+
+	/**
+	 * Lê as métricas dos pools conhecidos (HikariCP e commons-dbcp)
+	 *
+	 * @return métricas ou "null" se o DataSource não for de um tipo conhecido (ex: pool do container, via JNDI)
+	 */
+	static FGPoolMetricas obter(DataSource ds) {
+		ds = FGDataSourceInstrumentado.getOriginal(ds);
+		if (ds instanceof HikariDataSource) {
+			HikariDataSource hikari = (HikariDataSource) ds;
+			HikariPoolMXBean pool = hikari.getHikariPoolMXBean();
+			if (pool == null) {
+				return new FGPoolMetricas(0, 0, hikari.getMaximumPoolSize(), 0);
+			}
+			return new FGPoolMetricas(pool.getActiveConnections(), pool.getIdleConnections(), hikari.getMaximumPoolSize(), pool.getThreadsAwaitingConnection());
+		}
+		if (ds instanceof BasicDataSource) {
+
+			// DBCP 1.4 não informa quantas threads estão aguardando
+			BasicDataSource dbcp = (BasicDataSource) ds;
+			return new FGPoolMetricas(dbcp.getNumActive(), dbcp.getNumIdle(), dbcp.getMaxActive(), null);
+		}
+		return null;
+	}
+
+	/**
+	 * Conexões emprestadas neste momento
+	 */
+	public int getConexoesAtivas() {
+		return conexoesAtivas;
+	}
+
+	/**
+	 * Conexões abertas e disponíveis no pool
+	 */
+	public int getConexoesOciosas() {
+		return conexoesOciosas;
+	}
+
+	public int getConexoesTotal() {
+		return conexoesAtivas + conexoesOciosas;
+	}
+
+	public int getTamanhoMaximo() {
+		return tamanhoMaximo;
+	}
+
+	/**
+	 * Threads aguardando uma conexão livre, ou "null" se o pool não informar
+	 */
+	public Integer getThreadsAguardando() {
+		return threadsAguardando;
+	}
+
+	/**
+	 * Percentual (0 a 1) das conexões máximas que estão em uso
+	 */
+	public double getOcupacao() {
+		return tamanhoMaximo > 0 ? (double) conexoesAtivas / tamanhoMaximo : 0;
+	}
+
+	@Override
+	public String toString() {
+		return "ativas=" + conexoesAtivas + ", ociosas=" + conexoesOciosas + ", máximo=" + tamanhoMaximo
+				+ (threadsAguardando != null ? ", aguardando=" + threadsAguardando : "");
+	}
+}
@@ -0,0 +1,21 @@
+package com.felipegiotto.utils.exception;
+
+import java.sql.SQLException;
+
+/**
+ * SQLException lançada em locais que não permitem exceções verificadas (ex: ao percorrer um
+ * Stream de {@link com.felipegiotto.utils.FGDatabaseUtils#queryStream}).
+ */
+public class UncheckedSQLException extends RuntimeException {
+	
+	private static final long serialVersionUID = 1L;
+	
+	public UncheckedSQLException(SQLException cause) {
+		super(cause.getLocalizedMessage(), cause);
+	}
+	
+	@Override
+	public synchronized SQLException getCause() {
+		return (SQLException) super.getCause();
+	}
+}
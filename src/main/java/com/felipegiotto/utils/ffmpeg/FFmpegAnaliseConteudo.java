@@ -0,0 +1,204 @@
+package com.felipegiotto.utils.ffmpeg;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Resultado da análise de conteúdo de um vídeo (ver {@link FFmpegFileInfo#getAnaliseConteudo()}):
+ * mudanças de cena (filtro "scdet"), trechos pretos ("blackdetect") e trechos de silêncio
+ * ("silencedetect"), todos em segundos a partir do início do vídeo.
+ *
+ * Pode ser utilizado para gerar capítulos automaticamente ({@link #getCapitulos(double)}) ou
+ * para remover trechos pretos do início e do fim do vídeo ({@link #aplicarCorteAutomatico(FFmpegParameters)}).
+ *
+ * @author felipegiotto@gmail.com
+ */
+public class FFmpegAnaliseConteudo {
+
+	// Ex: [scdet @ 0x55d0c4c0e8c0] lavfi.scd.score: 23.187, lavfi.scd.time: 12.4
+	private static final Pattern PATTERN_CENA = Pattern.compile("lavfi\\.scd\\.score: ([0-9.]+), lavfi\\.scd\\.time: ([0-9.]+)");
+
+	// Ex: [blackdetect @ 0x55d0c4c0f2c0] black_start:0 black_end:2.4 black_duration:2.4
+	private static final Pattern PATTERN_PRETO = Pattern.compile("black_start:\\s*([0-9.]+) black_end:\\s*([0-9.]+)");
+
+	// Ex: [silencedetect @ 0x55d0c4c10a00] silence_start: 35.2
+	// Ex: [silencedetect @ 0x55d0c4c10a00] silence_end: 38.9 | silence_duration: 3.7
+	private static final Pattern PATTERN_SILENCIO_INICIO = Pattern.compile("silence_start: (-?[0-9.]+)");
+	private static final Pattern PATTERN_SILENCIO_FIM = Pattern.compile("silence_end: ([0-9.]+)");
+
+	/**
+	 * Tolerância para considerar que um trecho está no início ou no fim do vídeo, pois a análise
+	 * é feita com FPS reduzido.
+	 */
+	private static final double TOLERANCIA_EXTREMIDADES_SEGUNDOS = 0.5;
+
+	/**
+	 * Trecho do vídeo, em segundos
+	 */
+	public static class Intervalo {
+		private final double inicio;
+		private final double fim;
+
+		public Intervalo(double inicio, double fim) {
+			this.inicio = inicio;
+			this.fim = fim;
+		}
+
+		public double getInicio() {
+			return inicio;
+		}
+
+		public double getFim() {
+			return fim;
+		}
+
+		public double getDuracao() {
+			return fim - inicio;
+		}
+
+		@Override
+		public String toString() {
+			return inicio + "-" + fim;
+		}
+	}
+
+	private final double duracaoSegundos;
+	private final List<Double> mudancasCena;
+	private final List<Intervalo> trechosPretos;
+	private final List<Intervalo> trechosSilencio;
+
+	FFmpegAnaliseConteudo(double duracaoSegundos, List<Double> mudancasCena, List<Intervalo> trechosPretos, List<Intervalo> trechosSilencio) {
+		this.duracaoSegundos = duracaoSegundos;
+		this.mudancasCena = Collections.unmodifiableList(mudancasCena);
+		this.trechosPretos = Collections.unmodifiableList(trechosPretos);
+		this.trechosSilencio = Collections.unmodifiableList(trechosSilencio);
+	}
+
+	/**
+	 * Interpreta as linhas geradas pelo ffmpeg durante a análise.
+	 *
+	 * @param linhas : saída (STDERR) do ffmpeg
+	 * @param duracaoSegundos : duração do vídeo, utilizada para fechar um silêncio que vai até o final
+	 */
+	static FFmpegAnaliseConteudo interpretar(List<String> linhas, double duracaoSegundos) {
+		List<Double> cenas = new ArrayList<>();
+		List<Intervalo> pretos = new ArrayList<>();
+		List<Intervalo> silencios = new ArrayList<>();
+		Double inicioSilencio = null;
+		for (String linha : linhas) {
+			Matcher m = PATTERN_CENA.matcher(linha);
+			if (m.find()) {
+				cenas.add(Double.parseDouble(m.group(2)));
+				continue;
+			}
+			m = PATTERN_PRETO.matcher(linha);
+			if (m.find()) {
+				pretos.add(new Intervalo(Double.parseDouble(m.group(1)), Double.parseDouble(m.group(2))));
+				continue;
+			}
+			m = PATTERN_SILENCIO_INICIO.matcher(linha);
+			if (m.find()) {
+				inicioSilencio = Math.max(0, Double.parseDouble(m.group(1)));
+				continue;
+			}
+			m = PATTERN_SILENCIO_FIM.matcher(linha);
+			if (m.find() && inicioSilencio != null) {
+				silencios.add(new Intervalo(inicioSilencio, Double.parseDouble(m.group(1))));
+				inicioSilencio = null;
+			}
+		}
+
+		// Silêncio que vai até o final do vídeo
+		if (inicioSilencio != null) {
+			silencios.add(new Intervalo(inicioSilencio, duracaoSegundos));
+		}
+		return new FFmpegAnaliseConteudo(duracaoSegundos, cenas, pretos, silencios);
+	}
+
+	public double getDuracaoSegundos() {
+		return duracaoSegundos;
+	}
+
+	/**
+	 * Momentos em que há mudança de cena
+	 */
+	public List<Double> getMudancasCena() {
+		return mudancasCena;
+	}
+
+	public List<Intervalo> getTrechosPretos() {
+		return trechosPretos;
+	}
+
+	public List<Intervalo> getTrechosSilencio() {
+		return trechosSilencio;
+	}
+
+	/**
+	 * Sugere inícios de capítulos a partir das mudanças de cena, ignorando mudanças muito próximas
+	 * entre si (ex: cortes rápidos de uma mesma cena).
+	 *
+	 * @param intervaloMinimoSegundos : duração mínima de cada capítulo
+	 * @return inícios dos capítulos, sempre começando em zero
+	 */
+	public List<Double> getCapitulos(double intervaloMinimoSegundos) {
+		List<Double> capitulos = new ArrayList<>();
+		capitulos.add(0.0);
+		double ultimo = 0;
+		for (double cena : mudancasCena) {
+			if (cena - ultimo >= intervaloMinimoSegundos && duracaoSegundos - cena >= intervaloMinimoSegundos) {
+				capitulos.add(cena);
+				ultimo = cena;
+			}
+		}
+		return capitulos;
+	}
+
+	/**
+	 * Início do conteúdo do vídeo: final do trecho preto que houver no início do vídeo, ou zero.
+	 */
+	public double getInicioConteudo() {
+		for (Intervalo preto : trechosPretos) {
+			if (preto.getInicio() <= TOLERANCIA_EXTREMIDADES_SEGUNDOS) {
+				return preto.getFim();
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Fim do conteúdo do vídeo: início do trecho preto que houver no final do vídeo, ou a duração total.
+	 */
+	public double getFimConteudo() {
+		for (Intervalo preto : trechosPretos) {
+			if (preto.getFim() >= duracaoSegundos - TOLERANCIA_EXTREMIDADES_SEGUNDOS && preto.getInicio() > getInicioConteudo()) {
+				return preto.getInicio();
+			}
+		}
+		return duracaoSegundos;
+	}
+
+	/**
+	 * Configura tempos inicial e final para remover os trechos pretos do início e do fim do vídeo.
+	 *
+	 * @param parameters
+	 * @return "true" se algum corte foi configurado
+	 */
+	public boolean aplicarCorteAutomatico(FFmpegParameters parameters) {
+		boolean cortou = false;
+		double inicio = getInicioConteudo();
+		if (inicio > 0) {
+			parameters.setTempoInicial(FFmpegParameters.formatarSegundos(inicio));
+			cortou = true;
+		}
+		double fim = getFimConteudo();
+		if (fim < duracaoSegundos) {
+			parameters.setTempoFinal(FFmpegParameters.formatarSegundos(fim));
+			cortou = true;
+		}
+		return cortou;
+	}
+}
@@ -2,11 +2,22 @@ package com.felipegiotto.utils.ffmpeg;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.SystemUtils;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -15,12 +26,13 @@ import org.apache.logging.log4j.Logger;
 import com.felipegiotto.utils.FGProcessUtils;
 import com.felipegiotto.utils.FGStreamUtils;
 import com.felipegiotto.utils.ffmpeg.util.FFmpegException;
+import com.felipegiotto.utils.ffmpeg.util.FFmpegGerenciadorRecursos;
+import com.felipegiotto.utils.ffmpeg.util.FFmpegTravadoException;
+import com.felipegiotto.utils.ffmpeg.util.FFmpegWatchdog;
 
 /**
  * Classe que monta uma linha de comando completa para chamar o "ffmpeg"
  * 
- * TODO: monitorar travamento do ffmpeg (começa a processar o vídeo e, depois de alguns frames, fica travado). Acontecia na versão ffmpeg-94112-gbb11584924. Monitorar, agora que autalizei para ffmpeg-95025-g4ba45a95df.
- * 
  * @author felipegiotto@gmail.com
  */
 public class FFmpegCommand {
@@ -56,14 +68,90 @@ public class FFmpegCommand {
 	 * 
 	 * Escreve o progresso do ffmpeg no logger.
 	 * 
+	 * Se foi configurado {@link #setTempoMaximoSemProgressoSegundos(Integer)} e o ffmpeg travar,
+	 * o processo será finalizado e, se houver {@link #setParametrosAlternativosSeTravar(FFmpegParameters)},
+	 * será executado novamente com os parâmetros alternativos.
+	 * 
 	 * @throws IOException
 	 * @throws InterruptedException 
-	 * @throws FFmpegException 
+	 * @throws FFmpegException : se o ffmpeg travar, será lançada {@link FFmpegTravadoException}
 	 */
 	public void runAndWait(boolean escreverRetornoLogs) throws IOException, InterruptedException, FFmpegException {
 		
+		// Reserva as CPUs desta execução, aguardando se outras execuções estiverem utilizando todas
+		FFmpegGerenciadorRecursos.Reserva reserva = null;
+		if (gerenciadorRecursos != null) {
+			reserva = gerenciadorRecursos.reservar(quantidadeCpus);
+			LOGGER.debug("CPUs reservadas para o ffmpeg: " + FFmpegGerenciadorRecursos.formatarListaCpus(reserva.getCpus()));
+			cpusReservadas = reserva.getCpus();
+		}
+		try {
+			runAndWaitComRetentativa(escreverRetornoLogs);
+		} finally {
+			excluirArquivoTemporarioEntrada();
+			if (reserva != null) {
+				cpusReservadas = null;
+				reserva.close();
+			}
+		}
+	}
+	
+	private void runAndWaitComRetentativa(boolean escreverRetornoLogs) throws IOException, InterruptedException, FFmpegException {
+		try {
+			executarEAguardar(escreverRetornoLogs);
+			
+		} catch (FFmpegTravadoException ex) {
+			if (parametrosAlternativosSeTravar == null) {
+				throw ex;
+			}
+			
+			// Stream de entrada já foi consumido pela primeira tentativa
+			if (inputStream != null && arquivoTemporarioEntrada == null) {
+				LOGGER.warn("ffmpeg travou, mas não é possível executar novamente pois a entrada é um stream que já foi consumido.");
+				throw ex;
+			}
+			
+			// Stream de saída já recebeu parte do resultado da primeira tentativa
+			if (outputStream != null) {
+				LOGGER.warn("ffmpeg travou, mas não é possível executar novamente pois parte da saída já foi enviada ao stream.");
+				throw ex;
+			}
+			
+			// Executa novamente, com os parâmetros alternativos
+			LOGGER.warn("ffmpeg travou. Executando novamente com parâmetros alternativos. Diagnóstico: \n" + ex.getSaidaComando());
+			FFmpegParameters parametrosOriginais = this.parameters;
+			this.parameters = parametrosAlternativosSeTravar;
+			try {
+				executarEAguardar(escreverRetornoLogs);
+			} finally {
+				this.parameters = parametrosOriginais;
+			}
+		}
+	}
+	
+	private void executarEAguardar(boolean escreverRetornoLogs) throws IOException, InterruptedException, FFmpegException {
+		
 		// Executa o FFmpeg
 		Process p = run();
+		boolean sucesso = false;
+		try {
+			aguardarProcesso(p, escreverRetornoLogs);
+			FGProcessUtils.conferirRetornoProcesso(p);
+			sucesso = true;
+		} finally {
+			
+			// Em caso de erro, as threads da execução com falha não podem continuar gravando no stream de saída
+			if (!sucesso) {
+				descartarCopiaStreams();
+			}
+		}
+		aguardarCopiaStreams();
+	}
+	
+	private void aguardarProcesso(Process p, boolean escreverRetornoLogs) throws IOException, InterruptedException, FFmpegException {
+		
+		// Monitora o progresso do ffmpeg, se foi configurado um tempo máximo sem progresso
+		final FFmpegWatchdog watchdog = tempoMaximoSemProgressoSegundos != null ? new FFmpegWatchdog(tempoMaximoSemProgressoSegundos) : null;
 		
 		// Evento para capturar Ctrl+C, se usuário abortar
 		Thread shutdownHook = new Thread() {
@@ -74,10 +162,15 @@ public class FFmpegCommand {
 	    };
 		Runtime.getRuntime().addShutdownHook(shutdownHook);
 		try {
-			// Mostra o resultado do comando
-			FGStreamUtils.consomeStream(p.getInputStream(), escreverRetornoLogs ? "STDOUT" : null, Level.INFO);
+			// Mostra o resultado do comando (exceto se a saída do ffmpeg estiver sendo enviada para um stream)
+			if (outputStream == null) {
+				FGStreamUtils.consomeStream(p.getInputStream(), escreverRetornoLogs ? "STDOUT" : null, Level.INFO);
+			}
 			final StringBuilder durationString = new StringBuilder();
 			FGStreamUtils.consomeStream(p.getErrorStream(), (line) -> {
+				if (watchdog != null) {
+					watchdog.registrarLinha(line);
+				}
 				if (escreverRetornoLogs) {
 					
 					// Analisa a duração do vídeo nas primeiras linhas do FFMPEG, para mostrar progresso
@@ -114,24 +207,161 @@ public class FFmpegCommand {
 			});
 	
 			// Aguarda o termino e verifica se ocorreu erro
-			p.waitFor();
+			if (watchdog == null) {
+				p.waitFor();
+			} else {
+				while (!p.waitFor(1, TimeUnit.SECONDS)) {
+					if (watchdog.isTravado()) {
+						finalizarProcessoTravado(p, watchdog);
+					}
+				}
+			}
 		
 		} finally {
 			
 			// Remove a captura de Ctrl+C
 			Runtime.getRuntime().removeShutdownHook(shutdownHook);
 		}
+	}
+	
+	/**
+	 * Aguarda o término das threads que alimentam a entrada e consomem a saída do ffmpeg, para
+	 * que o OutputStream de destino tenha recebido todos os dados antes de retornar.
+	 */
+	private void aguardarCopiaStreams() throws IOException, InterruptedException {
+		try {
+			if (copiaEntrada != null) {
+				try {
+					copiaEntrada.get();
+				} catch (ExecutionException ex) {
+					
+					// O ffmpeg pode encerrar antes de ler toda a entrada (ex: com tempo final definido), fechando o pipe
+					LOGGER.debug("Entrada do ffmpeg não foi totalmente consumida: " + ex.getCause().getLocalizedMessage());
+				}
+			}
+			if (copiaSaida != null) {
+				try {
+					copiaSaida.get();
+				} catch (ExecutionException ex) {
+					throw new IOException("Erro ao copiar a saída do ffmpeg para o stream de destino: " + ex.getCause().getLocalizedMessage(), ex.getCause());
+				}
+			}
+		} finally {
+			copiaEntrada = null;
+			copiaSaida = null;
+		}
+	}
+	
+	/**
+	 * Tempo máximo para as threads de cópia de uma execução com falha terminarem, antes de serem canceladas
+	 */
+	private static final int TEMPO_MAXIMO_DESCARTE_COPIA_SEGUNDOS = 5;
+	
+	/**
+	 * Aguarda (ou cancela) as threads de cópia de uma execução com falha, ignorando seus erros, para
+	 * que não concorram com as threads de uma nova tentativa.
+	 */
+	private void descartarCopiaStreams() {
+		try {
+			for (Future<Long> copia: Arrays.asList(copiaEntrada, copiaSaida)) {
+				if (copia == null) {
+					continue;
+				}
+				try {
+					copia.get(TEMPO_MAXIMO_DESCARTE_COPIA_SEGUNDOS, TimeUnit.SECONDS);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				} catch (ExecutionException | TimeoutException ex) {
+					LOGGER.debug("Cópia de stream da execução com falha foi descartada: " + ex.getLocalizedMessage());
+				} finally {
+					copia.cancel(true);
+				}
+			}
+		} finally {
+			copiaEntrada = null;
+			copiaSaida = null;
+		}
+	}
+	
+	private void finalizarProcessoTravado(Process p, FFmpegWatchdog watchdog) throws InterruptedException, FFmpegTravadoException {
+		String diagnostico = watchdog.getDiagnostico();
+		LOGGER.error("ffmpeg está há mais de " + tempoMaximoSemProgressoSegundos + "s sem progresso e será finalizado. Diagnóstico: \n" + diagnostico);
+		p.destroyForcibly();
+		p.waitFor();
 		
-		FGProcessUtils.conferirRetornoProcesso(p);
+		// Remove a saída parcial, para que uma nova execução não fique aguardando confirmação de sobrescrita
+		for (String arquivoSaida: getOutputFiles()) {
+			File saidaParcial = new File(arquivoSaida);
+			if (saidaParcial.isFile() && !saidaParcial.delete()) {
+				LOGGER.warn("Não foi possível excluir saída parcial do ffmpeg: " + saidaParcial);
+			}
+		}
+		throw new FFmpegTravadoException("ffmpeg ficou mais de " + tempoMaximoSemProgressoSegundos + "s sem progresso e foi finalizado", diagnostico);
 	}
 	
+	/**
+	 * Inicia o ffmpeg, sem aguardar o término.
+	 * 
+	 * Se houver streams de entrada ou saída (ver {@link #setInputStream(InputStream, String)} e 
+	 * {@link #setOutputStream(OutputStream, String)}), as threads que copiam os dados de/para o 
+	 * processo já são iniciadas.
+	 */
 	public Process run() throws IOException, FFmpegException {
+		gravarEntradaEmArquivoTemporarioSeNecessario();
+		
 		List<String> commands = buildParameters();
 		
 		LOGGER.info("Executando comando: " + commands);
 		
 		ProcessBuilder pb = new ProcessBuilder(commands);
-		return pb.start();
+		Process p = pb.start();
+		
+		// Alimenta o STDIN e consome o STDOUT do ffmpeg
+		if (inputStream != null && arquivoTemporarioEntrada == null) {
+			copiaEntrada = FGStreamUtils.copiaStreamAssincrono(inputStream, p.getOutputStream(), true);
+		}
+		if (outputStream != null) {
+			copiaSaida = FGStreamUtils.copiaStreamAssincrono(p.getInputStream(), outputStream, false);
+		}
+		return p;
+	}
+	
+	/**
+	 * Formatos (ex: MP4) que o ffmpeg precisa ler com busca aleatória (o índice pode estar no 
+	 * final do arquivo), por isso não podem ser lidos diretamente de um pipe.
+	 */
+	static boolean isFormatoEntradaRequerBusca(String formato) {
+		return FORMATOS_MP4.contains(formato.toLowerCase());
+	}
+	
+	/**
+	 * Formatos que, sem busca aleatória na saída, precisam ser gravados de forma fragmentada.
+	 */
+	static boolean isFormatoSaidaRequerFragmentacao(String formato) {
+		return FORMATOS_MP4.contains(formato.toLowerCase());
+	}
+	
+	private static final List<String> FORMATOS_MP4 = Arrays.asList("mp4", "mov", "m4v", "m4a", "3gp", "3g2", "mj2", "ipod", "ismv");
+	
+	private void gravarEntradaEmArquivoTemporarioSeNecessario() throws IOException {
+		if (inputStream == null || arquivoTemporarioEntrada != null || !isFormatoEntradaRequerBusca(formatoInputStream)) {
+			return;
+		}
+		
+		File temporario = File.createTempFile("ffmpeg_entrada_", "." + formatoInputStream);
+		temporario.deleteOnExit();
+		LOGGER.debug("Formato '" + formatoInputStream + "' não pode ser lido de um pipe. Gravando entrada em " + temporario);
+		Files.copy(inputStream, temporario.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		arquivoTemporarioEntrada = temporario;
+	}
+	
+	private void excluirArquivoTemporarioEntrada() {
+		if (arquivoTemporarioEntrada != null) {
+			if (!arquivoTemporarioEntrada.delete()) {
+				LOGGER.warn("Não foi possível excluir arquivo temporário de entrada: " + arquivoTemporarioEntrada);
+			}
+			arquivoTemporarioEntrada = null;
+		}
 	}
 
 	public ArrayList<String> buildParameters() throws IOException, FFmpegException {
@@ -149,6 +379,33 @@ public class FFmpegCommand {
 			}
 		}
 		
+		// Prioridade de I/O (classe 'ionice')
+		if (processIoniceClass != null) {
+			if (SystemUtils.IS_OS_LINUX) {
+				commands.add("ionice");
+				commands.add("-c");
+				commands.add(processIoniceClass.toString());
+				if (processIoniceLevel != null) {
+					commands.add("-n");
+					commands.add(processIoniceLevel.toString());
+				}
+			} else {
+				LOGGER.warn("Argumento 'setProcessIoPriority' só funciona em ambientes Linux e será ignorado.");
+			}
+		}
+		
+		// Fixa o processo nas CPUs definidas (ou reservadas pelo gerenciador de recursos)
+		List<Integer> cpus = cpusReservadas != null ? cpusReservadas : processCpuAffinity;
+		if (cpus != null && !cpus.isEmpty()) {
+			if (SystemUtils.IS_OS_LINUX) {
+				commands.add("taskset");
+				commands.add("-c");
+				commands.add(FFmpegGerenciadorRecursos.formatarListaCpus(cpus));
+			} else {
+				LOGGER.warn("Argumento 'setProcessCpuAffinity' só funciona em ambientes Linux e será ignorado.");
+			}
+		}
+		
 		// Comando ffmpeg
 		commands.add(getFFmpegPath());
 		
@@ -156,9 +413,38 @@ public class FFmpegCommand {
 		if (inputFiles.size() == 0) {
 			throw new InvalidParameterException("Faltou definir arquivo de entrada com setInputFile!");
 		}
+		if (parameters.isTempoInicialBuscaRapida() && inputFiles.size() > 1) {
+			throw new InvalidParameterException("Busca rápida do tempo inicial só pode ser utilizada com um único arquivo de entrada, mas há " + inputFiles.size());
+		}
+		if (!parameters.getJanelasTempo().isEmpty()) {
+			if (inputFiles.size() > 1) {
+				throw new InvalidParameterException("Janelas de tempo só podem ser utilizadas com um único arquivo de entrada, mas há " + inputFiles.size());
+			}
+			if (subtitleFile != null) {
+				throw new InvalidParameterException("Não é possível utilizar legendas com janelas de tempo, pois os trechos são concatenados antes dos filtros de vídeo");
+			}
+		}
+		
+		// Com várias saídas, o tempo inicial é informado em cada uma delas (ver FFmpegParameters#setTempoInicialBuscaRapida)
+		if (saidasAdicionais.isEmpty()) {
+			commands.addAll(parameters.buildInputParameters());
+		}
 		for (String file: inputFiles) {
+			if (ENTRADA_STREAM.equals(file) && arquivoTemporarioEntrada == null) {
+				commands.add("-f");
+				commands.add(formatoInputStream);
+			}
 			commands.add("-i");
-			commands.add(file);
+			commands.add(getCaminhoEntrada(file));
+		}
+		
+		// Várias saídas, decodificando a entrada somente uma vez
+		if (!saidasAdicionais.isEmpty()) {
+			if (outputStream != null) {
+				throw new InvalidParameterException("Não é possível gravar várias saídas quando a saída é um stream!");
+			}
+			buildParametersMultiplasSaidas(commands);
+			return commands;
 		}
 		
 		// TODO: Tirar daqui e colocar em FFmpegParameters??
@@ -168,21 +454,24 @@ public class FFmpegCommand {
 			commands.add("concat=n=" + inputFiles.size() + ":v=1:a=1");
 		}
 		
-		if (subtitleFile != null)
-		{
-			// TODO: Aceitar legenda em formato SSA
-			StringBuilder sbSubtitles = new StringBuilder();
-			String arquivoEscaped = subtitleFile.replaceAll("\\\\", "\\\\\\\\").replaceAll("\\:", "\\\\:");
-			sbSubtitles.append("subtitles='" + arquivoEscaped + "'");
-			if (subtitleFontSize != null) {
-				sbSubtitles.append(":force_style='Fontsize=" + subtitleFontSize + "'");
+		// A legenda é informada ao plano, sem alterar "parameters" (que pode ser montado várias vezes)
+		List<String> filtrosLegenda = subtitleFile != null ? Collections.singletonList(montarFiltroLegenda()) : Collections.<String>emptyList();
+		commands.addAll(planejarComLimiteCpus(parameters, getFileInfoPrimeiroArquivo(), filtrosLegenda, false, inputFiles.size() == 1).getParametros());
+		
+		// Stream de saída
+		if (outputStream != null) {
+			commands.add("-f");
+			commands.add(formatoOutputStream);
+			if (isFormatoSaidaRequerFragmentacao(formatoOutputStream)) {
+				
+				// Substitui o "+faststart", que precisaria voltar ao início do arquivo
+				commands.add("-movflags");
+				commands.add("frag_keyframe+empty_moov");
 			}
-			parameters.addVideoFilter(sbSubtitles.toString());
+			commands.add(SAIDA_STREAM);
+			return commands;
 		}
 		
-		FFmpegFileInfo fileInfoPrimeiroArquivo = new FFmpegFileInfo(new File(inputFiles.get(0)));
-		commands.addAll(parameters.buildParameters(fileInfoPrimeiroArquivo));
-		
 		// Arquivo de saída
 		if (outputFile == null) {
 			throw new InvalidParameterException("Faltou definir arquivo de saída com setOutputFile!");
@@ -191,6 +480,165 @@ public class FFmpegCommand {
 		
 		return commands;
 	}
+	
+	/**
+	 * Monta os parâmetros quando há mais de uma saída (ver {@link #addOutput(String, FFmpegParameters)}).
+	 * 
+	 * O vídeo de entrada é decodificado uma única vez e dividido com o filtro "split", e cada
+	 * saída recebe um bloco "-map" com seus próprios filtros e parâmetros. Ex:
+	 * 
+	 * <pre>-filter_complex [0:v]split=2[s0][s1];[s0]scale=-1:720[v0];[s1]scale=-1:480[v1] -map [v0] -map 0:a? (...) 720p.mp4 -map [v1] -map 0:a? (...) 480p.mp4</pre>
+	 */
+	private void buildParametersMultiplasSaidas(List<String> commands) throws IOException, FFmpegException {
+		
+		List<String> arquivosSaida = new ArrayList<>();
+		List<FFmpegParameters> parametrosSaida = new ArrayList<>();
+		if (outputFile != null) {
+			arquivosSaida.add(outputFile);
+			parametrosSaida.add(parameters);
+		}
+		for (SaidaAdicional saida: saidasAdicionais) {
+			arquivosSaida.add(saida.arquivo);
+			parametrosSaida.add(saida.parameters);
+		}
+		int qtdSaidas = arquivosSaida.size();
+		
+		// Monta os parâmetros de cada saída, separando os filtros de vídeo, que irão para o "-filter_complex"
+		FFmpegFileInfo fileInfoPrimeiroArquivo = getFileInfoPrimeiroArquivo();
+		List<List<String>> parametrosMontados = new ArrayList<>();
+		List<List<String>> filtrosVideo = new ArrayList<>();
+		int qtdSaidasComVideoProcessado = 0;
+		for (FFmpegParameters p: parametrosSaida) {
+			FFmpegPlanoComando plano = planejarComLimiteCpus(p, fileInfoPrimeiroArquivo, Collections.<String>emptyList(), true, false);
+			parametrosMontados.add(plano.getParametros());
+			filtrosVideo.add(plano.getFiltrosVideoSeparados());
+			if (!p.isVideoEncoderCopy()) {
+				qtdSaidasComVideoProcessado++;
+			}
+		}
+		
+		// Origem do vídeo e do áudio: o primeiro arquivo ou a concatenação de todos
+		List<String> grafo = new ArrayList<>();
+		String origemVideo;
+		List<String> mapsAudio = new ArrayList<>();
+		if (inputFiles.size() > 1) {
+			StringBuilder concat = new StringBuilder();
+			for (int i = 0; i < inputFiles.size(); i++) {
+				concat.append("[" + i + ":v][" + i + ":a]");
+			}
+			concat.append("concat=n=" + inputFiles.size() + ":v=1:a=1[vcat][acat]");
+			grafo.add(concat.toString());
+			origemVideo = "[vcat]";
+			
+			StringBuilder asplit = new StringBuilder("[acat]asplit=" + qtdSaidas);
+			for (int i = 0; i < qtdSaidas; i++) {
+				asplit.append("[a" + i + "]");
+				mapsAudio.add("[a" + i + "]");
+			}
+			grafo.add(asplit.toString());
+		} else {
+			origemVideo = "[0:v]";
+			for (int i = 0; i < qtdSaidas; i++) {
+				mapsAudio.add("0:a?");
+			}
+		}
+		
+		// Divide o vídeo decodificado entre as saídas que precisam processá-lo
+		if (qtdSaidasComVideoProcessado > 0) {
+			StringBuilder split = new StringBuilder(origemVideo);
+			String filtroLegenda = montarFiltroLegenda();
+			if (filtroLegenda != null) {
+				split.append(filtroLegenda + ",");
+			}
+			split.append("split=" + qtdSaidasComVideoProcessado);
+			for (int i = 0; i < qtdSaidasComVideoProcessado; i++) {
+				split.append("[s" + i + "]");
+			}
+			grafo.add(split.toString());
+		}
+		List<String> mapsVideo = new ArrayList<>();
+		int indiceSplit = 0;
+		for (int i = 0; i < qtdSaidas; i++) {
+			if (parametrosSaida.get(i).isVideoEncoderCopy()) {
+				if (inputFiles.size() > 1) {
+					throw new InvalidParameterException("Não é possível copiar o vídeo (encoder 'copy') ao concatenar mais de um arquivo de entrada: " + arquivosSaida.get(i));
+				}
+				mapsVideo.add("0:v");
+			} else {
+				List<String> filtros = filtrosVideo.get(i);
+				grafo.add("[s" + indiceSplit + "]" + (filtros.isEmpty() ? "null" : StringUtils.join(filtros, ",")) + "[v" + i + "]");
+				mapsVideo.add("[v" + i + "]");
+				indiceSplit++;
+			}
+		}
+		
+		if (!grafo.isEmpty()) {
+			commands.add("-filter_complex");
+			commands.add(StringUtils.join(grafo, ";"));
+		}
+		
+		// Um bloco de parâmetros para cada saída
+		for (int i = 0; i < qtdSaidas; i++) {
+			commands.add("-map");
+			commands.add(mapsVideo.get(i));
+			commands.add("-map");
+			commands.add(mapsAudio.get(i));
+			commands.addAll(parametrosMontados.get(i));
+			commands.add(arquivosSaida.get(i));
+		}
+	}
+	
+	/**
+	 * Monta os parâmetros de uma saída, limitando as threads do encoder às CPUs reservadas (se houver)
+	 */
+	private FFmpegPlanoComando planejarComLimiteCpus(FFmpegParameters p, FFmpegFileInfo fileInfo, List<String> filtrosVideoAdicionais, boolean separarFiltrosVideo, boolean permitirCopiaStreams) throws IOException, FFmpegException {
+		Integer limiteCpusReservadas = cpusReservadas != null ? cpusReservadas.size() : null;
+		return p.planejar(fileInfo, filtrosVideoAdicionais, separarFiltrosVideo, permitirCopiaStreams, limiteCpusReservadas);
+	}
+	
+	private FFmpegFileInfo fileInfoPrimeiroArquivo;
+	
+	/**
+	 * Dados do primeiro arquivo de entrada, reaproveitados enquanto o arquivo for o mesmo, para que
+	 * o ffmpeg não seja consultado novamente a cada montagem dos parâmetros (ex: retentativas).
+	 */
+	private FFmpegFileInfo getFileInfoPrimeiroArquivo() {
+		File arquivo = new File(getCaminhoEntrada(inputFiles.get(0)));
+		if (fileInfoPrimeiroArquivo == null || !fileInfoPrimeiroArquivo.getFile().getAbsoluteFile().equals(arquivo.getAbsoluteFile())) {
+			fileInfoPrimeiroArquivo = new FFmpegFileInfo(arquivo);
+		}
+		return fileInfoPrimeiroArquivo;
+	}
+	
+	private String montarFiltroLegenda() {
+		if (subtitleFile == null) {
+			return null;
+		}
+		
+		// TODO: Aceitar legenda em formato SSA
+		StringBuilder sbSubtitles = new StringBuilder();
+		String arquivoEscaped = subtitleFile.replaceAll("\\\\", "\\\\\\\\").replaceAll("\\:", "\\\\:");
+		sbSubtitles.append("subtitles='" + arquivoEscaped + "'");
+		if (subtitleFontSize != null) {
+			sbSubtitles.append(":force_style='Fontsize=" + subtitleFontSize + "'");
+		}
+		return sbSubtitles.toString();
+	}
+	
+	/**
+	 * Retorna todos os arquivos de saída: o definido em {@link #setOutputFile(String)} (se houver) 
+	 * e os adicionados com {@link #addOutput(String, FFmpegParameters)}.
+	 */
+	public List<String> getOutputFiles() {
+		List<String> arquivos = new ArrayList<>();
+		if (outputFile != null) {
+			arquivos.add(outputFile);
+		}
+		for (SaidaAdicional saida: saidasAdicionais) {
+			arquivos.add(saida.arquivo);
+		}
+		return arquivos;
+	}
 
 	private List<String> inputFiles = new ArrayList<>();
 	
@@ -209,6 +657,56 @@ public class FFmpegCommand {
 		this.inputFiles.add(inputFile.getAbsolutePath());
 	}
 	
+	/**
+	 * Informa os dados já lidos do primeiro arquivo de entrada (ex: mantidos em cache pela 
+	 * aplicação), para que o ffmpeg não precise analisá-lo novamente ao montar os parâmetros.
+	 * Se o arquivo de entrada for outro, os dados são ignorados.
+	 * 
+	 * @param fileInfo
+	 */
+	public void setInputFileInfo(FFmpegFileInfo fileInfo) {
+		this.fileInfoPrimeiroArquivo = fileInfo;
+	}
+	
+	public static final String ENTRADA_STREAM = "pipe:0";
+	public static final String SAIDA_STREAM = "pipe:1";
+	
+	private InputStream inputStream;
+	private String formatoInputStream;
+	private File arquivoTemporarioEntrada;
+	private Future<Long> copiaEntrada;
+	
+	/**
+	 * Adiciona uma entrada lida de um stream (ex: upload recebido por HTTP), que será enviada ao 
+	 * ffmpeg pelo STDIN ("pipe:0"), sem gravar arquivo temporário.
+	 * 
+	 * Formatos que precisam de busca aleatória na leitura (ex: MP4, MOV) são gravados antes em um 
+	 * arquivo temporário, que é excluído ao final de {@link #runAndWait(boolean)}. Formatos 
+	 * "streamáveis" (ex: "mpegts", "matroska", "webm", "flv") são lidos diretamente do pipe.
+	 * 
+	 * Somente um stream de entrada é permitido (pois há somente um STDIN). Se o ffmpeg travar, não 
+	 * será executado novamente (ver {@link #setParametrosAlternativosSeTravar(FFmpegParameters)}) 
+	 * pois o stream já terá sido consumido.
+	 * 
+	 * @param inputStream
+	 * @param formato : formato do conteúdo, conforme "ffmpeg -formats" (ex: "mpegts", "matroska", "mp4")
+	 */
+	public void setInputStream(InputStream inputStream, String formato) {
+		if (this.inputStream != null) {
+			throw new InvalidParameterException("Somente um stream de entrada pode ser utilizado!");
+		}
+		this.inputStream = inputStream;
+		this.formatoInputStream = formato;
+		this.inputFiles.add(ENTRADA_STREAM);
+	}
+	
+	private String getCaminhoEntrada(String inputFile) {
+		if (ENTRADA_STREAM.equals(inputFile) && arquivoTemporarioEntrada != null) {
+			return arquivoTemporarioEntrada.getAbsolutePath();
+		}
+		return inputFile;
+	}
+	
 	private String subtitleFile;
 	private Integer subtitleFontSize;
 	
@@ -255,10 +753,66 @@ public class FFmpegCommand {
 	 */
 	public void setOutputFile(String outputFile) {
 		this.outputFile = outputFile;
+		this.outputStream = null;
 	}
 
 	public void setOutputFile(File outputFile) {
-		this.outputFile = outputFile.getAbsolutePath();
+		setOutputFile(outputFile.getAbsolutePath());
+	}
+	
+	private OutputStream outputStream;
+	private String formatoOutputStream;
+	private Future<Long> copiaSaida;
+	
+	/**
+	 * Configura a saída do ffmpeg para ser enviada a um stream (ex: resposta de um download HTTP), 
+	 * pelo STDOUT ("pipe:1"), sem gravar arquivo temporário. Substitui {@link #setOutputFile(String)}.
+	 * 
+	 * Formatos MP4/MOV são gravados de forma fragmentada ("-movflags frag_keyframe+empty_moov"), 
+	 * pois o pipe não permite voltar ao início para gravar o índice.
+	 * 
+	 * O stream não é fechado ao final. Se o ffmpeg travar, não será executado novamente (ver
+	 * {@link #setParametrosAlternativosSeTravar(FFmpegParameters)}) pois parte da saída já terá sido enviada.
+	 * 
+	 * @param outputStream
+	 * @param formato : formato do conteúdo, conforme "ffmpeg -formats" (ex: "mpegts", "matroska", "mp4")
+	 */
+	public void setOutputStream(OutputStream outputStream, String formato) {
+		this.outputStream = outputStream;
+		this.formatoOutputStream = formato;
+		this.outputFile = null;
+	}
+	
+	private static class SaidaAdicional {
+		private final String arquivo;
+		private final FFmpegParameters parameters;
+		
+		private SaidaAdicional(String arquivo, FFmpegParameters parameters) {
+			this.arquivo = arquivo;
+			this.parameters = parameters;
+		}
+	}
+	
+	private List<SaidaAdicional> saidasAdicionais = new ArrayList<>();
+	
+	/**
+	 * Adiciona mais um arquivo de saída, com seus próprios parâmetros (ex: resolução, codec, qualidade).
+	 * 
+	 * Útil para gerar várias versões do mesmo vídeo (ex: 1080p, 720p e 480p) em uma única execução
+	 * do ffmpeg, que decodifica a entrada uma única vez e a divide entre as saídas (filtro "split").
+	 * 
+	 * O arquivo definido em {@link #setOutputFile(String)} (com os parâmetros de {@link #getParameters()}),
+	 * se houver, será a primeira saída.
+	 * 
+	 * @param outputFile
+	 * @param parameters
+	 */
+	public void addOutput(String outputFile, FFmpegParameters parameters) {
+		this.saidasAdicionais.add(new SaidaAdicional(outputFile, parameters));
+	}
+	
+	public void addOutput(File outputFile, FFmpegParameters parameters) {
+		addOutput(outputFile.getAbsolutePath(), parameters);
 	}
 	
 	private Integer processNicePriority;
@@ -279,6 +833,97 @@ public class FFmpegCommand {
 		this.processNicePriority = processNicePriority;
 	}
 	
+	private Integer processIoniceClass;
+	private Integer processIoniceLevel;
+	
+	/**
+	 * Configura a prioridade de acesso a disco do ffmpeg (comando 'ionice'), para que conversões 
+	 * em lote não prejudiquem outros processos.
+	 * 
+	 * Por enquanto, só funciona em ambientes Linux.
+	 * 
+	 * Classes: 1 = tempo real, 2 = "best-effort", 3 = somente quando o disco estiver ocioso
+	 * Nível (somente classes 1 e 2): 0 = maior prioridade, 7 = menor prioridade
+	 * 
+	 * @param classe : classe ou "null" para não alterar
+	 * @param nivel : nível ou "null" para o padrão da classe
+	 */
+	public void setProcessIoPriority(Integer classe, Integer nivel) {
+		this.processIoniceClass = classe;
+		this.processIoniceLevel = nivel;
+	}
+	
+	private List<Integer> processCpuAffinity;
+	
+	/**
+	 * Fixa o ffmpeg em determinadas CPUs (comando 'taskset'), para que execuções simultâneas não 
+	 * disputem os mesmos processadores (e seus caches).
+	 * 
+	 * Por enquanto, só funciona em ambientes Linux.
+	 * 
+	 * Para dividir as CPUs automaticamente entre várias execuções, ver {@link #setOrcamentoCpus(FFmpegGerenciadorRecursos, int)}.
+	 * 
+	 * @param cpus : índices das CPUs (ex: 0, 1, 2, 3) ou "null" para não fixar
+	 */
+	public void setProcessCpuAffinity(List<Integer> cpus) {
+		this.processCpuAffinity = cpus;
+	}
+	
+	private FFmpegGerenciadorRecursos gerenciadorRecursos;
+	private int quantidadeCpus;
+	private List<Integer> cpusReservadas;
+	
+	/**
+	 * Reserva uma quantidade de CPUs para esta execução, a partir de um gerenciador compartilhado 
+	 * entre as execuções simultâneas. Em {@link #runAndWait(boolean)}, o ffmpeg aguarda até que haja 
+	 * CPUs livres, é fixado nelas ("taskset") e o encoder é limitado à mesma quantidade de threads 
+	 * (ver {@link FFmpegParameters#setLimiteCpus(Integer)}).
+	 * 
+	 * @param gerenciador : ex: {@link FFmpegGerenciadorRecursos#getPadrao()}, ou "null" para não reservar
+	 * @param quantidadeCpus
+	 */
+	public void setOrcamentoCpus(FFmpegGerenciadorRecursos gerenciador, int quantidadeCpus) {
+		this.gerenciadorRecursos = gerenciador;
+		this.quantidadeCpus = quantidadeCpus;
+	}
+	
+	private Integer tempoMaximoSemProgressoSegundos;
+	
+	/**
+	 * Configura o tempo máximo que o ffmpeg pode ficar sem avançar nenhum frame (ou tempo
+	 * de saída) durante {@link #runAndWait(boolean)}. Se esse tempo for ultrapassado, o 
+	 * processo é considerado travado e será finalizado.
+	 * 
+	 * Já foi observado o ffmpeg começar a processar o vídeo e, depois de alguns frames, ficar 
+	 * travado (versão ffmpeg-94112-gbb11584924).
+	 * 
+	 * @param tempoMaximoSemProgressoSegundos : tempo em segundos ou "null" para não monitorar
+	 */
+	public void setTempoMaximoSemProgressoSegundos(Integer tempoMaximoSemProgressoSegundos) {
+		this.tempoMaximoSemProgressoSegundos = tempoMaximoSemProgressoSegundos;
+	}
+	
+	public Integer getTempoMaximoSemProgressoSegundos() {
+		return tempoMaximoSemProgressoSegundos;
+	}
+	
+	private FFmpegParameters parametrosAlternativosSeTravar;
+	
+	/**
+	 * Configura parâmetros alternativos (ex: outro encoder ou preset) que serão utilizados em 
+	 * uma nova tentativa, caso o ffmpeg trave. Só tem efeito junto com 
+	 * {@link #setTempoMaximoSemProgressoSegundos(Integer)}.
+	 * 
+	 * @param parametrosAlternativosSeTravar : parâmetros da nova tentativa ou "null" para não tentar novamente
+	 */
+	public void setParametrosAlternativosSeTravar(FFmpegParameters parametrosAlternativosSeTravar) {
+		this.parametrosAlternativosSeTravar = parametrosAlternativosSeTravar;
+	}
+	
+	public FFmpegParameters getParametrosAlternativosSeTravar() {
+		return parametrosAlternativosSeTravar;
+	}
+	
 	public static boolean isArquivoVideo(String filename) {
 
 		filename = filename.toUpperCase();
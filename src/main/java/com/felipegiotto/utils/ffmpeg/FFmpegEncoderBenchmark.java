@@ -0,0 +1,285 @@
+package com.felipegiotto.utils.ffmpeg;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.felipegiotto.utils.FGProcessUtils;
+import com.felipegiotto.utils.FGStreamUtils;
+import com.felipegiotto.utils.ffmpeg.FFmpegEncoderCostModel.Medicao;
+import com.felipegiotto.utils.ffmpeg.util.FFmpegException;
+
+/**
+ * Calibra os encoders de vídeo na máquina atual: codifica pequenas amostras de um vídeo de
+ * referência com diversos presets, valores de CRF e quantidades de threads, medindo a
+ * velocidade (fps) e o bitrate resultante de cada combinação.
+ *
+ * Ex:
+ <code>
+ 	FFmpegEncoderBenchmark benchmark = new FFmpegEncoderBenchmark(clipReferencia, new File("tmp"));
+ 	FFmpegEncoderCostModel modelo = benchmark.executar("libx265");
+ 	modelo.salvar(FFmpegEncoderCostModel.getArquivoPadraoDestaMaquina());
+ </code>
+ *
+ * @author felipegiotto@gmail.com
+ */
+public class FFmpegEncoderBenchmark {
+
+	private static final Logger LOGGER = LogManager.getLogger(FFmpegEncoderBenchmark.class);
+
+	private final File clipReferencia;
+	private final File pastaTemporaria;
+	private List<String> presets = Arrays.asList("ultrafast", "veryfast", "fast", "medium", "slow");
+	private List<Integer> crfs = Arrays.asList(23, 28);
+	private List<Integer> threads = Collections.singletonList(null);
+	private int duracaoAmostraSegundos = 10;
+	private int quantidadeAmostras = 3;
+
+	/**
+	 * Resultado da codificação de uma amostra, conforme informado pelo próprio ffmpeg
+	 */
+	static final class Amostra {
+		private final double segundosEncode;
+		private final long frames;
+		private final double segundosVideo;
+
+		Amostra(double segundosEncode, long frames, double segundosVideo) {
+			this.segundosEncode = segundosEncode;
+			this.frames = frames;
+			this.segundosVideo = segundosVideo;
+		}
+	}
+
+	/**
+	 * Progresso informado pelo ffmpeg em uma linha "frame=... time=..."
+	 */
+	static final class Progresso {
+		private final long frames;
+		private final Double segundos;
+
+		Progresso(long frames, Double segundos) {
+			this.frames = frames;
+			this.segundos = segundos;
+		}
+
+		long getFrames() {
+			return frames;
+		}
+
+		/**
+		 * Tempo do vídeo já codificado ou "null" se o ffmpeg não informar (ex: "time=N/A")
+		 */
+		Double getSegundos() {
+			return segundos;
+		}
+	}
+
+	/**
+	 * @param clipReferencia : vídeo representativo dos vídeos que serão processados
+	 * @param pastaTemporaria : pasta onde as amostras codificadas serão gravadas (e excluídas em seguida)
+	 */
+	public FFmpegEncoderBenchmark(File clipReferencia, File pastaTemporaria) {
+		this.clipReferencia = clipReferencia;
+		this.pastaTemporaria = pastaTemporaria;
+	}
+
+	public void setPresets(String... presets) {
+		this.presets = Arrays.asList(presets);
+	}
+
+	public void setCrfs(Integer... crfs) {
+		this.crfs = Arrays.asList(crfs);
+	}
+
+	/**
+	 * Define as quantidades de threads que serão testadas. "null" indica deixar o ffmpeg decidir.
+	 */
+	public void setThreads(Integer... threads) {
+		this.threads = Arrays.asList(threads);
+	}
+
+	public void setDuracaoAmostraSegundos(int duracaoAmostraSegundos) {
+		this.duracaoAmostraSegundos = duracaoAmostraSegundos;
+	}
+
+	/**
+	 * Define quantas janelas do vídeo de referência serão codificadas em cada combinação.
+	 * As janelas são distribuídas uniformemente ao longo do vídeo.
+	 */
+	public void setQuantidadeAmostras(int quantidadeAmostras) {
+		this.quantidadeAmostras = quantidadeAmostras;
+	}
+
+	/**
+	 * Executa a calibração do encoder informado, gerando um novo modelo de custo.
+	 *
+	 * @param encoder : ex: "libx264", "libx265"
+	 * @return
+	 */
+	public FFmpegEncoderCostModel executar(String encoder) throws IOException, InterruptedException, FFmpegException {
+		FFmpegEncoderCostModel modelo = new FFmpegEncoderCostModel();
+		executar(encoder, modelo);
+		return modelo;
+	}
+
+	/**
+	 * Executa a calibração do encoder informado, acrescentando as medições a um modelo existente.
+	 *
+	 * @param encoder : ex: "libx264", "libx265"
+	 * @param modelo
+	 */
+	public void executar(String encoder, FFmpegEncoderCostModel modelo) throws IOException, InterruptedException, FFmpegException {
+
+		FFmpegFileInfo fileInfo = new FFmpegFileInfo(clipReferencia);
+		float duracaoTotal = fileInfo.getVideoDurationSeconds();
+		Float fpsOriginal = fileInfo.getVideoFPS();
+		if (fpsOriginal == null) {
+			throw new FFmpegException("Não foi possível identificar o FPS do vídeo de referência " + clipReferencia, StringUtils.join(fileInfo.getFullFileInfo(), "\n"));
+		}
+
+		// Janelas distribuídas uniformemente ao longo do vídeo
+		List<Integer> iniciosAmostras = new ArrayList<>();
+		for (int i = 0; i < quantidadeAmostras; i++) {
+			int inicio = (int) (duracaoTotal * (i + 1) / (quantidadeAmostras + 1)) - (duracaoAmostraSegundos / 2);
+			iniciosAmostras.add(Math.max(0, inicio));
+		}
+
+		File arquivoAmostra = new File(pastaTemporaria, "ffmpeg_benchmark_" + encoder + ".mkv");
+		for (String preset : presets) {
+			for (Integer crf : crfs) {
+				for (Integer qtdThreads : threads) {
+					double segundosEncode = 0;
+					long frames = 0;
+					double segundosVideo = 0;
+					long bytesTotal = 0;
+					for (Integer inicio : iniciosAmostras) {
+						Amostra amostra = codificarAmostra(encoder, preset, crf, qtdThreads, inicio, fpsOriginal, arquivoAmostra);
+						segundosEncode += amostra.segundosEncode;
+						frames += amostra.frames;
+						segundosVideo += amostra.segundosVideo;
+						bytesTotal += arquivoAmostra.length();
+						arquivoAmostra.delete();
+					}
+
+					// A duração de cada amostra é a informada pelo ffmpeg, pois as janelas próximas
+					// do fim do vídeo podem ser mais curtas do que "duracaoAmostraSegundos"
+					double fpsEncode = frames / segundosEncode;
+					double bitrateKbps = (bytesTotal * 8 / 1000.0) / segundosVideo;
+					Medicao medicao = new Medicao(encoder, preset, crf, qtdThreads, fpsEncode, bitrateKbps);
+					LOGGER.info("Medição: " + medicao);
+					modelo.adicionarMedicao(medicao);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Codifica uma janela do vídeo de referência.
+	 *
+	 * @return tempo de processamento, em segundos, informado pelo próprio ffmpeg ("-benchmark"), que
+	 * não considera a criação do processo nem a leitura das informações do arquivo, e a quantidade
+	 * de frames e a duração efetivamente codificadas (última linha de progresso do ffmpeg)
+	 */
+	private Amostra codificarAmostra(String encoder, String preset, int crf, Integer qtdThreads, int inicio, float fpsOriginal, File arquivoAmostra) throws IOException, InterruptedException, FFmpegException {
+		if (arquivoAmostra.exists()) {
+			arquivoAmostra.delete();
+		}
+
+		FFmpegCommand ffmpeg = new FFmpegCommand();
+		ffmpeg.addInputFile(clipReferencia);
+		ffmpeg.setOutputFile(arquivoAmostra);
+
+		FFmpegParameters parameters = ffmpeg.getParameters();
+		parameters.setOcultarInformacoesVersoesBibliotecas(true);
+		parameters.setVideoCopiarMetadados(false);
+		parameters.setAudioMoverMetadadosParaInicio(false);
+		parameters.setVideoEncoderCodec(encoder);
+		parameters.setVideoPreset(preset);
+		parameters.setVideoQualidadeCrf(crf);
+		parameters.setVideoThreads(qtdThreads);
+
+		// Busca rápida ("-ss" antes do "-i"), para que as janelas do final do vídeo não precisem
+		// decodificar todo o trecho anterior
+		parameters.setTempoInicialBuscaRapida(true);
+		parameters.setTempoInicial(inicio);
+		parameters.setTempoFinal(inicio + duracaoAmostraSegundos);
+
+		// Mede somente o vídeo
+		parameters.setVideoAddExtraParameters("-an", "-benchmark");
+
+		Process p = ffmpeg.run();
+		FGStreamUtils.consomeStream(p.getInputStream(), null, null);
+		StringBuilder saida = new StringBuilder();
+		Double[] segundosEncode = new Double[1];
+		Progresso[] ultimoProgresso = new Progresso[1];
+		Future<Long> leitura = FGStreamUtils.consomeStream(p.getErrorStream(), (linha) -> {
+			saida.append(linha).append('\n');
+			Double segundos = getSegundosBenchmark(linha);
+			if (segundos != null) {
+				segundosEncode[0] = segundos;
+			}
+			Progresso progresso = getProgresso(linha);
+			if (progresso != null) {
+				ultimoProgresso[0] = progresso;
+			}
+		});
+		p.waitFor();
+		try {
+			leitura.get();
+		} catch (ExecutionException ex) {
+			throw new IOException("Erro ao ler a saída do ffmpeg: " + ex.getCause().getLocalizedMessage(), ex.getCause());
+		}
+		FGProcessUtils.conferirRetornoProcesso(p);
+		if (segundosEncode[0] == null) {
+			throw new FFmpegException("ffmpeg não informou o tempo de processamento (-benchmark)", saida.toString());
+		}
+		Progresso progresso = ultimoProgresso[0];
+		if (progresso == null || progresso.getFrames() == 0) {
+			throw new FFmpegException("ffmpeg não informou a quantidade de frames codificados na amostra iniciada em " + inicio + "s", saida.toString());
+		}
+		double segundosVideo = progresso.getSegundos() != null ? progresso.getSegundos() : progresso.getFrames() / fpsOriginal;
+		return new Amostra(segundosEncode[0], progresso.getFrames(), segundosVideo);
+	}
+
+	private static final Pattern PATTERN_PROGRESSO = Pattern.compile("^frame=\\s*(\\d+)\\b.*\\btime=\\s*(\\S+)");
+
+	/**
+	 * Progresso informado pelo ffmpeg durante a codificação, ex:
+	 * "frame=  250 fps=120 q=-1.0 Lsize=    1234kB time=00:00:10.00 bitrate=1010.9kbits/s speed=4.8x"
+	 *
+	 * @return progresso ou "null" se a linha não for de progresso
+	 */
+	static Progresso getProgresso(String linha) {
+		Matcher m = PATTERN_PROGRESSO.matcher(linha);
+		if (!m.find()) {
+			return null;
+		}
+		String tempo = m.group(2);
+		Double segundos = tempo.matches("\\d+:\\d+:[\\d.]+") ? FFmpegParameters.hmsToSeconds(tempo) : null;
+		return new Progresso(Long.parseLong(m.group(1)), segundos);
+	}
+
+	private static final Pattern PATTERN_BENCHMARK = Pattern.compile("^bench: .*\\brtime=([0-9.]+)s");
+
+	/**
+	 * Tempo real de processamento informado pelo ffmpeg com "-benchmark", ex:
+	 * "bench: utime=12.345s stime=0.123s rtime=3.456s"
+	 *
+	 * @return segundos ou "null" se a linha não contiver o tempo
+	 */
+	static Double getSegundosBenchmark(String linha) {
+		Matcher m = PATTERN_BENCHMARK.matcher(linha);
+		return m.find() ? Double.valueOf(m.group(1)) : null;
+	}
+}
@@ -0,0 +1,190 @@
+package com.felipegiotto.utils.ffmpeg;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import com.felipegiotto.utils.config.FGProperties;
+
+/**
+ * Modelo de custo dos encoders de vídeo em uma determinada máquina, com a velocidade (fps)
+ * e o bitrate resultante de cada combinação de preset, CRF e threads.
+ *
+ * As medições são geradas por {@link FFmpegEncoderBenchmark} e podem ser gravadas em arquivo,
+ * para que não seja preciso calibrar novamente a cada execução.
+ *
+ * @author felipegiotto@gmail.com
+ */
+public class FFmpegEncoderCostModel {
+
+	private final List<Medicao> medicoes = new ArrayList<>();
+
+	/**
+	 * Resultado da medição de uma combinação de parâmetros do encoder
+	 */
+	public static class Medicao {
+
+		private final String encoder;
+		private final String preset;
+		private final int crf;
+		private final Integer threads;
+		private final double fpsEncode;
+		private final double bitrateKbps;
+
+		public Medicao(String encoder, String preset, int crf, Integer threads, double fpsEncode, double bitrateKbps) {
+			this.encoder = encoder;
+			this.preset = preset;
+			this.crf = crf;
+			this.threads = threads;
+			this.fpsEncode = fpsEncode;
+			this.bitrateKbps = bitrateKbps;
+		}
+
+		public String getEncoder() {
+			return encoder;
+		}
+
+		public String getPreset() {
+			return preset;
+		}
+
+		public int getCrf() {
+			return crf;
+		}
+
+		public Integer getThreads() {
+			return threads;
+		}
+
+		public double getFpsEncode() {
+			return fpsEncode;
+		}
+
+		public double getBitrateKbps() {
+			return bitrateKbps;
+		}
+
+		private String getChave() {
+			return encoder + "|" + preset + "|" + crf + "|" + (threads != null ? threads : "");
+		}
+
+		@Override
+		public String toString() {
+			return getChave() + ": " + String.format("%.1f", fpsEncode) + " fps, " + String.format("%.0f", bitrateKbps) + " kb/s";
+		}
+	}
+
+	/**
+	 * Adiciona uma medição ao modelo, substituindo uma medição anterior com os mesmos parâmetros.
+	 *
+	 * @param medicao
+	 */
+	public synchronized void adicionarMedicao(Medicao medicao) {
+		medicoes.removeIf(m -> m.getChave().equals(medicao.getChave()));
+		medicoes.add(medicao);
+	}
+
+	public synchronized List<Medicao> getMedicoes() {
+		return Collections.unmodifiableList(new ArrayList<>(medicoes));
+	}
+
+	/**
+	 * Escolhe a combinação mais rápida do encoder cujo bitrate não ultrapasse o limite
+	 * informado (orçamento de tamanho).
+	 *
+	 * @param encoder : ex: "libx265"
+	 * @param bitrateMaximoKbps : bitrate máximo aceitável
+	 * @return medição escolhida ou "null" se nenhuma atender ao limite
+	 */
+	public synchronized Medicao escolherMaisRapidaDentroDoTamanho(String encoder, double bitrateMaximoKbps) {
+		Medicao escolhida = null;
+		for (Medicao m : medicoes) {
+			if (m.getEncoder().equals(encoder) && m.getBitrateKbps() <= bitrateMaximoKbps) {
+				if (escolhida == null || m.getFpsEncode() > escolhida.getFpsEncode()) {
+					escolhida = m;
+				}
+			}
+		}
+		return escolhida;
+	}
+
+	/**
+	 * Escolhe, entre as combinações do encoder que atingem a velocidade mínima informada
+	 * (orçamento de tempo), a que gera o menor arquivo.
+	 *
+	 * @param encoder : ex: "libx265"
+	 * @param fpsMinimo : velocidade mínima de encode, em frames por segundo
+	 * @return medição escolhida ou "null" se nenhuma for rápida o suficiente
+	 */
+	public synchronized Medicao escolherMenorDentroDoTempo(String encoder, double fpsMinimo) {
+		Medicao escolhida = null;
+		for (Medicao m : medicoes) {
+			if (m.getEncoder().equals(encoder) && m.getFpsEncode() >= fpsMinimo) {
+				if (escolhida == null || m.getBitrateKbps() < escolhida.getBitrateKbps()) {
+					escolhida = m;
+				}
+			}
+		}
+		return escolhida;
+	}
+
+	/**
+	 * Grava as medições em um arquivo ".properties".
+	 *
+	 * @param arquivo
+	 * @throws IOException
+	 */
+	public synchronized void salvar(Path arquivo) throws IOException {
+		FGProperties properties = new FGProperties(arquivo, false);
+		properties.getProperties().clear();
+		for (Medicao m : medicoes) {
+			properties.setString(m.getChave(), m.getFpsEncode() + ";" + m.getBitrateKbps());
+		}
+		arquivo.toAbsolutePath().getParent().toFile().mkdirs();
+		properties.save("Modelo de custo dos encoders do ffmpeg");
+	}
+
+	/**
+	 * Carrega as medições gravadas com {@link #salvar(Path)}. Se o arquivo não existir,
+	 * retorna um modelo vazio.
+	 *
+	 * @param arquivo
+	 * @return
+	 * @throws IOException
+	 */
+	public static FFmpegEncoderCostModel carregar(Path arquivo) throws IOException {
+		FFmpegEncoderCostModel modelo = new FFmpegEncoderCostModel();
+		FGProperties properties = new FGProperties(arquivo, false);
+		for (String chave : properties.getProperties().stringPropertyNames()) {
+			String[] partesChave = chave.split("\\|", -1);
+			String[] partesValor = properties.getString(chave).split(";");
+			if (partesChave.length != 4 || partesValor.length != 2) {
+				throw new IOException("Medição inválida no arquivo " + arquivo + ": " + chave);
+			}
+			Integer threads = partesChave[3].isEmpty() ? null : Integer.parseInt(partesChave[3]);
+			modelo.adicionarMedicao(new Medicao(partesChave[0], partesChave[1], Integer.parseInt(partesChave[2]), threads,
+					Double.parseDouble(partesValor[0]), Double.parseDouble(partesValor[1])));
+		}
+		return modelo;
+	}
+
+	/**
+	 * Arquivo padrão para gravar o modelo de custo desta máquina, pois cada máquina possui
+	 * um desempenho diferente.
+	 */
+	public static Path getArquivoPadraoDestaMaquina() {
+		String nomeMaquina;
+		try {
+			nomeMaquina = InetAddress.getLocalHost().getHostName();
+		} catch (UnknownHostException ex) {
+			nomeMaquina = "localhost";
+		}
+		return Paths.get("tmp", "ffmpeg_modelo_custo_" + Objects.toString(nomeMaquina, "localhost") + ".properties");
+	}
+}
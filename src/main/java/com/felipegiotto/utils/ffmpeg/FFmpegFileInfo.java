@@ -3,6 +3,9 @@ package com.felipegiotto.utils.ffmpeg;
 import java.awt.Dimension;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
@@ -28,14 +31,51 @@ public class FFmpegFileInfo {
 	private static final Logger LOGGER = LogManager.getLogger(FFmpegFileInfo.class);
 	private static final Pattern PATTERN_DURATION = Pattern.compile("Duration: (\\d+):(\\d+):(\\d+)\\.(\\d+)");
 	private static final Pattern PATTERN_FPS = Pattern.compile("([0-9\\.]+) fps");
+	private static final Pattern PATTERN_STREAM_CODEC = Pattern.compile("Stream #\\S+: (Video|Audio): (\\w+)");
+	private static final Pattern PATTERN_BITRATE_STREAM = Pattern.compile("(\\d+) kb/s");
 
 	private File file;
 	List<String> cacheFileInfo;
+	FFmpegAnaliseConteudo cacheAnaliseConteudo;
+	private float fpsCacheAnaliseConteudo;
+	
+	/**
+	 * FPS padrão da análise de conteúdo: suficiente para identificar cenas e trechos pretos, 
+	 * decodificando bem menos quadros do que o vídeo original.
+	 */
+	public static final float FPS_ANALISE_CONTEUDO_PADRAO = 5;
 	
 	public FFmpegFileInfo(File file) {
 		this.file = file;
 	}
 	
+	public File getFile() {
+		return file;
+	}
+	
+	/**
+	 * Gera uma chave que identifica o conteúdo do arquivo (caminho, tamanho e data de modificação),
+	 * para ser utilizada em caches de dados derivados do vídeo (segmentos, miniaturas, etc).
+	 * 
+	 * Se o arquivo for alterado, a chave também muda.
+	 * 
+	 * @return hash SHA-1 em hexadecimal
+	 */
+	public String getCacheKey() {
+		String identificacao = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			byte[] hash = digest.digest(identificacao.getBytes(StandardCharsets.UTF_8));
+			StringBuilder sb = new StringBuilder();
+			for (byte b : hash) {
+				sb.append(String.format("%02x", b));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+	
 	/**
 	 * Lê todos os metadados de um arquivo, utilizando ffmpeg, e mantém em cache.
 	 * 
@@ -79,6 +119,83 @@ public class FFmpegFileInfo {
 		return cacheFileInfo;
 	}
 
+	/**
+	 * Analisa o conteúdo do vídeo (mudanças de cena, trechos pretos e trechos de silêncio) e 
+	 * mantém em cache. Ver {@link #getAnaliseConteudo(float)}.
+	 */
+	public FFmpegAnaliseConteudo getAnaliseConteudo() throws IOException, FFmpegException {
+		return getAnaliseConteudo(FPS_ANALISE_CONTEUDO_PADRAO);
+	}
+	
+	/**
+	 * Analisa o conteúdo do vídeo (mudanças de cena, trechos pretos e trechos de silêncio) e 
+	 * mantém em cache.
+	 * 
+	 * Todos os filtros ("scdet", "blackdetect" e "silencedetect") são aplicados em uma única 
+	 * execução do ffmpeg, e o vídeo é decodificado com FPS reduzido.
+	 * 
+	 * @param fpsAnalise : quantidade de quadros analisados por segundo
+	 * @return
+	 */
+	public FFmpegAnaliseConteudo getAnaliseConteudo(float fpsAnalise) throws IOException, FFmpegException {
+		if (cacheAnaliseConteudo != null && fpsCacheAnaliseConteudo == fpsAnalise) {
+			return cacheAnaliseConteudo;
+		}
+		
+		List<String> comandos = montarComandoAnaliseConteudo(file, fpsAnalise, getAudioCodec() != null);
+		LOGGER.debug("Analisando conteúdo do vídeo " + file + "...");
+		ProcessBuilder pb = new ProcessBuilder(comandos);
+		Process p = pb.start();
+		
+		List<String> linhas = new ArrayList<>();
+		try (Scanner scanner = new Scanner(p.getErrorStream())) {
+			while (scanner.hasNextLine()) {
+				linhas.add(scanner.nextLine());
+			}
+		}
+		try {
+			p.waitFor();
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		}
+		if (p.exitValue() != 0) {
+			throw new FFmpegException("Erro ao analisar conteúdo do vídeo " + file + ": ffmpeg retornou " + p.exitValue(), StringUtils.join(linhas, "\n"));
+		}
+		
+		cacheAnaliseConteudo = FFmpegAnaliseConteudo.interpretar(linhas, getVideoDurationSeconds());
+		fpsCacheAnaliseConteudo = fpsAnalise;
+		return cacheAnaliseConteudo;
+	}
+	
+	static List<String> montarComandoAnaliseConteudo(File file, float fpsAnalise, boolean analisarAudio) {
+		List<String> comandos = new ArrayList<>();
+		comandos.add(FFmpegCommand.getFFmpegPath());
+		comandos.add("-hide_banner");
+		comandos.add("-nostats");
+		comandos.add("-i");
+		comandos.add(file.getAbsolutePath());
+		
+		StringBuilder grafo = new StringBuilder();
+		grafo.append("[0:v]fps=fps=" + FFmpegParameters.formatarSegundos(fpsAnalise) + ",scdet=threshold=10,blackdetect=d=0.5:pix_th=0.10[v]");
+		if (analisarAudio) {
+			grafo.append(";[0:a]silencedetect=noise=-50dB:d=1[a]");
+		}
+		comandos.add("-filter_complex");
+		comandos.add(grafo.toString());
+		comandos.add("-map");
+		comandos.add("[v]");
+		if (analisarAudio) {
+			comandos.add("-map");
+			comandos.add("[a]");
+		}
+		
+		// Descarta a saída, pois só interessam as informações dos filtros
+		comandos.add("-f");
+		comandos.add("null");
+		comandos.add("-");
+		return comandos;
+	}
+
 	// Ex: "date            : 2012-04-05T18:22:59-0300"
 	// Ex: "date-por        : 2012-04-05T18:22:59-0300"
 	// Ex: "com.apple.quicktime.creationdate: 2019-04-18T19:03:52-0300"
@@ -251,6 +368,63 @@ public class FFmpegFileInfo {
 		return null;
 	}
 	
+	/**
+	 * Retorna o codec do primeiro stream de vídeo (ex: "h264", "hevc"), ou "null" se não houver vídeo.
+	 * 
+	 * Imagens de capa ("attached pic") são ignoradas.
+	 */
+	public String getVideoCodec() throws IOException {
+		String linha = getLinhaStream("Video");
+		return linha != null ? getCodecFromLine(linha) : null;
+	}
+	
+	/**
+	 * Retorna o bitrate do primeiro stream de vídeo, em kb/s, ou "null" se não for informado 
+	 * pelo ffmpeg (ex: alguns arquivos MKV).
+	 */
+	public Integer getVideoBitrateKbps() throws IOException {
+		String linha = getLinhaStream("Video");
+		return linha != null ? getBitrateFromLine(linha) : null;
+	}
+	
+	/**
+	 * Retorna o codec do primeiro stream de áudio (ex: "aac", "mp3"), ou "null" se não houver áudio.
+	 */
+	public String getAudioCodec() throws IOException {
+		String linha = getLinhaStream("Audio");
+		return linha != null ? getCodecFromLine(linha) : null;
+	}
+	
+	/**
+	 * Retorna o bitrate do primeiro stream de áudio, em kb/s, ou "null" se não for informado.
+	 */
+	public Integer getAudioBitrateKbps() throws IOException {
+		String linha = getLinhaStream("Audio");
+		return linha != null ? getBitrateFromLine(linha) : null;
+	}
+	
+	// Ex: Stream #0:1(und): Video: h264 (Main) (avc1 / 0x31637661), yuv420p(tv, smpte170m/bt709/bt709), 568x320, 758 kb/s, 30 fps, 30 tbr, 600 tbn, 1200 tbc (default)
+	// Ex: Stream #0:1(eng): Audio: aac (LC) (mp4a / 0x6134706D), 48000 Hz, stereo, fltp, 128 kb/s (default)
+	private String getLinhaStream(String tipo) throws IOException {
+		for (String linha: getFullFileInfo()) {
+			Matcher m = PATTERN_STREAM_CODEC.matcher(linha);
+			if (m.find() && m.group(1).equals(tipo) && !linha.contains("(attached pic)")) {
+				return linha;
+			}
+		}
+		return null;
+	}
+	
+	private static String getCodecFromLine(String linha) {
+		Matcher m = PATTERN_STREAM_CODEC.matcher(linha);
+		return m.find() ? m.group(2) : null;
+	}
+	
+	private static Integer getBitrateFromLine(String linha) {
+		Matcher m = PATTERN_BITRATE_STREAM.matcher(linha);
+		return m.find() ? Integer.parseInt(m.group(1)) : null;
+	}
+	
 	public static Float getVideoDurationFromLine(String linha) {
 		Matcher m = PATTERN_DURATION.matcher(linha);
 		if (m.find()) {
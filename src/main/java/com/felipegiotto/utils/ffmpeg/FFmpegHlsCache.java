@@ -0,0 +1,201 @@
+package com.felipegiotto.utils.ffmpeg;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.felipegiotto.utils.ffmpeg.util.FFmpegDiskCache;
+import com.felipegiotto.utils.ffmpeg.util.FFmpegException;
+
+/**
+ * Gera, sob demanda, a playlist e os segmentos HLS de um vídeo, para que ele seja reproduzido
+ * remotamente (ex: em celulares) sem precisar transferir o arquivo original.
+ *
+ * A playlist é montada a partir da duração do vídeo, sem processá-lo. Cada segmento só é
+ * codificado quando for solicitado pela primeira vez (buscando diretamente o seu início no
+ * arquivo original) e fica armazenado em um cache em disco, com tamanho máximo. O vídeo original
+ * é analisado pelo ffmpeg uma única vez, e não a cada segmento.
+ *
+ * Para servir os arquivos, ver {@link com.felipegiotto.utils.FGServletUtils#doGetServeHls}.
+ *
+ * @author felipegiotto@gmail.com
+ */
+public class FFmpegHlsCache {
+
+	public static final String NOME_PLAYLIST = "index.m3u8";
+	private static final Pattern PATTERN_SEGMENTO = Pattern.compile("^seg(\\d{5})\\.ts$");
+
+	/**
+	 * Quantidade de vídeos cujos dados (resolução, duração, etc) são mantidos em memória
+	 */
+	private static final int QUANTIDADE_MAXIMA_VIDEOS_ANALISADOS = 100;
+
+	private final FFmpegDiskCache cache;
+	private int duracaoSegmentoSegundos = 6;
+	private Supplier<FFmpegParameters> fabricaParametros = FFmpegHlsCache::criarParametrosPadrao;
+	private final Map<String, FFmpegFileInfo> videosAnalisados = new LinkedHashMap<String, FFmpegFileInfo>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, FFmpegFileInfo> maisAntigo) {
+			return size() > QUANTIDADE_MAXIMA_VIDEOS_ANALISADOS;
+		}
+	};
+
+	/**
+	 * @param pasta : pasta onde playlists e segmentos serão gravados
+	 * @param tamanhoMaximoBytes : tamanho máximo do cache. Ao ultrapassar, os segmentos acessados há mais tempo são excluídos.
+	 * @throws IOException
+	 */
+	public FFmpegHlsCache(File pasta, long tamanhoMaximoBytes) throws IOException {
+		this.cache = new FFmpegDiskCache(pasta, tamanhoMaximoBytes);
+	}
+
+	/**
+	 * Define a duração de cada segmento. Deve ser definida antes de gerar as playlists, pois
+	 * playlists já geradas continuam no cache.
+	 */
+	public void setDuracaoSegmentoSegundos(int duracaoSegmentoSegundos) {
+		this.duracaoSegmentoSegundos = duracaoSegmentoSegundos;
+	}
+
+	public int getDuracaoSegmentoSegundos() {
+		return duracaoSegmentoSegundos;
+	}
+
+	/**
+	 * Define como os segmentos serão codificados (codec, resolução, qualidade). A cada segmento
+	 * é criado um novo objeto, e os tempos inicial e final são definidos automaticamente.
+	 *
+	 * @param fabricaParametros
+	 */
+	public void setFabricaParametros(Supplier<FFmpegParameters> fabricaParametros) {
+		this.fabricaParametros = fabricaParametros;
+	}
+
+	/**
+	 * Parâmetros padrão dos segmentos: H264 rápido, até 720p, e áudio AAC.
+	 */
+	public static FFmpegParameters criarParametrosPadrao() {
+		FFmpegParameters parameters = new FFmpegParameters();
+		parameters.setOcultarInformacoesVersoesBibliotecas(true);
+		parameters.setVideoCopiarMetadados(false);
+		parameters.setAudioMoverMetadadosParaInicio(false);
+		parameters.setVideoEncoderCodec("libx264");
+		parameters.setVideoPreset("veryfast");
+		parameters.setVideoQualidadeCrf(23);
+		parameters.setVideoResolutionConstrained(1280, 720, 2, true);
+		parameters.setAudioEncoderCodec("aac");
+		parameters.setAudioQualidade("128k");
+		return parameters;
+	}
+
+	/**
+	 * Retorna a playlist HLS (m3u8) do vídeo, gerando-a se ainda não estiver no cache.
+	 *
+	 * @param video
+	 * @return
+	 */
+	public String getPlaylist(File video) throws IOException, InterruptedException, FFmpegException {
+		String chaveVideo = new FFmpegFileInfo(video).getCacheKey();
+		try (FFmpegDiskCache.Reserva playlist = cache.reservar(chaveVideo + "/" + NOME_PLAYLIST, (destino) -> {
+			FFmpegFileInfo fileInfo = getFileInfo(video, chaveVideo);
+			Files.write(destino.toPath(), montarPlaylist(fileInfo.getVideoDurationSeconds(), duracaoSegmentoSegundos).getBytes(StandardCharsets.UTF_8));
+		})) {
+			return new String(Files.readAllBytes(playlist.getArquivo().toPath()), StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Retorna um segmento do vídeo, codificando-o se ainda não estiver no cache.
+	 *
+	 * @param video
+	 * @param indice : índice do segmento (ver {@link #getIndiceSegmento(String)})
+	 * @return reserva do segmento no cache, que deve ser fechada depois que ele for enviado
+	 * (enquanto isso, o segmento não é excluído do cache)
+	 */
+	public FFmpegDiskCache.Reserva getSegmento(File video, int indice) throws IOException, InterruptedException, FFmpegException {
+		String chaveVideo = new FFmpegFileInfo(video).getCacheKey();
+		return cache.reservar(chaveVideo + "/" + getNomeSegmento(indice), (destino) -> {
+			int inicio = indice * duracaoSegmentoSegundos;
+
+			FFmpegCommand ffmpeg = new FFmpegCommand();
+			ffmpeg.addInputFile(video);
+			ffmpeg.setInputFileInfo(getFileInfo(video, chaveVideo));
+			ffmpeg.setOutputFile(destino);
+
+			FFmpegParameters parameters = fabricaParametros.get();
+			parameters.setTempoInicialBuscaRapida(true);
+			parameters.setTempoInicial(inicio);
+			parameters.setTempoFinal(inicio + duracaoSegmentoSegundos);
+
+			// Mantém os timestamps contínuos entre os segmentos
+			parameters.setVideoAddExtraParameters("-output_ts_offset", Integer.toString(inicio), "-f", "mpegts");
+			ffmpeg.setParameters(parameters);
+			ffmpeg.runAndWait(false);
+		});
+	}
+
+	/**
+	 * Dados do vídeo, lidos pelo ffmpeg somente na primeira vez em que forem necessários (as
+	 * restrições de resolução dos parâmetros, por exemplo, precisam da resolução original)
+	 */
+	private FFmpegFileInfo getFileInfo(File video, String chaveVideo) throws IOException {
+		synchronized (videosAnalisados) {
+			FFmpegFileInfo fileInfo = videosAnalisados.get(chaveVideo);
+			if (fileInfo != null) {
+				return fileInfo;
+			}
+		}
+
+		// Executa o ffmpeg fora do bloco sincronizado, para não bloquear os outros vídeos
+		FFmpegFileInfo fileInfo = new FFmpegFileInfo(video);
+		fileInfo.getFullFileInfo();
+		synchronized (videosAnalisados) {
+			FFmpegFileInfo existente = videosAnalisados.putIfAbsent(chaveVideo, fileInfo);
+			return existente != null ? existente : fileInfo;
+		}
+	}
+
+	public static String getNomeSegmento(int indice) {
+		return String.format("seg%05d.ts", indice);
+	}
+
+	/**
+	 * Identifica o índice de um segmento a partir do seu nome (ex: "seg00012.ts" = 12)
+	 *
+	 * @param nome
+	 * @return índice do segmento ou "null" se o nome não for de um segmento
+	 */
+	public static Integer getIndiceSegmento(String nome) {
+		Matcher m = PATTERN_SEGMENTO.matcher(nome);
+		if (m.find()) {
+			return Integer.parseInt(m.group(1));
+		}
+		return null;
+	}
+
+	static String montarPlaylist(float duracaoVideoSegundos, int duracaoSegmentoSegundos) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("#EXTM3U\n");
+		sb.append("#EXT-X-VERSION:3\n");
+		sb.append("#EXT-X-TARGETDURATION:" + duracaoSegmentoSegundos + "\n");
+		sb.append("#EXT-X-MEDIA-SEQUENCE:0\n");
+		sb.append("#EXT-X-PLAYLIST-TYPE:VOD\n");
+		int indice = 0;
+		for (float inicio = 0; inicio < duracaoVideoSegundos; inicio += duracaoSegmentoSegundos) {
+			float duracao = Math.min(duracaoSegmentoSegundos, duracaoVideoSegundos - inicio);
+			sb.append(String.format(Locale.US, "#EXTINF:%.3f,\n", duracao));
+			sb.append(getNomeSegmento(indice++) + "\n");
+		}
+		sb.append("#EXT-X-ENDLIST\n");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,283 @@
+package com.felipegiotto.utils.ffmpeg;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.felipegiotto.utils.config.FGProperties;
+import com.felipegiotto.utils.ffmpeg.util.FFmpegException;
+
+/**
+ * Normalização de volume em duas etapas com o filtro "loudnorm" do ffmpeg:
+ *
+ * 1. Medição: o áudio do arquivo de entrada é decodificado (sem o vídeo, então é rápido) e o
+ *    filtro mede o volume integrado, o pico e a faixa dinâmica.
+ * 2. Aplicação: na conversão do vídeo, o filtro recebe as medições e aplica uma correção linear,
+ *    que preserva a dinâmica do áudio original.
+ *
+ * As medições ficam em cache, indexadas por {@link FFmpegFileInfo#getCacheKey()}, e podem ser
+ * gravadas em arquivo, para que conversões em lote não meçam novamente os mesmos arquivos.
+ *
+ * Ver {@link FFmpegParameters#setAudioNormalizarVolume(FFmpegLoudnorm)}.
+ *
+ * @author felipegiotto@gmail.com
+ */
+public class FFmpegLoudnorm {
+
+	private static final Logger LOGGER = LogManager.getLogger(FFmpegLoudnorm.class);
+
+	// Ex:	"input_i" : "-27.61",
+	private static final Pattern PATTERN_MEDICAO = Pattern.compile("\"(input_i|input_tp|input_lra|input_thresh|target_offset)\"\\s*:\\s*\"([^\"]*)\"");
+
+	/**
+	 * Valores medidos na primeira etapa
+	 */
+	public static class Medicao {
+		private final double volumeIntegrado;
+		private final double pico;
+		private final double faixaDinamica;
+		private final double limiar;
+		private final double offset;
+
+		public Medicao(double volumeIntegrado, double pico, double faixaDinamica, double limiar, double offset) {
+			this.volumeIntegrado = volumeIntegrado;
+			this.pico = pico;
+			this.faixaDinamica = faixaDinamica;
+			this.limiar = limiar;
+			this.offset = offset;
+		}
+
+		public double getVolumeIntegrado() {
+			return volumeIntegrado;
+		}
+
+		public double getPico() {
+			return pico;
+		}
+
+		public double getFaixaDinamica() {
+			return faixaDinamica;
+		}
+
+		public double getLimiar() {
+			return limiar;
+		}
+
+		public double getOffset() {
+			return offset;
+		}
+
+		@Override
+		public String toString() {
+			return formatar(volumeIntegrado) + ";" + formatar(pico) + ";" + formatar(faixaDinamica) + ";" + formatar(limiar) + ";" + formatar(offset);
+		}
+	}
+
+	private final double volumeIntegradoAlvo;
+	private final double picoMaximo;
+	private final double faixaDinamicaAlvo;
+	private final Map<String, Medicao> medicoes = new HashMap<>();
+	private final FGProperties arquivoCache;
+
+	/**
+	 * Normalização com os valores recomendados pela EBU R128 para internet (I=-16, TP=-1.5, LRA=11),
+	 * mantendo as medições somente em memória.
+	 */
+	public FFmpegLoudnorm() {
+		this(-16, -1.5, 11);
+	}
+
+	/**
+	 * Normalização com os valores informados, mantendo as medições somente em memória.
+	 *
+	 * @param volumeIntegradoAlvo : volume integrado desejado, em LUFS (ex: -16)
+	 * @param picoMaximo : pico máximo, em dBTP (ex: -1.5)
+	 * @param faixaDinamicaAlvo : faixa dinâmica, em LU (ex: 11)
+	 */
+	public FFmpegLoudnorm(double volumeIntegradoAlvo, double picoMaximo, double faixaDinamicaAlvo) {
+		this.volumeIntegradoAlvo = volumeIntegradoAlvo;
+		this.picoMaximo = picoMaximo;
+		this.faixaDinamicaAlvo = faixaDinamicaAlvo;
+		this.arquivoCache = null;
+	}
+
+	/**
+	 * Normalização com os valores informados, gravando as medições em arquivo, para que sejam
+	 * reaproveitadas em outras execuções.
+	 *
+	 * @param volumeIntegradoAlvo : volume integrado desejado, em LUFS (ex: -16)
+	 * @param picoMaximo : pico máximo, em dBTP (ex: -1.5)
+	 * @param faixaDinamicaAlvo : faixa dinâmica, em LU (ex: 11)
+	 * @param arquivoCache : arquivo "properties" onde as medições serão gravadas
+	 * @throws IOException
+	 */
+	public FFmpegLoudnorm(double volumeIntegradoAlvo, double picoMaximo, double faixaDinamicaAlvo, Path arquivoCache) throws IOException {
+		this.volumeIntegradoAlvo = volumeIntegradoAlvo;
+		this.picoMaximo = picoMaximo;
+		this.faixaDinamicaAlvo = faixaDinamicaAlvo;
+		this.arquivoCache = new FGProperties(arquivoCache, false);
+		
+		// Valor vazio indica áudio silencioso, que fica em cache como "null" (ver "gravarNoCache")
+		for (String chave : this.arquivoCache.getProperties().stringPropertyNames()) {
+			medicoes.put(chave, interpretarMedicaoGravada(this.arquivoCache.getString(chave)));
+		}
+	}
+
+	/**
+	 * Monta o filtro de áudio da segunda etapa, medindo o arquivo se ele ainda não estiver no cache.
+	 *
+	 * @param fileInfo : arquivo de entrada
+	 * @param tempoInicial : início do trecho que será convertido, ou "null"
+	 * @param tempoFinal : fim do trecho que será convertido, ou "null"
+	 * @return filtro "loudnorm" ou "null" se o arquivo não tiver áudio ou se o áudio for silencioso (não há o que normalizar)
+	 */
+	public String montarFiltro(FFmpegFileInfo fileInfo, String tempoInicial, String tempoFinal) throws IOException, FFmpegException {
+		Medicao medicao = medir(fileInfo, tempoInicial, tempoFinal);
+		if (medicao == null) {
+			return null;
+		}
+		return montarFiltro(medicao);
+	}
+
+	String montarFiltro(Medicao medicao) {
+		return getParametrosAlvo()
+				+ ":measured_I=" + formatar(medicao.volumeIntegrado)
+				+ ":measured_TP=" + formatar(medicao.pico)
+				+ ":measured_LRA=" + formatar(medicao.faixaDinamica)
+				+ ":measured_thresh=" + formatar(medicao.limiar)
+				+ ":offset=" + formatar(medicao.offset)
+				+ ":linear=true";
+	}
+
+	private String getParametrosAlvo() {
+		return "loudnorm=I=" + formatar(volumeIntegradoAlvo) + ":TP=" + formatar(picoMaximo) + ":LRA=" + formatar(faixaDinamicaAlvo);
+	}
+
+	/**
+	 * Executa a primeira etapa (medição), se o arquivo ainda não estiver no cache.
+	 *
+	 * @return medição ou "null" se o arquivo não tiver áudio ou se o áudio for silencioso
+	 */
+	public Medicao medir(FFmpegFileInfo fileInfo, String tempoInicial, String tempoFinal) throws IOException, FFmpegException {
+		
+		// Sem stream de áudio, a medição (que descarta o vídeo) falharia
+		if (fileInfo.getAudioCodec() == null) {
+			LOGGER.debug("Arquivo " + fileInfo.getFile() + " não possui áudio e não será normalizado");
+			return null;
+		}
+		
+		String chave = fileInfo.getCacheKey() + "|" + getParametrosAlvo() + "|" + StringUtils.defaultString(tempoInicial) + "|" + StringUtils.defaultString(tempoFinal);
+		synchronized (medicoes) {
+			if (medicoes.containsKey(chave)) {
+				return medicoes.get(chave);
+			}
+		}
+
+		List<String> comandos = new ArrayList<>();
+		comandos.add(FFmpegCommand.getFFmpegPath());
+		comandos.add("-hide_banner");
+		comandos.add("-nostats");
+		if (tempoInicial != null) {
+			comandos.add("-ss");
+			comandos.add(tempoInicial);
+		}
+		comandos.add("-i");
+		comandos.add(fileInfo.getFile().getAbsolutePath());
+		if (tempoFinal != null) {
+			comandos.add("-t");
+			comandos.add(FFmpegParameters.formatarSegundos(FFmpegParameters.hmsToSeconds(tempoFinal) - (tempoInicial != null ? FFmpegParameters.hmsToSeconds(tempoInicial) : 0)));
+		}
+
+		// Decodifica somente o áudio
+		comandos.add("-vn");
+		comandos.add("-sn");
+		comandos.add("-dn");
+		comandos.add("-af");
+		comandos.add(getParametrosAlvo() + ":print_format=json");
+		comandos.add("-f");
+		comandos.add("null");
+		comandos.add("-");
+
+		LOGGER.debug("Medindo volume do áudio de " + fileInfo.getFile() + "...");
+		Process p = new ProcessBuilder(comandos).start();
+		List<String> linhas = new ArrayList<>();
+		try (Scanner scanner = new Scanner(p.getErrorStream())) {
+			while (scanner.hasNextLine()) {
+				linhas.add(scanner.nextLine());
+			}
+		}
+		try {
+			p.waitFor();
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		}
+		if (p.exitValue() != 0) {
+			throw new FFmpegException("Erro ao medir volume do áudio de " + fileInfo.getFile() + ": ffmpeg retornou " + p.exitValue(), StringUtils.join(linhas, "\n"));
+		}
+
+		Medicao medicao = interpretarSaida(linhas);
+		if (medicao == null) {
+			LOGGER.warn("Áudio de " + fileInfo.getFile() + " é silencioso e não será normalizado");
+		}
+		gravarNoCache(chave, medicao);
+		return medicao;
+	}
+
+	private void gravarNoCache(String chave, Medicao medicao) throws IOException {
+		synchronized (medicoes) {
+			medicoes.put(chave, medicao);
+			if (arquivoCache != null) {
+				arquivoCache.setString(chave, medicao != null ? medicao.toString() : "");
+				arquivoCache.save("Medições de volume (loudnorm) do ffmpeg");
+			}
+		}
+	}
+
+	/**
+	 * Interpreta o JSON gerado pelo filtro "loudnorm" com "print_format=json"
+	 *
+	 * @return medição ou "null" se o áudio for silencioso (volume "-inf")
+	 */
+	static Medicao interpretarSaida(List<String> linhas) throws FFmpegException {
+		Map<String, String> valores = new HashMap<>();
+		for (String linha : linhas) {
+			Matcher m = PATTERN_MEDICAO.matcher(linha);
+			if (m.find()) {
+				valores.put(m.group(1), m.group(2));
+			}
+		}
+		if (valores.size() < 5) {
+			throw new FFmpegException("Não foi possível identificar as medições do filtro loudnorm", StringUtils.join(linhas, "\n"));
+		}
+		if (valores.get("input_i").contains("inf")) {
+			return null;
+		}
+		return new Medicao(Double.parseDouble(valores.get("input_i")), Double.parseDouble(valores.get("input_tp")),
+				Double.parseDouble(valores.get("input_lra")), Double.parseDouble(valores.get("input_thresh")),
+				Double.parseDouble(valores.get("target_offset")));
+	}
+
+	private static Medicao interpretarMedicaoGravada(String valor) {
+		if (valor.isEmpty()) {
+			return null;
+		}
+		String[] partes = valor.split(";");
+		return new Medicao(Double.parseDouble(partes[0]), Double.parseDouble(partes[1]), Double.parseDouble(partes[2]),
+				Double.parseDouble(partes[3]), Double.parseDouble(partes[4]));
+	}
+
+	private static String formatar(double valor) {
+		return String.format(Locale.US, "%.2f", valor);
+	}
+}
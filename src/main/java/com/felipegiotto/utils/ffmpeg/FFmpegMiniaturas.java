@@ -0,0 +1,101 @@
+package com.felipegiotto.utils.ffmpeg;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import com.felipegiotto.utils.ffmpeg.util.FFmpegDiskCache;
+import com.felipegiotto.utils.ffmpeg.util.FFmpegException;
+
+/**
+ * Gera miniaturas de vídeos (uma imagem de capa ou uma "sprite sheet" com vários quadros
+ * distribuídos ao longo do vídeo), mantendo-as em um cache em disco.
+ *
+ * A sprite sheet é gerada em uma única execução do ffmpeg: o filtro "fps" seleciona N quadros
+ * igualmente espaçados e o filtro "tile" os organiza em uma grade, em uma única imagem.
+ *
+ * O cache é indexado por {@link FFmpegFileInfo#getCacheKey()}, então as miniaturas são geradas
+ * novamente somente se o vídeo for alterado.
+ *
+ * @author felipegiotto@gmail.com
+ */
+public class FFmpegMiniaturas {
+
+	private final FFmpegDiskCache cache;
+
+	/**
+	 * @param pasta : pasta onde as miniaturas serão gravadas
+	 * @param tamanhoMaximoBytes : tamanho máximo do cache. Ao ultrapassar, as miniaturas acessadas há mais tempo são excluídas.
+	 * @throws IOException
+	 */
+	public FFmpegMiniaturas(File pasta, long tamanhoMaximoBytes) throws IOException {
+		this.cache = new FFmpegDiskCache(pasta, tamanhoMaximoBytes);
+	}
+
+	/**
+	 * Retorna uma sprite sheet (JPG) com quadros igualmente espaçados do vídeo, gerando-a se
+	 * ainda não estiver no cache.
+	 *
+	 * @param video
+	 * @param quantidadeQuadros : quantidade de quadros extraídos do vídeo
+	 * @param colunas : quantidade de quadros em cada linha da imagem
+	 * @param larguraQuadro : largura de cada quadro, em pixels (a altura mantém a proporção do vídeo)
+	 * @return
+	 */
+	public File getSpriteSheet(File video, int quantidadeQuadros, int colunas, int larguraQuadro) throws IOException, InterruptedException, FFmpegException {
+		FFmpegFileInfo fileInfo = new FFmpegFileInfo(video);
+		String chave = fileInfo.getCacheKey() + "/sprite_" + quantidadeQuadros + "x" + colunas + "_" + larguraQuadro + ".jpg";
+		return cache.obter(chave, (destino) -> {
+			float duracao = fileInfo.getVideoDurationSeconds();
+			gerarImagem(video, destino, duracao / quantidadeQuadros / 2,
+					montarFiltrosSpriteSheet(duracao, quantidadeQuadros, colunas, larguraQuadro));
+		});
+	}
+
+	/**
+	 * Retorna uma imagem de capa (JPG) do vídeo, extraída a 10% da sua duração (para evitar
+	 * quadros pretos do início), gerando-a se ainda não estiver no cache.
+	 *
+	 * @param video
+	 * @param largura : largura da imagem, em pixels (a altura mantém a proporção do vídeo)
+	 * @return
+	 */
+	public File getMiniatura(File video, int largura) throws IOException, InterruptedException, FFmpegException {
+		FFmpegFileInfo fileInfo = new FFmpegFileInfo(video);
+		String chave = fileInfo.getCacheKey() + "/miniatura_" + largura + ".jpg";
+		return cache.obter(chave, (destino) -> {
+			float duracao = fileInfo.getVideoDurationSeconds();
+			gerarImagem(video, destino, duracao / 10, new String[] { "scale=" + largura + ":-2" });
+		});
+	}
+
+	private static void gerarImagem(File video, File destino, float inicioSegundos, String[] filtros) throws IOException, InterruptedException, FFmpegException {
+		FFmpegCommand ffmpeg = new FFmpegCommand();
+		ffmpeg.addInputFile(video);
+		ffmpeg.setOutputFile(destino);
+
+		FFmpegParameters parameters = ffmpeg.getParameters();
+		parameters.setOcultarInformacoesVersoesBibliotecas(true);
+		parameters.setVideoCopiarMetadados(false);
+		parameters.setAudioMoverMetadadosParaInicio(false);
+		parameters.setTempoInicialBuscaRapida(true);
+		parameters.setTempoInicial(FFmpegParameters.formatarSegundos(inicioSegundos));
+		for (String filtro : filtros) {
+			parameters.addVideoFilter(filtro);
+		}
+		parameters.setVideoAddExtraParameters("-frames:v", "1", "-an", "-q:v", "3");
+		ffmpeg.runAndWait(false);
+	}
+
+	/**
+	 * Filtros que selecionam N quadros igualmente espaçados, redimensionam e organizam em uma grade.
+	 */
+	static String[] montarFiltrosSpriteSheet(float duracaoSegundos, int quantidadeQuadros, int colunas, int larguraQuadro) {
+		int linhas = (quantidadeQuadros + colunas - 1) / colunas;
+		return new String[] {
+				String.format(Locale.US, "fps=fps=%.6f", quantidadeQuadros / duracaoSegundos),
+				"scale=" + larguraQuadro + ":-2",
+				"tile=" + colunas + "x" + linhas
+		};
+	}
+}
@@ -7,7 +7,15 @@ import java.io.IOException;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
@@ -75,6 +83,16 @@ public class FFmpegParameters {
 		this.tempoFinal = secondsToHMS(tempoFinalSegundos);
 	}
 	
+	/**
+	 * Formata uma quantidade de segundos para ser utilizada como parâmetro do ffmpeg (ex: "10" ou "10.5")
+	 */
+	static String formatarSegundos(double segundos) {
+		if (segundos == Math.rint(segundos)) {
+			return Long.toString((long) segundos);
+		}
+		return String.format(Locale.US, "%.3f", segundos);
+	}
+	
 	public static String secondsToHMS(int seconds) {
 		LocalTime timeOfDay = LocalTime.ofSecondOfDay(seconds);
 		return timeOfDay.format(DateTimeFormatter.ofPattern("HH:mm:ss"));
@@ -84,6 +102,133 @@ public class FFmpegParameters {
 		return tempoFinal;
 	}
 	
+	private boolean tempoInicialBuscaRapida;
+	
+	/**
+	 * Indica se o tempo inicial deve ser buscado diretamente no arquivo de entrada ("-ss" antes
+	 * do "-i"), pulando para o keyframe mais próximo sem decodificar o início do vídeo.
+	 * 
+	 * É muito mais rápido em vídeos longos. Neste caso, o tempo final é convertido em duração ("-t"),
+	 * pois os timestamps da saída passam a iniciar em zero.
+	 * 
+	 * Só pode ser utilizado com um único arquivo de entrada. É ignorado quando há várias saídas
+	 * ({@link FFmpegCommand#addOutput(String, FFmpegParameters)}), pois um "-ss" antes da entrada
+	 * valeria para todas elas: cada saída recebe o seu próprio "-ss"/"-to".
+	 * 
+	 * @param tempoInicialBuscaRapida
+	 */
+	public void setTempoInicialBuscaRapida(boolean tempoInicialBuscaRapida) {
+		this.tempoInicialBuscaRapida = tempoInicialBuscaRapida;
+	}
+	
+	public boolean isTempoInicialBuscaRapida() {
+		return tempoInicialBuscaRapida;
+	}
+	
+	private final List<FFmpegAnaliseConteudo.Intervalo> janelasTempo = new ArrayList<>();
+	
+	/**
+	 * Adiciona um trecho do vídeo de entrada que será extraído. Se houver mais de uma janela, os 
+	 * trechos são concatenados, na ordem em que foram adicionados, em uma única execução do ffmpeg
+	 * (filtros "trim"/"atrim" + "concat"), decodificando o arquivo de entrada uma única vez.
+	 * 
+	 * Ex: para gerar um vídeo com os trechos entre 1min e 1min30s e entre 5min e 5min20s:
+	 * addJanelaTempo("00:01:00", "00:01:30");
+	 * addJanelaTempo("00:05:00", "00:05:20");
+	 * 
+	 * Com {@link #setTempoInicialBuscaRapida(boolean)}, o arquivo de entrada é posicionado 
+	 * diretamente no keyframe anterior ao início da primeira janela. A leitura sempre termina no 
+	 * fim da última janela.
+	 * 
+	 * Não pode ser combinado com {@link #setTempoInicial(String)}/{@link #setTempoFinal(String)}, com
+	 * encoders "copy", com mais de um arquivo de entrada, com legendas ou com várias saídas. Os 
+	 * filtros de vídeo são aplicados somente aos trechos extraídos, após a concatenação.
+	 * 
+	 * Para gerar um arquivo separado para cada trecho, utilizar 
+	 * {@link FFmpegCommand#addOutput(String, FFmpegParameters)} com tempos inicial/final diferentes 
+	 * em cada saída.
+	 * 
+	 * @param inicio : tempo inicial, no formato "HH:MM:SS", "HH:MM:SS.mmm" ou em segundos
+	 * @param fim : tempo final, no mesmo formato
+	 */
+	public void addJanelaTempo(String inicio, String fim) {
+		addJanelaTempo(hmsToSeconds(inicio), hmsToSeconds(fim));
+	}
+	
+	public void addJanelaTempo(double inicioSegundos, double fimSegundos) {
+		if (inicioSegundos < 0 || fimSegundos <= inicioSegundos) {
+			throw new IllegalArgumentException("Janela de tempo inválida: " + inicioSegundos + "-" + fimSegundos);
+		}
+		janelasTempo.add(new FFmpegAnaliseConteudo.Intervalo(inicioSegundos, fimSegundos));
+	}
+	
+	public List<FFmpegAnaliseConteudo.Intervalo> getJanelasTempo() {
+		return Collections.unmodifiableList(janelasTempo);
+	}
+	
+	public void limparJanelasTempo() {
+		janelasTempo.clear();
+	}
+	
+	/**
+	 * Ponto do arquivo de entrada a partir do qual a leitura inicia, quando há janelas de tempo
+	 */
+	private double getInicioLeituraJanelas() {
+		if (!tempoInicialBuscaRapida) {
+			return 0;
+		}
+		double inicio = Double.MAX_VALUE;
+		for (FFmpegAnaliseConteudo.Intervalo janela: janelasTempo) {
+			inicio = Math.min(inicio, janela.getInicio());
+		}
+		return inicio;
+	}
+	
+	/**
+	 * Converte um tempo no formato "HH:MM:SS", "HH:MM:SS.mmm" ou em segundos ("12.5") para segundos.
+	 * 
+	 * @param tempo
+	 * @return
+	 */
+	public static double hmsToSeconds(String tempo) {
+		String[] partes = tempo.trim().split(":");
+		double segundos = 0;
+		for (String parte: partes) {
+			segundos = segundos * 60 + Double.parseDouble(parte);
+		}
+		return segundos;
+	}
+	
+	/**
+	 * Monta os parâmetros que devem ser informados ANTES do arquivo de entrada ("-i").
+	 * 
+	 * @return
+	 */
+	public ArrayList<String> buildInputParameters() {
+		ArrayList<String> commands = new ArrayList<>();
+		if (!janelasTempo.isEmpty()) {
+			
+			// Lê somente o trecho do arquivo que contém as janelas
+			double inicioLeitura = getInicioLeituraJanelas();
+			double fimLeitura = 0;
+			for (FFmpegAnaliseConteudo.Intervalo janela: janelasTempo) {
+				fimLeitura = Math.max(fimLeitura, janela.getFim());
+			}
+			if (inicioLeitura > 0) {
+				commands.add("-ss");
+				commands.add(formatarSegundos(inicioLeitura));
+			}
+			commands.add("-t");
+			commands.add(formatarSegundos(fimLeitura - inicioLeitura));
+			return commands;
+		}
+		if (tempoInicialBuscaRapida && tempoInicial != null) {
+			commands.add("-ss");
+			commands.add(tempoInicial);
+		}
+		return commands;
+	}
+	
 	public static final String ENCODER_COPY = "copy";
 	private String videoEncoderCodec = null;
 	private String audioEncoderCodec = null;
@@ -146,6 +291,60 @@ public class FFmpegParameters {
 		return videoPreset;
 	}
 	
+	private Integer videoThreads;
+	
+	/**
+	 * Define a quantidade de threads que o encoder poderá utilizar (parâmetro "-threads").
+	 * 
+	 * @param videoThreads : quantidade de threads ou "null" para deixar o ffmpeg decidir
+	 */
+	public void setVideoThreads(Integer videoThreads) {
+		this.videoThreads = videoThreads;
+	}
+	
+	public Integer getVideoThreads() {
+		return videoThreads;
+	}
+	
+	private Integer limiteCpus;
+	
+	/**
+	 * Limita a quantidade de CPUs que o encoder de vídeo poderá utilizar, para que execuções 
+	 * simultâneas não disputem os mesmos processadores. Define "-threads" (se não foi definido 
+	 * {@link #setVideoThreads(Integer)}) e, no libx265 (que ignora "-threads"), os parâmetros 
+	 * "pools" e "frame-threads".
+	 * 
+	 * Quando o {@link FFmpegCommand} reserva CPUs de um {@link com.felipegiotto.utils.ffmpeg.util.FFmpegGerenciadorRecursos},
+	 * a quantidade reservada é utilizada sem alterar este atributo (o mesmo objeto pode ser compartilhado 
+	 * entre várias execuções). Se este atributo for definido, ele tem prioridade.
+	 * 
+	 * @param limiteCpus : quantidade de CPUs ou "null" para não limitar
+	 */
+	public void setLimiteCpus(Integer limiteCpus) {
+		this.limiteCpus = limiteCpus;
+	}
+	
+	public Integer getLimiteCpus() {
+		return limiteCpus;
+	}
+	
+	/**
+	 * Quantidade de frames processados em paralelo pelo x265, conforme a quantidade de CPUs 
+	 * (mesma tabela utilizada pelo x265 quando "frame-threads" não é informado).
+	 */
+	static int getX265FrameThreads(int cpus) {
+		if (cpus >= 32) {
+			return 6;
+		} else if (cpus >= 16) {
+			return 4;
+		} else if (cpus >= 8) {
+			return 3;
+		} else if (cpus >= 4) {
+			return 2;
+		}
+		return 1;
+	}
+	
 	private Rectangle videoCropRectangle;
 	
 	/**
@@ -194,6 +393,179 @@ public class FFmpegParameters {
 		setAudioEncoderCodec(ENCODER_COPY);
 	}
 	
+	private FFmpegLoudnorm audioNormalizarVolume;
+	
+	/**
+	 * Normaliza o volume do áudio em duas etapas (ver {@link FFmpegLoudnorm}): o volume do primeiro 
+	 * arquivo de entrada é medido (ou obtido do cache do objeto informado) ao montar os parâmetros, e
+	 * a correção é aplicada na conversão. Exige que o áudio seja recodificado (não funciona com "copy").
+	 * 
+	 * Para converter vários vídeos em lote, utilizar o mesmo objeto em todos eles, para que cada 
+	 * arquivo seja medido uma única vez.
+	 * 
+	 * @param audioNormalizarVolume : normalizador ou "null" para não normalizar
+	 */
+	public void setAudioNormalizarVolume(FFmpegLoudnorm audioNormalizarVolume) {
+		this.audioNormalizarVolume = audioNormalizarVolume;
+	}
+	
+	public FFmpegLoudnorm getAudioNormalizarVolume() {
+		return audioNormalizarVolume;
+	}
+	
+	private boolean copiarStreamsCompativeis;
+	private Integer videoBitrateMaximoParaCopiaKbps;
+	
+	/**
+	 * Indica se os streams do arquivo de entrada que já estiverem no formato desejado devem ser 
+	 * copiados em vez de recodificados. A decisão é tomada para cada stream, a partir dos dados 
+	 * do ffmpeg sobre o primeiro arquivo de entrada:
+	 * 
+	 * Vídeo: copiado se o codec de entrada for o mesmo gerado pelo encoder (ex: "h264" para "libx264"),
+	 * se não for necessário nenhum filtro (redimensionamento, crop, FPS, flip, rotação, etc), se não houver
+	 * parâmetros extras de vídeo (ex: "-pix_fmt", "-profile:v", "-x265-params", que seriam ignorados
+	 * na cópia), se não houver tempo inicial/final (a cópia só consegue cortar em keyframes) e se o bitrate não ultrapassar
+	 * {@link #setVideoBitrateMaximoParaCopiaKbps(Integer)}.
+	 * 
+	 * Áudio: copiado se o codec de entrada for o mesmo gerado pelo encoder, se não houver parâmetros
+	 * extras de áudio e se o bitrate não ultrapassar o de {@link #setAudioQualidade(String)}.
+	 * 
+	 * Se os dois streams forem copiados, o arquivo é somente "remuxado" (troca de container), o que 
+	 * leva poucos segundos.
+	 * 
+	 * Não é aplicado quando há mais de um arquivo de entrada ou mais de uma saída, pois nesses 
+	 * casos os streams passam por um "-filter_complex".
+	 * 
+	 * @param copiarStreamsCompativeis
+	 */
+	public void setCopiarStreamsCompativeis(boolean copiarStreamsCompativeis) {
+		this.copiarStreamsCompativeis = copiarStreamsCompativeis;
+	}
+	
+	public boolean isCopiarStreamsCompativeis() {
+		return copiarStreamsCompativeis;
+	}
+	
+	/**
+	 * Bitrate máximo do vídeo de entrada para que ele seja copiado (ver {@link #setCopiarStreamsCompativeis(boolean)}).
+	 * Vídeos com bitrate maior são recodificados, para reduzir o tamanho.
+	 * 
+	 * @param videoBitrateMaximoParaCopiaKbps : bitrate em kb/s, ou "null" para copiar independente do bitrate
+	 */
+	public void setVideoBitrateMaximoParaCopiaKbps(Integer videoBitrateMaximoParaCopiaKbps) {
+		this.videoBitrateMaximoParaCopiaKbps = videoBitrateMaximoParaCopiaKbps;
+	}
+	
+	public Integer getVideoBitrateMaximoParaCopiaKbps() {
+		return videoBitrateMaximoParaCopiaKbps;
+	}
+	
+	private static final Map<String, String> CODEC_DOS_ENCODERS = new HashMap<>();
+	static {
+		CODEC_DOS_ENCODERS.put("libx264", "h264");
+		CODEC_DOS_ENCODERS.put("h264_nvenc", "h264");
+		CODEC_DOS_ENCODERS.put("h264_qsv", "h264");
+		CODEC_DOS_ENCODERS.put("h264_videotoolbox", "h264");
+		CODEC_DOS_ENCODERS.put("libx265", "hevc");
+		CODEC_DOS_ENCODERS.put("hevc_nvenc", "hevc");
+		CODEC_DOS_ENCODERS.put("hevc_qsv", "hevc");
+		CODEC_DOS_ENCODERS.put("hevc_videotoolbox", "hevc");
+		CODEC_DOS_ENCODERS.put("libxvid", "mpeg4");
+		CODEC_DOS_ENCODERS.put("libvpx", "vp8");
+		CODEC_DOS_ENCODERS.put("libvpx-vp9", "vp9");
+		CODEC_DOS_ENCODERS.put("libaom-av1", "av1");
+		CODEC_DOS_ENCODERS.put("libsvtav1", "av1");
+		CODEC_DOS_ENCODERS.put("libfdk_aac", "aac");
+		CODEC_DOS_ENCODERS.put("libmp3lame", "mp3");
+		CODEC_DOS_ENCODERS.put("libopus", "opus");
+		CODEC_DOS_ENCODERS.put("libvorbis", "vorbis");
+	}
+	
+	/**
+	 * Retorna o codec gerado por um encoder, no formato exibido pelo ffmpeg ao analisar um arquivo
+	 * (ex: "libx264" = "h264", "libx265" = "hevc"). Encoders nativos do ffmpeg (ex: "aac", "mpeg4")
+	 * têm o mesmo nome do codec.
+	 */
+	public static String getCodecDoEncoder(String encoder) {
+		return CODEC_DOS_ENCODERS.getOrDefault(encoder, encoder);
+	}
+	
+	/**
+	 * Verifica se o vídeo de entrada pode ser copiado (ver {@link #setCopiarStreamsCompativeis(boolean)})
+	 */
+	boolean isVideoCompativel(FFmpegFileInfo fileInfo) throws IOException, FFmpegException {
+		if (videoEncoderCodec == null || isVideoEncoderCopy() || videoExtraParameters != null) {
+			return false;
+		}
+		if (!getCodecDoEncoder(videoEncoderCodec).equals(fileInfo.getVideoCodec())) {
+			return false;
+		}
+		
+		// Cortes e filtros exigem recodificação
+		if (tempoInicial != null || tempoFinal != null || !janelasTempo.isEmpty()) {
+			return false;
+		}
+		if (!videoFilters.isEmpty() || videoLuminosidadeMaisClara || videoCropRectangle != null || videoFPS != null || videoRotationHorizontalFlip || videoRotationVerticalFlip || videoRotation != null) {
+			return false;
+		}
+		Integer[] resolucaoSaida = calcularResolucaoSaida(fileInfo);
+		if (resolucaoSaida != null) {
+			
+			// Redimensionamento para a mesma resolução do vídeo de entrada é desnecessário
+			Dimension resolucaoEntrada = fileInfo.getVideoResolution();
+			boolean larguraIgual = resolucaoSaida[0] == null || resolucaoSaida[0].intValue() == resolucaoEntrada.width;
+			boolean alturaIgual = resolucaoSaida[1] == null || resolucaoSaida[1].intValue() == resolucaoEntrada.height;
+			if (!larguraIgual || !alturaIgual) {
+				return false;
+			}
+		}
+		if (videoBitrateMaximoParaCopiaKbps != null) {
+			Integer bitrate = fileInfo.getVideoBitrateKbps();
+			if (bitrate == null || bitrate > videoBitrateMaximoParaCopiaKbps) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Verifica se o áudio de entrada pode ser copiado (ver {@link #setCopiarStreamsCompativeis(boolean)})
+	 */
+	boolean isAudioCompativel(FFmpegFileInfo fileInfo) throws IOException {
+		if (isAudioEncoderCopyOrBlank() || audioExtraParameters != null || audioNormalizarVolume != null || !janelasTempo.isEmpty()) {
+			return false;
+		}
+		if (!getCodecDoEncoder(audioEncoderCodec).equals(fileInfo.getAudioCodec())) {
+			return false;
+		}
+		if (audioQualidade != null) {
+			Integer bitrateDesejado = getBitrateKbps(audioQualidade);
+			Integer bitrate = fileInfo.getAudioBitrateKbps();
+			if (bitrateDesejado == null || bitrate == null || bitrate > bitrateDesejado) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Converte um bitrate no formato do ffmpeg (ex: "128k", "128000") para kb/s
+	 */
+	static Integer getBitrateKbps(String bitrate) {
+		Matcher m = PATTERN_BITRATE.matcher(bitrate.trim());
+		if (!m.matches()) {
+			return null;
+		}
+		long valor = Long.parseLong(m.group(1));
+		if (m.group(2) == null) {
+			return (int) (valor / 1000);
+		} else if (m.group(2).equalsIgnoreCase("M")) {
+			return (int) (valor * 1000);
+		}
+		return (int) valor;
+	}
+	private static final Pattern PATTERN_BITRATE = Pattern.compile("(\\d+)([kKmM])?");
+	
 	private boolean videoLuminosidadeMaisClara;
 	
 	/**
@@ -462,6 +834,46 @@ public class FFmpegParameters {
 		setVideoAddExtraParameters("-tag:v", "hvc1");
 	}
 	
+	/**
+	 * Configura encoder, preset, CRF e threads conforme o modelo de custo desta máquina 
+	 * (ver {@link FFmpegEncoderBenchmark}), escolhendo a combinação mais rápida que gere
+	 * um vídeo dentro do bitrate máximo informado.
+	 * 
+	 * @param modelo : modelo de custo calibrado nesta máquina
+	 * @param encoder : ex: "libx265"
+	 * @param bitrateMaximoKbps : orçamento de tamanho do vídeo
+	 * @return "true" se alguma combinação atendeu ao orçamento. Se retornar "false", nenhum parâmetro foi alterado.
+	 */
+	public boolean configurarVideoPorOrcamentoDeTamanho(FFmpegEncoderCostModel modelo, String encoder, double bitrateMaximoKbps) {
+		return aplicarMedicaoModeloDeCusto(modelo.escolherMaisRapidaDentroDoTamanho(encoder, bitrateMaximoKbps));
+	}
+	
+	/**
+	 * Configura encoder, preset, CRF e threads conforme o modelo de custo desta máquina 
+	 * (ver {@link FFmpegEncoderBenchmark}), escolhendo, entre as combinações que atingem a 
+	 * velocidade mínima informada, a que gera o menor arquivo.
+	 * 
+	 * @param modelo : modelo de custo calibrado nesta máquina
+	 * @param encoder : ex: "libx265"
+	 * @param fpsMinimo : orçamento de tempo, em frames codificados por segundo
+	 * @return "true" se alguma combinação atendeu ao orçamento. Se retornar "false", nenhum parâmetro foi alterado.
+	 */
+	public boolean configurarVideoPorOrcamentoDeTempo(FFmpegEncoderCostModel modelo, String encoder, double fpsMinimo) {
+		return aplicarMedicaoModeloDeCusto(modelo.escolherMenorDentroDoTempo(encoder, fpsMinimo));
+	}
+	
+	private boolean aplicarMedicaoModeloDeCusto(FFmpegEncoderCostModel.Medicao medicao) {
+		if (medicao == null) {
+			return false;
+		}
+		LOGGER.debug("Parâmetros escolhidos pelo modelo de custo: " + medicao);
+		setVideoEncoderCodec(medicao.getEncoder());
+		setVideoPreset(medicao.getPreset());
+		setVideoQualidadeCrf(medicao.getCrf());
+		setVideoThreads(medicao.getThreads());
+		return true;
+	}
+	
 	/**
 	 * Configura todos os parâmetros para o padrão de vídeo e áudio utilizado pela 
 	 * Central Multimidia Pioneer AVH-288BT.
@@ -508,6 +920,8 @@ public class FFmpegParameters {
 	 * 
 	 * OBS: A rotação será definida nos metadados, e não no encode do arquivo.
 	 *      Por isso, a rotação pode ser utilizada com COPY do stream de vídeo.
+	 *      Já com {@link #setCopiarStreamsCompativeis(boolean)}, o vídeo rotacionado é sempre
+	 *      recodificado, pois a cópia automática não aplicaria o "transpose".
 	 * @param videoRotation
 	 */
 	public void setVideoRotation(Integer videoRotation) {
@@ -732,74 +1146,11 @@ public class FFmpegParameters {
 	}
 	
 	/**
+	 * Calcula a resolução de saída, conforme resolução fixa ou restrita (que depende da resolução do vídeo de entrada).
 	 * 
-	 * @param fileInfoPrimeiroArquivo : necessário se a resolução de saída precisar ser calculada a partir da resolução de um vídeo de entrada
-	 * @return
-	 * @throws IOException
-	 * @throws FFmpegException 
+	 * @return largura e altura (cada uma pode ser "null" para manter a proporção), ou "null" se não for necessário redimensionar
 	 */
-	public ArrayList<String> buildParameters(FFmpegFileInfo fileInfoPrimeiroArquivo) throws IOException, FFmpegException {
-		ArrayList<String> commands = new ArrayList<>();
-		
-		if (ocultarInformacoesVersoesBibliotecas) {
-			commands.add("-hide_banner");
-		}
-		
-		// Tempos inicial e final
-		// TODO: implementar múltiplas janelas de tempo, aqui e na rotina de compactação de vídeos
-		if (tempoInicial != null) {
-			commands.add("-ss");
-			commands.add(tempoInicial);
-		}
-		if (tempoFinal != null) {
-			commands.add("-to");
-			commands.add(tempoFinal);
-		}
-		
-		// Codec de vídeo, que poderá ser "copy" ou o nome do encoder.
-		if (videoEncoderCodec != null) {
-			commands.add("-c:v");
-			commands.add(videoEncoderCodec);
-		}
-		
-		// Qualidade CRF
-		if (getVideoQualidadeCrf() != null) {
-			commands.add("-crf");
-			commands.add(getVideoQualidadeCrf().toString());
-		}
-		
-		// Parametros extras para processar o video
-		if (videoPreset != null) {
-			commands.add("-preset");
-			commands.add(videoPreset);
-		}
-		if (videoExtraParameters != null) {
-			commands.addAll(videoExtraParameters);
-		}
-		
-		// Cria uma nova lista para armazenar os filtros, que conterá tanto os que 
-		// foram adicionados manualmente pelo usuário quanto os que foram definidos por
-		// certos parâmetros (como luminosidade, rotação, etc).
-		@SuppressWarnings("unchecked")
-		List<String> allVideoFilters = (List<String>) videoFilters.clone();
-		
-		// Ganho de luminosidade (>1 deixa mais claro, <1 deixa mais escuro)
-//		if (ganhoLuminosidade != null) {
-//			allVideoFilters.add("lutyuv=y=val*" + ganhoLuminosidade);
-//		}
-		// TODO: Melhorar, voltando para um esquema parecido com o anterior, com "ganhoLuminosidade", mas utilizando as curvas em vez de "lutyuv"
-		if (videoLuminosidadeMaisClara) {
-			allVideoFilters.add("curves=all='0/0.1 0.3/0.5 1/1'");
-		}
-		if (videoCropRectangle != null) {
-			allVideoFilters.add("crop=" + ((int) videoCropRectangle.getWidth()) + ":" + ((int) videoCropRectangle.getHeight()) + 
-					":" + ((int) videoCropRectangle.getX()) + ":" + ((int) videoCropRectangle.getY()));
-		}
-		if (videoFPS != null) {
-			allVideoFilters.add("fps=fps=" + videoFPS);
-		}
-		
-		// Redimensionando vídeo
+	private Integer[] calcularResolucaoSaida(FFmpegFileInfo fileInfoPrimeiroArquivo) throws FFmpegException, IOException {
 		Integer width = null;
 		Integer height = null;
 		if (videoResolutionFixedWidth != null || videoResolutionFixedHeight != null) {
@@ -845,6 +1196,327 @@ public class FFmpegParameters {
 				}
 			}
 		}
+		if (width == null && height == null) {
+			return null;
+		}
+		return new Integer[] { width, height };
+	}
+	
+	/**
+	 * Monta o grafo que extrai e concatena as janelas de tempo (ver {@link #addJanelaTempo(String, String)}). Ex:
+	 * 
+	 * <pre>[0:v]split=2[vs0][vs1];[0:a]asplit=2[as0][as1];[vs0]trim=start=60:end=90,setpts=PTS-STARTPTS[v0];[as0]atrim=start=60:end=90,asetpts=PTS-STARTPTS[a0];(...);[v0][a0][v1][a1]concat=n=2:v=1:a=1[vjan][ajan]</pre>
+	 * 
+	 * @param filtrosVideo : filtros aplicados após a concatenação
+	 * @param possuiAudio : se o arquivo de entrada não possuir áudio, somente o vídeo é extraído
+	 */
+	String montarFiltroJanelasTempo(List<String> filtrosVideo, boolean possuiAudio) {
+		int qtd = janelasTempo.size();
+		double inicioLeitura = getInicioLeituraJanelas();
+		List<String> grafo = new ArrayList<>();
+		StringBuilder split = new StringBuilder("[0:v]split=" + qtd);
+		StringBuilder asplit = new StringBuilder("[0:a]asplit=" + qtd);
+		for (int i = 0; i < qtd; i++) {
+			split.append("[vs" + i + "]");
+			asplit.append("[as" + i + "]");
+		}
+		grafo.add(split.toString());
+		if (possuiAudio) {
+			grafo.add(asplit.toString());
+		}
+		
+		// Com busca rápida, os timestamps iniciam em zero no ponto de leitura
+		StringBuilder concat = new StringBuilder();
+		for (int i = 0; i < qtd; i++) {
+			FFmpegAnaliseConteudo.Intervalo janela = janelasTempo.get(i);
+			String trecho = "start=" + formatarSegundos(janela.getInicio() - inicioLeitura) + ":end=" + formatarSegundos(janela.getFim() - inicioLeitura);
+			grafo.add("[vs" + i + "]trim=" + trecho + ",setpts=PTS-STARTPTS[v" + i + "]");
+			concat.append("[v" + i + "]");
+			if (possuiAudio) {
+				grafo.add("[as" + i + "]atrim=" + trecho + ",asetpts=PTS-STARTPTS[a" + i + "]");
+				concat.append("[a" + i + "]");
+			}
+		}
+		concat.append("concat=n=" + qtd + ":v=1:a=" + (possuiAudio ? 1 : 0));
+		if (filtrosVideo.isEmpty()) {
+			concat.append("[vjan]");
+			if (possuiAudio) {
+				concat.append("[ajan]");
+			}
+			grafo.add(concat.toString());
+		} else {
+			concat.append("[vcat]");
+			if (possuiAudio) {
+				concat.append("[ajan]");
+			}
+			grafo.add(concat.toString());
+			grafo.add("[vcat]" + StringUtils.join(filtrosVideo, ",") + "[vjan]");
+		}
+		return StringUtils.join(grafo, ";");
+	}
+	
+	/**
+	 * 
+	 * @param fileInfoPrimeiroArquivo : necessário se a resolução de saída precisar ser calculada a partir da resolução de um vídeo de entrada
+	 * @return
+	 * @throws IOException
+	 * @throws FFmpegException 
+	 */
+	public ArrayList<String> buildParameters(FFmpegFileInfo fileInfoPrimeiroArquivo) throws IOException, FFmpegException {
+		return new ArrayList<>(planejar(fileInfoPrimeiroArquivo).getParametros());
+	}
+	
+	private static final int TAMANHO_MAXIMO_CACHE_PLANOS = 256;
+	
+	@SuppressWarnings("serial")
+	private final Map<String, FFmpegPlanoComando> cachePlanos = new LinkedHashMap<String, FFmpegPlanoComando>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, FFmpegPlanoComando> eldest) {
+			return size() > TAMANHO_MAXIMO_CACHE_PLANOS;
+		}
+	};
+	
+	/**
+	 * Monta os parâmetros de saída para um arquivo de entrada, reaproveitando o plano já montado 
+	 * para outro arquivo com as mesmas características (ver {@link FFmpegPlanoComando}).
+	 * 
+	 * O plano é montado novamente somente se algum parâmetro for alterado ou se o arquivo tiver
+	 * dados diferentes dos que interferem nos parâmetros (ex: resolução, quando há resolução máxima).
+	 * 
+	 * @param fileInfoPrimeiroArquivo : necessário se a resolução de saída precisar ser calculada a partir da resolução de um vídeo de entrada
+	 * @return
+	 * @throws IOException
+	 * @throws FFmpegException 
+	 */
+	public FFmpegPlanoComando planejar(FFmpegFileInfo fileInfoPrimeiroArquivo) throws IOException, FFmpegException {
+		return planejar(fileInfoPrimeiroArquivo, Collections.<String>emptyList(), false, true, null);
+	}
+	
+	/**
+	 * 
+	 * @param fileInfoPrimeiroArquivo : necessário se a resolução de saída precisar ser calculada a partir da resolução de um vídeo de entrada
+	 * @param filtrosVideoAdicionais : filtros de vídeo adicionados após os de {@link #addVideoFilter(String)} (ex: legendas), sem alterar este objeto
+	 * @param separarFiltrosVideo : se "true", os filtros de vídeo não geram um parâmetro "-vf", e ficam em 
+	 * {@link FFmpegPlanoComando#getFiltrosVideoSeparados()} (utilizado quando os filtros serão montados em um "-filter_complex")
+	 * @param permitirCopiaStreams : indica se {@link #setCopiarStreamsCompativeis(boolean)} pode ser aplicado 
+	 * (não pode quando os streams passam por um "-filter_complex")
+	 * @param limiteCpusReservadas : quantidade de CPUs reservadas para esta execução, utilizada se não
+	 * foi definido {@link #setLimiteCpus(Integer)}. É informada aqui, e não alterada neste objeto, pois
+	 * o mesmo objeto pode ser utilizado por várias execuções simultâneas.
+	 * @return
+	 * @throws IOException
+	 * @throws FFmpegException 
+	 */
+	FFmpegPlanoComando planejar(FFmpegFileInfo fileInfoPrimeiroArquivo, List<String> filtrosVideoAdicionais, boolean separarFiltrosVideo, boolean permitirCopiaStreams, Integer limiteCpusReservadas) throws IOException, FFmpegException {
+		Integer limiteCpusEfetivo = limiteCpus != null ? limiteCpus : limiteCpusReservadas;
+		String chave = getAssinatura() + "|" + filtrosVideoAdicionais + "|" + separarFiltrosVideo + "|" + permitirCopiaStreams + "|" + limiteCpusEfetivo + "|" + getAssinaturaEntrada(fileInfoPrimeiroArquivo, permitirCopiaStreams);
+		synchronized (cachePlanos) {
+			FFmpegPlanoComando plano = cachePlanos.get(chave);
+			if (plano != null) {
+				return plano;
+			}
+		}
+		
+		List<String> filtrosVideoSeparados = separarFiltrosVideo ? new ArrayList<>() : null;
+		List<String> parametros = buildParameters(fileInfoPrimeiroArquivo, filtrosVideoAdicionais, filtrosVideoSeparados, permitirCopiaStreams, limiteCpusEfetivo);
+		FFmpegPlanoComando plano = new FFmpegPlanoComando(chave, parametros, filtrosVideoSeparados);
+		synchronized (cachePlanos) {
+			cachePlanos.put(chave, plano);
+		}
+		return plano;
+	}
+	
+	/**
+	 * Identifica todos os parâmetros configurados neste objeto.
+	 * 
+	 * Se for adicionado algum atributo que interfira em {@link #buildParameters(FFmpegFileInfo)}, 
+	 * ele precisa ser incluído aqui também.
+	 */
+	String getAssinatura() {
+		List<Object> valores = Arrays.<Object>asList(
+				tempoInicial, tempoFinal, tempoInicialBuscaRapida, janelasTempo, 
+				videoEncoderCodec, audioEncoderCodec, videoPreset, videoThreads, limiteCpus, videoCropRectangle,
+				audioNormalizarVolume != null ? System.identityHashCode(audioNormalizarVolume) : null,
+				copiarStreamsCompativeis, videoBitrateMaximoParaCopiaKbps, videoLuminosidadeMaisClara, videoFPS,
+				videoFilters, videoExtraParameters, audioExtraParameters, videoCopiarMetadados, audioMoverMetadadosParaInicio,
+				videoQualidadeCrf, audioQualidade, videoRotation, videoRotationHorizontalFlip, videoRotationVerticalFlip,
+				videoResolutionFixedWidth, videoResolutionFixedHeight, videoResolutionConstrainedWidth, videoResolutionConstrainedHeight,
+				videoResolutionConstrainedMultiple, videoResolutionConstrainedAllowInvert, ocultarInformacoesVersoesBibliotecas);
+		return valores.toString();
+	}
+	
+	/**
+	 * Identifica somente os dados do arquivo de entrada que interferem nos parâmetros, consultando
+	 * o ffmpeg somente quando algum deles for necessário.
+	 */
+	private String getAssinaturaEntrada(FFmpegFileInfo fileInfo, boolean permitirCopiaStreams) throws IOException, FFmpegException {
+		if (fileInfo == null) {
+			return "-";
+		}
+		boolean copiar = copiarStreamsCompativeis && permitirCopiaStreams;
+		List<Object> valores = new ArrayList<>();
+		boolean resolucaoRestrita = videoResolutionFixedWidth == null && videoResolutionFixedHeight == null 
+				&& (videoResolutionConstrainedWidth != null || videoResolutionConstrainedHeight != null);
+		if (resolucaoRestrita || copiar) {
+			valores.add(fileInfo.getVideoResolution());
+		}
+		if (copiar) {
+			valores.add(fileInfo.getVideoCodec());
+			valores.add(fileInfo.getVideoBitrateKbps());
+		}
+		if (copiar || !janelasTempo.isEmpty()) {
+			valores.add(fileInfo.getAudioCodec());
+			valores.add(fileInfo.getAudioBitrateKbps());
+		}
+		if (audioNormalizarVolume != null) {
+			valores.add(fileInfo.getCacheKey());
+		}
+		return valores.toString();
+	}
+	
+	/**
+	 * 
+	 * @param fileInfoPrimeiroArquivo : necessário se a resolução de saída precisar ser calculada a partir da resolução de um vídeo de entrada
+	 * @param filtrosVideoAdicionais : filtros de vídeo adicionados após os de {@link #addVideoFilter(String)}
+	 * @param filtrosVideoSeparados : se informado, os filtros de vídeo serão adicionados a esta lista, em vez de 
+	 * gerarem um parâmetro "-vf" (utilizado quando os filtros serão montados em um "-filter_complex")
+	 * @param permitirCopiaStreams : indica se {@link #setCopiarStreamsCompativeis(boolean)} pode ser aplicado 
+	 * (não pode quando os streams passam por um "-filter_complex")
+	 * @param limiteCpus : quantidade de CPUs do encoder de vídeo, ou "null" para não limitar
+	 * @return
+	 * @throws IOException
+	 * @throws FFmpegException 
+	 */
+	private ArrayList<String> buildParameters(FFmpegFileInfo fileInfoPrimeiroArquivo, List<String> filtrosVideoAdicionais, List<String> filtrosVideoSeparados, boolean permitirCopiaStreams, Integer limiteCpus) throws IOException, FFmpegException {
+		ArrayList<String> commands = new ArrayList<>();
+		
+		if (ocultarInformacoesVersoesBibliotecas) {
+			commands.add("-hide_banner");
+		}
+		
+		// Tempos inicial e final
+		if (!janelasTempo.isEmpty()) {
+			
+			// Os trechos serão extraídos no "-filter_complex" (ver montarFiltroJanelasTempo)
+			if (tempoInicial != null || tempoFinal != null) {
+				throw new IOException("Não é possível combinar janelas de tempo com tempo inicial/final");
+			}
+			if (filtrosVideoSeparados != null) {
+				throw new IOException("Não é possível utilizar janelas de tempo com várias saídas");
+			}
+			if (isVideoEncoderCopy() || ENCODER_COPY.equals(audioEncoderCodec)) {
+				throw new IOException("Não é possível utilizar janelas de tempo com encoder 'copy', pois os trechos precisam ser reprocessados");
+			}
+			if (audioNormalizarVolume != null) {
+				throw new IOException("Não é possível normalizar o volume ao utilizar janelas de tempo");
+			}
+		} else if (tempoInicialBuscaRapida && tempoInicial != null && filtrosVideoSeparados == null) {
+			
+			// "-ss" já foi informado antes do arquivo de entrada (ver buildInputParameters)
+			if (tempoFinal != null) {
+				commands.add("-t");
+				commands.add(formatarSegundos(hmsToSeconds(tempoFinal) - hmsToSeconds(tempoInicial)));
+			}
+		} else {
+			if (tempoInicial != null) {
+				commands.add("-ss");
+				commands.add(tempoInicial);
+			}
+			if (tempoFinal != null) {
+				commands.add("-to");
+				commands.add(tempoFinal);
+			}
+		}
+		
+		// Verifica se os streams de entrada já estão no formato desejado e podem ser copiados
+		String videoCodec = videoEncoderCodec;
+		String audioCodec = audioEncoderCodec;
+		boolean videoCopiadoPorCompatibilidade = false;
+		if (copiarStreamsCompativeis && permitirCopiaStreams && fileInfoPrimeiroArquivo != null) {
+			if (filtrosVideoAdicionais.isEmpty() && isVideoCompativel(fileInfoPrimeiroArquivo)) {
+				LOGGER.info("Vídeo de entrada (" + fileInfoPrimeiroArquivo.getVideoCodec() + ", " + fileInfoPrimeiroArquivo.getVideoBitrateKbps() + " kb/s) já é compatível e será copiado");
+				videoCodec = ENCODER_COPY;
+				videoCopiadoPorCompatibilidade = true;
+			}
+			if (isAudioCompativel(fileInfoPrimeiroArquivo)) {
+				LOGGER.info("Áudio de entrada (" + fileInfoPrimeiroArquivo.getAudioCodec() + ", " + fileInfoPrimeiroArquivo.getAudioBitrateKbps() + " kb/s) já é compatível e será copiado");
+				audioCodec = ENCODER_COPY;
+			}
+		}
+		
+		// Codec de vídeo, que poderá ser "copy" ou o nome do encoder.
+		if (videoCodec != null) {
+			commands.add("-c:v");
+			commands.add(videoCodec);
+		}
+		
+		// Parâmetros do encoder não se aplicam quando o vídeo será copiado
+		if (!videoCopiadoPorCompatibilidade) {
+			
+			// Qualidade CRF
+			if (getVideoQualidadeCrf() != null) {
+				commands.add("-crf");
+				commands.add(getVideoQualidadeCrf().toString());
+			}
+			
+			// Parametros extras para processar o video
+			if (videoPreset != null) {
+				commands.add("-preset");
+				commands.add(videoPreset);
+			}
+			if (videoThreads != null) {
+				commands.add("-threads");
+				commands.add(videoThreads.toString());
+			}
+		}
+		List<String> extraParameters = videoExtraParameters != null ? new ArrayList<>(videoExtraParameters) : new ArrayList<>();
+		if (limiteCpus != null && !ENCODER_COPY.equals(videoCodec)) {
+			if (videoThreads == null) {
+				commands.add("-threads");
+				commands.add(limiteCpus.toString());
+			}
+			
+			// x265 cria seu próprio pool de threads, que precisa ser limitado separadamente
+			if ("libx265".equals(videoCodec)) {
+				String threadsX265 = "pools=" + limiteCpus + ":frame-threads=" + getX265FrameThreads(limiteCpus);
+				int posicao = extraParameters.indexOf("-x265-params");
+				if (posicao >= 0 && posicao + 1 < extraParameters.size()) {
+					extraParameters.set(posicao + 1, extraParameters.get(posicao + 1) + ":" + threadsX265);
+				} else {
+					extraParameters.add("-x265-params");
+					extraParameters.add(threadsX265);
+				}
+			}
+		}
+		commands.addAll(extraParameters);
+		
+		// Cria uma nova lista para armazenar os filtros, que conterá tanto os que 
+		// foram adicionados manualmente pelo usuário quanto os que foram definidos por
+		// certos parâmetros (como luminosidade, rotação, etc).
+		@SuppressWarnings("unchecked")
+		List<String> allVideoFilters = (List<String>) videoFilters.clone();
+		allVideoFilters.addAll(filtrosVideoAdicionais);
+		
+		// Ganho de luminosidade (>1 deixa mais claro, <1 deixa mais escuro)
+//		if (ganhoLuminosidade != null) {
+//			allVideoFilters.add("lutyuv=y=val*" + ganhoLuminosidade);
+//		}
+		// TODO: Melhorar, voltando para um esquema parecido com o anterior, com "ganhoLuminosidade", mas utilizando as curvas em vez de "lutyuv"
+		if (videoLuminosidadeMaisClara) {
+			allVideoFilters.add("curves=all='0/0.1 0.3/0.5 1/1'");
+		}
+		if (videoCropRectangle != null) {
+			allVideoFilters.add("crop=" + ((int) videoCropRectangle.getWidth()) + ":" + ((int) videoCropRectangle.getHeight()) + 
+					":" + ((int) videoCropRectangle.getX()) + ":" + ((int) videoCropRectangle.getY()));
+		}
+		if (videoFPS != null) {
+			allVideoFilters.add("fps=fps=" + videoFPS);
+		}
+		
+		// Redimensionando vídeo
+		Integer[] resolucaoSaida = videoCopiadoPorCompatibilidade ? null : calcularResolucaoSaida(fileInfoPrimeiroArquivo);
+		Integer width = resolucaoSaida != null ? resolucaoSaida[0] : null;
+		Integer height = resolucaoSaida != null ? resolucaoSaida[1] : null;
 		if (width != null && height != null) {
 			allVideoFilters.add("scale=w=" + width + ":h=" + height);
 		} else if (width != null && height == null) {
@@ -872,7 +1544,7 @@ public class FFmpegParameters {
 		if (videoRotationHorizontalFlip) {
 			
 			// Se encontrar uma forma de fazer "flip" sem reprocessar o vídeo, retirar essa restrição.
-			if (ENCODER_COPY.equals(videoEncoderCodec)) {
+			if (ENCODER_COPY.equals(videoCodec)) {
 				throw new IOException("Não é possível selecionar 'videoRotationHorizontalFlip' com encoder 'copy', pois o vídeo precisa ser reprocessado.", null);
 			}
 			
@@ -882,7 +1554,7 @@ public class FFmpegParameters {
 		} else if (videoRotationVerticalFlip) {
 			
 			// Se encontrar uma forma de fazer "flip" sem reprocessar o vídeo, retirar essa restrição.
-			if (ENCODER_COPY.equals(videoEncoderCodec)) {
+			if (ENCODER_COPY.equals(videoCodec)) {
 				throw new IOException("Não é possível selecionar 'videoRotationVerficalFlip' com encoder 'copy', pois o vídeo precisa ser reprocessado", null);
 			}
 			
@@ -893,7 +1565,7 @@ public class FFmpegParameters {
 			
 			// Se vídeo será somente copiado, adiciona um metadado de rotação.
 			// Se vídeo será recodificado, precisa fazer um "transpose"
-			if (ENCODER_COPY.equals(videoEncoderCodec)) {
+			if (ENCODER_COPY.equals(videoCodec)) {
 				commands.add("-metadata:s:v:0");
 				commands.add("rotate=" + videoRotation);
 				
@@ -926,19 +1598,48 @@ public class FFmpegParameters {
 		}
 		
 		// Adiciona os filtros (ex: scale), separados por vírgula
-		if (!allVideoFilters.isEmpty()) {
+		if (!janelasTempo.isEmpty()) {
+			boolean possuiAudio = fileInfoPrimeiroArquivo == null || fileInfoPrimeiroArquivo.getAudioCodec() != null;
+			commands.add("-filter_complex");
+			commands.add(montarFiltroJanelasTempo(allVideoFilters, possuiAudio));
+			commands.add("-map");
+			commands.add("[vjan]");
+			if (possuiAudio) {
+				commands.add("-map");
+				commands.add("[ajan]");
+			}
+		} else if (filtrosVideoSeparados != null) {
+			filtrosVideoSeparados.addAll(allVideoFilters);
+		} else if (!allVideoFilters.isEmpty()) {
 			commands.add("-vf");
 			commands.add(StringUtils.join(allVideoFilters, ","));
 		}
 		
 		// Codec de áudio
-		if (audioEncoderCodec != null) {
+		if (audioCodec != null) {
 			commands.add("-c:a");
-			commands.add(audioEncoderCodec);
+			commands.add(audioCodec);
+		}
+		
+		// Normalização de volume (o loudnorm trabalha internamente em 192kHz, então a taxa de saída é fixada)
+		if (audioNormalizarVolume != null) {
+			if (ENCODER_COPY.equals(audioCodec)) {
+				throw new IOException("Não é possível normalizar o volume com o áudio sendo copiado ('copy')");
+			}
+			if (fileInfoPrimeiroArquivo == null) {
+				throw new IOException("Para normalizar o volume é necessário informar o arquivo de entrada");
+			}
+			String filtro = audioNormalizarVolume.montarFiltro(fileInfoPrimeiroArquivo, tempoInicial, tempoFinal);
+			if (filtro != null) {
+				commands.add("-af");
+				commands.add(filtro);
+				commands.add("-ar");
+				commands.add("48000");
+			}
 		}
 		
 		// Parametros extras para processar o áudio (somente se estiver utilizando ENCODE)
-		boolean recompactarAudio = audioEncoderCodec != null && !ENCODER_COPY.equals(audioEncoderCodec);
+		boolean recompactarAudio = audioCodec != null && !ENCODER_COPY.equals(audioCodec);
 		if (recompactarAudio) {
 			if (audioQualidade != null) {
 				commands.add("-b:a");
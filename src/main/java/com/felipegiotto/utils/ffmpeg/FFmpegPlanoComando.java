@@ -0,0 +1,55 @@
+package com.felipegiotto.utils.ffmpeg;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Parâmetros de saída do ffmpeg já montados a partir de um {@link FFmpegParameters} e dos dados
+ * do arquivo de entrada (resolução, codecs, etc).
+ *
+ * É imutável e fica em cache no {@link FFmpegParameters} (ver {@link FFmpegParameters#planejar(FFmpegFileInfo)}),
+ * então pode ser reaproveitado em todos os arquivos de um lote que tenham as mesmas características,
+ * sem montar os parâmetros novamente.
+ *
+ * @author felipegiotto@gmail.com
+ */
+public class FFmpegPlanoComando {
+
+	private final String chave;
+	private final List<String> parametros;
+	private final List<String> filtrosVideoSeparados;
+
+	FFmpegPlanoComando(String chave, List<String> parametros, List<String> filtrosVideoSeparados) {
+		this.chave = chave;
+		this.parametros = Collections.unmodifiableList(parametros);
+		this.filtrosVideoSeparados = filtrosVideoSeparados != null ? Collections.unmodifiableList(filtrosVideoSeparados) : null;
+	}
+
+	/**
+	 * Identificação dos parâmetros e dos dados do arquivo de entrada que geraram este plano
+	 */
+	public String getChave() {
+		return chave;
+	}
+
+	/**
+	 * Parâmetros de saída (não podem ser alterados)
+	 */
+	public List<String> getParametros() {
+		return parametros;
+	}
+
+	/**
+	 * Filtros de vídeo, quando montados separadamente para um "-filter_complex" (ou "null")
+	 */
+	List<String> getFiltrosVideoSeparados() {
+		return filtrosVideoSeparados;
+	}
+
+	@Override
+	public String toString() {
+		return StringUtils.join(parametros, " ");
+	}
+}
@@ -0,0 +1,299 @@
+package com.felipegiotto.utils.ffmpeg.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Cache em disco, com tamanho máximo, para arquivos gerados pelo ffmpeg (segmentos de vídeo,
+ * miniaturas, etc).
+ *
+ * Cada arquivo é identificado por uma chave, que é o seu caminho relativo dentro da pasta do cache
+ * (ex: "a1b2c3/seg00001.ts"). Quando o tamanho máximo é ultrapassado, os arquivos acessados há mais
+ * tempo são excluídos (LRU).
+ *
+ * Se várias threads solicitarem a mesma chave ao mesmo tempo, o arquivo é gerado somente uma vez
+ * e todas aguardam o mesmo resultado.
+ *
+ * Arquivos obtidos com {@link #reservar(String, GeradorArquivo)} não são excluídos enquanto a
+ * reserva não for fechada (ex: durante o envio a um cliente).
+ *
+ * @author felipegiotto@gmail.com
+ */
+public class FFmpegDiskCache {
+
+	private static final Logger LOGGER = LogManager.getLogger(FFmpegDiskCache.class);
+	private static final String PREFIXO_TEMPORARIO = "tmp_";
+
+	/**
+	 * Gera o conteúdo de um arquivo do cache
+	 */
+	public interface GeradorArquivo {
+		public void gerar(File destino) throws IOException, InterruptedException, FFmpegException;
+	}
+
+	private final Path pasta;
+	private final long tamanhoMaximoBytes;
+	private final LinkedHashMap<String, Long> entradas = new LinkedHashMap<>(16, 0.75f, true);
+	private long totalBytes = 0;
+	private final ConcurrentHashMap<String, FutureTask<File>> emAndamento = new ConcurrentHashMap<>();
+	private final Map<String, Integer> reservas = new HashMap<>();
+
+	/**
+	 * Arquivo do cache em uso, que não será excluído até que a reserva seja fechada
+	 */
+	public class Reserva implements AutoCloseable {
+		private final String chave;
+		private final File arquivo;
+		private boolean fechada;
+
+		private Reserva(String chave, File arquivo) {
+			this.chave = chave;
+			this.arquivo = arquivo;
+		}
+
+		public File getArquivo() {
+			return arquivo;
+		}
+
+		@Override
+		public void close() {
+			fechar(true);
+		}
+
+		private void fechar(boolean excluirExcedentes) {
+			synchronized (FFmpegDiskCache.this) {
+				if (fechada) {
+					return;
+				}
+				fechada = true;
+				liberar(chave, excluirExcedentes);
+			}
+		}
+	}
+
+	/**
+	 * Cria o cache, registrando os arquivos que já existirem na pasta (de execuções anteriores).
+	 *
+	 * @param pasta : pasta onde os arquivos serão gravados
+	 * @param tamanhoMaximoBytes : tamanho máximo que os arquivos do cache podem ocupar
+	 * @throws IOException
+	 */
+	public FFmpegDiskCache(File pasta, long tamanhoMaximoBytes) throws IOException {
+		this.pasta = pasta.toPath().toAbsolutePath();
+		this.tamanhoMaximoBytes = tamanhoMaximoBytes;
+		Files.createDirectories(this.pasta);
+
+		// Registra os arquivos existentes, dos mais antigos para os mais novos
+		List<Path> existentes;
+		try (Stream<Path> stream = Files.walk(this.pasta)) {
+			existentes = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+		}
+		existentes.sort(Comparator.comparingLong(p -> p.toFile().lastModified()));
+		for (Path existente : existentes) {
+			if (existente.getFileName().toString().startsWith(PREFIXO_TEMPORARIO)) {
+				Files.deleteIfExists(existente);
+			} else {
+				registrar(this.pasta.relativize(existente).toString().replace(File.separatorChar, '/'), Files.size(existente));
+			}
+		}
+	}
+
+	/**
+	 * Retorna o arquivo do cache com a chave informada, gerando-o se ainda não existir.
+	 *
+	 * OBS: o arquivo pode ser excluído depois de retornado, se outros arquivos forem gravados no
+	 * cache. Para utilizá-lo por mais tempo (ex: enviá-lo a um cliente), ver {@link #reservar(String, GeradorArquivo)}.
+	 *
+	 * @param chave : caminho relativo do arquivo dentro do cache (ex: "a1b2c3/seg00001.ts")
+	 * @param gerador : chamado para gerar o arquivo, somente se ele não estiver no cache
+	 * @return
+	 */
+	public File obter(String chave, GeradorArquivo gerador) throws IOException, InterruptedException, FFmpegException {
+		Reserva reserva = reservar(chave, gerador);
+
+		// Não exclui arquivos excedentes neste momento, pois o próprio arquivo poderia ser excluído
+		reserva.fechar(false);
+		return reserva.getArquivo();
+	}
+
+	/**
+	 * Retorna o arquivo do cache com a chave informada, gerando-o se ainda não existir, e impede
+	 * que ele seja excluído até que a reserva seja fechada.
+	 *
+	 * @param chave : caminho relativo do arquivo dentro do cache (ex: "a1b2c3/seg00001.ts")
+	 * @param gerador : chamado para gerar o arquivo, somente se ele não estiver no cache
+	 * @return reserva, que deve ser fechada quando o arquivo não for mais utilizado
+	 */
+	public Reserva reservar(String chave, GeradorArquivo gerador) throws IOException, InterruptedException, FFmpegException {
+		while (true) {
+			Reserva existente = reservarExistente(chave);
+			if (existente != null) {
+				return existente;
+			}
+
+			// Garante que somente uma thread gere cada arquivo. O cache é consultado novamente dentro
+			// da tarefa, pois outra thread pode ter terminado de gerar o arquivo depois da consulta acima.
+			FutureTask<File> nova = new FutureTask<>(() -> {
+				File gerado = buscar(chave);
+				return gerado != null ? gerado : gerar(chave, gerador);
+			});
+			FutureTask<File> tarefa = emAndamento.computeIfAbsent(chave, (c) -> nova);
+			if (tarefa == nova) {
+				try {
+					nova.run();
+				} finally {
+					emAndamento.remove(chave, nova);
+				}
+			}
+			aguardar(chave, tarefa);
+
+			// Volta ao início para reservar o arquivo gerado (se ele já tiver sido excluído por
+			// outras gravações no cache, é gerado novamente)
+		}
+	}
+
+	private static void aguardar(String chave, FutureTask<File> tarefa) throws IOException, InterruptedException, FFmpegException {
+		try {
+			tarefa.get();
+		} catch (ExecutionException ex) {
+			Throwable causa = ex.getCause();
+			if (causa instanceof IOException) {
+				throw (IOException) causa;
+			} else if (causa instanceof InterruptedException) {
+				throw (InterruptedException) causa;
+			} else if (causa instanceof FFmpegException) {
+				throw (FFmpegException) causa;
+			} else if (causa instanceof RuntimeException) {
+				throw (RuntimeException) causa;
+			}
+			throw new IOException("Erro ao gerar arquivo do cache: " + chave, causa);
+		}
+	}
+
+	/**
+	 * Tamanho ocupado, atualmente, pelos arquivos do cache.
+	 */
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * Indica se a chave está no cache, sem alterar a ordem de acesso.
+	 */
+	public synchronized boolean contem(String chave) {
+		return entradas.containsKey(chave);
+	}
+
+	private synchronized Reserva reservarExistente(String chave) {
+		File arquivo = buscar(chave);
+		if (arquivo == null) {
+			return null;
+		}
+		reservas.merge(chave, 1, Integer::sum);
+		return new Reserva(chave, arquivo);
+	}
+
+	private synchronized void liberar(String chave, boolean excluirExcedentes) {
+		if (reservas.merge(chave, -1, Integer::sum) == 0) {
+			reservas.remove(chave);
+
+			// Arquivos que não puderam ser excluídos enquanto estavam reservados
+			if (excluirExcedentes) {
+				excluirExcedentes(null);
+			}
+		}
+	}
+
+	private synchronized File buscar(String chave) {
+		if (!entradas.containsKey(chave)) {
+			return null;
+		}
+		File arquivo = resolver(chave).toFile();
+		if (arquivo.isFile()) {
+			entradas.get(chave);
+			return arquivo;
+		}
+
+		// Arquivo foi excluído externamente
+		totalBytes -= entradas.remove(chave);
+		return null;
+	}
+
+	private File gerar(String chave, GeradorArquivo gerador) throws IOException, InterruptedException, FFmpegException {
+		Path destino = resolver(chave);
+		Files.createDirectories(destino.getParent());
+
+		// Gera em um arquivo temporário (com a mesma extensão), para que um arquivo incompleto nunca seja retornado
+		Path temporario = destino.resolveSibling(PREFIXO_TEMPORARIO + destino.getFileName());
+		Files.deleteIfExists(temporario);
+		try {
+			gerador.gerar(temporario.toFile());
+			if (!Files.isRegularFile(temporario)) {
+				throw new IOException("Arquivo do cache não foi gerado: " + chave);
+			}
+			Files.move(temporario, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporario);
+		}
+
+		registrar(chave, Files.size(destino));
+		return destino.toFile();
+	}
+
+	synchronized void registrar(String chave, long bytes) {
+		Long anterior = entradas.put(chave, bytes);
+		if (anterior != null) {
+			totalBytes -= anterior;
+		}
+		totalBytes += bytes;
+
+		// Mantém pelo menos o que acabou de ser registrado
+		excluirExcedentes(chave);
+	}
+
+	/**
+	 * Exclui os arquivos acessados há mais tempo, até que o tamanho máximo seja respeitado.
+	 * Arquivos reservados são mantidos, mesmo que o tamanho máximo seja ultrapassado.
+	 */
+	private synchronized void excluirExcedentes(String chaveMantida) {
+		Iterator<Map.Entry<String, Long>> it = entradas.entrySet().iterator();
+		while (totalBytes > tamanhoMaximoBytes && it.hasNext()) {
+			Map.Entry<String, Long> maisAntiga = it.next();
+			if (maisAntiga.getKey().equals(chaveMantida) || reservas.containsKey(maisAntiga.getKey())) {
+				continue;
+			}
+			it.remove();
+			totalBytes -= maisAntiga.getValue();
+			try {
+				Files.deleteIfExists(resolver(maisAntiga.getKey()));
+			} catch (IOException ex) {
+				LOGGER.warn("Não foi possível excluir arquivo do cache: " + maisAntiga.getKey() + ": " + ex.getLocalizedMessage(), ex);
+			}
+		}
+	}
+
+	private Path resolver(String chave) {
+		Path caminho = pasta.resolve(chave).normalize();
+		if (!caminho.startsWith(pasta)) {
+			throw new IllegalArgumentException("Chave inválida para o cache: " + chave);
+		}
+		return caminho;
+	}
+}
@@ -7,6 +7,7 @@ public class FFmpegException extends Exception {
 	
 	public FFmpegException(String msg, String saidaComando) {
 		super(msg);
+		this.saidaComando = saidaComando;
 	}
 	
 	public FFmpegException(String msg, Throwable cause) {
@@ -0,0 +1,273 @@
+package com.felipegiotto.utils.ffmpeg.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Divide os processadores da máquina entre execuções simultâneas do ffmpeg.
+ *
+ * Cada execução reserva uma quantidade de CPUs (ver
+ * {@link com.felipegiotto.utils.ffmpeg.FFmpegCommand#setOrcamentoCpus(FFmpegGerenciadorRecursos, int)}),
+ * e recebe um conjunto exclusivo de processadores, onde o ffmpeg será fixado ("taskset") e que
+ * define a quantidade de threads do encoder. Se não houver CPUs livres, a execução aguarda até
+ * que outra termine, em vez de competir pelos mesmos processadores.
+ *
+ * Ex: 4 vídeos sendo convertidos em paralelo em uma máquina com 16 CPUs:
+ <code>
+ 	FFmpegGerenciadorRecursos recursos = FFmpegGerenciadorRecursos.getPadrao();
+ 	int cpusPorJob = recursos.getCpusPorJob(4);
+ 	(em cada thread)
+ 	ffmpeg.setOrcamentoCpus(recursos, cpusPorJob);
+ 	ffmpeg.runAndWait(false);
+ </code>
+ *
+ * @author felipegiotto@gmail.com
+ */
+public class FFmpegGerenciadorRecursos {
+
+	private static final Logger LOGGER = LogManager.getLogger(FFmpegGerenciadorRecursos.class);
+	private static final FFmpegGerenciadorRecursos PADRAO = criarPadrao();
+
+	private final int totalCpus;
+	private final BitSet cpusLivres;
+
+	/**
+	 * Reserva de CPUs para uma execução. Deve ser liberada ao final (ver {@link #close()}).
+	 */
+	public class Reserva implements AutoCloseable {
+
+		private final List<Integer> cpus;
+		private boolean liberada = false;
+
+		private Reserva(List<Integer> cpus) {
+			this.cpus = Collections.unmodifiableList(cpus);
+		}
+
+		/**
+		 * Índices dos processadores reservados (ex: [4, 5, 6, 7])
+		 */
+		public List<Integer> getCpus() {
+			return cpus;
+		}
+
+		public int getQuantidadeCpus() {
+			return cpus.size();
+		}
+
+		/**
+		 * Libera as CPUs para outras execuções
+		 */
+		@Override
+		public void close() {
+			liberar(this);
+		}
+	}
+
+	/**
+	 * @param totalCpus : quantidade de processadores que podem ser utilizados pelo ffmpeg (de 0 a totalCpus-1)
+	 */
+	public FFmpegGerenciadorRecursos(int totalCpus) {
+		if (totalCpus < 1) {
+			throw new IllegalArgumentException("Quantidade de CPUs inválida: " + totalCpus);
+		}
+		this.totalCpus = totalCpus;
+		this.cpusLivres = new BitSet(totalCpus);
+		this.cpusLivres.set(0, totalCpus);
+	}
+
+	/**
+	 * @param cpus : índices dos processadores que podem ser utilizados pelo ffmpeg (ex: os de um "cpuset",
+	 *               ver {@link #interpretarListaCpus(String)})
+	 */
+	public FFmpegGerenciadorRecursos(List<Integer> cpus) {
+		this.cpusLivres = new BitSet();
+		for (int cpu : cpus) {
+			if (cpu < 0) {
+				throw new IllegalArgumentException("Índice de CPU inválido: " + cpu);
+			}
+			this.cpusLivres.set(cpu);
+		}
+		this.totalCpus = cpusLivres.cardinality();
+		if (totalCpus < 1) {
+			throw new IllegalArgumentException("Nenhuma CPU informada");
+		}
+	}
+
+	/**
+	 * Gerenciador global, com os processadores que o processo atual pode utilizar
+	 */
+	public static FFmpegGerenciadorRecursos getPadrao() {
+		return PADRAO;
+	}
+
+	/**
+	 * Em containers ou com "taskset", o processo pode estar limitado a CPUs que não são as de
+	 * índice 0 a N-1 (ex: "4-7"). No Linux, a lista é lida de "/proc/self/status". Se a JVM
+	 * informar menos processadores do que a lista (ex: limite de cota do cgroup), somente os
+	 * primeiros da lista são utilizados.
+	 */
+	private static FFmpegGerenciadorRecursos criarPadrao() {
+		int processadores = Runtime.getRuntime().availableProcessors();
+		List<Integer> cpus = lerCpusPermitidas(Paths.get("/proc/self/status"));
+		if (cpus == null || cpus.isEmpty()) {
+			return new FFmpegGerenciadorRecursos(processadores);
+		}
+		if (cpus.size() > processadores) {
+			cpus = cpus.subList(0, processadores);
+		}
+		return new FFmpegGerenciadorRecursos(cpus);
+	}
+
+	/**
+	 * Lê a linha "Cpus_allowed_list" do arquivo "status" do processo (ex: "/proc/self/status")
+	 *
+	 * @return CPUs permitidas ou "null" se o arquivo não existir ou não tiver a informação
+	 */
+	static List<Integer> lerCpusPermitidas(Path arquivoStatus) {
+		if (!Files.isReadable(arquivoStatus)) {
+			return null;
+		}
+		try {
+			for (String linha : Files.readAllLines(arquivoStatus, StandardCharsets.UTF_8)) {
+				if (linha.startsWith("Cpus_allowed_list:")) {
+					return interpretarListaCpus(linha.substring("Cpus_allowed_list:".length()));
+				}
+			}
+		} catch (IOException | IllegalArgumentException ex) {
+			LOGGER.warn("Não foi possível identificar as CPUs permitidas em " + arquivoStatus + ": " + ex.getLocalizedMessage());
+		}
+		return null;
+	}
+
+	public int getTotalCpus() {
+		return totalCpus;
+	}
+
+	public synchronized int getQuantidadeCpusLivres() {
+		return cpusLivres.cardinality();
+	}
+
+	/**
+	 * Calcula quantas CPUs cada execução deve reservar para que a quantidade de execuções
+	 * informada possa rodar ao mesmo tempo.
+	 */
+	public int getCpusPorJob(int quantidadeJobsSimultaneos) {
+		return Math.max(1, totalCpus / Math.max(1, quantidadeJobsSimultaneos));
+	}
+
+	/**
+	 * Reserva CPUs para uma execução, aguardando se não houver CPUs livres suficientes.
+	 * Sempre que possível, são reservadas CPUs consecutivas (que costumam compartilhar cache).
+	 *
+	 * @param quantidadeCpus : quantidade desejada (limitada ao total de CPUs do gerenciador)
+	 * @return reserva, que deve ser liberada ao final com {@link Reserva#close()}
+	 * @throws InterruptedException
+	 */
+	public synchronized Reserva reservar(int quantidadeCpus) throws InterruptedException {
+		int quantidade = Math.max(1, Math.min(quantidadeCpus, totalCpus));
+		while (cpusLivres.cardinality() < quantidade) {
+			wait();
+		}
+
+		List<Integer> cpus = buscarCpusConsecutivas(quantidade);
+		if (cpus == null) {
+			cpus = new ArrayList<>();
+			for (int cpu = cpusLivres.nextSetBit(0); cpus.size() < quantidade; cpu = cpusLivres.nextSetBit(cpu + 1)) {
+				cpus.add(cpu);
+			}
+		}
+		for (int cpu : cpus) {
+			cpusLivres.clear(cpu);
+		}
+		return new Reserva(cpus);
+	}
+
+	private List<Integer> buscarCpusConsecutivas(int quantidade) {
+		int inicio = cpusLivres.nextSetBit(0);
+		while (inicio >= 0) {
+			int fim = cpusLivres.nextClearBit(inicio);
+			if (fim - inicio >= quantidade) {
+				List<Integer> cpus = new ArrayList<>();
+				for (int cpu = inicio; cpu < inicio + quantidade; cpu++) {
+					cpus.add(cpu);
+				}
+				return cpus;
+			}
+			inicio = cpusLivres.nextSetBit(fim);
+		}
+		return null;
+	}
+
+	private synchronized void liberar(Reserva reserva) {
+		if (reserva.liberada) {
+			return;
+		}
+		reserva.liberada = true;
+		for (int cpu : reserva.cpus) {
+			cpusLivres.set(cpu);
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Interpreta uma lista de CPUs no formato do "taskset" e do "cpuset" (ex: "0-3,8" = [0, 1, 2, 3, 8])
+	 */
+	public static List<Integer> interpretarListaCpus(String lista) {
+		List<Integer> cpus = new ArrayList<>();
+		for (String trecho : lista.trim().split(",")) {
+			if (trecho.isEmpty()) {
+				continue;
+			}
+			try {
+				int separador = trecho.indexOf('-');
+				int inicio = Integer.parseInt(separador < 0 ? trecho : trecho.substring(0, separador));
+				int fim = separador < 0 ? inicio : Integer.parseInt(trecho.substring(separador + 1));
+				if (fim < inicio) {
+					throw new IllegalArgumentException("Intervalo de CPUs inválido: " + trecho);
+				}
+				for (int cpu = inicio; cpu <= fim; cpu++) {
+					cpus.add(cpu);
+				}
+			} catch (NumberFormatException ex) {
+				throw new IllegalArgumentException("Lista de CPUs inválida: " + lista, ex);
+			}
+		}
+		return cpus;
+	}
+
+	/**
+	 * Formata uma lista de CPUs no formato do "taskset" (ex: [0, 1, 2, 3, 8] = "0-3,8")
+	 */
+	public static String formatarListaCpus(List<Integer> cpus) {
+		List<Integer> ordenadas = new ArrayList<>(cpus);
+		Collections.sort(ordenadas);
+		StringBuilder sb = new StringBuilder();
+		int i = 0;
+		while (i < ordenadas.size()) {
+			int inicio = ordenadas.get(i);
+			int fim = inicio;
+			while (i + 1 < ordenadas.size() && ordenadas.get(i + 1) == fim + 1) {
+				fim = ordenadas.get(++i);
+			}
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(inicio);
+			if (fim > inicio) {
+				sb.append('-').append(fim);
+			}
+			i++;
+		}
+		return sb.toString();
+	}
+}
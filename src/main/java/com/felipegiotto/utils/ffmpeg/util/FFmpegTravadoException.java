@@ -0,0 +1,16 @@
+package com.felipegiotto.utils.ffmpeg.util;
+
+/**
+ * Lançada quando o ffmpeg fica mais tempo do que o permitido sem mostrar progresso
+ * e, por isso, precisa ser finalizado.
+ *
+ * @author felipegiotto@gmail.com
+ */
+public class FFmpegTravadoException extends FFmpegException {
+
+	private static final long serialVersionUID = 1L;
+
+	public FFmpegTravadoException(String msg, String saidaComando) {
+		super(msg, saidaComando);
+	}
+}
@@ -0,0 +1,94 @@
+package com.felipegiotto.utils.ffmpeg.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Monitora as linhas de progresso do ffmpeg (ex: "frame=  240 fps= 30 ... time=00:00:08.00 ...")
+ * para identificar quando o processo parou de avançar (travou).
+ *
+ * Mantém também as últimas linhas recebidas do ffmpeg, para diagnóstico em caso de travamento.
+ *
+ * @author felipegiotto@gmail.com
+ */
+public class FFmpegWatchdog {
+
+	private static final int QUANTIDADE_LINHAS_DIAGNOSTICO = 30;
+	private static final Pattern PATTERN_FRAME = Pattern.compile("frame=\\s*(\\d+)");
+	private static final Pattern PATTERN_TIME = Pattern.compile("time=\\s*(\\d+:\\d+:[\\d\\.]+)");
+
+	private final long janelaSemProgressoNanos;
+	private final Deque<String> ultimasLinhas = new ArrayDeque<>();
+	private volatile long instanteUltimoProgresso;
+	private long ultimoFrame = -1;
+	private String ultimoTime;
+
+	/**
+	 * @param janelaSemProgressoSegundos : tempo máximo que o ffmpeg pode ficar sem avançar
+	 * nenhum frame (ou tempo de saída) antes de ser considerado travado.
+	 */
+	public FFmpegWatchdog(int janelaSemProgressoSegundos) {
+		this.janelaSemProgressoNanos = TimeUnit.SECONDS.toNanos(janelaSemProgressoSegundos);
+		this.instanteUltimoProgresso = System.nanoTime();
+	}
+
+	/**
+	 * Registra uma linha recebida do STDERR do ffmpeg, atualizando o instante do último
+	 * progresso caso o "frame" ou o "time" tenham avançado.
+	 *
+	 * @param line
+	 */
+	public synchronized void registrarLinha(String line) {
+		ultimasLinhas.addLast(line);
+		if (ultimasLinhas.size() > QUANTIDADE_LINHAS_DIAGNOSTICO) {
+			ultimasLinhas.removeFirst();
+		}
+
+		boolean avancou = false;
+		Matcher mFrame = PATTERN_FRAME.matcher(line);
+		if (mFrame.find()) {
+			long frame = Long.parseLong(mFrame.group(1));
+			if (frame > ultimoFrame) {
+				ultimoFrame = frame;
+				avancou = true;
+			}
+		}
+		Matcher mTime = PATTERN_TIME.matcher(line);
+		if (mTime.find()) {
+			String time = mTime.group(1);
+			if (!time.equals(ultimoTime)) {
+				ultimoTime = time;
+				avancou = true;
+			}
+		}
+		if (avancou) {
+			instanteUltimoProgresso = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Indica se o ffmpeg está há mais tempo do que o permitido sem mostrar progresso.
+	 */
+	public boolean isTravado() {
+		return isTravado(System.nanoTime());
+	}
+
+	boolean isTravado(long agoraNanos) {
+		return agoraNanos - instanteUltimoProgresso > janelaSemProgressoNanos;
+	}
+
+	/**
+	 * Monta um texto com o último progresso identificado e as últimas linhas recebidas do ffmpeg.
+	 */
+	public synchronized String getDiagnostico() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Último frame=" + ultimoFrame + ", último time=" + ultimoTime + "\n");
+		sb.append(StringUtils.join(ultimasLinhas, "\n"));
+		return sb.toString();
+	}
+}
@@ -0,0 +1,210 @@
+package com.felipegiotto.misc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.SystemUtils;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.felipegiotto.utils.FGDatabaseUtils;
+import com.felipegiotto.utils.datasources.FGConnectionFactory;
+import com.felipegiotto.utils.datasources.FGPoolConfig;
+import com.felipegiotto.utils.ffmpeg.FFmpegFileInfo;
+import com.felipegiotto.utils.ffmpeg.FFmpegFileInfoTest;
+
+public class FGIndexadorVideosTest {
+
+	private static final String JDBC_NAME = "jdbc/indexador";
+
+	@BeforeClass
+	public static void criarBanco() {
+		FGConnectionFactory.addManualDataSource(JDBC_NAME, new FGPoolConfig("org.h2.Driver", "jdbc:h2:mem:indexador;DB_CLOSE_DELAY=-1"));
+	}
+
+	@AfterClass
+	public static void removerBanco() throws Exception {
+		FGConnectionFactory.removerDataSource(JDBC_NAME, 0);
+	}
+
+	/**
+	 * Indexador que não executa o ffmpeg: todos os vídeos recebem os metadados gravados em
+	 * "video_camera_nikon.txt" (ver {@link FFmpegFileInfoTest})
+	 */
+	private static class IndexadorComCache extends FGIndexadorVideos {
+
+		private final AtomicInteger analises = new AtomicInteger();
+
+		private IndexadorComCache(String tabela) throws Exception {
+			super(FGConnectionFactory.getDataSourceByJndiName(JDBC_NAME));
+			setTabela(tabela);
+		}
+
+		@Override
+		FFmpegFileInfo criarFileInfo(Path arquivo) {
+			analises.incrementAndGet();
+			try {
+				return FFmpegFileInfoTest.getFileInfoComCache("video_camera_nikon.txt");
+			} catch (Exception ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+	}
+
+	@Test
+	public void indexandoSomenteArquivosAlterados() throws Exception {
+		File pasta = criarPasta("indexandoSomenteArquivosAlterados");
+		File video1 = criarVideo(pasta, "video1.mov", "abc");
+		File video2 = criarVideo(new File(pasta, "subpasta"), "video2.mkv", "abc");
+		criarVideo(pasta, "documento.txt", "abc");
+
+		IndexadorComCache indexador = new IndexadorComCache("indexados_alterados");
+		FGIndexadorVideos.Resultado resultado = indexador.indexar(pasta.toPath());
+		assertEquals(2, resultado.getQtdArquivosEncontrados());
+		assertEquals(2, resultado.getQtdArquivosIndexados());
+		assertEquals(2, indexador.analises.get());
+		assertEquals(1920, consultarInt("SELECT MAX(largura) FROM indexados_alterados"));
+
+		// Nada foi alterado
+		resultado = indexador.indexar(pasta.toPath());
+		assertEquals(2, resultado.getQtdArquivosSemAlteracao());
+		assertEquals(0, resultado.getQtdArquivosIndexados());
+		assertEquals(2, indexador.analises.get());
+
+		// Tamanho diferente
+		FileUtils.writeStringToFile(video1, "abcdef", StandardCharsets.UTF_8);
+		video1.setLastModified(1_500_000_000_000L);
+		resultado = indexador.indexar(pasta.toPath());
+		assertEquals(1, resultado.getQtdArquivosIndexados());
+		assertEquals(3, indexador.analises.get());
+
+		// Mesmo tamanho, mas data de modificação diferente
+		video2.setLastModified(1_500_000_000_000L);
+		resultado = indexador.indexar(pasta.toPath());
+		assertEquals(1, resultado.getQtdArquivosSemAlteracao());
+		assertEquals(1, resultado.getQtdArquivosIndexados());
+		assertEquals(4, indexador.analises.get());
+
+		// Arquivo excluído
+		video1.delete();
+		resultado = indexador.indexar(pasta.toPath());
+		assertEquals(1, resultado.getQtdRegistrosExcluidos());
+		assertEquals(1, consultarInt("SELECT COUNT(*) FROM indexados_alterados"));
+	}
+
+	@Test
+	public void gravandoResultadosEmLotes() throws Exception {
+		File pasta = criarPasta("gravandoResultadosEmLotes");
+		for (int i = 1; i <= 4; i++) {
+			criarVideo(pasta, "video" + i + ".avi", "abc");
+		}
+		criarVideo(pasta, "lento.avi", "abc");
+
+		// Um dos vídeos demora para ser analisado, mas os outros devem ser gravados antes do fim
+		CountDownLatch liberarLento = new CountDownLatch(1);
+		FGIndexadorVideos indexador = new IndexadorComCache("indexados_lotes") {
+			@Override
+			FFmpegFileInfo criarFileInfo(Path arquivo) {
+				if (arquivo.getFileName().toString().equals("lento.avi")) {
+					try {
+						liberarLento.await();
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				return super.criarFileInfo(arquivo);
+			}
+		};
+		indexador.setTamanhoLoteGravacao(2);
+		indexador.setQuantidadeProcessosFFmpeg(2);
+
+		// Cria a tabela, indexando uma pasta sem vídeos
+		File vazia = criarPasta("gravandoResultadosEmLotesVazia");
+		indexador.indexar(vazia.toPath());
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<FGIndexadorVideos.Resultado> futuro = executor.submit(() -> indexador.indexar(pasta.toPath()));
+			long limite = System.currentTimeMillis() + 10_000;
+			while (consultarInt("SELECT COUNT(*) FROM indexados_lotes") < 4) {
+				assertTrue("Vídeos já analisados não foram gravados", System.currentTimeMillis() < limite);
+				Thread.sleep(50);
+			}
+			assertEquals(4, consultarInt("SELECT COUNT(*) FROM indexados_lotes"));
+
+			liberarLento.countDown();
+			assertEquals(5, futuro.get(10, TimeUnit.SECONDS).getQtdArquivosIndexados());
+			assertEquals(5, consultarInt("SELECT COUNT(*) FROM indexados_lotes"));
+		} finally {
+			liberarLento.countDown();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void ignorandoLinksSimbolicosCirculares() throws Exception {
+		Assume.assumeTrue(SystemUtils.IS_OS_UNIX);
+		File pasta = criarPasta("ignorandoLinksSimbolicosCirculares");
+		criarVideo(pasta, "video1.mov", "abc");
+		File subpasta = new File(pasta, "subpasta");
+		criarVideo(subpasta, "video2.mov", "abc");
+		Files.createSymbolicLink(new File(subpasta, "link_raiz").toPath(), pasta.getAbsoluteFile().toPath());
+
+		FGIndexadorVideos.Resultado resultado = new IndexadorComCache("indexados_links").indexar(pasta.toPath());
+		assertEquals(2, resultado.getQtdArquivosEncontrados());
+		assertEquals(2, resultado.getQtdArquivosIndexados());
+	}
+
+	@Test
+	public void ignorandoLinksSimbolicosQuebrados() throws Exception {
+		Assume.assumeTrue(SystemUtils.IS_OS_UNIX);
+		File pasta = criarPasta("ignorandoLinksSimbolicosQuebrados");
+		File video1 = criarVideo(pasta, "video1.mov", "abc");
+		criarVideo(pasta, "video2.mov", "abc");
+		IndexadorComCache indexador = new IndexadorComCache("indexados_links_quebrados");
+		assertEquals(2, indexador.indexar(pasta.toPath()).getQtdArquivosIndexados());
+
+		// Link quebrado na mesma pasta: os outros arquivos continuam sendo listados e
+		// os registros de arquivos excluídos continuam sendo removidos
+		Files.createSymbolicLink(new File(pasta, "a_link_quebrado.mov").toPath(), new File(pasta, "inexistente.mov").getAbsoluteFile().toPath());
+		video1.delete();
+		FGIndexadorVideos.Resultado resultado = indexador.indexar(pasta.toPath());
+		assertEquals(1, resultado.getQtdArquivosEncontrados());
+		assertEquals(1, resultado.getQtdRegistrosExcluidos());
+		assertEquals(1, consultarInt("SELECT COUNT(*) FROM indexados_links_quebrados"));
+	}
+
+	private static File criarPasta(String nome) throws Exception {
+		File pasta = new File("tmp/FGIndexadorVideosTest/" + nome);
+		FileUtils.deleteDirectory(pasta);
+		pasta.mkdirs();
+		return pasta;
+	}
+
+	private static File criarVideo(File pasta, String nome, String conteudo) throws Exception {
+		File arquivo = new File(pasta, nome);
+		FileUtils.writeStringToFile(arquivo, conteudo, StandardCharsets.UTF_8);
+		return arquivo;
+	}
+
+	private static int consultarInt(String sql) throws Exception {
+		try (Connection conn = FGConnectionFactory.getDataSourceByJndiName(JDBC_NAME).getConnection()) {
+			return FGDatabaseUtils.executeQueryInt(conn, sql);
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package com.felipegiotto.misc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.felipegiotto.utils.FGDatabaseUtils;
+
+public class FGPreparedStatementBatchTest {
+
+	private Connection conn;
+	
+	@Before
+	public void criarTabela() throws SQLException {
+		conn = DriverManager.getConnection("jdbc:h2:mem:batch");
+		try (Statement st = conn.createStatement()) {
+			st.execute("CREATE TABLE pessoas (id INT, nome VARCHAR(50), nascimento DATE)");
+		}
+	}
+	
+	@After
+	public void fecharConexao() {
+		FGDatabaseUtils.closeSilently(conn);
+	}
+	
+	@Test
+	public void executandoEmLotes() throws SQLException {
+		FGPreparedStatementBatch batch = criarBatch(25);
+		batch.setTamanhoLote(10);
+		FGPreparedStatementBatch.Resultado resultado = batch.executar(conn);
+		
+		assertEquals(3, resultado.getLotes().size());
+		assertEquals(10, resultado.getLotes().get(0).getLinhas());
+		assertEquals(5, resultado.getLotes().get(2).getLinhas());
+		assertEquals(25, resultado.getLinhas());
+		assertEquals(25, resultado.getLinhasAfetadas());
+		conferirTabela(25);
+	}
+	
+	@Test
+	public void reescrevendoValues() throws SQLException {
+		FGPreparedStatementBatch batch = criarBatch(25);
+		batch.setTamanhoLote(10);
+		batch.setReescreverValues(true);
+		FGPreparedStatementBatch.Resultado resultado = batch.executar(conn);
+		
+		assertEquals(3, resultado.getLotes().size());
+		assertEquals(5, resultado.getLotes().get(2).getLinhasAfetadas());
+		assertEquals(25, resultado.getLinhasAfetadas());
+		conferirTabela(25);
+	}
+	
+	@Test(expected = SQLException.class)
+	public void reescrevendoSQLSemValues() throws SQLException {
+		FGPreparedStatementBatch batch = new FGPreparedStatementBatch("UPDATE pessoas SET nome = ? WHERE id = ?");
+		batch.addLinha("Fulano", 1);
+		batch.setReescreverValues(true);
+		batch.executar(conn);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void linhasComQuantidadesDiferentesDeParametros() {
+		FGPreparedStatementBatch batch = new FGPreparedStatementBatch("INSERT INTO pessoas (id, nome) VALUES (?, ?)");
+		batch.addLinha(1, "Fulano");
+		batch.addLinha(2);
+	}
+	
+	private FGPreparedStatementBatch criarBatch(int quantidade) {
+		FGPreparedStatementBatch batch = new FGPreparedStatementBatch("INSERT INTO pessoas (id, nome, nascimento) VALUES (?, ?, ?)");
+		for (int i = 0; i < quantidade; i++) {
+			batch.addLinha(i, "Pessoa " + i, LocalDate.of(2000, 1, 1).plusDays(i));
+		}
+		return batch;
+	}
+	
+	private void conferirTabela(int quantidade) throws SQLException {
+		assertEquals(Integer.valueOf(quantidade), FGDatabaseUtils.executeQueryInt(conn, "SELECT COUNT(*) FROM pessoas"));
+		assertEquals(Integer.valueOf(quantidade - 1), FGDatabaseUtils.executeQueryInt(conn, "SELECT MAX(id) FROM pessoas"));
+	}
+}
@@ -0,0 +1,151 @@
+package com.felipegiotto.misc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.felipegiotto.utils.FGDatabaseUtils;
+
+public class FGPreparedStatementBuilderTest {
+
+	private Connection conn;
+	
+	@Before
+	public void criarTabela() throws SQLException {
+		conn = DriverManager.getConnection("jdbc:h2:mem:builder");
+		try (Statement st = conn.createStatement()) {
+			st.execute("CREATE TABLE pessoas (id INT, nome VARCHAR(50), idade INT)");
+		}
+	}
+	
+	@After
+	public void fecharConexao() {
+		FGDatabaseUtils.closeSilently(conn);
+	}
+	
+	@Test
+	public void gravandoParametrosNulos() throws SQLException {
+		FGPreparedStatementBuilder builder = new FGPreparedStatementBuilder();
+		builder.append("INSERT INTO pessoas (id, nome, idade) VALUES (?, ?, ?)", 1, "Fulano", null);
+		executarUpdate(builder);
+		
+		// O tipo de cada parâmetro nulo é informado pelo driver, independente das execuções anteriores
+		builder.setParams(Arrays.asList(2, null, 30));
+		executarUpdate(builder);
+		builder.setParams(Arrays.asList(3, "Beltrano", FGPreparedStatementBuilder.nulo(Types.INTEGER)));
+		executarUpdate(builder);
+		
+		assertNull(consultarIdade(1));
+		assertEquals(Integer.valueOf(30), consultarIdade(2));
+		assertNull(consultarIdade(3));
+	}
+	
+	@Test
+	public void consultandoTiposDosNulosUmaVezPorSQL() throws SQLException {
+		String sql = "INSERT INTO pessoas (id, nome, idade) VALUES (?, ?, ?) -- tipos em cache";
+		AtomicInteger consultas = new AtomicInteger();
+		for (int id = 6; id <= 8; id++) {
+			try (PreparedStatement ps = contarConsultasMetaData(conn.prepareStatement(sql), consultas)) {
+				FGSQLBinders.bind(ps, sql, 1, id);
+				FGSQLBinders.bind(ps, sql, 2, null);
+				FGSQLBinders.bind(ps, sql, 3, null);
+				ps.executeUpdate();
+			}
+		}
+		assertEquals(1, consultas.get());
+		assertNull(consultarIdade(8));
+	}
+	
+	@Test
+	public void appendComUmParametroNulo() throws SQLException {
+		FGPreparedStatementBuilder builder = new FGPreparedStatementBuilder();
+		builder.append("INSERT INTO pessoas (id, idade) VALUES (4, ?)", (Object[]) null);
+		assertEquals(1, builder.getParams().size());
+		executarUpdate(builder);
+		assertNull(consultarIdade(4));
+	}
+	
+	@Test
+	public void registrandoBinder() throws SQLException {
+		AtomicInteger chamadas = new AtomicInteger();
+		FGPreparedStatementBuilder.registrarBinder(AtomicInteger.class, (ps, index, valor) -> {
+			chamadas.incrementAndGet();
+			ps.setInt(index, ((AtomicInteger) valor).get());
+		});
+		FGPreparedStatementBuilder builder = new FGPreparedStatementBuilder();
+		builder.append("INSERT INTO pessoas (id, idade) VALUES (?, ?)", 5, new AtomicInteger(40));
+		executarUpdate(builder);
+		assertEquals(1, chamadas.get());
+		assertEquals(Integer.valueOf(40), consultarIdade(5));
+	}
+	
+	@Test
+	public void escolhendoBinderDaSuperclasseMaisProxima() throws SQLException {
+		FGPreparedStatementBuilder.registrarBinder(ValorComInterface.class, (ps, index, valor) -> ps.setInt(index, 10));
+		FGPreparedStatementBuilder.registrarBinder(ValorBase.class, (ps, index, valor) -> ps.setInt(index, 20));
+		FGPreparedStatementBuilder.registrarBinder(ValorIntermediario.class, (ps, index, valor) -> ps.setInt(index, 30));
+		FGPreparedStatementBuilder builder = new FGPreparedStatementBuilder();
+		builder.append("INSERT INTO pessoas (id, idade) VALUES (?, ?)", 9, new ValorFinal());
+		executarUpdate(builder);
+		assertEquals(Integer.valueOf(30), consultarIdade(9));
+	}
+	
+	private interface ValorComInterface { }
+	private static class ValorBase { }
+	private static class ValorIntermediario extends ValorBase { }
+	private static class ValorFinal extends ValorIntermediario implements ValorComInterface { }
+	
+	@Test(expected = SQLException.class)
+	public void tipoNaoImplementado() throws SQLException {
+		FGPreparedStatementBuilder builder = new FGPreparedStatementBuilder();
+		builder.append("SELECT * FROM pessoas WHERE nome = ?", new StringBuilder("Fulano"));
+		executarUpdate(builder);
+	}
+	
+	private void executarUpdate(FGPreparedStatementBuilder builder) throws SQLException {
+		try (PreparedStatement ps = builder.build(conn)) {
+			ps.executeUpdate();
+		}
+	}
+	
+	/**
+	 * PreparedStatement que conta as chamadas a "getParameterMetaData"
+	 */
+	private static PreparedStatement contarConsultasMetaData(PreparedStatement ps, AtomicInteger consultas) {
+		return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] { PreparedStatement.class }, (proxy, method, args) -> {
+			if (method.getName().equals("getParameterMetaData")) {
+				consultas.incrementAndGet();
+			}
+			try {
+				return method.invoke(ps, args);
+			} catch (InvocationTargetException ex) {
+				throw ex.getCause();
+			}
+		});
+	}
+	
+	private Integer consultarIdade(int id) throws SQLException {
+		FGPreparedStatementBuilder builder = new FGPreparedStatementBuilder();
+		builder.append("SELECT idade FROM pessoas WHERE id = ?", id);
+		try (PreparedStatement ps = builder.build(conn); ResultSet rs = ps.executeQuery()) {
+			rs.next();
+			int idade = rs.getInt("idade");
+			return rs.wasNull() ? null : idade;
+		}
+	}
+}
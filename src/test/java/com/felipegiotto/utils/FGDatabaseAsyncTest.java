@@ -0,0 +1,152 @@
+package com.felipegiotto.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.felipegiotto.misc.FGPreparedStatementBuilder;
+import com.felipegiotto.utils.datasources.FGConnectionFactory;
+import com.felipegiotto.utils.datasources.FGPoolConfig;
+
+public class FGDatabaseAsyncTest {
+	
+	private static final String JDBC_NAME = "jdbc/async";
+	
+	/**
+	 * Consulta demorada, que só termina se for cancelada
+	 */
+	private static final String SQL_LENTO = "SELECT COUNT(*) FROM SYSTEM_RANGE(1, 1000000) A, SYSTEM_RANGE(1, 1000000) B WHERE A.X + B.X = 0";
+	
+	@BeforeClass
+	public static void criarBanco() throws Exception {
+		FGPoolConfig config = new FGPoolConfig("org.h2.Driver", "jdbc:h2:mem:async;DB_CLOSE_DELAY=-1");
+		config.setTamanhoMinimo(0);
+		config.setTamanhoMaximo(2);
+		FGConnectionFactory.addManualDataSource(JDBC_NAME, config);
+		try (Connection conn = FGConnectionFactory.getDataSourceByJndiName(JDBC_NAME).getConnection()) {
+			FGDatabaseUtils.executeUpdate(conn, "CREATE TABLE numeros AS SELECT X AS numero FROM SYSTEM_RANGE(1, 20)");
+		}
+	}
+	
+	@AfterClass
+	public static void removerBanco() throws Exception {
+		FGConnectionFactory.removerDataSource(JDBC_NAME, 0);
+	}
+	
+	@Test
+	public void executandoConsultas() throws Exception {
+		try (FGDatabaseAsync async = new FGDatabaseAsync(JDBC_NAME, 10)) {
+			assertEquals(2, async.getQuantidadeThreads());
+			assertEquals(Integer.valueOf(20), async.executeQueryInt("SELECT COUNT(*) FROM numeros", 5000).get());
+			
+			FGPreparedStatementBuilder builder = new FGPreparedStatementBuilder();
+			builder.append("SELECT numero FROM numeros WHERE numero <= ? ORDER BY numero", 3);
+			List<Integer> numeros = async.queryList(builder, (rs) -> rs.getInt(1), 5000)
+					.get();
+			assertEquals(Arrays.asList(1, 2, 3), numeros);
+			
+			// Composição com outras operações
+			CompletableFuture<Long> soma = async.executeQueryLong("SELECT SUM(numero) FROM numeros", 5000)
+					.thenCombine(async.executeQueryLong("SELECT MAX(numero) FROM numeros", 5000), (s, m) -> s + m);
+			assertEquals(Long.valueOf(230), soma.get());
+		}
+	}
+	
+	@Test
+	public void cancelandoPorTempoMaximo() throws Exception {
+		try (FGDatabaseAsync async = new FGDatabaseAsync(JDBC_NAME, 10)) {
+			long inicio = System.currentTimeMillis();
+			try {
+				async.executeQueryLong(SQL_LENTO, 200).get();
+				fail("Consulta deveria ter excedido o tempo máximo");
+			} catch (ExecutionException ex) {
+				assertTrue(ex.getCause() instanceof SQLTimeoutException);
+			}
+			assertEquals(1, async.getQuantidadeTimeouts());
+			
+			// O comando deve ser cancelado no banco, liberando a thread e a conexão
+			aguardarOcioso(async);
+			assertTrue(System.currentTimeMillis() - inicio < 10_000);
+			assertEquals(Integer.valueOf(20), async.executeQueryInt("SELECT COUNT(*) FROM numeros", 5000).get());
+		}
+	}
+	
+	@Test
+	public void cancelandoFuture() throws Exception {
+		try (FGDatabaseAsync async = new FGDatabaseAsync(JDBC_NAME, 10)) {
+			CountDownLatch iniciada = new CountDownLatch(1);
+			CompletableFuture<Long> futuro = async.executar((conn) -> {
+				iniciada.countDown();
+				return FGDatabaseUtils.executeQueryLong(conn, SQL_LENTO);
+			});
+			assertTrue(iniciada.await(5, TimeUnit.SECONDS));
+			futuro.cancel(true);
+			aguardarOcioso(async);
+		}
+	}
+	
+	@Test
+	public void rejeitandoComFilaCheia() throws Exception {
+		try (FGDatabaseAsync async = new FGDatabaseAsync(JDBC_NAME, 1)) {
+			
+			// Duas threads ocupadas e uma operação na fila
+			CompletableFuture<?>[] lentas = new CompletableFuture<?>[3];
+			for (int i = 0; i < lentas.length; i++) {
+				lentas[i] = async.executeQueryLong(SQL_LENTO, 0);
+			}
+			
+			CompletableFuture<Integer> rejeitada = async.executeQueryInt("SELECT 1", 0);
+			assertTrue(rejeitada.isCompletedExceptionally());
+			try {
+				rejeitada.get();
+				fail("Operação deveria ter sido rejeitada");
+			} catch (ExecutionException ex) {
+				assertTrue(ex.getCause() instanceof SQLTransientConnectionException);
+			}
+			assertEquals(1, async.getQuantidadeRejeitadas());
+			
+			for (CompletableFuture<?> lenta: lentas) {
+				lenta.cancel(true);
+			}
+			aguardarOcioso(async);
+		}
+	}
+	
+	@Test
+	public void rejeitandoAposFechar() throws Exception {
+		FGDatabaseAsync async = new FGDatabaseAsync(JDBC_NAME, 10);
+		async.close();
+		try {
+			async.executeQueryInt("SELECT 1", 0).get();
+			fail("Operação deveria ter sido rejeitada");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof SQLNonTransientConnectionException);
+		}
+		assertEquals(0, async.getQuantidadeRejeitadas());
+	}
+	
+	private static void aguardarOcioso(FGDatabaseAsync async) throws InterruptedException {
+		long limite = System.currentTimeMillis() + 10_000;
+		while (async.getQuantidadeEmExecucao() > 0 || async.getQuantidadeNaFila() > 0) {
+			if (System.currentTimeMillis() > limite) {
+				fail("Operações não foram canceladas: " + async);
+			}
+			Thread.sleep(20);
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package com.felipegiotto.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.naming.Context;
+
+import org.junit.Test;
+
+import com.felipegiotto.misc.FGPreparedStatementBuilder;
+import com.felipegiotto.utils.exception.UncheckedSQLException;
+
+public class FGDatabaseUtilsTest {
+
+	/**
+	 * Classe não pública, que não implementa AutoCloseable (só pode ser fechada por reflexão)
+	 */
+	private static class RecursoSemInterface {
+		private int fechamentos;
+		
+		@SuppressWarnings("unused")
+		public void close() {
+			fechamentos++;
+		}
+	}
+	
+	/**
+	 * Interface pública com método "close", que não é AutoCloseable (ex: NamingEnumeration)
+	 */
+	public interface Fechavel {
+		public void close();
+	}
+	
+	/**
+	 * Classe não pública que implementa uma interface pública: o método "close" deve ser chamado
+	 * pela interface, sem "setAccessible" (que falha no Java 9+ em classes de módulos fechados)
+	 */
+	private static class RecursoComInterfacePublica implements Fechavel {
+		private int fechamentos;
+		
+		@Override
+		public void close() {
+			fechamentos++;
+		}
+	}
+	
+	@Test
+	public void fechandoAutoCloseable() {
+		AtomicInteger fechamentos = new AtomicInteger();
+		AutoCloseable comErro = () -> {
+			fechamentos.incrementAndGet();
+			throw new Exception("Erro simulado");
+		};
+		AutoCloseable semErro = () -> fechamentos.incrementAndGet();
+		
+		// Exceções são suprimidas e os demais objetos continuam sendo fechados
+		FGDatabaseUtils.closeAllSilently(comErro, null, semErro);
+		assertEquals(2, fechamentos.get());
+	}
+	
+	@Test
+	public void fechandoContexto() {
+		AtomicInteger fechamentos = new AtomicInteger();
+		Context ctx = (Context) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Context.class }, (proxy, metodo, args) -> {
+			if (metodo.getName().equals("close")) {
+				fechamentos.incrementAndGet();
+			}
+			return null;
+		});
+		FGDatabaseUtils.closeAllSilently((Object) ctx);
+		assertEquals(1, fechamentos.get());
+	}
+	
+	@Test
+	public void fechandoPorReflexao() {
+		RecursoSemInterface recurso = new RecursoSemInterface();
+		FGDatabaseUtils.closeAllSilently(recurso, recurso);
+		assertEquals(2, recurso.fechamentos);
+		
+		// Objeto sem método "close" é ignorado, sem lançar exceção
+		FGDatabaseUtils.closeAllSilently(new Object());
+	}
+	
+	@Test
+	public void fechandoPorReflexaoPelaInterfacePublica() {
+		RecursoComInterfacePublica recurso = new RecursoComInterfacePublica();
+		FGDatabaseUtils.closeAllSilently(recurso);
+		assertEquals(1, recurso.fechamentos);
+	}
+	
+	@Test
+	public void percorrendoRegistros() throws SQLException {
+		try (Connection conn = criarTabelaNumeros(50)) {
+			FGPreparedStatementBuilder builder = new FGPreparedStatementBuilder();
+			builder.append("SELECT numero FROM numeros WHERE numero >= ? ORDER BY numero", 10);
+			
+			AtomicLong soma = new AtomicLong();
+			assertEquals(40, FGDatabaseUtils.forEachRow(conn, builder, 7, (rs) -> soma.addAndGet(rs.getInt(1))));
+			assertEquals(1180, soma.get());
+			
+			List<Integer> lista = FGDatabaseUtils.queryList(conn, builder, (rs) -> rs.getInt(1));
+			assertEquals(40, lista.size());
+			assertEquals(Integer.valueOf(10), lista.get(0));
+		}
+	}
+	
+	@Test
+	public void consultandoComStream() throws SQLException {
+		try (Connection conn = criarTabelaNumeros(50)) {
+			FGPreparedStatementBuilder builder = new FGPreparedStatementBuilder();
+			builder.append("SELECT numero FROM numeros ORDER BY numero");
+			
+			List<ResultSet> resultSets = new ArrayList<>();
+			try (Stream<Integer> numeros = FGDatabaseUtils.queryStream(conn, builder, 10, (rs) -> {
+				resultSets.add(rs);
+				return rs.getInt(1);
+			})) {
+				
+				// Stream lido só até o necessário
+				assertEquals(Arrays.asList(0, 2, 4), numeros.filter((n) -> n % 2 == 0).limit(3).collect(Collectors.toList()));
+				assertFalse(resultSets.get(0).isClosed());
+			}
+			assertTrue(resultSets.get(0).isClosed());
+			assertFalse(conn.isClosed());
+		}
+	}
+	
+	@Test(expected = UncheckedSQLException.class)
+	public void erroAoPercorrerStream() throws SQLException {
+		try (Connection conn = criarTabelaNumeros(5)) {
+			FGPreparedStatementBuilder builder = new FGPreparedStatementBuilder();
+			builder.append("SELECT numero FROM numeros");
+			try (Stream<String> numeros = FGDatabaseUtils.queryStream(conn, builder, 10, (rs) -> rs.getString("inexistente"))) {
+				numeros.count();
+			}
+		}
+	}
+	
+	private Connection criarTabelaNumeros(int quantidade) throws SQLException {
+		Connection conn = DriverManager.getConnection("jdbc:h2:mem:numeros");
+		FGDatabaseUtils.executeUpdate(conn, "CREATE TABLE numeros (numero INT)");
+		FGDatabaseUtils.executeUpdate(conn, "INSERT INTO numeros SELECT X FROM SYSTEM_RANGE(0, " + (quantidade - 1) + ")");
+		return conn;
+	}
+}
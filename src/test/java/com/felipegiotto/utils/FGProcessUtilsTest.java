@@ -0,0 +1,68 @@
+package com.felipegiotto.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.lang3.SystemUtils;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.felipegiotto.utils.FGProcessUtils.ResultadoProcesso;
+
+public class FGProcessUtilsTest {
+
+	@Before
+	public void somenteUnix() {
+		Assume.assumeTrue(SystemUtils.IS_OS_UNIX);
+	}
+
+	@Test
+	public void capturandoSaidasERetorno() throws Exception {
+		ResultadoProcesso resultado = FGProcessUtils.executarComandoAsync(Arrays.asList("sh", "-c", "echo ola; echo problema 1>&2; exit 3")).get(10, TimeUnit.SECONDS);
+		assertEquals(3, resultado.getCodigoRetorno());
+		assertEquals("ola\n", resultado.getSaida());
+		assertEquals("problema\n", resultado.getErro());
+		assertFalse(resultado.isSaidaTruncada());
+	}
+
+	@Test
+	public void limitandoTamanhoSaida() throws Exception {
+		ResultadoProcesso resultado = FGProcessUtils.executarComandoAsync(Arrays.asList("sh", "-c", "head -c 200000 /dev/zero"), 0, 1000).get(10, TimeUnit.SECONDS);
+		assertEquals(0, resultado.getCodigoRetorno());
+		assertEquals(1000, resultado.getSaidaBytes().length);
+		assertTrue(resultado.isSaidaTruncada());
+	}
+
+	@Test
+	public void tempoEsgotado() throws Exception {
+		long inicio = System.currentTimeMillis();
+		try {
+			FGProcessUtils.executarComandoAsync(Arrays.asList("sleep", "30"), 200, 1000).get(10, TimeUnit.SECONDS);
+			fail("Deveria ter esgotado o tempo");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof TimeoutException);
+		}
+		assertTrue(System.currentTimeMillis() - inicio < 10_000);
+	}
+
+	@Test
+	public void cancelandoExecucao() throws Exception {
+		CompletableFuture<ResultadoProcesso> resultado = FGProcessUtils.executarComandoAsync(Arrays.asList("sleep", "30"));
+		assertTrue(resultado.cancel(true));
+		try {
+			resultado.get();
+			fail("Deveria ter sido cancelado");
+		} catch (CancellationException ex) {
+		}
+	}
+}
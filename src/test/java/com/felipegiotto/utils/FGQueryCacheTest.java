@@ -0,0 +1,153 @@
+package com.felipegiotto.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class FGQueryCacheTest {
+
+	@Test
+	public void reaproveitandoResultados() throws SQLException {
+		FGQueryCache cache = new FGQueryCache(10, 60_000);
+		AtomicInteger consultas = new AtomicInteger();
+		
+		assertEquals(Integer.valueOf(1), cache.consultar("SELECT ?", Arrays.asList(1), () -> consultas.incrementAndGet(), "pessoas"));
+		assertEquals(Integer.valueOf(1), cache.consultar("SELECT ?", Arrays.asList(1), () -> consultas.incrementAndGet(), "pessoas"));
+		
+		// Parâmetros diferentes
+		assertEquals(Integer.valueOf(2), cache.consultar("SELECT ?", Arrays.asList(2), () -> consultas.incrementAndGet(), "pessoas"));
+		assertEquals(1, cache.getQuantidadeAcertos());
+		assertEquals(2, cache.getQuantidadeConsultasBanco());
+	}
+	
+	@Test
+	public void invalidandoPorTabela() throws SQLException {
+		FGQueryCache cache = new FGQueryCache(10, 60_000);
+		AtomicInteger consultas = new AtomicInteger();
+		cache.consultar("SELECT COUNT(*) FROM pessoas", Collections.emptyList(), () -> consultas.incrementAndGet(), "pessoas");
+		cache.consultar("SELECT COUNT(*) FROM cidades", Collections.emptyList(), () -> consultas.incrementAndGet(), "cidades");
+		
+		cache.invalidarTabelas("PESSOAS");
+		assertEquals(1, cache.getQuantidadeResultados());
+		assertEquals(Integer.valueOf(3), cache.consultar("SELECT COUNT(*) FROM pessoas", Collections.emptyList(), () -> consultas.incrementAndGet(), "pessoas"));
+		assertEquals(Integer.valueOf(2), cache.consultar("SELECT COUNT(*) FROM cidades", Collections.emptyList(), () -> consultas.incrementAndGet(), "cidades"));
+	}
+	
+	@Test
+	public void expirandoEDescartandoResultados() throws Exception {
+		FGQueryCache cache = new FGQueryCache(2, 100);
+		AtomicInteger consultas = new AtomicInteger();
+		for (int i = 0; i < 3; i++) {
+			cache.consultar("SELECT " + i, Collections.emptyList(), () -> consultas.incrementAndGet());
+		}
+		assertEquals(2, cache.getQuantidadeResultados());
+		
+		Thread.sleep(150);
+		cache.consultar("SELECT 2", Collections.emptyList(), () -> consultas.incrementAndGet());
+		assertEquals(4, consultas.get());
+	}
+	
+	@Test
+	public void agrupandoConsultasSimultaneas() throws Exception {
+		FGQueryCache cache = new FGQueryCache(10, 60_000);
+		AtomicInteger consultas = new AtomicInteger();
+		CountDownLatch liberar = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(5);
+		try {
+			List<Future<Integer>> resultados = new ArrayList<>();
+			for (int i = 0; i < 5; i++) {
+				resultados.add(executor.submit(() -> cache.consultar("SELECT lento", Collections.emptyList(), () -> {
+					consultas.incrementAndGet();
+					try {
+						liberar.await();
+					} catch (InterruptedException ex) {
+						throw new SQLException(ex);
+					}
+					return 42;
+				})));
+			}
+			
+			// Aguarda até que as outras threads estejam esperando a primeira consulta
+			long limite = System.currentTimeMillis() + 5000;
+			while (cache.getQuantidadeConsultasAgrupadas() < 4 && System.currentTimeMillis() < limite) {
+				Thread.sleep(10);
+			}
+			liberar.countDown();
+			for (Future<Integer> resultado: resultados) {
+				assertEquals(Integer.valueOf(42), resultado.get(5, TimeUnit.SECONDS));
+			}
+			assertEquals(1, consultas.get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void invalidandoTabelasDuranteConsultas() throws Exception {
+		FGQueryCache cache = new FGQueryCache(10, 60_000);
+		AtomicInteger consultas = new AtomicInteger();
+		CountDownLatch liberar = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			Future<Integer> pessoas = executor.submit(() -> cache.consultar("SELECT COUNT(*) FROM pessoas", Collections.emptyList(), () -> aguardar(liberar, consultas), "pessoas"));
+			Future<Integer> cidades = executor.submit(() -> cache.consultar("SELECT COUNT(*) FROM cidades", Collections.emptyList(), () -> aguardar(liberar, consultas), "cidades"));
+			long limite = System.currentTimeMillis() + 5000;
+			while (cache.getQuantidadeConsultasBanco() < 2 && System.currentTimeMillis() < limite) {
+				Thread.sleep(10);
+			}
+			
+			// A consulta de "cidades", iniciada antes da invalidação de "pessoas", continua sendo compartilhada
+			cache.invalidarTabelas("pessoas");
+			Future<Integer> cidadesAgrupada = executor.submit(() -> cache.consultar("SELECT COUNT(*) FROM cidades", Collections.emptyList(), () -> aguardar(liberar, consultas), "cidades"));
+			while (cache.getQuantidadeConsultasAgrupadas() < 1 && System.currentTimeMillis() < limite) {
+				Thread.sleep(10);
+			}
+			assertEquals(1, cache.getQuantidadeConsultasAgrupadas());
+			liberar.countDown();
+			pessoas.get(5, TimeUnit.SECONDS);
+			assertEquals(cidades.get(5, TimeUnit.SECONDS), cidadesAgrupada.get(5, TimeUnit.SECONDS));
+			
+			// Somente o resultado de "pessoas", que pode estar desatualizado, não é gravado
+			assertEquals(1, cache.getQuantidadeResultados());
+			cache.consultar("SELECT COUNT(*) FROM cidades", Collections.emptyList(), () -> consultas.incrementAndGet(), "cidades");
+			assertEquals(1, cache.getQuantidadeAcertos());
+			assertEquals(2, consultas.get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	private static Integer aguardar(CountDownLatch liberar, AtomicInteger consultas) throws SQLException {
+		try {
+			liberar.await();
+		} catch (InterruptedException ex) {
+			throw new SQLException(ex);
+		}
+		return consultas.incrementAndGet();
+	}
+	
+	@Test(expected = SQLException.class)
+	public void errosNaoSaoGravados() throws SQLException {
+		FGQueryCache cache = new FGQueryCache(10, 60_000);
+		try {
+			cache.consultar("SELECT erro", Collections.emptyList(), () -> {
+				throw new SQLException("Erro simulado");
+			});
+		} catch (SQLException ex) {
+			assertEquals(0, cache.getQuantidadeResultados());
+			throw ex;
+		}
+	}
+}
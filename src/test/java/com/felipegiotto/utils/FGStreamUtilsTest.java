@@ -0,0 +1,58 @@
+package com.felipegiotto.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class FGStreamUtilsTest {
+
+	@Test
+	public void consumindoLinhas() throws Exception {
+		List<String> linhas = new ArrayList<>();
+		List<Thread> threads = new ArrayList<>();
+		long linhasLidas = FGStreamUtils.consomeStream(new ByteArrayInputStream("a\nb\nc".getBytes(StandardCharsets.UTF_8)), (linha) -> {
+			linhas.add(linha);
+			threads.add(Thread.currentThread());
+		}).get(10, TimeUnit.SECONDS);
+		assertEquals(3, linhasLidas);
+		assertEquals("[a, b, c]", linhas.toString());
+		
+		// Bombas não podem impedir o término da aplicação
+		assertTrue(threads.get(0).isDaemon());
+	}
+
+	@Test
+	public void consumindoBytes() throws Exception {
+		byte[] dados = new byte[FGStreamUtils.TAMANHO_BUFFER_COPIA * 3 + 10];
+		for (int i = 0; i < dados.length; i++) {
+			dados[i] = (byte) i;
+		}
+		long iniciadas = FGStreamUtils.getQuantidadeBombasIniciadas();
+		long bytesLidos = FGStreamUtils.getQuantidadeBytesLidos();
+		
+		ByteArrayOutputStream recebidos = new ByteArrayOutputStream();
+		long total = FGStreamUtils.consomeStreamBytes(new ByteArrayInputStream(dados), (buffer, tamanho) -> recebidos.write(buffer, 0, tamanho)).get(10, TimeUnit.SECONDS);
+		assertEquals(dados.length, total);
+		assertArrayEquals(dados, recebidos.toByteArray());
+		
+		assertTrue(FGStreamUtils.getQuantidadeBombasIniciadas() > iniciadas);
+		assertTrue(FGStreamUtils.getQuantidadeBytesLidos() >= bytesLidos + dados.length);
+	}
+
+	@Test
+	public void copiandoStreamAssincrono() throws Exception {
+		ByteArrayOutputStream saida = new ByteArrayOutputStream();
+		long copiados = FGStreamUtils.copiaStreamAssincrono(new ByteArrayInputStream("conteudo".getBytes(StandardCharsets.UTF_8)), saida, true).get(10, TimeUnit.SECONDS);
+		assertEquals(8, copiados);
+		assertEquals("conteudo", new String(saida.toByteArray(), StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,145 @@
+package com.felipegiotto.utils.datasources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.apache.logging.slf4j.Log4jLoggerFactory;
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import com.felipegiotto.utils.FGDatabaseUtils;
+import com.felipegiotto.utils.datasources.FGPoolConfig.Implementacao;
+import com.zaxxer.hikari.HikariDataSource;
+
+public class FGConnectionFactoryTest {
+
+	@AfterClass
+	public static void fecharDataSources() {
+		FGConnectionFactory.close();
+	}
+	
+	@Test
+	public void poolHikari() throws Exception {
+		FGPoolConfig config = new FGPoolConfig("org.h2.Driver", "jdbc:h2:mem:hikari;DB_CLOSE_DELAY=-1");
+		config.setTamanhoMinimo(1);
+		config.setTamanhoMaximo(3);
+		config.setTempoDeteccaoVazamentoMillis(60_000L);
+		FGConnectionFactory.addManualDataSource("jdbc/hikari", config);
+		conferirMetricas("jdbc/hikari", 3);
+		FGPoolMetricas metricas = FGConnectionFactory.getMetricasPool("jdbc/hikari");
+		assertEquals(Integer.valueOf(0), metricas.getThreadsAguardando());
+	}
+	
+	@Test
+	public void alertasHikariEnviadosAoLog4j() {
+		
+		// Sem uma implementação do SLF4J, os alertas de vazamento do HikariCP seriam descartados
+		assertTrue(LoggerFactory.getILoggerFactory() instanceof Log4jLoggerFactory);
+	}
+	
+	@Test
+	public void poolDbcp() throws Exception {
+		FGPoolConfig config = new FGPoolConfig("org.h2.Driver", "jdbc:h2:mem:dbcp;DB_CLOSE_DELAY=-1");
+		config.setImplementacao(Implementacao.DBCP);
+		config.setTamanhoMaximo(4);
+		config.setTamanhoCacheStatements(50);
+		FGConnectionFactory.addManualDataSource("jdbc/dbcp", config);
+		conferirMetricas("jdbc/dbcp", 4);
+		
+		// DBCP não informa threads aguardando
+		assertNull(FGConnectionFactory.getMetricasPool("jdbc/dbcp").getThreadsAguardando());
+	}
+	
+	private void conferirMetricas(String jdbcName, int tamanhoMaximo) throws Exception {
+		try (Connection conn = FGConnectionFactory.getDataSourceByJndiName(jdbcName).getConnection()) {
+			assertEquals(Integer.valueOf(1), FGDatabaseUtils.executeQueryInt(conn, "SELECT 1"));
+			FGPoolMetricas metricas = FGConnectionFactory.getMetricasPool(jdbcName);
+			assertEquals(1, metricas.getConexoesAtivas());
+			assertEquals(tamanhoMaximo, metricas.getTamanhoMaximo());
+		}
+		FGPoolMetricas metricas = FGConnectionFactory.getMetricasPool(jdbcName);
+		assertEquals(0, metricas.getConexoesAtivas());
+		assertTrue(metricas.getConexoesOciosas() >= 1);
+	}
+	
+	@Test(expected = SQLException.class)
+	public void dataSourceInexistente() throws Exception {
+		FGConnectionFactory.getMetricasPool("jdbc/inexistente");
+	}
+	
+	@Test
+	public void substituindoDataSourceAguardaConexoesEmUso() throws Exception {
+		FGPoolConfig config = new FGPoolConfig("org.h2.Driver", "jdbc:h2:mem:troca;DB_CLOSE_DELAY=-1");
+		config.setTamanhoMinimo(1);
+		FGConnectionFactory.addManualDataSource("jdbc/troca", config);
+		HikariDataSource antigo = (HikariDataSource) FGConnectionFactory.getDataSourceByJndiName("jdbc/troca");
+		
+		CompletableFuture<Void> fechamento;
+		try (Connection conn = antigo.getConnection()) {
+			fechamento = FGConnectionFactory.substituirDataSource("jdbc/troca", config, 10_000);
+			
+			// Novas conexões já utilizam o novo pool, mas o antigo continua atendendo a conexão em uso
+			DataSource novo = FGConnectionFactory.getDataSourceByJndiName("jdbc/troca");
+			assertNotSame(antigo, novo);
+			assertEquals(Integer.valueOf(1), FGDatabaseUtils.executeQueryInt(conn, "SELECT 1"));
+			Thread.sleep(300);
+			assertFalse(fechamento.isDone());
+			assertFalse(antigo.isClosed());
+		}
+		fechamento.get(5, TimeUnit.SECONDS);
+		assertTrue(antigo.isClosed());
+	}
+	
+	@Test
+	public void registrandoNovamenteAguardaConexoesEmUso() throws Exception {
+		FGPoolConfig config = new FGPoolConfig("org.h2.Driver", "jdbc:h2:mem:registro;DB_CLOSE_DELAY=-1");
+		FGConnectionFactory.addManualDataSource("jdbc/registro", config);
+		HikariDataSource antigo = (HikariDataSource) FGConnectionFactory.getDataSourceByJndiName("jdbc/registro");
+		
+		try (Connection conn = antigo.getConnection()) {
+			FGConnectionFactory.addManualDataSource("jdbc/registro", config);
+			Thread.sleep(300);
+			
+			// O pool antigo só é fechado depois que a conexão for devolvida
+			assertFalse(antigo.isClosed());
+			assertEquals(Integer.valueOf(1), FGDatabaseUtils.executeQueryInt(conn, "SELECT 1"));
+		}
+		long limite = System.currentTimeMillis() + 5000;
+		while (!antigo.isClosed() && System.currentTimeMillis() < limite) {
+			Thread.sleep(50);
+		}
+		assertTrue(antigo.isClosed());
+	}
+	
+	@Test
+	public void removendoDataSource() throws Exception {
+		FGConnectionFactory.addManualDataSource("jdbc/remocao", new FGPoolConfig("org.h2.Driver", "jdbc:h2:mem:remocao;DB_CLOSE_DELAY=-1"));
+		HikariDataSource ds = (HikariDataSource) FGConnectionFactory.getDataSourceByJndiName("jdbc/remocao");
+		FGConnectionFactory.removerDataSource("jdbc/remocao", 1000).get(5, TimeUnit.SECONDS);
+		assertTrue(ds.isClosed());
+		try {
+			FGConnectionFactory.getDataSourceByJndiName("jdbc/remocao");
+			throw new AssertionError("DataSource deveria ter sido removido");
+		} catch (SQLException ex) {
+			// Esperado
+		}
+	}
+	
+	@Test
+	public void definindoDataSourcePadrao() throws Exception {
+		FGConnectionFactory.addManualDataSource("jdbc/padrao", new FGPoolConfig("org.h2.Driver", "jdbc:h2:mem:padrao;DB_CLOSE_DELAY=-1"));
+		FGConnectionFactory.setDefaultDataSource("jdbc/padrao");
+		assertEquals(FGConnectionFactory.getDataSourceByJndiName("jdbc/padrao"), FGConnectionFactory.getDefaultDataSource());
+	}
+}
@@ -0,0 +1,118 @@
+package com.felipegiotto.utils.datasources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.felipegiotto.utils.FGDatabaseUtils;
+import com.felipegiotto.utils.FGQueryCache;
+
+public class FGDataSourceRouterTest {
+
+	@BeforeClass
+	public static void criarBancos() throws Exception {
+		for (String nome: Arrays.asList("primario", "replica1", "replica2")) {
+			FGPoolConfig config = new FGPoolConfig("org.h2.Driver", "jdbc:h2:mem:router_" + nome + ";DB_CLOSE_DELAY=-1");
+			config.setTamanhoMinimo(0);
+			FGConnectionFactory.addManualDataSource("jdbc/router_" + nome, config);
+			try (Connection conn = FGConnectionFactory.getDataSourceByJndiName("jdbc/router_" + nome).getConnection(); Statement st = conn.createStatement()) {
+				st.execute("CREATE TABLE origem AS SELECT '" + nome + "' AS nome");
+			}
+		}
+		
+		// Réplica que sempre falha ao conectar
+		FGConnectionFactory.addManualDataSource("jdbc/router_falha", "org.h2.Driver", "jdbc:invalido:banco");
+	}
+	
+	@AfterClass
+	public static void removerBancos() throws Exception {
+		FGConnectionFactory.setDefaultRouter(null);
+		for (String nome: Arrays.asList("primario", "replica1", "replica2", "falha")) {
+			FGConnectionFactory.removerDataSource("jdbc/router_" + nome, 0);
+		}
+	}
+	
+	@Test
+	public void distribuindoLeiturasEntreReplicas() throws Exception {
+		try (FGDataSourceRouter router = new FGDataSourceRouter("jdbc/router_primario", "jdbc/router_replica1", "jdbc/router_replica2")) {
+			Set<String> origens = new HashSet<>();
+			for (int i = 0; i < 4; i++) {
+				origens.add(consultarOrigem(router.getDataSourceLeitura()));
+			}
+			assertEquals(new HashSet<>(Arrays.asList("replica1", "replica2")), origens);
+			assertEquals("primario", consultarOrigem(router.getDataSourceEscrita()));
+		}
+	}
+	
+	@Test
+	public void menorCarga() throws Exception {
+		try (FGDataSourceRouter router = new FGDataSourceRouter("jdbc/router_primario", "jdbc/router_replica1", "jdbc/router_replica2")) {
+			router.setPolitica(FGDataSourceRouter.Politica.MENOR_CARGA);
+			
+			// Com uma conexão ocupada na réplica 1, as leituras vão para a réplica 2
+			try (Connection ocupada = FGConnectionFactory.getDataSourceByJndiName("jdbc/router_replica1").getConnection()) {
+				assertTrue(ocupada.isValid(1));
+				for (int i = 0; i < 3; i++) {
+					assertEquals("replica2", consultarOrigem(router.getDataSourceLeitura()));
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void ignorandoReplicaComFalha() throws Exception {
+		try (FGDataSourceRouter router = new FGDataSourceRouter("jdbc/router_primario", "jdbc/router_falha", "jdbc/router_replica2")) {
+			for (int i = 0; i < 3; i++) {
+				assertEquals("replica2", consultarOrigem(router.getDataSourceLeitura()));
+			}
+			assertEquals(Arrays.asList("jdbc/router_replica2"), router.getReplicasDisponiveis());
+		}
+	}
+	
+	@Test
+	public void utilizandoPrimarioSemReplicasDisponiveis() throws Exception {
+		try (FGDataSourceRouter router = new FGDataSourceRouter("jdbc/router_primario", "jdbc/router_falha")) {
+			router.verificarSaude();
+			assertTrue(router.getReplicasDisponiveis().isEmpty());
+			assertEquals("primario", consultarOrigem(router.getDataSourceLeitura()));
+		}
+	}
+	
+	@Test
+	public void roteadorPadrao() throws Exception {
+		FGDataSourceRouter router = new FGDataSourceRouter("jdbc/router_primario", "jdbc/router_replica1");
+		FGConnectionFactory.addRouter("router", router);
+		FGConnectionFactory.setDefaultRouter(FGConnectionFactory.getRouter("router"));
+		try {
+			assertEquals("primario", consultarOrigem(FGConnectionFactory.getDefaultDataSource()));
+			assertEquals("replica1", consultarOrigem(FGConnectionFactory.getDefaultDataSourceLeitura()));
+			assertEquals(Long.valueOf(1), FGDatabaseUtils.executeQueryLong("SELECT COUNT(*) FROM origem WHERE nome = 'replica1'"));
+			
+			// Resultados em cache sempre vêm do primário
+			FGQueryCache cache = new FGQueryCache(10, 60_000);
+			assertEquals(Long.valueOf(1), cache.executeQueryLong("SELECT COUNT(*) FROM origem WHERE nome = 'primario'", "origem"));
+		} finally {
+			FGConnectionFactory.setDefaultRouter(null);
+		}
+	}
+	
+	private static String consultarOrigem(DataSource ds) throws SQLException {
+		try (Connection conn = ds.getConnection(); Statement st = conn.createStatement(); ResultSet rs = st.executeQuery("SELECT nome FROM origem")) {
+			rs.next();
+			return rs.getString(1);
+		}
+	}
+}
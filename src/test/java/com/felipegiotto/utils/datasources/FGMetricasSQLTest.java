@@ -0,0 +1,122 @@
+package com.felipegiotto.utils.datasources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.felipegiotto.misc.FGPreparedStatementBuilder;
+import com.felipegiotto.utils.FGDatabaseUtils;
+
+public class FGMetricasSQLTest {
+
+	private static final String JDBC_NAME = "jdbc/metricas";
+	
+	@BeforeClass
+	public static void criarBanco() throws Exception {
+		FGPoolConfig config = new FGPoolConfig("org.h2.Driver", "jdbc:h2:mem:metricas;DB_CLOSE_DELAY=-1");
+		config.setTamanhoMinimo(0);
+		config.setLimiteConsultaLentaMillis(0L);
+		FGConnectionFactory.addManualDataSource(JDBC_NAME, config);
+		try (Connection conn = FGConnectionFactory.getDataSourceByJndiName(JDBC_NAME).getConnection()) {
+			FGDatabaseUtils.executeUpdate(conn, "CREATE TABLE numeros AS SELECT X AS numero FROM SYSTEM_RANGE(1, 20)");
+		}
+	}
+	
+	@AfterClass
+	public static void removerBanco() throws Exception {
+		FGConnectionFactory.removerDataSource(JDBC_NAME, 0);
+	}
+	
+	@Test
+	public void formatoSQL() {
+		assertEquals("SELECT * FROM t1 WHERE a = ? AND b = ?", FGMetricasSQL.getFormato("SELECT *\n  FROM t1 WHERE a = 'x''y' AND b = 10.5"));
+	}
+	
+	@Test
+	public void registrandoComandos() throws Exception {
+		FGMetricasSQL metricas = FGConnectionFactory.getMetricasSQL(JDBC_NAME);
+		metricas.zerar();
+		
+		try (Connection conn = FGConnectionFactory.getDataSourceByJndiName(JDBC_NAME).getConnection()) {
+			for (int limite: new int[] { 5, 10 }) {
+				FGPreparedStatementBuilder builder = new FGPreparedStatementBuilder();
+				builder.append("SELECT numero FROM numeros WHERE numero <= ?", limite);
+				try (PreparedStatement ps = builder.build(conn); ResultSet rs = ps.executeQuery()) {
+					while (rs.next()) {
+						// Somente percorre
+					}
+				}
+			}
+			
+			// Literais diferentes, mesmo formato
+			try (Statement st = conn.createStatement()) {
+				st.executeUpdate("UPDATE numeros SET numero = numero WHERE numero <= 3");
+				st.executeUpdate("UPDATE numeros SET numero = numero WHERE numero <= 4");
+			}
+		}
+		
+		List<FGMetricasSQL.Estatistica> estatisticas = metricas.getEstatisticas();
+		assertEquals(2, estatisticas.size());
+		FGMetricasSQL.Estatistica consulta = buscar(estatisticas, "SELECT numero FROM numeros WHERE numero <= ?");
+		assertEquals(2, consulta.getExecucoes());
+		assertEquals(15, consulta.getLinhas());
+		FGMetricasSQL.Estatistica update = buscar(estatisticas, "UPDATE numeros SET numero = numero WHERE numero <= ?");
+		assertEquals(2, update.getExecucoes());
+		assertEquals(7, update.getLinhas());
+		assertEquals(1, metricas.getQuantidadeConexoesObtidas());
+		
+		// Pool continua sendo identificado
+		assertNotNull(FGConnectionFactory.getMetricasPool(JDBC_NAME));
+		assertEquals(0, metricas.getConexoesAtivas());
+	}
+	
+	@Test
+	public void registrandoComandosLentos() {
+		FGMetricasSQL metricas = new FGMetricasSQL("jdbc/teste", 100);
+		FGMetricasSQL.Acumulador acumulador = metricas.getAcumulador("SELECT 1");
+		metricas.registrarExecucao(acumulador, 50_000_000L, false, "rápido");
+		metricas.registrarExecucao(acumulador, 300_000_000L, false, "lento");
+		assertEquals(1, metricas.getQuantidadeConsultasLentas());
+		
+		FGMetricasSQL.Estatistica estatistica = metricas.getEstatisticas().get(0);
+		assertEquals(100, estatistica.getPercentil50Millis(), 0.001);
+		assertEquals(300, estatistica.getPercentil99Millis(), 0.001);
+	}
+	
+	@Test
+	public void consultandoPorJMX() throws Exception {
+		MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+		ObjectName nome = new ObjectName("com.felipegiotto.utils:type=FGMetricasSQL,name=" + ObjectName.quote(JDBC_NAME));
+		try (Connection conn = FGConnectionFactory.getDataSourceByJndiName(JDBC_NAME).getConnection()) {
+			FGDatabaseUtils.executeQueryInt(conn, "SELECT COUNT(*) FROM numeros");
+		}
+		assertTrue((Long) servidor.getAttribute(nome, "QuantidadeConexoesObtidas") > 0);
+		CompositeData[] estatisticas = (CompositeData[]) servidor.getAttribute(nome, "Estatisticas");
+		assertTrue(estatisticas.length > 0);
+		assertNotNull(estatisticas[0].get("sql"));
+	}
+	
+	private static FGMetricasSQL.Estatistica buscar(List<FGMetricasSQL.Estatistica> estatisticas, String sql) {
+		for (FGMetricasSQL.Estatistica estatistica: estatisticas) {
+			if (estatistica.getSql().equals(sql)) {
+				return estatistica;
+			}
+		}
+		throw new AssertionError("SQL não encontrado: " + sql + " em " + estatisticas);
+	}
+}
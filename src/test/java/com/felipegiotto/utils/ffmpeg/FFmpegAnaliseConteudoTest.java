@@ -0,0 +1,60 @@
+package com.felipegiotto.utils.ffmpeg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FFmpegAnaliseConteudoTest {
+
+	private static final List<String> SAIDA_FFMPEG = Arrays.asList(
+			"Input #0, mov,mp4,m4a,3gp,3g2,mj2, from 'video.mp4':",
+			"  Duration: 00:01:00.00, start: 0.000000, bitrate: 4144 kb/s",
+			"[blackdetect @ 0x55d0c4c0f2c0] black_start:0 black_end:2.4 black_duration:2.4",
+			"[scdet @ 0x55d0c4c0e8c0] lavfi.scd.score: 23.187, lavfi.scd.time: 2.4",
+			"[silencedetect @ 0x55d0c4c10a00] silence_start: -0.01",
+			"[silencedetect @ 0x55d0c4c10a00] silence_end: 3.1 | silence_duration: 3.11",
+			"[scdet @ 0x55d0c4c0e8c0] lavfi.scd.score: 15.010, lavfi.scd.time: 20.2",
+			"[scdet @ 0x55d0c4c0e8c0] lavfi.scd.score: 11.500, lavfi.scd.time: 22",
+			"[scdet @ 0x55d0c4c0e8c0] lavfi.scd.score: 30.900, lavfi.scd.time: 41.6",
+			"[blackdetect @ 0x55d0c4c0f2c0] black_start:57.2 black_end:60 black_duration:2.8",
+			"[silencedetect @ 0x55d0c4c10a00] silence_start: 56.8");
+
+	@Test
+	public void interpretandoSaidaDosFiltros() {
+		FFmpegAnaliseConteudo analise = FFmpegAnaliseConteudo.interpretar(SAIDA_FFMPEG, 60);
+		assertEquals(Arrays.asList(2.4, 20.2, 22.0, 41.6), analise.getMudancasCena());
+		assertEquals(2, analise.getTrechosPretos().size());
+		assertEquals(57.2, analise.getTrechosPretos().get(1).getInicio(), 0.001);
+		
+		// Silêncio que começa antes do zero é ajustado, e o que vai até o final é fechado com a duração
+		assertEquals(2, analise.getTrechosSilencio().size());
+		assertEquals(0, analise.getTrechosSilencio().get(0).getInicio(), 0.001);
+		assertEquals(60, analise.getTrechosSilencio().get(1).getFim(), 0.001);
+		
+		// Capítulos com pelo menos 10s
+		assertEquals(Arrays.asList(0.0, 20.2, 41.6), analise.getCapitulos(10));
+	}
+	
+	@Test
+	public void cortandoTrechosPretos() {
+		FFmpegAnaliseConteudo analise = FFmpegAnaliseConteudo.interpretar(SAIDA_FFMPEG, 60);
+		assertEquals(2.4, analise.getInicioConteudo(), 0.001);
+		assertEquals(57.2, analise.getFimConteudo(), 0.001);
+		
+		FFmpegParameters parameters = new FFmpegParameters();
+		assertTrue(analise.aplicarCorteAutomatico(parameters));
+		assertEquals("2.400", parameters.getTempoInicial());
+		assertEquals("57.200", parameters.getTempoFinal());
+		
+		// Vídeo sem trechos pretos nas extremidades
+		analise = FFmpegAnaliseConteudo.interpretar(Arrays.asList("[blackdetect @ 0x1] black_start:30 black_end:31 black_duration:1"), 60);
+		assertEquals(0, analise.getInicioConteudo(), 0.001);
+		assertEquals(60, analise.getFimConteudo(), 0.001);
+		assertFalse(analise.aplicarCorteAutomatico(new FFmpegParameters()));
+	}
+}
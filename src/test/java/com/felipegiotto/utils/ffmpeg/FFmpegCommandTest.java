@@ -4,9 +4,14 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.util.Arrays;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.SystemUtils;
+import org.junit.Assume;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -67,6 +72,10 @@ public class FFmpegCommandTest {
 		ffmpeg.setOutputFile("saida.avi");
 		ffmpeg.setSubtitleFile("C:\\legenda.srt", 30); // Tamanho 30
 		assertEquals(FFMPEG_TEST_PATH + " -i C:\\entrada.avi -vsync 0 -vf subtitles='C\\:\\\\legenda.srt':force_style='Fontsize=30' saida.avi", StringUtils.join(ffmpeg.buildParameters(), " "));
+		
+		// Montar novamente não pode duplicar o filtro da legenda
+		assertEquals(FFMPEG_TEST_PATH + " -i C:\\entrada.avi -vsync 0 -vf subtitles='C\\:\\\\legenda.srt':force_style='Fontsize=30' saida.avi", StringUtils.join(ffmpeg.buildParameters(), " "));
+		assertTrue(ffmpeg.getParameters().getVideoFilters().isEmpty());
 	}
 	
 	@Test
@@ -238,6 +247,87 @@ public class FFmpegCommandTest {
 		assertEquals(FFMPEG_TEST_PATH + " -i src/test/resources/video_1280x544.mov -c:v libxvid -qscale:v 10 -vsync 0 -vf scale=w=720:h=304 -c:a libmp3lame -qscale:a 5 teste_output.avi", StringUtils.join(ffmpeg.buildParameters(), " "));
 	}
 
+	@Test
+	public void variasSaidasDecodificandoUmaVez() throws Exception {
+		FFmpegCommand ffmpeg = criarObjetoMinimo();
+		ffmpeg.addInputFile("entrada.avi");
+		ffmpeg.setOutputFile("saida_720.mp4");
+		ffmpeg.getParameters().setVideoEncoderCodec("libx264");
+		ffmpeg.getParameters().setVideoResolutionFixed(null, 720);
+		
+		FFmpegParameters parametros480 = new FFmpegParameters();
+		parametros480.setVideoCopiarMetadados(false);
+		parametros480.setAudioMoverMetadadosParaInicio(false);
+		parametros480.setVideoEncoderCodec("libx264");
+		parametros480.setVideoResolutionFixed(null, 480);
+		ffmpeg.addOutput("saida_480.mp4", parametros480);
+		
+		FFmpegParameters parametrosOriginal = new FFmpegParameters();
+		parametrosOriginal.setVideoCopiarMetadados(false);
+		parametrosOriginal.setAudioMoverMetadadosParaInicio(false);
+		parametrosOriginal.setVideoEncoderCopy();
+		ffmpeg.addOutput("saida_original.mkv", parametrosOriginal);
+		
+		assertEquals(FFMPEG_TEST_PATH + " -i entrada.avi -filter_complex [0:v]split=2[s0][s1];[s0]scale=-1:720[v0];[s1]scale=-1:480[v1]"
+				+ " -map [v0] -map 0:a? -c:v libx264 -vsync 0 saida_720.mp4"
+				+ " -map [v1] -map 0:a? -c:v libx264 -vsync 0 saida_480.mp4"
+				+ " -map 0:v -map 0:a? -c:v copy -vsync 0 saida_original.mkv", StringUtils.join(ffmpeg.buildParameters(), " "));
+	}
+	
+	@Test
+	public void variasSaidasComBuscaRapida() throws Exception {
+		FFmpegCommand ffmpeg = criarObjetoMinimo();
+		ffmpeg.addInputFile("entrada.avi");
+		ffmpeg.setOutputFile("saida_inicio.mp4");
+		ffmpeg.getParameters().setVideoEncoderCodec("libx264");
+		ffmpeg.getParameters().setTempoInicialBuscaRapida(true);
+		ffmpeg.getParameters().setTempoInicial(10);
+		ffmpeg.getParameters().setTempoFinal(20);
+		
+		FFmpegParameters parametrosFim = new FFmpegParameters();
+		parametrosFim.setVideoCopiarMetadados(false);
+		parametrosFim.setAudioMoverMetadadosParaInicio(false);
+		parametrosFim.setVideoEncoderCodec("libx264");
+		parametrosFim.setTempoInicialBuscaRapida(true);
+		parametrosFim.setTempoInicial(30);
+		parametrosFim.setTempoFinal(40);
+		ffmpeg.addOutput("saida_fim.mp4", parametrosFim);
+		
+		// Sem "-ss" antes da entrada: cada saída tem o seu próprio trecho
+		assertEquals(FFMPEG_TEST_PATH + " -i entrada.avi -filter_complex [0:v]split=2[s0][s1];[s0]null[v0];[s1]null[v1]"
+				+ " -map [v0] -map 0:a? -ss 00:00:10 -to 00:00:20 -c:v libx264 -vsync 0 saida_inicio.mp4"
+				+ " -map [v1] -map 0:a? -ss 00:00:30 -to 00:00:40 -c:v libx264 -vsync 0 saida_fim.mp4", StringUtils.join(ffmpeg.buildParameters(), " "));
+	}
+	
+	@Test
+	public void entradaESaidaPorStream() throws Exception {
+		FFmpegCommand ffmpeg = criarObjetoMinimo();
+		ffmpeg.setInputStream(new ByteArrayInputStream(new byte[0]), "mpegts");
+		ffmpeg.setOutputStream(new ByteArrayOutputStream(), "matroska");
+		ffmpeg.getParameters().setVideoEncoderCodec("libx264");
+		assertEquals(FFMPEG_TEST_PATH + " -f mpegts -i pipe:0 -c:v libx264 -vsync 0 -f matroska pipe:1", StringUtils.join(ffmpeg.buildParameters(), " "));
+		
+		// MP4 na saída precisa ser fragmentado
+		ffmpeg.setOutputStream(new ByteArrayOutputStream(), "mp4");
+		assertEquals(FFMPEG_TEST_PATH + " -f mpegts -i pipe:0 -c:v libx264 -vsync 0 -f mp4 -movflags frag_keyframe+empty_moov pipe:1", StringUtils.join(ffmpeg.buildParameters(), " "));
+		
+		// MP4 na entrada precisa de busca aleatória
+		assertTrue(FFmpegCommand.isFormatoEntradaRequerBusca("MP4"));
+		assertFalse(FFmpegCommand.isFormatoEntradaRequerBusca("mpegts"));
+	}
+	
+	@Test
+	public void definindoAfinidadeCpusEPrioridadeIO() throws Exception {
+		Assume.assumeTrue(SystemUtils.IS_OS_LINUX);
+		FFmpegCommand ffmpeg = criarObjetoMinimo();
+		ffmpeg.addInputFile("teste.avi");
+		ffmpeg.setOutputFile("teste_output.avi");
+		ffmpeg.setProcessNicePriority(15);
+		ffmpeg.setProcessIoPriority(2, 7);
+		ffmpeg.setProcessCpuAffinity(Arrays.asList(0, 1, 2, 3));
+		assertEquals("nice -n 15 ionice -c 2 -n 7 taskset -c 0-3 " + FFMPEG_TEST_PATH + " -i teste.avi -vsync 0 teste_output.avi", StringUtils.join(ffmpeg.buildParameters(), " "));
+	}
+	
 	@Test
 	public void isArquivoVideoTest() {
 		assertTrue(FFmpegCommand.isArquivoVideo("video.avi"));
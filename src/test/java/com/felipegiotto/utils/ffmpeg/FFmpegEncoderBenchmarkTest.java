@@ -0,0 +1,34 @@
+package com.felipegiotto.utils.ffmpeg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.felipegiotto.utils.ffmpeg.FFmpegEncoderBenchmark.Progresso;
+
+public class FFmpegEncoderBenchmarkTest {
+
+	@Test
+	public void lendoTempoBenchmark() {
+		assertEquals(Double.valueOf(3.456), FFmpegEncoderBenchmark.getSegundosBenchmark("bench: utime=12.345s stime=0.123s rtime=3.456s"));
+		assertNull(FFmpegEncoderBenchmark.getSegundosBenchmark("bench: maxrss=123456kB"));
+		assertNull(FFmpegEncoderBenchmark.getSegundosBenchmark("frame=  250 fps=120 q=-1.0 Lsize=    1234kB time=00:00:10.00 bitrate=1010.9kbits/s speed=4.8x"));
+	}
+	
+	@Test
+	public void lendoProgresso() {
+		
+		// Amostra no fim do vídeo, mais curta do que a duração solicitada
+		Progresso progresso = FFmpegEncoderBenchmark.getProgresso("frame=  103 fps= 51 q=-1.0 Lsize=     412kB time=00:00:03.43 bitrate= 983.2kbits/s speed=1.7x");
+		assertEquals(103, progresso.getFrames());
+		assertEquals(3.43, progresso.getSegundos(), 0.001);
+		
+		progresso = FFmpegEncoderBenchmark.getProgresso("frame=   25 fps=0.0 q=-0.0 size=N/A time=N/A bitrate=N/A speed=N/A");
+		assertEquals(25, progresso.getFrames());
+		assertNull(progresso.getSegundos());
+		
+		assertNull(FFmpegEncoderBenchmark.getProgresso("bench: utime=12.345s stime=0.123s rtime=3.456s"));
+		assertNull(FFmpegEncoderBenchmark.getProgresso("Stream #0:0: Video: h264, frame=25"));
+	}
+}
@@ -0,0 +1,72 @@
+package com.felipegiotto.utils.ffmpeg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import com.felipegiotto.utils.ffmpeg.FFmpegEncoderCostModel.Medicao;
+
+public class FFmpegEncoderCostModelTest {
+
+	private FFmpegEncoderCostModel criarModelo() {
+		FFmpegEncoderCostModel modelo = new FFmpegEncoderCostModel();
+		modelo.adicionarMedicao(new Medicao("libx265", "ultrafast", 28, null, 120, 3000));
+		modelo.adicionarMedicao(new Medicao("libx265", "fast", 28, null, 60, 2000));
+		modelo.adicionarMedicao(new Medicao("libx265", "slow", 28, 4, 15, 1500));
+		modelo.adicionarMedicao(new Medicao("libx264", "slow", 24, null, 50, 2500));
+		return modelo;
+	}
+	
+	@Test
+	public void escolhendoPorOrcamento() {
+		FFmpegEncoderCostModel modelo = criarModelo();
+		
+		// Mais rápido que caiba em 2000 kb/s
+		assertEquals("fast", modelo.escolherMaisRapidaDentroDoTamanho("libx265", 2000).getPreset());
+		assertEquals("slow", modelo.escolherMaisRapidaDentroDoTamanho("libx265", 1800).getPreset());
+		assertNull(modelo.escolherMaisRapidaDentroDoTamanho("libx265", 1000));
+		
+		// Menor arquivo que codifique a pelo menos 50 fps
+		assertEquals("fast", modelo.escolherMenorDentroDoTempo("libx265", 50).getPreset());
+		assertEquals("slow", modelo.escolherMenorDentroDoTempo("libx265", 10).getPreset());
+		assertNull(modelo.escolherMenorDentroDoTempo("libx265", 200));
+	}
+	
+	@Test
+	public void configurandoParametrosPeloModelo() throws Exception {
+		FFmpegFileInfo fileInfo = FFmpegFileInfoTest.getFileInfoComCache("video_camera_nikon.txt");
+		FFmpegParameters parameters = new FFmpegParameters();
+		parameters.setVideoCopiarMetadados(false);
+		parameters.setAudioMoverMetadadosParaInicio(false);
+		
+		assertTrue(parameters.configurarVideoPorOrcamentoDeTamanho(criarModelo(), "libx265", 1800));
+		assertEquals("-c:v libx265 -crf 28 -preset slow -threads 4 -vsync 0", StringUtils.join(parameters.buildParameters(fileInfo), " "));
+		
+		// Nenhuma combinação atende: parâmetros não são alterados
+		assertFalse(parameters.configurarVideoPorOrcamentoDeTempo(criarModelo(), "libx265", 500));
+		assertEquals("slow", parameters.getVideoPreset());
+	}
+	
+	@Test
+	public void gravandoECarregandoModelo() throws Exception {
+		Path arquivo = File.createTempFile("modelo_custo", ".properties").toPath();
+		try {
+			criarModelo().salvar(arquivo);
+			FFmpegEncoderCostModel carregado = FFmpegEncoderCostModel.carregar(arquivo);
+			assertEquals(4, carregado.getMedicoes().size());
+			Medicao slow = carregado.escolherMaisRapidaDentroDoTamanho("libx265", 1500);
+			assertEquals(4, slow.getThreads().intValue());
+			assertEquals(15, slow.getFpsEncode(), 0.001);
+			assertNull(carregado.escolherMaisRapidaDentroDoTamanho("libx264", 3000).getThreads());
+		} finally {
+			arquivo.toFile().delete();
+		}
+	}
+}
@@ -156,6 +156,23 @@ public class FFmpegFileInfoTest {
 		assertEquals(30, fileInfo.getVideoFPS(), 0.01);
 	}
 
+	@Test
+	public void getCodecsEBitrates() throws Exception {
+		FFmpegFileInfo fileInfo = getFileInfoComCache("video_iphone_x.txt");
+		
+		// Stream de áudio vem antes do vídeo
+		assertEquals("h264", fileInfo.getVideoCodec());
+		assertEquals(Integer.valueOf(758), fileInfo.getVideoBitrateKbps());
+		assertEquals("aac", fileInfo.getAudioCodec());
+		assertEquals(Integer.valueOf(62), fileInfo.getAudioBitrateKbps());
+		
+		// Vídeo sem áudio
+		fileInfo = getFileInfoComCache("video_foto_morph.txt");
+		assertEquals("h264", fileInfo.getVideoCodec());
+		assertEquals(null, fileInfo.getAudioCodec());
+		assertEquals(null, fileInfo.getAudioBitrateKbps());
+	}
+	
 	public static FFmpegFileInfo getFileInfoComCache(String arquivoCache) throws Exception {
 		File file = new File("src/test/resources/FFmpegFileInfoTest/" + arquivoCache);
 		FFmpegFileInfo fileInfo = new FFmpegFileInfo(file);
@@ -0,0 +1,32 @@
+package com.felipegiotto.utils.ffmpeg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class FFmpegHlsCacheTest {
+
+	@Test
+	public void montandoPlaylist() {
+		assertEquals("#EXTM3U\n"
+				+ "#EXT-X-VERSION:3\n"
+				+ "#EXT-X-TARGETDURATION:6\n"
+				+ "#EXT-X-MEDIA-SEQUENCE:0\n"
+				+ "#EXT-X-PLAYLIST-TYPE:VOD\n"
+				+ "#EXTINF:6.000,\n"
+				+ "seg00000.ts\n"
+				+ "#EXTINF:6.000,\n"
+				+ "seg00001.ts\n"
+				+ "#EXTINF:2.500,\n"
+				+ "seg00002.ts\n"
+				+ "#EXT-X-ENDLIST\n", FFmpegHlsCache.montarPlaylist(14.5f, 6));
+	}
+	
+	@Test
+	public void identificandoSegmentos() {
+		assertEquals(12, FFmpegHlsCache.getIndiceSegmento(FFmpegHlsCache.getNomeSegmento(12)).intValue());
+		assertNull(FFmpegHlsCache.getIndiceSegmento("index.m3u8"));
+		assertNull(FFmpegHlsCache.getIndiceSegmento("../seg00001.ts"));
+	}
+}
@@ -0,0 +1,102 @@
+package com.felipegiotto.utils.ffmpeg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import com.felipegiotto.utils.ffmpeg.FFmpegLoudnorm.Medicao;
+import com.felipegiotto.utils.ffmpeg.util.FFmpegException;
+
+public class FFmpegLoudnormTest {
+
+	private static final List<String> SAIDA_FFMPEG = Arrays.asList(
+			"[Parsed_loudnorm_0 @ 0x5581c0e6a440] ",
+			"{",
+			"	\"input_i\" : \"-27.61\",",
+			"	\"input_tp\" : \"-4.47\",",
+			"	\"input_lra\" : \"18.06\",",
+			"	\"input_thresh\" : \"-39.20\",",
+			"	\"output_i\" : \"-16.58\",",
+			"	\"output_tp\" : \"-1.50\",",
+			"	\"output_lra\" : \"14.78\",",
+			"	\"output_thresh\" : \"-27.71\",",
+			"	\"normalization_type\" : \"dynamic\",",
+			"	\"target_offset\" : \"0.58\"",
+			"}");
+
+	@Test
+	public void interpretandoMedicao() throws FFmpegException {
+		Medicao medicao = FFmpegLoudnorm.interpretarSaida(SAIDA_FFMPEG);
+		assertEquals(-27.61, medicao.getVolumeIntegrado(), 0.001);
+		assertEquals(-4.47, medicao.getPico(), 0.001);
+		assertEquals(18.06, medicao.getFaixaDinamica(), 0.001);
+		assertEquals(-39.20, medicao.getLimiar(), 0.001);
+		assertEquals(0.58, medicao.getOffset(), 0.001);
+	}
+
+	@Test
+	public void audioSilencioso() throws FFmpegException {
+		List<String> saida = Arrays.asList(
+				"\"input_i\" : \"-inf\",",
+				"\"input_tp\" : \"-inf\",",
+				"\"input_lra\" : \"0.00\",",
+				"\"input_thresh\" : \"-70.00\",",
+				"\"target_offset\" : \"inf\"");
+		assertNull(FFmpegLoudnorm.interpretarSaida(saida));
+	}
+
+	@Test(expected = FFmpegException.class)
+	public void saidaSemMedicao() throws FFmpegException {
+		FFmpegLoudnorm.interpretarSaida(Arrays.asList("Output #0, null, to 'pipe:':"));
+	}
+
+	@Test
+	public void arquivoSemAudio() throws Exception {
+		
+		// Não chega a executar o ffmpeg, pois o arquivo não possui stream de áudio
+		FFmpegFileInfo fileInfo = FFmpegFileInfoTest.getFileInfoComCache("video_foto_morph.txt");
+		FFmpegLoudnorm loudnorm = new FFmpegLoudnorm();
+		assertNull(loudnorm.montarFiltro(fileInfo, null, null));
+		
+		FFmpegParameters parameters = new FFmpegParameters();
+		parameters.setVideoCopiarMetadados(false);
+		parameters.setAudioMoverMetadadosParaInicio(false);
+		parameters.setAudioEncoderCodec("aac");
+		parameters.setAudioNormalizarVolume(loudnorm);
+		assertEquals("-vsync 0 -c:a aac", StringUtils.join(parameters.buildParameters(fileInfo), " "));
+	}
+
+	@Test
+	public void audioSilenciosoGravadoEmCache() throws Exception {
+		FFmpegFileInfo fileInfo = FFmpegFileInfoTest.getFileInfoComCache("video_camera_nikon.txt");
+		Path arquivoCache = new File("tmp/FFmpegLoudnormTest/audioSilenciosoGravadoEmCache.properties").toPath();
+		Files.createDirectories(arquivoCache.getParent());
+		Properties properties = new Properties();
+		properties.setProperty(fileInfo.getCacheKey() + "|loudnorm=I=-16.00:TP=-1.50:LRA=11.00||", "");
+		try (OutputStream out = Files.newOutputStream(arquivoCache)) {
+			properties.store(out, null);
+		}
+		
+		// Não chega a executar o ffmpeg, pois a medição (silenciosa) já está no cache
+		FFmpegLoudnorm loudnorm = new FFmpegLoudnorm(-16, -1.5, 11, arquivoCache);
+		assertNull(loudnorm.medir(fileInfo, null, null));
+	}
+	
+	@Test
+	public void montandoFiltroSegundaEtapa() throws FFmpegException {
+		FFmpegLoudnorm loudnorm = new FFmpegLoudnorm(-23, -2, 7);
+		Medicao medicao = FFmpegLoudnorm.interpretarSaida(SAIDA_FFMPEG);
+		assertEquals("loudnorm=I=-23.00:TP=-2.00:LRA=7.00:measured_I=-27.61:measured_TP=-4.47:measured_LRA=18.06:measured_thresh=-39.20:offset=0.58:linear=true",
+				loudnorm.montarFiltro(medicao));
+	}
+}
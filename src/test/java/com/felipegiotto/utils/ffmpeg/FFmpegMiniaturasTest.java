@@ -0,0 +1,19 @@
+package com.felipegiotto.utils.ffmpeg;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+public class FFmpegMiniaturasTest {
+
+	@Test
+	public void montandoFiltrosSpriteSheet() {
+		
+		// 10 quadros em um vídeo de 40s: um quadro a cada 4s, em grade de 4 colunas x 3 linhas
+		assertEquals("fps=fps=0.250000,scale=160:-2,tile=4x3", StringUtils.join(FFmpegMiniaturas.montarFiltrosSpriteSheet(40, 10, 4, 160), ","));
+		
+		// Quantidade exata para preencher a grade
+		assertEquals("fps=fps=2.000000,scale=320:-2,tile=5x2", StringUtils.join(FFmpegMiniaturas.montarFiltrosSpriteSheet(5, 10, 5, 320), ","));
+	}
+}
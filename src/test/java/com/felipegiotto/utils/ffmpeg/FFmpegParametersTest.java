@@ -1,10 +1,18 @@
 package com.felipegiotto.utils.ffmpeg;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.awt.Dimension;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.commons.lang3.StringUtils;
 import org.junit.Test;
@@ -22,6 +30,28 @@ public class FFmpegParametersTest {
 		assertEquals("00:01:00", parameters.getTempoFinal());
 	}
 	
+	@Test
+	public void buscaRapidaDoTempoInicial() throws Exception {
+		FFmpegFileInfo fileInfo = FFmpegFileInfoTest.getFileInfoComCache("video_camera_nikon.txt");
+		FFmpegParameters parameters = new FFmpegParameters();
+		parameters.setVideoCopiarMetadados(false);
+		parameters.setAudioMoverMetadadosParaInicio(false);
+		parameters.setTempoInicial("00:01:10");
+		parameters.setTempoFinal("00:01:40.5");
+		parameters.setTempoInicialBuscaRapida(true);
+		
+		// "-ss" vai antes do arquivo de entrada e o tempo final vira duração
+		assertEquals("-ss 00:01:10", StringUtils.join(parameters.buildInputParameters(), " "));
+		assertEquals("-t 30.500 -vsync 0", StringUtils.join(parameters.buildParameters(fileInfo), " "));
+		
+		parameters.setTempoInicialBuscaRapida(false);
+		assertEquals("", StringUtils.join(parameters.buildInputParameters(), " "));
+		assertEquals("-ss 00:01:10 -to 00:01:40.5 -vsync 0", StringUtils.join(parameters.buildParameters(fileInfo), " "));
+		
+		assertEquals(3661.25, FFmpegParameters.hmsToSeconds("01:01:01.25"), 0.001);
+		assertEquals(12.5, FFmpegParameters.hmsToSeconds("12.5"), 0.001);
+	}
+	
 	@Test
 	public void redimensionandoVideo() throws Exception {
 		FFmpegFileInfo fileInfo = FFmpegFileInfoTest.getFileInfoComCache("video_camera_nikon.txt");
@@ -80,4 +110,177 @@ public class FFmpegParametersTest {
 		parameters.setVideoCropRectangle(new Rectangle(new Point(10, 20), new Dimension(100, 200)));
 		assertEquals("-vsync 0 -vf crop=100:200:10:20", StringUtils.join(parameters.buildParameters(fileInfo), " "));
 	}
+	
+	@Test
+	public void copiandoStreamsCompativeis() throws Exception {
+		
+		// Nikon: h264 10399 kb/s, aac 128 kb/s
+		FFmpegFileInfo fileInfo = FFmpegFileInfoTest.getFileInfoComCache("video_camera_nikon.txt");
+		FFmpegParameters parameters = new FFmpegParameters();
+		parameters.setVideoCopiarMetadados(false);
+		parameters.setAudioMoverMetadadosParaInicio(false);
+		parameters.setVideoEncoderCodec("libx264");
+		parameters.setVideoQualidadeCrf(23);
+		parameters.setVideoPreset("slow");
+		parameters.setAudioEncoderCodec("aac");
+		parameters.setAudioQualidade("128k");
+		parameters.setCopiarStreamsCompativeis(true);
+		
+		// Os dois streams já estão no formato desejado: somente "remux"
+		assertEquals("-c:v copy -vsync 0 -c:a copy", StringUtils.join(parameters.buildParameters(fileInfo), " "));
+		
+		// Redimensionamento para a mesma resolução é desnecessário
+		parameters.setVideoResolutionFixed(1920, null);
+		assertEquals("-c:v copy -vsync 0 -c:a copy", StringUtils.join(parameters.buildParameters(fileInfo), " "));
+		
+		// Redimensionamento real exige recodificar o vídeo
+		parameters.setVideoResolutionConstrained(1280, 720, null, false);
+		assertEquals("-c:v libx264 -crf 23 -preset slow -vsync 0 -vf scale=w=1280:h=720 -c:a copy", StringUtils.join(parameters.buildParameters(fileInfo), " "));
+		parameters.setVideoResolutionFixed(null, null);
+		
+		// Bitrate acima do limite
+		parameters.setVideoBitrateMaximoParaCopiaKbps(8000);
+		parameters.setAudioQualidade("96k");
+		assertEquals("-c:v libx264 -crf 23 -preset slow -vsync 0 -c:a aac -b:a 96k", StringUtils.join(parameters.buildParameters(fileInfo), " "));
+		
+		// Codec diferente
+		parameters.setVideoBitrateMaximoParaCopiaKbps(null);
+		parameters.setVideoEncoderCodec("libx265");
+		parameters.setVideoQualidadeCrf(28);
+		assertEquals("-c:v libx265 -crf 28 -preset slow -vsync 0 -c:a aac -b:a 96k", StringUtils.join(parameters.buildParameters(fileInfo), " "));
+		
+		assertEquals("hevc", FFmpegParameters.getCodecDoEncoder("libx265"));
+		assertEquals("mpeg4", FFmpegParameters.getCodecDoEncoder("mpeg4"));
+		assertEquals(Integer.valueOf(128), FFmpegParameters.getBitrateKbps("128k"));
+		assertEquals(Integer.valueOf(192), FFmpegParameters.getBitrateKbps("192000"));
+	}
+	
+	@Test
+	public void naoCopiandoVideoComParametrosExtras() throws Exception {
+		FFmpegFileInfo fileInfo = FFmpegFileInfoTest.getFileInfoComCache("video_camera_nikon.txt");
+		FFmpegParameters parameters = new FFmpegParameters();
+		parameters.setVideoCopiarMetadados(false);
+		parameters.setAudioMoverMetadadosParaInicio(false);
+		parameters.setVideoEncoderCodec("libx264");
+		parameters.setAudioEncoderCodec("aac");
+		parameters.setCopiarStreamsCompativeis(true);
+		
+		// Parâmetros extras do encoder seriam ignorados na cópia
+		parameters.setVideoAddExtraParameters("-pix_fmt", "yuv420p");
+		assertEquals("-c:v libx264 -pix_fmt yuv420p -vsync 0 -c:a copy", StringUtils.join(parameters.buildParameters(fileInfo), " "));
+	}
+	
+	@Test
+	public void naoCopiandoVideoRotacionado() throws Exception {
+		FFmpegFileInfo fileInfo = FFmpegFileInfoTest.getFileInfoComCache("video_camera_nikon.txt");
+		FFmpegParameters parameters = new FFmpegParameters();
+		parameters.setVideoCopiarMetadados(false);
+		parameters.setAudioMoverMetadadosParaInicio(false);
+		parameters.setVideoEncoderCodec("libx264");
+		parameters.setAudioEncoderCodec("aac");
+		parameters.setCopiarStreamsCompativeis(true);
+		
+		// A rotação precisa ser aplicada com "transpose", o que exige recodificar o vídeo
+		parameters.setVideoRotation(90);
+		assertEquals("-c:v libx264 -vsync 0 -vf transpose=2 -c:a copy", StringUtils.join(parameters.buildParameters(fileInfo), " "));
+	}
+	
+	@Test
+	public void limitandoCpus() throws Exception {
+		FFmpegParameters parameters = new FFmpegParameters();
+		parameters.setVideoCopiarMetadados(false);
+		parameters.setAudioMoverMetadadosParaInicio(false);
+		parameters.setVideoEncoderCodec("libx264");
+		parameters.setLimiteCpus(4);
+		assertEquals("-c:v libx264 -threads 4 -vsync 0", StringUtils.join(parameters.buildParameters(null), " "));
+		
+		// x265 precisa limitar o próprio pool de threads, mantendo outros parâmetros informados
+		parameters.setVideoEncoderCodec("libx265");
+		parameters.setVideoAddExtraParameters("-x265-params", "log-level=error");
+		assertEquals("-c:v libx265 -threads 4 -x265-params log-level=error:pools=4:frame-threads=2 -vsync 0", StringUtils.join(parameters.buildParameters(null), " "));
+	}
+	
+	@Test
+	public void limitandoCpusReservadasSemAlterarParametros() throws Exception {
+		FFmpegParameters parameters = new FFmpegParameters();
+		parameters.setVideoCopiarMetadados(false);
+		parameters.setAudioMoverMetadadosParaInicio(false);
+		parameters.setVideoEncoderCodec("libx264");
+		
+		// Execuções simultâneas com o mesmo objeto, cada uma com suas CPUs reservadas
+		List<String> semFiltros = Collections.emptyList();
+		assertEquals("-c:v libx264 -threads 2 -vsync 0", StringUtils.join(parameters.planejar(null, semFiltros, false, true, 2).getParametros(), " "));
+		assertEquals("-c:v libx264 -threads 6 -vsync 0", StringUtils.join(parameters.planejar(null, semFiltros, false, true, 6).getParametros(), " "));
+		assertNull(parameters.getLimiteCpus());
+		assertEquals("-c:v libx264 -vsync 0", StringUtils.join(parameters.buildParameters(null), " "));
+		
+		// Limite definido no objeto tem prioridade
+		parameters.setLimiteCpus(4);
+		assertEquals("-c:v libx264 -threads 4 -vsync 0", StringUtils.join(parameters.planejar(null, semFiltros, false, true, 2).getParametros(), " "));
+	}
+	
+	@Test
+	public void extraindoJanelasDeTempo() throws Exception {
+		FFmpegFileInfo fileInfo = FFmpegFileInfoTest.getFileInfoComCache("video_camera_nikon.txt");
+		FFmpegParameters parameters = new FFmpegParameters();
+		parameters.setVideoCopiarMetadados(false);
+		parameters.setAudioMoverMetadadosParaInicio(false);
+		parameters.setVideoEncoderCodec("libx264");
+		parameters.addJanelaTempo("00:01:00", "00:01:30");
+		parameters.addJanelaTempo(10, 12.5);
+		
+		// Sem busca rápida, o arquivo é lido desde o início até o final da última janela
+		assertEquals("-t 90", StringUtils.join(parameters.buildInputParameters(), " "));
+		assertEquals("-c:v libx264 -vsync 0 -filter_complex "
+				+ "[0:v]split=2[vs0][vs1];[0:a]asplit=2[as0][as1];"
+				+ "[vs0]trim=start=60:end=90,setpts=PTS-STARTPTS[v0];[as0]atrim=start=60:end=90,asetpts=PTS-STARTPTS[a0];"
+				+ "[vs1]trim=start=10:end=12.500,setpts=PTS-STARTPTS[v1];[as1]atrim=start=10:end=12.500,asetpts=PTS-STARTPTS[a1];"
+				+ "[v0][a0][v1][a1]concat=n=2:v=1:a=1[vjan][ajan] -map [vjan] -map [ajan]", StringUtils.join(parameters.buildParameters(fileInfo), " "));
+		
+		// Com busca rápida, a leitura começa na primeira janela e os tempos são relativos a ela.
+		// Filtros de vídeo são aplicados após a concatenação.
+		parameters.setTempoInicialBuscaRapida(true);
+		parameters.addVideoFilter("hflip");
+		assertEquals("-ss 10 -t 80", StringUtils.join(parameters.buildInputParameters(), " "));
+		assertEquals("-c:v libx264 -vsync 0 -filter_complex "
+				+ "[0:v]split=2[vs0][vs1];[0:a]asplit=2[as0][as1];"
+				+ "[vs0]trim=start=50:end=80,setpts=PTS-STARTPTS[v0];[as0]atrim=start=50:end=80,asetpts=PTS-STARTPTS[a0];"
+				+ "[vs1]trim=start=0:end=2.500,setpts=PTS-STARTPTS[v1];[as1]atrim=start=0:end=2.500,asetpts=PTS-STARTPTS[a1];"
+				+ "[v0][a0][v1][a1]concat=n=2:v=1:a=1[vcat][ajan];[vcat]hflip[vjan] -map [vjan] -map [ajan]", StringUtils.join(parameters.buildParameters(fileInfo), " "));
+		
+		// Trechos precisam ser reprocessados
+		parameters.setAudioEncoderCopy();
+		try {
+			parameters.buildParameters(fileInfo);
+			fail("Janelas de tempo não podem ser copiadas");
+		} catch (IOException ex) {
+		}
+	}
+	
+	@Test
+	public void reaproveitandoPlanoComando() throws Exception {
+		FFmpegFileInfo fileInfo = FFmpegFileInfoTest.getFileInfoComCache("video_camera_nikon.txt");
+		FFmpegParameters parameters = new FFmpegParameters();
+		parameters.setVideoCopiarMetadados(false);
+		parameters.setAudioMoverMetadadosParaInicio(false);
+		parameters.setVideoEncoderCodec("libx264");
+		parameters.setVideoResolutionConstrained(1280, 720, null, false);
+		
+		// Mesmos parâmetros e mesmos dados de entrada: plano reaproveitado
+		FFmpegPlanoComando plano = parameters.planejar(fileInfo);
+		assertSame(plano, parameters.planejar(fileInfo));
+		assertSame(plano, parameters.planejar(FFmpegFileInfoTest.getFileInfoComCache("video_camera_nikon.txt")));
+		try {
+			plano.getParametros().add("-y");
+			fail("Plano deve ser imutável");
+		} catch (UnsupportedOperationException ex) {
+		}
+		
+		// Qualquer alteração nos parâmetros gera um novo plano
+		parameters.addVideoFilter("hflip");
+		FFmpegPlanoComando novoPlano = parameters.planejar(fileInfo);
+		assertNotSame(plano, novoPlano);
+		assertTrue(novoPlano.toString().contains("hflip"));
+		assertEquals(novoPlano.getParametros(), parameters.buildParameters(fileInfo));
+	}
 }
@@ -0,0 +1,125 @@
+package com.felipegiotto.utils.ffmpeg.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FFmpegDiskCacheTest {
+
+	private File pasta;
+	
+	@Before
+	public void criarPasta() throws Exception {
+		pasta = Files.createTempDirectory("FFmpegDiskCacheTest").toFile();
+	}
+	
+	@After
+	public void excluirPasta() throws Exception {
+		FileUtils.deleteDirectory(pasta);
+	}
+	
+	private FFmpegDiskCache.GeradorArquivo gerarBytes(int quantidade, AtomicInteger contador) {
+		return (destino) -> {
+			contador.incrementAndGet();
+			Files.write(destino.toPath(), new byte[quantidade]);
+		};
+	}
+	
+	@Test
+	public void excluindoArquivosMenosAcessados() throws Exception {
+		AtomicInteger geracoes = new AtomicInteger();
+		FFmpegDiskCache cache = new FFmpegDiskCache(pasta, 250);
+		
+		File a = cache.obter("video1/a.ts", gerarBytes(100, geracoes));
+		File b = cache.obter("video1/b.ts", gerarBytes(100, geracoes));
+		assertEquals(2, geracoes.get());
+		assertEquals(200, cache.getTotalBytes());
+		
+		// Arquivo já está no cache: não gera novamente, e passa a ser o mais recente
+		assertEquals(a, cache.obter("video1/a.ts", gerarBytes(100, geracoes)));
+		assertEquals(2, geracoes.get());
+		
+		// Ultrapassa o limite: "b" é o menos acessado e deve ser excluído
+		cache.obter("video2/c.ts", gerarBytes(100, geracoes));
+		assertEquals(200, cache.getTotalBytes());
+		assertFalse(b.exists());
+		assertTrue(a.exists());
+		assertFalse(cache.contem("video1/b.ts"));
+		
+		// Ao recriar o cache, os arquivos existentes são registrados novamente
+		FFmpegDiskCache recarregado = new FFmpegDiskCache(pasta, 250);
+		assertEquals(200, recarregado.getTotalBytes());
+		assertTrue(recarregado.contem("video2/c.ts"));
+	}
+	
+	@Test
+	public void mantendoArquivosReservados() throws Exception {
+		AtomicInteger geracoes = new AtomicInteger();
+		FFmpegDiskCache cache = new FFmpegDiskCache(pasta, 150);
+		
+		File a;
+		try (FFmpegDiskCache.Reserva reserva = cache.reservar("video1/a.ts", gerarBytes(100, geracoes))) {
+			a = reserva.getArquivo();
+			
+			// "a" é o menos acessado, mas está sendo utilizado: o limite é ultrapassado temporariamente
+			File b = cache.obter("video1/b.ts", gerarBytes(100, geracoes));
+			assertTrue(a.exists());
+			assertTrue(b.exists());
+			assertEquals(200, cache.getTotalBytes());
+		}
+		
+		// Ao liberar a reserva, o limite volta a ser respeitado
+		assertFalse(a.exists());
+		assertEquals(100, cache.getTotalBytes());
+		assertTrue(cache.contem("video1/b.ts"));
+	}
+	
+	@Test
+	public void gerandoUmaVezComAcessosSimultaneos() throws Exception {
+		AtomicInteger geracoes = new AtomicInteger();
+		FFmpegDiskCache cache = new FFmpegDiskCache(pasta, 1000);
+		CountDownLatch liberarGeracao = new CountDownLatch(1);
+		
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			Thread t = new Thread(() -> {
+				try {
+					cache.obter("video/seg.ts", (destino) -> {
+						geracoes.incrementAndGet();
+						liberarGeracao.await();
+						Files.write(destino.toPath(), new byte[10]);
+					});
+				} catch (Exception ex) {
+					throw new RuntimeException(ex);
+				}
+			});
+			t.start();
+			threads.add(t);
+		}
+		Thread.sleep(100);
+		liberarGeracao.countDown();
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertEquals(1, geracoes.get());
+		assertEquals(10, cache.getTotalBytes());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void recusandoChaveForaDaPasta() throws Exception {
+		FFmpegDiskCache cache = new FFmpegDiskCache(pasta, 1000);
+		cache.obter("../fora.ts", gerarBytes(1, new AtomicInteger()));
+	}
+}
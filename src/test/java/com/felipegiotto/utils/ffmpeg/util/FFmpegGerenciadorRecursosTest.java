@@ -0,0 +1,114 @@
+package com.felipegiotto.utils.ffmpeg.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.felipegiotto.utils.ffmpeg.util.FFmpegGerenciadorRecursos.Reserva;
+
+public class FFmpegGerenciadorRecursosTest {
+
+	@Test
+	public void reservandoCpusConsecutivas() throws Exception {
+		FFmpegGerenciadorRecursos recursos = new FFmpegGerenciadorRecursos(8);
+		assertEquals(2, recursos.getCpusPorJob(4));
+		
+		Reserva r1 = recursos.reservar(3);
+		Reserva r2 = recursos.reservar(2);
+		assertEquals(Arrays.asList(0, 1, 2), r1.getCpus());
+		assertEquals(Arrays.asList(3, 4), r2.getCpus());
+		assertEquals(3, recursos.getQuantidadeCpusLivres());
+		
+		// Libera o primeiro bloco: a próxima reserva de 3 CPUs cabe nele
+		r1.close();
+		Reserva r3 = recursos.reservar(3);
+		assertEquals(Arrays.asList(0, 1, 2), r3.getCpus());
+		
+		// Não há 4 CPUs consecutivas, então utiliza as que estiverem livres
+		r2.close();
+		Reserva r4 = recursos.reservar(4);
+		assertEquals(Arrays.asList(3, 4, 5, 6), r4.getCpus());
+		
+		// Quantidade maior do que o total é limitada
+		r3.close();
+		r4.close();
+		r4.close();
+		assertEquals(8, recursos.getQuantidadeCpusLivres());
+		assertEquals(8, recursos.reservar(20).getQuantidadeCpus());
+	}
+	
+	@Test
+	public void aguardandoCpusLivres() throws Exception {
+		FFmpegGerenciadorRecursos recursos = new FFmpegGerenciadorRecursos(4);
+		Reserva r1 = recursos.reservar(3);
+		
+		CountDownLatch reservou = new CountDownLatch(1);
+		Thread outra = new Thread(() -> {
+			try (Reserva r2 = recursos.reservar(2)) {
+				if (r2.getQuantidadeCpus() == 2) {
+					reservou.countDown();
+				}
+			} catch (InterruptedException ex) {
+			}
+		});
+		outra.start();
+		
+		// Só há uma CPU livre
+		assertFalse(reservou.await(200, TimeUnit.MILLISECONDS));
+		r1.close();
+		assertTrue(reservou.await(5, TimeUnit.SECONDS));
+		outra.join();
+		assertEquals(4, recursos.getQuantidadeCpusLivres());
+	}
+	
+	@Test
+	public void reservandoCpusDeUmCpuset() throws Exception {
+		FFmpegGerenciadorRecursos recursos = new FFmpegGerenciadorRecursos(FFmpegGerenciadorRecursos.interpretarListaCpus("4-7,9"));
+		assertEquals(5, recursos.getTotalCpus());
+		assertEquals(Arrays.asList(4, 5, 6), recursos.reservar(3).getCpus());
+		
+		// Não há 2 CPUs consecutivas livres (7 e 9)
+		assertEquals(Arrays.asList(7, 9), recursos.reservar(2).getCpus());
+		assertEquals(0, recursos.getQuantidadeCpusLivres());
+	}
+	
+	@Test
+	public void interpretandoListaCpus() {
+		assertEquals(Arrays.asList(0, 1, 2, 3, 8), FFmpegGerenciadorRecursos.interpretarListaCpus("0-3,8"));
+		assertEquals(Arrays.asList(5), FFmpegGerenciadorRecursos.interpretarListaCpus(" 5\n"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void interpretandoListaCpusInvalida() {
+		FFmpegGerenciadorRecursos.interpretarListaCpus("3-1");
+	}
+	
+	@Test
+	public void lendoCpusPermitidas() throws Exception {
+		Path arquivoStatus = new File("tmp/FFmpegGerenciadorRecursosTest/status").toPath();
+		Files.createDirectories(arquivoStatus.getParent());
+		Files.write(arquivoStatus, Arrays.asList("Name:\tjava", "Cpus_allowed:\tf0", "Cpus_allowed_list:\t4-7"), StandardCharsets.UTF_8);
+		assertEquals(Arrays.asList(4, 5, 6, 7), FFmpegGerenciadorRecursos.lerCpusPermitidas(arquivoStatus));
+		
+		Files.write(arquivoStatus, Arrays.asList("Name:\tjava"), StandardCharsets.UTF_8);
+		assertNull(FFmpegGerenciadorRecursos.lerCpusPermitidas(arquivoStatus));
+		assertNull(FFmpegGerenciadorRecursos.lerCpusPermitidas(arquivoStatus.resolveSibling("inexistente")));
+	}
+	
+	@Test
+	public void formatandoListaCpus() {
+		assertEquals("0-3,8", FFmpegGerenciadorRecursos.formatarListaCpus(Arrays.asList(8, 0, 1, 2, 3)));
+		assertEquals("1,3,5-6", FFmpegGerenciadorRecursos.formatarListaCpus(Arrays.asList(1, 3, 5, 6)));
+	}
+}
@@ -0,0 +1,47 @@
+package com.felipegiotto.utils.ffmpeg.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class FFmpegWatchdogTest {
+
+	@Test
+	public void progressoAvancandoNaoTrava() {
+		FFmpegWatchdog watchdog = new FFmpegWatchdog(10);
+		watchdog.registrarLinha("frame=  120 fps= 30 q=28.0 size=     512kB time=00:00:04.00 bitrate=1048.6kbits/s speed=1.0x");
+		long agora = System.nanoTime();
+		assertFalse(watchdog.isTravado(agora));
+		assertTrue(watchdog.isTravado(agora + TimeUnit.SECONDS.toNanos(11)));
+	}
+	
+	@Test
+	public void progressoRepetidoNaoReiniciaJanela() throws Exception {
+		FFmpegWatchdog watchdog = new FFmpegWatchdog(0);
+		watchdog.registrarLinha("frame=  120 fps= 30 q=28.0 size=     512kB time=00:00:04.00 bitrate=1048.6kbits/s speed=1.0x");
+		Thread.sleep(5);
+		
+		// Mesmo frame e mesmo tempo: ffmpeg não avançou
+		watchdog.registrarLinha("frame=  120 fps= 30 q=28.0 size=     512kB time=00:00:04.00 bitrate=1048.6kbits/s speed=1.0x");
+		assertTrue(watchdog.isTravado());
+		
+		// Somente áudio: não há "frame", mas o "time" avança
+		FFmpegWatchdog watchdogAudio = new FFmpegWatchdog(60);
+		watchdogAudio.registrarLinha("size=     256kB time=00:00:10.00 bitrate= 209.7kbits/s speed=20x");
+		assertFalse(watchdogAudio.isTravado());
+	}
+	
+	@Test
+	public void diagnosticoContemUltimasLinhas() {
+		FFmpegWatchdog watchdog = new FFmpegWatchdog(10);
+		for (int i = 0; i < 100; i++) {
+			watchdog.registrarLinha("linha " + i);
+		}
+		String diagnostico = watchdog.getDiagnostico();
+		assertTrue(diagnostico.contains("linha 99"));
+		assertFalse(diagnostico.contains("linha 0\n"));
+	}
+}